@@ -53,8 +53,11 @@ CREATE TABLE `media_attributes` (
   `media_id` int NOT NULL,
   `attribute_id` int NOT NULL,
   `attribute_value` varchar(200) NOT NULL,
+  `date_value` date DEFAULT NULL,
+  `date_precision` enum('YEAR','MONTH','DAY') DEFAULT NULL,
   PRIMARY KEY (`media_id`,`attribute_id`),
   KEY `attribute_type_ref_idx` (`attribute_id`),
+  KEY `media_attribute_date_idx` (`attribute_id`,`date_value`),
   CONSTRAINT `attribute_type_ref` FOREIGN KEY (`attribute_id`) REFERENCES `media_attributes_types` (`attribute_id`) ON DELETE CASCADE ON UPDATE CASCADE,
   CONSTRAINT `media_attribute_ref` FOREIGN KEY (`media_id`) REFERENCES `media_details` (`media_id`) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
@@ -66,7 +69,7 @@ CREATE TABLE `media_attributes` (
 
 LOCK TABLES `media_attributes` WRITE;
 /*!40000 ALTER TABLE `media_attributes` DISABLE KEYS */;
-INSERT INTO `media_attributes` VALUES (1,2,'1975-02'),(1,3,'Halifax'),(1,4,'Dalhousie University'),(2,4,'Dalhousie University'),(3,2,'2000'),(3,4,'South Park St'),(4,2,'2000'),(4,4,'South Park St'),(7,2,'2021-07'),(7,3,'Mumbai'),(7,4,'Juhu Beach'),(8,4,'South Park St');
+INSERT INTO `media_attributes` VALUES (1,2,'1975-02','1975-02-01','MONTH'),(1,3,'Halifax',NULL,NULL),(1,4,'Dalhousie University',NULL,NULL),(2,4,'Dalhousie University',NULL,NULL),(3,2,'2000','2000-01-01','YEAR'),(3,4,'South Park St',NULL,NULL),(4,2,'2000','2000-01-01','YEAR'),(4,4,'South Park St',NULL,NULL),(7,2,'2021-07','2021-07-01','MONTH'),(7,3,'Mumbai',NULL,NULL),(7,4,'Juhu Beach',NULL,NULL),(8,4,'South Park St',NULL,NULL);
 /*!40000 ALTER TABLE `media_attributes` ENABLE KEYS */;
 UNLOCK TABLES;
 
@@ -210,8 +213,11 @@ CREATE TABLE `person_attributes` (
   `person_id` int NOT NULL,
   `attribute_id` int NOT NULL,
   `attribute_value` varchar(200) NOT NULL,
+  `date_value` date DEFAULT NULL,
+  `date_precision` enum('YEAR','MONTH','DAY') DEFAULT NULL,
   PRIMARY KEY (`person_id`,`attribute_id`),
   KEY `attribute_attribute_id_idx` (`attribute_id`),
+  KEY `person_attribute_date_idx` (`attribute_id`,`date_value`),
   CONSTRAINT `attribute_attribute_id` FOREIGN KEY (`attribute_id`) REFERENCES `person_attributes_types` (`attribute_id`) ON DELETE CASCADE ON UPDATE CASCADE,
   CONSTRAINT `person_person_id` FOREIGN KEY (`person_id`) REFERENCES `person_details` (`person_id`) ON DELETE CASCADE ON UPDATE CASCADE
 ) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
@@ -223,7 +229,7 @@ CREATE TABLE `person_attributes` (
 
 LOCK TABLES `person_attributes` WRITE;
 /*!40000 ALTER TABLE `person_attributes` DISABLE KEYS */;
-INSERT INTO `person_attributes` VALUES (2,1,'1930-11-01'),(2,3,'Soldier'),(4,1,'1790-01-01'),(4,2,'2019-01-01'),(4,3,'God of Mischief'),(10,1,'1975-02-23'),(10,2,'2019-08-31'),(10,3,'Spy'),(14,1,'1860-01-10'),(14,2,'1910-02-12'),(14,3,'Accountant'),(14,5,'Baltimore, USA'),(15,1,'1975-02-23'),(15,2,'2019-08-31'),(15,3,'Software Developer'),(15,10,'male'),(42,1,'1920-05-10'),(42,2,'1980-08-31'),(42,3,'Mechanical Engineer'),(42,10,'male');
+INSERT INTO `person_attributes` VALUES (2,1,'1930-11-01','1930-11-01','DAY'),(2,3,'Soldier',NULL,NULL),(4,1,'1790-01-01','1790-01-01','DAY'),(4,2,'2019-01-01','2019-01-01','DAY'),(4,3,'God of Mischief',NULL,NULL),(10,1,'1975-02-23','1975-02-23','DAY'),(10,2,'2019-08-31','2019-08-31','DAY'),(10,3,'Spy',NULL,NULL),(14,1,'1860-01-10','1860-01-10','DAY'),(14,2,'1910-02-12','1910-02-12','DAY'),(14,3,'Accountant',NULL,NULL),(14,5,'Baltimore, USA',NULL,NULL),(15,1,'1975-02-23','1975-02-23','DAY'),(15,2,'2019-08-31','2019-08-31','DAY'),(15,3,'Software Developer',NULL,NULL),(15,10,'male',NULL,NULL),(42,1,'1920-05-10','1920-05-10','DAY'),(42,2,'1980-08-31','1980-08-31','DAY'),(42,3,'Mechanical Engineer',NULL,NULL),(42,10,'male',NULL,NULL);
 /*!40000 ALTER TABLE `person_attributes` ENABLE KEYS */;
 UNLOCK TABLES;
 
@@ -262,7 +268,8 @@ DROP TABLE IF EXISTS `person_details`;
 CREATE TABLE `person_details` (
   `person_id` int NOT NULL AUTO_INCREMENT,
   `name` varchar(100) NOT NULL,
-  PRIMARY KEY (`person_id`)
+  PRIMARY KEY (`person_id`),
+  KEY `person_name_idx` (`name`)
 ) ENGINE=InnoDB AUTO_INCREMENT=1 DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
 /*!40101 SET character_set_client = @saved_cs_client */;
 
@@ -0,0 +1,16 @@
+--
+-- Optional ancestor closure table, used when Genealogy runs on new JdbcGenealogyStore(true).
+-- Holds one row per ancestor/descendant pair with the shortest distance in generations between them.
+-- Create it once, then fill it with: java pkg.AncestorClosureTool rebuild
+--
+
+CREATE TABLE IF NOT EXISTS `ancestor_closure` (
+  `ancestor_id` int NOT NULL,
+  `descendant_id` int NOT NULL,
+  `distance` int NOT NULL,
+  PRIMARY KEY (`ancestor_id`,`descendant_id`),
+  KEY `closure_descendant_idx` (`descendant_id`,`distance`),
+  KEY `closure_ancestor_distance_idx` (`ancestor_id`,`distance`),
+  CONSTRAINT `closure_ancestor_ref` FOREIGN KEY (`ancestor_id`) REFERENCES `person_details` (`person_id`) ON DELETE CASCADE ON UPDATE CASCADE,
+  CONSTRAINT `closure_descendant_ref` FOREIGN KEY (`descendant_id`) REFERENCES `person_details` (`person_id`) ON DELETE CASCADE ON UPDATE CASCADE
+) ENGINE=InnoDB DEFAULT CHARSET=utf8mb4 COLLATE=utf8mb4_0900_ai_ci;
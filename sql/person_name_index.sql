@@ -0,0 +1,6 @@
+--
+-- Index on person names for databases created before it was part of the schema.
+-- Lets findPerson look a name up instead of scanning person_details when the in-memory indexes are disabled.
+--
+
+ALTER TABLE `person_details` ADD INDEX `person_name_idx` (`name`);
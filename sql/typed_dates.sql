@@ -0,0 +1,44 @@
+--
+-- Typed date columns for databases created before they were part of the schema.
+-- Attributes whose type contains "date" keep their value as written (yyyy-MM-dd, yyyy-MM or yyyy) in attribute_value,
+-- and also the first day it covers in date_value with its precision, so that the media date range queries
+-- compare an indexed date instead of parsing every value. Run once; the application fills the columns on write.
+--
+
+ALTER TABLE `media_attributes`
+  ADD COLUMN `date_value` date DEFAULT NULL,
+  ADD COLUMN `date_precision` enum('YEAR','MONTH','DAY') DEFAULT NULL,
+  ADD INDEX `media_attribute_date_idx` (`attribute_id`,`date_value`);
+
+ALTER TABLE `person_attributes`
+  ADD COLUMN `date_value` date DEFAULT NULL,
+  ADD COLUMN `date_precision` enum('YEAR','MONTH','DAY') DEFAULT NULL,
+  ADD INDEX `person_attribute_date_idx` (`attribute_id`,`date_value`);
+
+-- backfill existing rows; values that are not valid dates are left without a date_value
+
+UPDATE `media_attributes` ma
+  INNER JOIN `media_attributes_types` mat ON ma.attribute_id=mat.attribute_id
+SET ma.date_value = CASE
+    WHEN ma.attribute_value REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}$' THEN STR_TO_DATE(ma.attribute_value, '%Y-%m-%d')
+    WHEN ma.attribute_value REGEXP '^[0-9]{4}-[0-9]{2}$' THEN STR_TO_DATE(CONCAT(ma.attribute_value, '-01'), '%Y-%m-%d')
+    WHEN ma.attribute_value REGEXP '^[0-9]{4}$' THEN STR_TO_DATE(CONCAT(ma.attribute_value, '-01-01'), '%Y-%m-%d')
+  END
+WHERE mat.attribute_type COLLATE utf8mb4_0900_as_cs LIKE '%date%';
+
+UPDATE `media_attributes`
+SET date_precision = CASE CHAR_LENGTH(attribute_value) WHEN 10 THEN 'DAY' WHEN 7 THEN 'MONTH' ELSE 'YEAR' END
+WHERE date_value IS NOT NULL;
+
+UPDATE `person_attributes` pa
+  INNER JOIN `person_attributes_types` pat ON pa.attribute_id=pat.attribute_id
+SET pa.date_value = CASE
+    WHEN pa.attribute_value REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}$' THEN STR_TO_DATE(pa.attribute_value, '%Y-%m-%d')
+    WHEN pa.attribute_value REGEXP '^[0-9]{4}-[0-9]{2}$' THEN STR_TO_DATE(CONCAT(pa.attribute_value, '-01'), '%Y-%m-%d')
+    WHEN pa.attribute_value REGEXP '^[0-9]{4}$' THEN STR_TO_DATE(CONCAT(pa.attribute_value, '-01-01'), '%Y-%m-%d')
+  END
+WHERE pat.attribute_type COLLATE utf8mb4_0900_as_cs LIKE '%date%';
+
+UPDATE `person_attributes`
+SET date_precision = CASE CHAR_LENGTH(attribute_value) WHEN 10 THEN 'DAY' WHEN 7 THEN 'MONTH' ELSE 'YEAR' END
+WHERE date_value IS NOT NULL;
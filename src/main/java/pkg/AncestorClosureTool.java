@@ -0,0 +1,166 @@
+package pkg;
+
+import java.sql.SQLException;
+import java.util.*;
+
+/**
+ * Command line tool for the optional ancestor_closure table.
+ *
+ * rebuild   - recompute ancestor_closure from parent_child, run once after creating the table
+ *             (sql/ancestor_closure.sql) and whenever parent_child was changed without the closure enabled
+ * benchmark - compare ancestors, descendents and findRelation on the recursive queries and on the closure
+ *             table, for pedigrees 10, 20 and 40 generations deep; it runs in a separate schema with the same
+             tables as the family tree database, which is dropped afterwards
+ */
+public class AncestorClosureTool {
+
+    static final String rebuildCommand = "rebuild";
+    static final String benchmarkCommand = "benchmark";
+    static final int[] BENCHMARK_DEPTHS = {10, 20, 40};
+    static final int BENCHMARK_ITERATIONS = 50;
+    static final String BENCHMARK_NAME_PREFIX = "closure-benchmark-";
+    static final String BENCHMARK_DATABASE = DBConnection.DATABASE + "_closure_benchmark";
+
+    public static void main(String[] args) {
+        try {
+            if(args.length==1 && args[0].equalsIgnoreCase(rebuildCommand)){
+                rebuild();
+            } else if(args.length==1 && args[0].equalsIgnoreCase(benchmarkCommand)){
+                benchmark();
+            } else {
+                System.out.println("Usage: AncestorClosureTool rebuild|benchmark");
+            }
+        } finally {
+            DBConnection.shutdown();
+        }
+    }
+
+    static void rebuild() {
+        long start = System.currentTimeMillis();
+        long rows = new JdbcGenealogyStore(true).rebuildAncestorClosure();
+        if(rows<0){
+            System.out.println("Failed to rebuild ancestor_closure, the table is unchanged");
+        } else {
+            System.out.println("Rebuilt ancestor_closure with " + rows + " rows in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    static void benchmark() {
+        if(!createBenchmarkDatabase()){
+            return;
+        }
+        DBConnection.useDatabase(BENCHMARK_DATABASE);
+        try {
+            runBenchmark();
+        } finally {
+            DBConnection.useDatabase(DBConnection.DATABASE);
+            dropBenchmarkDatabase();
+        }
+    }
+
+    private static void runBenchmark() {
+        JdbcGenealogyStore recursiveStore = new JdbcGenealogyStore(false);
+        JdbcGenealogyStore closureStore = new JdbcGenealogyStore(true);
+
+        System.out.println(String.format("%-6s %-14s %14s %14s", "depth", "query", "recursive ms", "closure ms"));
+        for(int depth : BENCHMARK_DEPTHS){
+            List<PersonIdentity[]> generations = buildPedigree(closureStore, depth);
+            if(generations==null){
+                System.out.println("Failed to create the benchmark pedigree");
+                return;
+            }
+            PersonIdentity founder = generations.get(0)[0];
+            PersonIdentity leaf1 = generations.get(depth)[0];
+            PersonIdentity leaf2 = generations.get(depth)[1];
+
+            report(depth, "ancestors",
+                    time(() -> recursiveStore.ancestors(leaf1, depth)),
+                    time(() -> closureStore.ancestors(leaf1, depth)));
+            report(depth, "descendents",
+                    time(() -> recursiveStore.descendents(founder, depth)),
+                    time(() -> closureStore.descendents(founder, depth)));
+            report(depth, "findRelation",
+                    time(() -> recursiveStore.findRelation(leaf1, founder)),
+                    time(() -> closureStore.findRelation(leaf1, founder)));
+            report(depth, "findRelation",
+                    time(() -> recursiveStore.findRelation(leaf1, leaf2)),
+                    time(() -> closureStore.findRelation(leaf1, leaf2)));
+
+            if(!ids(recursiveStore.ancestors(leaf1, depth)).equals(ids(closureStore.ancestors(leaf1, depth)))
+                    || !ids(recursiveStore.descendents(founder, depth)).equals(ids(closureStore.descendents(founder, depth)))){
+                System.out.println("Warning: recursive and closure queries returned different people at depth " + depth);
+            }
+        }
+    }
+
+    /**
+     * Create a pedigree where each generation has two people who are both children of the first person
+     * of the previous generation, so every person has one path to each of their generation ancestors.
+     * @return the people of each generation, null if they could not be stored
+     */
+    private static List<PersonIdentity[]> buildPedigree(GenealogyStore store, int depth) {
+        List<PersonIdentity[]> generations = new ArrayList<>();
+        try (GenealogyBatch batch = new GenealogyBatch(store, Integer.MAX_VALUE)) {
+            for(int generation=0; generation<=depth; generation++){
+                PersonIdentity[] people = {
+                        batch.addPerson(BENCHMARK_NAME_PREFIX + depth + "-" + generation + "a"),
+                        batch.addPerson(BENCHMARK_NAME_PREFIX + depth + "-" + generation + "b")};
+                if(generation>0){
+                    for(PersonIdentity child : people){
+                        batch.recordChild(generations.get(generation-1)[0], child);
+                    }
+                }
+                generations.add(people);
+            }
+            if(!batch.commit()){
+                return null;
+            }
+        }
+        return generations;
+    }
+
+    /**
+     * @return average milliseconds per call over BENCHMARK_ITERATIONS calls, after one warm-up call
+     */
+    private static double time(Runnable query) {
+        query.run();
+        long start = System.nanoTime();
+        for(int i=0;i<BENCHMARK_ITERATIONS;i++){
+            query.run();
+        }
+        return (System.nanoTime() - start) / 1e6 / BENCHMARK_ITERATIONS;
+    }
+
+    private static void report(int depth, String query, double recursiveMillis, double closureMillis) {
+        System.out.println(String.format("%-6d %-14s %14.3f %14.3f", depth, query, recursiveMillis, closureMillis));
+    }
+
+    private static Set<Integer> ids(Set<PersonIdentity> people) {
+        Set<Integer> ids = new HashSet<>();
+        if(people!=null){
+            for(PersonIdentity person : people){
+                ids.add(person.getPersonId());
+            }
+        }
+        return ids;
+    }
+
+    private static boolean createBenchmarkDatabase() {
+        try {
+            DBConnection.createDatabaseLike(BENCHMARK_DATABASE);
+            return true;
+        } catch (SQLException e) {
+            System.out.println("Failed to create the benchmark database " + BENCHMARK_DATABASE + ": " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static void dropBenchmarkDatabase() {
+        try {
+            DBConnection.dropDatabase(BENCHMARK_DATABASE);
+        } catch (SQLException e) {
+            System.out.println("Failed to drop the benchmark database " + BENCHMARK_DATABASE + ": " + e.getMessage());
+        }
+    }
+}
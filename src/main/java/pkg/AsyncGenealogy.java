@@ -0,0 +1,240 @@
+package pkg;
+
+import java.lang.reflect.Method;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Asynchronous facade over Genealogy. Every operation runs on an executor and returns a CompletableFuture,
+ * so a caller can start several queries at once and combine their results instead of blocking a thread on each.
+ * Validation errors and storage failures are reported the same way as by Genealogy, except that an
+ * IllegalArgumentException completes the future exceptionally instead of being thrown by the call.
+ *
+ * By default operations run on virtual threads when the Java runtime supports them (Java 21 and later),
+ * and otherwise on a fixed pool with one thread per pooled database connection.
+ * The number of concurrent database calls is bounded by the connection pool either way.
+ */
+public class AsyncGenealogy implements AutoCloseable {
+
+    private final Genealogy genealogy;
+    private final ExecutorService executor;
+    // only executors created here are shut down by close(), a caller's executor stays the caller's
+    private final boolean ownsExecutor;
+
+    /**
+     * Creates an async facade with the default executor, virtual threads where available.
+     * @param genealogy family tree the operations run against
+     */
+    public AsyncGenealogy(Genealogy genealogy) {
+        this(genealogy, defaultExecutor(), true);
+    }
+
+    /**
+     * Creates an async facade that runs operations on the given executor.
+     * The executor is not shut down by close().
+     * @param genealogy family tree the operations run against
+     * @param executor executor that runs the operations
+     */
+    public AsyncGenealogy(Genealogy genealogy, ExecutorService executor) {
+        this(genealogy, executor, false);
+    }
+
+    private AsyncGenealogy(Genealogy genealogy, ExecutorService executor, boolean ownsExecutor) {
+        if(genealogy==null){
+            throw new IllegalArgumentException("genealogy cannot be null");
+        }
+        if(executor==null){
+            throw new IllegalArgumentException("executor cannot be null");
+        }
+        this.genealogy = genealogy;
+        this.executor = executor;
+        this.ownsExecutor = ownsExecutor;
+    }
+
+    /**
+     * @return an executor that starts a virtual thread per task when the runtime supports virtual threads,
+     * otherwise a fixed pool of daemon threads as large as the default connection pool
+     */
+    static ExecutorService defaultExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return platformExecutor(DBConnection.DEFAULT_MAX_SIZE);
+        }
+    }
+
+    static ExecutorService platformExecutor(int threads) {
+        AtomicInteger threadNumber = new AtomicInteger();
+        return Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "async-genealogy-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    public Genealogy getGenealogy() {
+        return genealogy;
+    }
+
+    public CompletableFuture<PersonIdentity> addPerson(String name) {
+        return run(() -> genealogy.addPerson(name));
+    }
+
+    public CompletableFuture<Boolean> recordReference(PersonIdentity person, String reference) {
+        return run(() -> genealogy.recordReference(person, reference));
+    }
+
+    public CompletableFuture<Boolean> recordNote(PersonIdentity person, String note) {
+        return run(() -> genealogy.recordNote(person, note));
+    }
+
+    public CompletableFuture<PersonIdentity> findPerson(String name) {
+        return run(() -> genealogy.findPerson(name));
+    }
+
+    public CompletableFuture<List<PersonIdentity>> searchPeople(String text, NameMatch match, int limit) {
+        return run(() -> genealogy.searchPeople(text, match, limit));
+    }
+
+    public CompletableFuture<List<PersonIdentity>> findPersonsLike(String name, int maxDistance) {
+        return run(() -> genealogy.findPersonsLike(name, maxDistance));
+    }
+
+    public CompletableFuture<String> findName(PersonIdentity person) {
+        return run(() -> genealogy.findName(person));
+    }
+
+    public CompletableFuture<FileIdentifier> addMediaFile(String fileLocation) {
+        return run(() -> genealogy.addMediaFile(fileLocation));
+    }
+
+    public CompletableFuture<FileIdentifier> findMediaFile(String fileLocation) {
+        return run(() -> genealogy.findMediaFile(fileLocation));
+    }
+
+    public CompletableFuture<String> findFileLocation(FileIdentifier file) {
+        return run(() -> genealogy.findFileLocation(file));
+    }
+
+    public CompletableFuture<Boolean> peopleInMedia(FileIdentifier fileIdentifier, List<PersonIdentity> people) {
+        return run(() -> genealogy.peopleInMedia(fileIdentifier, people));
+    }
+
+    public CompletableFuture<Boolean> tagMedia(FileIdentifier fileIdentifier, String tag) {
+        return run(() -> genealogy.tagMedia(fileIdentifier, tag));
+    }
+
+    public CompletableFuture<Boolean> recordAttributes(PersonIdentity person, Map<String, String> attributes) {
+        return run(() -> genealogy.recordAttributes(person, attributes));
+    }
+
+    public CompletableFuture<Boolean> recordMediaAttributes(FileIdentifier fileIdentifier, Map<String, String> attributes) {
+        return run(() -> genealogy.recordMediaAttributes(fileIdentifier, attributes));
+    }
+
+    public CompletableFuture<List<PersonIdentity>> findPeopleByAttributes(List<AttributeFilter> filters) {
+        return run(() -> genealogy.findPeopleByAttributes(filters));
+    }
+
+    public CompletableFuture<Boolean> recordChild(PersonIdentity parent, PersonIdentity child) {
+        return run(() -> genealogy.recordChild(parent, child));
+    }
+
+    public CompletableFuture<Boolean> isAncestor(PersonIdentity ancestor, PersonIdentity descendant) {
+        return run(() -> genealogy.isAncestor(ancestor, descendant));
+    }
+
+    public CompletableFuture<Set<PersonIdentity>> descendents(PersonIdentity person, Integer generations) {
+        return run(() -> genealogy.descendents(person, generations));
+    }
+
+    public CompletableFuture<Set<PersonIdentity>> ancestors(PersonIdentity person, Integer generations) {
+        return run(() -> genealogy.ancestors(person, generations));
+    }
+
+    public CompletableFuture<BiologicalRelation> findRelation(PersonIdentity person1, PersonIdentity person2) {
+        return run(() -> genealogy.findRelation(person1, person2));
+    }
+
+    public CompletableFuture<RelationPath> findRelationPath(PersonIdentity person1, PersonIdentity person2) {
+        return run(() -> genealogy.findRelationPath(person1, person2));
+    }
+
+    public CompletableFuture<List<RelationPath>> findRelationPaths(List<PersonIdentity> people1, List<PersonIdentity> people2) {
+        return run(() -> genealogy.findRelationPaths(people1, people2));
+    }
+
+    public CompletableFuture<RelationMatrix> findRelations(Collection<PersonIdentity> people) {
+        return run(() -> genealogy.findRelations(people));
+    }
+
+    public CompletableFuture<Boolean> recordPartnering(PersonIdentity partner1, PersonIdentity partner2) {
+        return run(() -> genealogy.recordPartnering(partner1, partner2));
+    }
+
+    public CompletableFuture<Boolean> recordDissolution(PersonIdentity partner1, PersonIdentity partner2) {
+        return run(() -> genealogy.recordDissolution(partner1, partner2));
+    }
+
+    public CompletableFuture<List<String>> notesAndReferences(PersonIdentity person) {
+        return run(() -> genealogy.notesAndReferences(person));
+    }
+
+    public CompletableFuture<Set<FileIdentifier>> findMediaByTag(String tag, String startDate, String endDate) {
+        return run(() -> genealogy.findMediaByTag(tag, startDate, endDate));
+    }
+
+    public CompletableFuture<Set<FileIdentifier>> findMediaByTags(TagQuery query, String startDate, String endDate) {
+        return run(() -> genealogy.findMediaByTags(query, startDate, endDate));
+    }
+
+    public CompletableFuture<List<FileIdentifier>> findMediaNear(double latitude, double longitude, double radiusKm,
+                                                                 String startDate, String endDate) {
+        return run(() -> genealogy.findMediaNear(latitude, longitude, radiusKm, startDate, endDate));
+    }
+
+    public CompletableFuture<Set<FileIdentifier>> findMediaInBox(double south, double west, double north, double east,
+                                                                 String startDate, String endDate) {
+        return run(() -> genealogy.findMediaInBox(south, west, north, east, startDate, endDate));
+    }
+
+    public CompletableFuture<Set<FileIdentifier>> findMedia(MediaQuery query) {
+        return run(() -> genealogy.findMedia(query));
+    }
+
+    public CompletableFuture<MediaQueryPlan> explainMedia(MediaQuery query) {
+        return run(() -> genealogy.explainMedia(query));
+    }
+
+    public CompletableFuture<Set<FileIdentifier>> findMediaByLocation(String location, String startDate, String endDate) {
+        return run(() -> genealogy.findMediaByLocation(location, startDate, endDate));
+    }
+
+    public CompletableFuture<List<FileIdentifier>> findBiologicalFamilyMedia(PersonIdentity person) {
+        return run(() -> genealogy.findBiologicalFamilyMedia(person));
+    }
+
+    public CompletableFuture<List<FileIdentifier>> findIndividualsMedia(Set<PersonIdentity> people, String startDate, String endDate) {
+        return run(() -> genealogy.findIndividualsMedia(people, startDate, endDate));
+    }
+
+    /**
+     * Shut down the executor if it was created by this facade. Operations already started still complete.
+     */
+    @Override
+    public void close() {
+        if(ownsExecutor){
+            executor.shutdown();
+        }
+    }
+
+    private <T> CompletableFuture<T> run(Supplier<T> operation) {
+        return CompletableFuture.supplyAsync(operation, executor);
+    }
+}
@@ -0,0 +1,133 @@
+package pkg;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * One condition on a person attribute for Genealogy.findPeopleByAttributes, or on a media attribute for
+ * MediaQuery.attribute.
+ * Attribute types and text values compare case-insensitively, like the database collation.
+ * Attribute types containing "date" in any case hold dates in yyyy-MM-dd, yyyy-MM or yyyy format and are compared by
+ * their first day, so "1920" lies between "1919-06-01" and "1920-12-31"; other ranges compare whole numbers.
+ */
+public class AttributeFilter {
+
+    private static final Pattern WHOLE_NUMBER = Pattern.compile("-?\\d{1,18}");
+
+    private final String attributeType;
+    private final String value;
+    private final long from;
+    private final long to;
+
+    private AttributeFilter(String attributeType, String value, long from, long to) {
+        this.attributeType = attributeType;
+        this.value = value;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * People whose attribute has the given value, e.g. equalTo("occupation", "Soldier").
+     */
+    public static AttributeFilter equalTo(String attributeType, String value) {
+        validateType(attributeType);
+        if(value==null || value.trim().isEmpty()){
+            throw new IllegalArgumentException("attribute value cannot be null or empty");
+        }
+        return new AttributeFilter(attributeType, value, 0, 0);
+    }
+
+    /**
+     * People whose attribute lies in the range, bounds included, e.g. between("date of birth", "1900", "1950-06").
+     * @param from lower bound, null for no lower bound
+     * @param to upper bound, null for no upper bound
+     */
+    public static AttributeFilter between(String attributeType, String from, String to) {
+        validateType(attributeType);
+        if(from==null && to==null){
+            throw new IllegalArgumentException("a range needs at least one bound");
+        }
+        long lower = from==null ? Long.MIN_VALUE : bound(attributeType, from, false);
+        long upper = to==null ? Long.MAX_VALUE : bound(attributeType, to, true);
+        return new AttributeFilter(attributeType, null, lower, upper);
+    }
+
+    String getAttributeType() {
+        return attributeType;
+    }
+
+    /**
+     * @return the value to match, null for a range
+     */
+    String getValue() {
+        return value;
+    }
+
+    boolean isRange() {
+        return value==null;
+    }
+
+    /**
+     * @return the lower bound as a number: days since 1970-01-01 for dates
+     */
+    long getFrom() {
+        return from;
+    }
+
+    long getTo() {
+        return to;
+    }
+
+    /**
+     * @return true if the attribute type holds dates, which the stores validate on write
+     */
+    static boolean isDateType(String attributeType) {
+        return attributeType.toLowerCase(Locale.ROOT).contains("date");
+    }
+
+    /**
+     * @return the value as a number for range comparisons, null if it has none: the first day of a date,
+     * or a whole number for other attribute types
+     */
+    static Long numericValue(String attributeType, String value) {
+        if(isDateType(attributeType)){
+            PartialDate date = PartialDate.parse(value);
+            return date==null ? null : date.getFirstDay();
+        }
+        String trimmed = value.trim();
+        if(!WHOLE_NUMBER.matcher(trimmed).matches()){
+            return null;
+        }
+        return Long.parseLong(trimmed);
+    }
+
+    private static long bound(String attributeType, String text, boolean upper) {
+        if(isDateType(attributeType)){
+            PartialDate date = PartialDate.parse(text);
+            if(date==null){
+                throw new IllegalArgumentException("Invalid Date Format");
+            }
+            // an upper bound of "1950" includes the whole year
+            return upper ? date.getLastDay() : date.getFirstDay();
+        }
+        Long number = numericValue(attributeType, text);
+        if(number==null){
+            throw new IllegalArgumentException("range bounds must be whole numbers");
+        }
+        return number;
+    }
+
+    private static void validateType(String attributeType) {
+        if(attributeType==null || attributeType.trim().isEmpty()){
+            throw new IllegalArgumentException("attribute type cannot be null or empty");
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.AttributeFilter{" +
+                "attributeType='" + attributeType + '\'' +
+                (isRange() ? ", from=" + from + ", to=" + to : ", value='" + value + '\'') +
+                '}';
+    }
+}
@@ -0,0 +1,310 @@
+package pkg;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory secondary indexes over attributes, kept by Genealogy over person attributes for
+ * findPeopleByAttributes and by MediaIndex over media attributes for findMedia.
+ *
+ * Each attribute type has its own column: the current value of every person or media, a postings list of ids
+ * per value for equality, and a sorted map from typed value (days since 1970-01-01 for dates, the number
+ * itself otherwise) to postings for ranges. A query looks up each filter's sorted id list and intersects
+ * them smallest first. Once there are fewer candidates than a filter is estimated to match, the filter is
+ * checked against each candidate's value instead of collecting its postings.
+ */
+class AttributeIndex {
+
+    // below this many candidates, comparing each one's value is cheaper than intersecting postings
+    private static final int CHECK_CANDIDATES_BELOW = 1024;
+    private static final long NO_NUMBER = Long.MIN_VALUE;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Map<String, Column> columns = new HashMap<>();
+
+    AttributeIndex() {
+    }
+
+    /**
+     * Read the attributes of all people from the store.
+     * @return the index, null if the store could not be read
+     */
+    static AttributeIndex load(GenealogyStore store) {
+        AttributeIndex index = new AttributeIndex();
+        if(!Boolean.TRUE.equals(store.scanPersonAttributes(index::put))){
+            return null;
+        }
+        index.sort();
+        return index;
+    }
+
+    /**
+     * Add a value while bulk loading, followed by sort(). Not locked: the index is not shared yet.
+     */
+    void put(int id, String attributeType, String value) {
+        column(attributeType).put(id, value, false);
+    }
+
+    /**
+     * Sort every postings list after bulk loading.
+     */
+    void sort() {
+        // ids may be scanned in any order, so the postings were appended unsorted
+        for(Column column : columns.values()){
+            column.sort();
+        }
+    }
+
+    /**
+     * Record new values, replacing earlier values of the same attributes.
+     */
+    void recordAttributes(int id, Map<String, String> attributes) {
+        lock.writeLock().lock();
+        try {
+            for(Map.Entry<String, String> attribute : attributes.entrySet()){
+                column(attribute.getKey()).put(id, attribute.getValue(), true);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids of the people matching every filter, in increasing order
+     */
+    int[] find(List<AttributeFilter> filters) {
+        lock.readLock().lock();
+        try {
+            List<AttributeFilter> pending = new ArrayList<>(filters);
+            // equality postings are sized for free, so start with the smallest of them
+            pending.sort(Comparator.comparing(AttributeFilter::isRange).thenComparingInt(this::equalitySize));
+
+            int[] candidates = null;
+            for(AttributeFilter filter : pending){
+                Column column = columns.get(typeKey(filter.getAttributeType()));
+                if(column==null){
+                    return new int[0];
+                }
+                if(candidates!=null && candidates.length<column.estimate(filter)){
+                    candidates = column.check(candidates, filter);
+                } else {
+                    int[] matching = column.find(filter);
+                    candidates = candidates==null ? matching : Postings.intersect(candidates, matching);
+                }
+                if(candidates.length==0){
+                    break;
+                }
+            }
+            return candidates==null ? new int[0] : candidates;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return ids matching the filter, in increasing order
+     */
+    int[] find(AttributeFilter filter) {
+        lock.readLock().lock();
+        try {
+            Column column = columns.get(typeKey(filter.getAttributeType()));
+            return column==null ? new int[0] : column.find(filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the candidates matching the filter, in the same order
+     */
+    int[] check(int[] candidates, AttributeFilter filter) {
+        lock.readLock().lock();
+        try {
+            Column column = columns.get(typeKey(filter.getAttributeType()));
+            return column==null ? new int[0] : column.check(candidates, filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return how many ids match an equality filter, or roughly how many match a range
+     */
+    long estimate(AttributeFilter filter) {
+        lock.readLock().lock();
+        try {
+            Column column = columns.get(typeKey(filter.getAttributeType()));
+            if(column==null){
+                return 0;
+            }
+            return filter.isRange() ? column.estimate(filter) : equalitySize(filter);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private int equalitySize(AttributeFilter filter) {
+        if(filter.isRange()){
+            return Integer.MAX_VALUE;
+        }
+        Column column = columns.get(typeKey(filter.getAttributeType()));
+        Postings postings = column==null ? null : column.byText.get(valueKey(filter.getValue()));
+        return postings==null ? 0 : postings.size();
+    }
+
+    private Column column(String attributeType) {
+        return columns.computeIfAbsent(typeKey(attributeType), unused -> new Column(attributeType));
+    }
+
+    /**
+     * Attribute types and values compare case-insensitively, like the database collation.
+     */
+    private static String typeKey(String attributeType) {
+        return attributeType.toLowerCase(Locale.ROOT);
+    }
+
+    private static String valueKey(String value) {
+        return value.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * The values of one attribute type.
+     */
+    private static class Column {
+        final String attributeType;
+        String[] values = new String[16];
+        // typed value of every id for checking candidates, NO_NUMBER if the value is not a date or number
+        long[] numbers = new long[16];
+        int numberCount = 0;
+        final Map<String, Postings> byText = new HashMap<>();
+        final TreeMap<Long, Postings> byNumber = new TreeMap<>();
+
+        Column(String attributeType) {
+            this.attributeType = attributeType;
+            Arrays.fill(numbers, NO_NUMBER);
+        }
+
+        void put(int id, String value, boolean sorted) {
+            if(id>=values.length){
+                int capacity = Math.max(id + 1, values.length * 2);
+                values = Arrays.copyOf(values, capacity);
+                int oldCapacity = numbers.length;
+                numbers = Arrays.copyOf(numbers, capacity);
+                Arrays.fill(numbers, oldCapacity, capacity, NO_NUMBER);
+            }
+            String previous = values[id];
+            if(previous!=null){
+                remove(byText, valueKey(previous), id, sorted);
+                if(numbers[id]!=NO_NUMBER){
+                    remove(byNumber, numbers[id], id, sorted);
+                    numberCount--;
+                }
+            }
+            values[id] = value;
+            post(byText, valueKey(value), id, sorted);
+            Long number = AttributeFilter.numericValue(attributeType, value);
+            numbers[id] = number==null ? NO_NUMBER : number;
+            if(number!=null){
+                post(byNumber, number, id, sorted);
+                numberCount++;
+            }
+        }
+
+        void sort() {
+            for(Postings postings : byText.values()){
+                postings.sort();
+            }
+            for(Postings postings : byNumber.values()){
+                postings.sort();
+            }
+        }
+
+        /**
+         * @return ids matching the filter, in increasing order
+         */
+        int[] find(AttributeFilter filter) {
+            if(!filter.isRange()){
+                Postings postings = byText.get(valueKey(filter.getValue()));
+                return postings==null ? new int[0] : postings.toArray();
+            }
+            if(filter.getFrom()>filter.getTo()){
+                return new int[0];
+            }
+            Collection<Postings> inRange = byNumber.subMap(filter.getFrom(), true, filter.getTo(), true).values();
+            if(inRange.size()==1){
+                return inRange.iterator().next().toArray();
+            }
+            BitSet matching = new BitSet(values.length);
+            for(Postings postings : inRange){
+                postings.addTo(matching);
+            }
+            return matching.stream().toArray();
+        }
+
+        /**
+         * @return roughly how many ids match the filter, assuming typed values spread evenly over their range
+         */
+        long estimate(AttributeFilter filter) {
+            if(!filter.isRange()){
+                Postings postings = byText.get(valueKey(filter.getValue()));
+                return postings==null ? 0 : Math.min(postings.size(), CHECK_CANDIDATES_BELOW);
+            }
+            if(byNumber.isEmpty()){
+                return 0;
+            }
+            double lowest = byNumber.firstKey();
+            double highest = byNumber.lastKey();
+            double from = Math.max(lowest, filter.getFrom());
+            double to = Math.min(highest, filter.getTo());
+            if(from>to){
+                return 0;
+            }
+            return highest==lowest ? numberCount : (long) (numberCount * ((to - from + 1) / (highest - lowest + 1)));
+        }
+
+        /**
+         * @return the candidates whose value matches the filter, in the same order
+         */
+        int[] check(int[] candidates, AttributeFilter filter) {
+            int count = 0;
+            int[] matching = new int[candidates.length];
+            for(int id : candidates){
+                if(id<values.length && values[id]!=null && matches(id, filter)){
+                    matching[count++] = id;
+                }
+            }
+            return Arrays.copyOf(matching, count);
+        }
+
+        private boolean matches(int id, AttributeFilter filter) {
+            if(!filter.isRange()){
+                return valueKey(values[id]).equals(valueKey(filter.getValue()));
+            }
+            long number = numbers[id];
+            return number!=NO_NUMBER && number>=filter.getFrom() && number<=filter.getTo();
+        }
+
+        private static <K> void post(Map<K, Postings> index, K key, int id, boolean sorted) {
+            Postings postings = index.computeIfAbsent(key, unused -> new Postings());
+            if(sorted){
+                postings.add(id);
+            } else {
+                postings.append(id);
+            }
+        }
+
+        private static <K> void remove(Map<K, Postings> index, K key, int id, boolean sorted) {
+            Postings postings = index.get(key);
+            if(postings==null){
+                return;
+            }
+            if(!sorted){
+                // a value replaced while loading, e.g. under two spellings of the attribute type
+                postings.sort();
+            }
+            if(postings.remove(id) && postings.size()==0){
+                index.remove(key);
+            }
+        }
+    }
+}
@@ -0,0 +1,108 @@
+package pkg;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A single family tree edit queued in a GenealogyBatch.
+ * People added in the same batch are represented by PersonIdentity objects whose id is 0
+ * until the store assigns the generated id while applying the batch.
+ */
+public class BatchOperation {
+
+    public enum Type {
+        ADD_PERSON,
+        RECORD_ATTRIBUTES,
+        RECORD_NOTE,
+        RECORD_REFERENCE,
+        RECORD_CHILD,
+        RECORD_PARTNERING,
+        RECORD_DISSOLUTION
+    }
+
+    private final Type type;
+    private final PersonIdentity person;
+    private final PersonIdentity otherPerson;
+    private final String text;
+    private final Map<String, String> attributes;
+
+    private BatchOperation(Type type, PersonIdentity person, PersonIdentity otherPerson, String text,
+                           Map<String, String> attributes) {
+        this.type = type;
+        this.person = person;
+        this.otherPerson = otherPerson;
+        this.text = text;
+        this.attributes = attributes;
+    }
+
+    static BatchOperation addPerson(PersonIdentity person) {
+        return new BatchOperation(Type.ADD_PERSON, person, null, person.getName(), null);
+    }
+
+    static BatchOperation recordAttributes(PersonIdentity person, Map<String, String> attributes) {
+        return new BatchOperation(Type.RECORD_ATTRIBUTES, person, null, null,
+                Collections.unmodifiableMap(new LinkedHashMap<>(attributes)));
+    }
+
+    static BatchOperation recordNote(PersonIdentity person, String note) {
+        return new BatchOperation(Type.RECORD_NOTE, person, null, note, null);
+    }
+
+    static BatchOperation recordReference(PersonIdentity person, String reference) {
+        return new BatchOperation(Type.RECORD_REFERENCE, person, null, reference, null);
+    }
+
+    static BatchOperation recordChild(PersonIdentity parent, PersonIdentity child) {
+        return new BatchOperation(Type.RECORD_CHILD, parent, child, null, null);
+    }
+
+    static BatchOperation recordPartnering(PersonIdentity partner1, PersonIdentity partner2) {
+        return new BatchOperation(Type.RECORD_PARTNERING, partner1, partner2, null, null);
+    }
+
+    static BatchOperation recordDissolution(PersonIdentity partner1, PersonIdentity partner2) {
+        return new BatchOperation(Type.RECORD_DISSOLUTION, partner1, partner2, null, null);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return the person the operation applies to, the parent for RECORD_CHILD
+     */
+    public PersonIdentity getPerson() {
+        return person;
+    }
+
+    /**
+     * @return the child for RECORD_CHILD, the second partner for partnering events, null otherwise
+     */
+    public PersonIdentity getOtherPerson() {
+        return otherPerson;
+    }
+
+    /**
+     * @return the name, note or reference text, null for other operations
+     */
+    public String getText() {
+        return text;
+    }
+
+    /**
+     * @return the attributes for RECORD_ATTRIBUTES, null otherwise
+     */
+    public Map<String, String> getAttributes() {
+        return attributes;
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.BatchOperation{" +
+                "type=" + type +
+                ", person=" + person +
+                ", otherPerson=" + otherPerson +
+                '}';
+    }
+}
@@ -0,0 +1,122 @@
+package pkg;
+
+import java.util.Arrays;
+
+/**
+ * Burkhard-Keller tree of distinct words for bounded edit distance search.
+ *
+ * Every child hangs below its parent under its edit distance from the parent's word. By the triangle
+ * inequality a word within maxDistance of the query can only be below a child whose distance is within
+ * maxDistance of the query's distance to the parent, so a search skips all other subtrees.
+ * Words are kept in one tree per length, and a search only visits the trees of lengths within maxDistance
+ * of the query's, since every edit changes the length by at most one.
+ */
+class BkTree {
+
+    /**
+     * Receives the words found by a search.
+     */
+    interface WordVisitor {
+        void visit(String word, int distance);
+    }
+
+    private Node[] roots = new Node[32];
+    private int size;
+
+    /**
+     * @return true if the word was not in the tree yet
+     */
+    boolean add(String word) {
+        if(word.length()>=roots.length){
+            roots = Arrays.copyOf(roots, Math.max(word.length() + 1, roots.length * 2));
+        }
+        if(roots[word.length()]==null){
+            roots[word.length()] = new Node(word);
+            size++;
+            return true;
+        }
+        int[][] rows = new int[2][word.length() + 1];
+        Node node = roots[word.length()];
+        while (true) {
+            int distance = Phonetics.editDistance(word, node.word, rows);
+            if(distance==0){
+                return false;
+            }
+            Node child = node.child(distance);
+            if(child==null){
+                node.addChild(distance, new Node(word));
+                size++;
+                return true;
+            }
+            node = child;
+        }
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Visit every word within maxDistance edits of the query.
+     */
+    void search(String query, int maxDistance, WordVisitor visitor) {
+        int shortest = Math.max(0, query.length() - maxDistance);
+        int longest = Math.min(roots.length - 1, query.length() + maxDistance);
+        int[][] rows = new int[2][longest + 1];
+        Node[] stack = new Node[64];
+        int stackSize = 0;
+        for(int length=shortest;length<=longest;length++){
+            if(roots[length]!=null){
+                if(stackSize==stack.length){
+                    stack = Arrays.copyOf(stack, stackSize * 2);
+                }
+                stack[stackSize++] = roots[length];
+            }
+        }
+        while (stackSize>0) {
+            Node node = stack[--stackSize];
+            int distance = Phonetics.editDistance(query, node.word, rows);
+            if(distance<=maxDistance){
+                visitor.visit(node.word, distance);
+            }
+            for(int i=0;i<node.childCount;i++){
+                if(Math.abs(node.distances[i] - distance)<=maxDistance){
+                    if(stackSize==stack.length){
+                        stack = Arrays.copyOf(stack, stackSize * 2);
+                    }
+                    stack[stackSize++] = node.children[i];
+                }
+            }
+        }
+    }
+
+    private static class Node {
+        final String word;
+        int[] distances = new int[0];
+        Node[] children = new Node[0];
+        int childCount;
+
+        Node(String word) {
+            this.word = word;
+        }
+
+        Node child(int distance) {
+            for(int i=0;i<childCount;i++){
+                if(distances[i]==distance){
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        void addChild(int distance, Node child) {
+            if(childCount==children.length){
+                int capacity = Math.max(2, childCount * 2);
+                distances = Arrays.copyOf(distances, capacity);
+                children = Arrays.copyOf(children, capacity);
+            }
+            distances[childCount] = distance;
+            children[childCount++] = child;
+        }
+    }
+}
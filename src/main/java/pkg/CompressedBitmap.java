@@ -0,0 +1,390 @@
+package pkg;
+
+import java.util.Arrays;
+
+/**
+ * Set of non-negative ints compressed the way Roaring bitmaps are: values are grouped by their high 16 bits
+ * into chunks of 65536, and each chunk is a sorted array of its low 16 bits while it holds at most 4096 values
+ * and a 1024-word bitmap once it holds more. Sparse sets cost two bytes per value, dense ones one bit, and
+ * AND, OR and AND NOT combine chunk by chunk with merges or word operations.
+ * Not thread safe; MediaIndex guards its bitmaps with its own lock.
+ */
+class CompressedBitmap {
+
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1 << 10;
+
+    private char[] keys = new char[4];
+    private Chunk[] chunks = new Chunk[4];
+    private int size;
+
+    /**
+     * The values of one 65536 range, as a sorted array of low bits or as a bitmap.
+     */
+    private static final class Chunk {
+        char[] values;
+        long[] words;
+        int cardinality;
+
+        static Chunk array(char[] values, int cardinality) {
+            Chunk chunk = new Chunk();
+            chunk.values = values;
+            chunk.cardinality = cardinality;
+            return chunk;
+        }
+
+        static Chunk bitmap(long[] words, int cardinality) {
+            Chunk chunk = new Chunk();
+            chunk.words = words;
+            chunk.cardinality = cardinality;
+            return chunk;
+        }
+
+        /**
+         * @return the chunk for the words, as an array if it is small enough; null if it is empty
+         */
+        static Chunk fromWords(long[] words) {
+            int cardinality = 0;
+            for(long word : words){
+                cardinality += Long.bitCount(word);
+            }
+            if(cardinality==0){
+                return null;
+            }
+            if(cardinality>ARRAY_LIMIT){
+                return bitmap(words, cardinality);
+            }
+            char[] values = new char[cardinality];
+            int count = 0;
+            for(int i=0;i<words.length;i++){
+                long word = words[i];
+                while (word!=0) {
+                    values[count++] = (char) ((i << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return array(values, cardinality);
+        }
+
+        boolean contains(char low) {
+            if(words!=null){
+                return (words[low >>> 6] & (1L << low))!=0;
+            }
+            return Arrays.binarySearch(values, 0, cardinality, low)>=0;
+        }
+
+        /**
+         * @return false if the value was already present
+         */
+        boolean add(char low) {
+            if(words!=null){
+                long bit = 1L << low;
+                if((words[low >>> 6] & bit)!=0){
+                    return false;
+                }
+                words[low >>> 6] |= bit;
+                cardinality++;
+                return true;
+            }
+            int position = Arrays.binarySearch(values, 0, cardinality, low);
+            if(position>=0){
+                return false;
+            }
+            position = -position - 1;
+            if(cardinality==ARRAY_LIMIT){
+                words = toWords();
+                values = null;
+                words[low >>> 6] |= 1L << low;
+                cardinality++;
+                return true;
+            }
+            if(cardinality==values.length){
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, cardinality * 2)));
+            }
+            System.arraycopy(values, position, values, position + 1, cardinality - position);
+            values[position] = low;
+            cardinality++;
+            return true;
+        }
+
+        long[] toWords() {
+            if(words!=null){
+                return words.clone();
+            }
+            long[] bits = new long[BITMAP_WORDS];
+            for(int i=0;i<cardinality;i++){
+                bits[values[i] >>> 6] |= 1L << values[i];
+            }
+            return bits;
+        }
+
+        Chunk copy() {
+            return words!=null ? bitmap(words.clone(), cardinality) : array(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        static Chunk and(Chunk first, Chunk second) {
+            if(first.words!=null && second.words!=null){
+                long[] bits = new long[BITMAP_WORDS];
+                for(int i=0;i<BITMAP_WORDS;i++){
+                    bits[i] = first.words[i] & second.words[i];
+                }
+                return fromWords(bits);
+            }
+            if(first.words!=null){
+                return and(second, first);
+            }
+            char[] result = new char[first.cardinality];
+            int count = 0;
+            if(second.words!=null){
+                for(int i=0;i<first.cardinality;i++){
+                    if(second.contains(first.values[i])){
+                        result[count++] = first.values[i];
+                    }
+                }
+            } else {
+                int i = 0;
+                int j = 0;
+                while (i<first.cardinality && j<second.cardinality) {
+                    if(first.values[i]<second.values[j]){
+                        i++;
+                    } else if(first.values[i]>second.values[j]){
+                        j++;
+                    } else {
+                        result[count++] = first.values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return count==0 ? null : array(result, count);
+        }
+
+        static Chunk or(Chunk first, Chunk second) {
+            if(first.words!=null || second.words!=null || first.cardinality + second.cardinality>ARRAY_LIMIT){
+                long[] bits = first.toWords();
+                if(second.words!=null){
+                    for(int i=0;i<BITMAP_WORDS;i++){
+                        bits[i] |= second.words[i];
+                    }
+                } else {
+                    for(int i=0;i<second.cardinality;i++){
+                        bits[second.values[i] >>> 6] |= 1L << second.values[i];
+                    }
+                }
+                return fromWords(bits);
+            }
+            char[] result = new char[first.cardinality + second.cardinality];
+            int count = 0;
+            int i = 0;
+            int j = 0;
+            while (i<first.cardinality || j<second.cardinality) {
+                if(j==second.cardinality || (i<first.cardinality && first.values[i]<second.values[j])){
+                    result[count++] = first.values[i++];
+                } else if(i==first.cardinality || second.values[j]<first.values[i]){
+                    result[count++] = second.values[j++];
+                } else {
+                    result[count++] = first.values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return array(result, count);
+        }
+
+        static Chunk andNot(Chunk first, Chunk second) {
+            if(first.words!=null){
+                long[] bits = first.words.clone();
+                if(second.words!=null){
+                    for(int i=0;i<BITMAP_WORDS;i++){
+                        bits[i] &= ~second.words[i];
+                    }
+                } else {
+                    for(int i=0;i<second.cardinality;i++){
+                        bits[second.values[i] >>> 6] &= ~(1L << second.values[i]);
+                    }
+                }
+                return fromWords(bits);
+            }
+            char[] result = new char[first.cardinality];
+            int count = 0;
+            for(int i=0;i<first.cardinality;i++){
+                if(!second.contains(first.values[i])){
+                    result[count++] = first.values[i];
+                }
+            }
+            return count==0 ? null : array(result, count);
+        }
+    }
+
+    void add(int value) {
+        char high = (char) (value >>> 16);
+        int position = find(high);
+        if(position<0){
+            position = -position - 1;
+            if(size==keys.length){
+                keys = Arrays.copyOf(keys, size * 2);
+                chunks = Arrays.copyOf(chunks, size * 2);
+            }
+            System.arraycopy(keys, position, keys, position + 1, size - position);
+            System.arraycopy(chunks, position, chunks, position + 1, size - position);
+            keys[position] = high;
+            chunks[position] = Chunk.array(new char[4], 0);
+            size++;
+        }
+        chunks[position].add((char) value);
+    }
+
+    boolean contains(int value) {
+        int position = find((char) (value >>> 16));
+        return position>=0 && chunks[position].contains((char) value);
+    }
+
+    /**
+     * @return the number of values
+     */
+    int cardinality() {
+        int cardinality = 0;
+        for(int i=0;i<size;i++){
+            cardinality += chunks[i].cardinality;
+        }
+        return cardinality;
+    }
+
+    boolean isEmpty() {
+        return size==0;
+    }
+
+    /**
+     * @return the values in increasing order
+     */
+    int[] toArray() {
+        int[] result = new int[cardinality()];
+        int count = 0;
+        for(int c=0;c<size;c++){
+            int high = keys[c] << 16;
+            Chunk chunk = chunks[c];
+            if(chunk.words!=null){
+                for(int i=0;i<BITMAP_WORDS;i++){
+                    long word = chunk.words[i];
+                    while (word!=0) {
+                        result[count++] = high | ((i << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for(int i=0;i<chunk.cardinality;i++){
+                    result[count++] = high | chunk.values[i];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the values of the given sorted ids that are in this set, in the same order
+     */
+    int[] filter(int[] sortedIds) {
+        int[] result = new int[sortedIds.length];
+        int count = 0;
+        for(int id : sortedIds){
+            if(contains(id)){
+                result[count++] = id;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    CompressedBitmap copy() {
+        CompressedBitmap copy = new CompressedBitmap();
+        copy.keys = Arrays.copyOf(keys, Math.max(4, size));
+        copy.chunks = new Chunk[copy.keys.length];
+        for(int i=0;i<size;i++){
+            copy.chunks[i] = chunks[i].copy();
+        }
+        copy.size = size;
+        return copy;
+    }
+
+    /**
+     * @return the values in both sets
+     */
+    static CompressedBitmap and(CompressedBitmap first, CompressedBitmap second) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i<first.size && j<second.size) {
+            if(first.keys[i]<second.keys[j]){
+                i++;
+            } else if(first.keys[i]>second.keys[j]){
+                j++;
+            } else {
+                result.append(first.keys[i], Chunk.and(first.chunks[i], second.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the values in either set
+     */
+    static CompressedBitmap or(CompressedBitmap first, CompressedBitmap second) {
+        CompressedBitmap result = new CompressedBitmap();
+        int i = 0;
+        int j = 0;
+        while (i<first.size || j<second.size) {
+            if(j==second.size || (i<first.size && first.keys[i]<second.keys[j])){
+                result.append(first.keys[i], first.chunks[i].copy());
+                i++;
+            } else if(i==first.size || second.keys[j]<first.keys[i]){
+                result.append(second.keys[j], second.chunks[j].copy());
+                j++;
+            } else {
+                result.append(first.keys[i], Chunk.or(first.chunks[i], second.chunks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the values in the first set but not in the second
+     */
+    static CompressedBitmap andNot(CompressedBitmap first, CompressedBitmap second) {
+        CompressedBitmap result = new CompressedBitmap();
+        int j = 0;
+        for(int i=0;i<first.size;i++){
+            while (j<second.size && second.keys[j]<first.keys[i]) {
+                j++;
+            }
+            if(j<second.size && second.keys[j]==first.keys[i]){
+                result.append(first.keys[i], Chunk.andNot(first.chunks[i], second.chunks[j]));
+            } else {
+                result.append(first.keys[i], first.chunks[i].copy());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Add a chunk after all existing ones, skipping empty results.
+     */
+    private void append(char high, Chunk chunk) {
+        if(chunk==null || chunk.cardinality==0){
+            return;
+        }
+        if(size==keys.length){
+            keys = Arrays.copyOf(keys, size * 2);
+            chunks = Arrays.copyOf(chunks, size * 2);
+        }
+        keys[size] = high;
+        chunks[size] = chunk;
+        size++;
+    }
+
+    private int find(char high) {
+        return Arrays.binarySearch(keys, 0, size, high);
+    }
+}
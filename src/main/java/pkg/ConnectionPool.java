@@ -0,0 +1,756 @@
+package pkg;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Bounded pool of JDBC connections handed out by DBConnection.
+ * Callers receive a logical connection whose close() returns the physical connection to the pool
+ * instead of closing it, so existing code that closes connections in a finally block keeps working.
+ * The pool keeps at least minIdle connections open, never opens more than maxSize, evicts connections
+ * that stay idle longer than idleTimeoutMillis, validates connections before handing them out and, when
+ * leakDetectionThresholdMillis is set, counts connections held longer than that in getLeakCount() and logs
+ * where they were borrowed as a warning.
+ * Each physical connection also keeps a bounded cache of prepared statements keyed by SQL text, so the
+ * fixed queries used by Genealogy are prepared once per connection instead of once per call.
+ */
+public class ConnectionPool {
+
+    static final long HOUSEKEEPING_INTERVAL_MILLIS = 30000;
+    static final long VALIDATION_INTERVAL_MILLIS = 500;
+    static final int VALIDATION_TIMEOUT_SECONDS = 2;
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = 64;
+
+    private static final Logger LOGGER = Logger.getLogger(ConnectionPool.class.getName());
+
+    private final String url;
+    private final String username;
+    private final String password;
+    private final int minIdle;
+    private final int maxSize;
+    private final long maxWaitMillis;
+    private final long idleTimeoutMillis;
+    private final long leakDetectionThresholdMillis;
+    private final int statementCacheSize;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition connectionAvailable = lock.newCondition();
+    private final Deque<PooledConnection> idleConnections = new ArrayDeque<>();
+    private final Set<PooledConnection> borrowedConnections = new HashSet<>();
+    private final ScheduledExecutorService housekeeper;
+    private int totalConnections = 0;
+    private boolean shutdown = false;
+
+    private long borrowCount = 0;
+    private long totalWaitNanos = 0;
+    private long maxWaitNanos = 0;
+    private long timeoutCount = 0;
+    private long validationFailureCount = 0;
+    private long leakCount = 0;
+    private final AtomicLong statementCacheHits = new AtomicLong();
+    private final AtomicLong statementCacheMisses = new AtomicLong();
+
+    /**
+     * Creates a pool for the given database and opens minIdle connections in the background.
+     * @param url JDBC database URL
+     * @param username the username for access to the database
+     * @param password the password for access to the database
+     * @param minIdle number of connections kept open even when unused
+     * @param maxSize maximum number of connections open at any time
+     * @param maxWaitMillis how long getConnection() waits for a free connection before failing
+     * @param idleTimeoutMillis how long a connection above minIdle may stay unused before it is closed
+     * @param leakDetectionThresholdMillis how long a connection may be held before it is reported, 0 disables reporting
+     *                                     and the borrow stack traces it needs
+     */
+    public ConnectionPool(String url, String username, String password, int minIdle, int maxSize,
+                          long maxWaitMillis, long idleTimeoutMillis, long leakDetectionThresholdMillis) {
+        this(url, username, password, minIdle, maxSize, maxWaitMillis, idleTimeoutMillis,
+                leakDetectionThresholdMillis, DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a pool for the given database and opens minIdle connections in the background.
+     * @param url JDBC database URL
+     * @param username the username for access to the database
+     * @param password the password for access to the database
+     * @param minIdle number of connections kept open even when unused
+     * @param maxSize maximum number of connections open at any time
+     * @param maxWaitMillis how long getConnection() waits for a free connection before failing
+     * @param idleTimeoutMillis how long a connection above minIdle may stay unused before it is closed
+     * @param leakDetectionThresholdMillis how long a connection may be held before it is reported, 0 disables reporting
+     *                                     and the borrow stack traces it needs
+     * @param statementCacheSize number of prepared statements cached per connection, 0 disables caching
+     */
+    public ConnectionPool(String url, String username, String password, int minIdle, int maxSize,
+                          long maxWaitMillis, long idleTimeoutMillis, long leakDetectionThresholdMillis,
+                          int statementCacheSize) {
+        if(url==null || url.trim().isEmpty()){
+            throw new IllegalArgumentException("url cannot be empty");
+        }
+        if(maxSize<1){
+            throw new IllegalArgumentException("maximum pool size must be at least 1");
+        }
+        if(minIdle<0 || minIdle>maxSize){
+            throw new IllegalArgumentException("minimum idle connections must be between 0 and the maximum pool size");
+        }
+        if(maxWaitMillis<0 || idleTimeoutMillis<0 || leakDetectionThresholdMillis<0){
+            throw new IllegalArgumentException("timeouts cannot be negative");
+        }
+        if(statementCacheSize<0){
+            throw new IllegalArgumentException("statement cache size cannot be negative");
+        }
+        this.url = url;
+        this.username = username;
+        this.password = password;
+        this.minIdle = minIdle;
+        this.maxSize = maxSize;
+        this.maxWaitMillis = maxWaitMillis;
+        this.idleTimeoutMillis = idleTimeoutMillis;
+        this.leakDetectionThresholdMillis = leakDetectionThresholdMillis;
+        this.statementCacheSize = statementCacheSize;
+
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "connection-pool-housekeeper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.execute(this::fillToMinIdle);
+        housekeeper.scheduleWithFixedDelay(this::housekeep, HOUSEKEEPING_INTERVAL_MILLIS,
+                HOUSEKEEPING_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows a connection from the pool, opening a new one if the pool is not yet full
+     * and waiting up to maxWaitMillis otherwise.
+     * @return logical connection that returns itself to the pool when closed
+     * @throws SQLException if no connection became available in time or a new connection could not be opened
+     */
+    public Connection getConnection() throws SQLException {
+        long waitStart = System.nanoTime();
+        long deadline = waitStart + TimeUnit.MILLISECONDS.toNanos(maxWaitMillis);
+
+        while (true) {
+            PooledConnection pooled = null;
+            boolean createNew = false;
+
+            lock.lock();
+            try {
+                while (pooled == null && !createNew) {
+                    if(shutdown){
+                        throw new SQLException("Connection pool has been shut down");
+                    }
+                    if(!idleConnections.isEmpty()){
+                        pooled = idleConnections.pollFirst();
+                    } else if(totalConnections<maxSize){
+                        totalConnections++;
+                        createNew = true;
+                    } else {
+                        long remaining = deadline - System.nanoTime();
+                        if(remaining<=0){
+                            timeoutCount++;
+                            throw new SQLException("Timed out after " + maxWaitMillis
+                                    + " ms waiting for a database connection");
+                        }
+                        try {
+                            connectionAvailable.awaitNanos(remaining);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new SQLException("Interrupted while waiting for a database connection", e);
+                        }
+                    }
+                }
+            } finally {
+                lock.unlock();
+            }
+
+            if(createNew){
+                try {
+                    pooled = new PooledConnection(openPhysicalConnection());
+                } catch (SQLException e) {
+                    discard(null);
+                    throw e;
+                }
+            } else if(!isValid(pooled)){
+                lock.lock();
+                try {
+                    validationFailureCount++;
+                } finally {
+                    lock.unlock();
+                }
+                discard(pooled);
+                continue;
+            }
+
+            return checkOut(pooled, System.nanoTime() - waitStart);
+        }
+    }
+
+    /**
+     * Closes all idle connections and stops handing out new ones.
+     * Borrowed connections are closed when they are returned.
+     */
+    public void shutdown() {
+        List<PooledConnection> toClose;
+        lock.lock();
+        try {
+            shutdown = true;
+            toClose = new ArrayList<>(idleConnections);
+            idleConnections.clear();
+            totalConnections -= toClose.size();
+            connectionAvailable.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        housekeeper.shutdownNow();
+        for(PooledConnection pooled : toClose){
+            pooled.closePhysical();
+        }
+    }
+
+    public int getMinIdle() {
+        return minIdle;
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int getTotalConnections() {
+        lock.lock();
+        try {
+            return totalConnections;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getIdleConnections() {
+        lock.lock();
+        try {
+            return idleConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getActiveConnections() {
+        lock.lock();
+        try {
+            return borrowedConnections.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getBorrowCount() {
+        lock.lock();
+        try {
+            return borrowCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return average time in milliseconds callers waited in getConnection()
+     */
+    public double getAverageWaitMillis() {
+        lock.lock();
+        try {
+            if(borrowCount==0){
+                return 0;
+            }
+            return totalWaitNanos / (double) borrowCount / 1000000.0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return longest time in milliseconds a caller waited in getConnection()
+     */
+    public double getMaxWaitMillis() {
+        lock.lock();
+        try {
+            return maxWaitNanos / 1000000.0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getTimeoutCount() {
+        lock.lock();
+        try {
+            return timeoutCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getValidationFailureCount() {
+        lock.lock();
+        try {
+            return validationFailureCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getLeakCount() {
+        lock.lock();
+        try {
+            return leakCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getStatementCacheSize() {
+        return statementCacheSize;
+    }
+
+    /**
+     * @return number of prepareStatement calls answered from a connection's statement cache
+     */
+    public long getStatementCacheHits() {
+        return statementCacheHits.get();
+    }
+
+    /**
+     * @return number of prepareStatement calls that had to prepare a new statement
+     */
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.get();
+    }
+
+    @Override
+    public String toString() {
+        lock.lock();
+        try {
+            return "pkg.ConnectionPool{" +
+                    "total=" + totalConnections +
+                    ", idle=" + idleConnections.size() +
+                    ", active=" + borrowedConnections.size() +
+                    ", borrowCount=" + borrowCount +
+                    ", maxWaitMillis=" + (maxWaitNanos / 1000000.0) +
+                    ", timeouts=" + timeoutCount +
+                    ", leaks=" + leakCount +
+                    ", statementCacheHits=" + statementCacheHits.get() +
+                    ", statementCacheMisses=" + statementCacheMisses.get() +
+                    '}';
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Connection openPhysicalConnection() throws SQLException {
+        return DriverManager.getConnection(url, username, password);
+    }
+
+    private Connection checkOut(PooledConnection pooled, long waitNanos) {
+        lock.lock();
+        try {
+            borrowCount++;
+            totalWaitNanos += waitNanos;
+            maxWaitNanos = Math.max(maxWaitNanos, waitNanos);
+            pooled.borrowedAt = System.currentTimeMillis();
+            pooled.borrowStack = leakDetectionThresholdMillis > 0 ? new Throwable("Connection borrowed here") : null;
+            pooled.leakReported = false;
+            borrowedConnections.add(pooled);
+        } finally {
+            lock.unlock();
+        }
+        return pooled.newLogicalConnection();
+    }
+
+    private void checkIn(PooledConnection pooled) {
+        boolean reusable = !pooled.broken && resetState(pooled);
+        lock.lock();
+        try {
+            borrowedConnections.remove(pooled);
+            if(reusable && !shutdown){
+                pooled.lastUsedAt = System.currentTimeMillis();
+                idleConnections.addFirst(pooled);
+                connectionAvailable.signal();
+                return;
+            }
+        } finally {
+            lock.unlock();
+        }
+        discard(pooled);
+    }
+
+    private boolean resetState(PooledConnection pooled) {
+        try {
+            if(!pooled.physical.getAutoCommit()){
+                pooled.physical.rollback();
+                pooled.physical.setAutoCommit(true);
+            }
+            pooled.physical.clearWarnings();
+            return true;
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    private boolean isValid(PooledConnection pooled) {
+        if(System.currentTimeMillis() - pooled.lastUsedAt < VALIDATION_INTERVAL_MILLIS){
+            return true;
+        }
+        try {
+            return pooled.physical.isValid(VALIDATION_TIMEOUT_SECONDS);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Releases a slot in the pool, closing the physical connection if there is one.
+     */
+    private void discard(PooledConnection pooled) {
+        lock.lock();
+        try {
+            totalConnections--;
+            connectionAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        if(pooled!=null){
+            pooled.closePhysical();
+        }
+    }
+
+    private void fillToMinIdle() {
+        while (true) {
+            lock.lock();
+            try {
+                if(shutdown || totalConnections>=minIdle){
+                    return;
+                }
+                totalConnections++;
+            } finally {
+                lock.unlock();
+            }
+            PooledConnection pooled;
+            try {
+                pooled = new PooledConnection(openPhysicalConnection());
+            } catch (SQLException e) {
+                discard(null);
+                return;
+            }
+            lock.lock();
+            try {
+                if(shutdown){
+                    totalConnections--;
+                } else {
+                    pooled.lastUsedAt = System.currentTimeMillis();
+                    idleConnections.addLast(pooled);
+                    connectionAvailable.signal();
+                    pooled = null;
+                }
+            } finally {
+                lock.unlock();
+            }
+            if(pooled!=null){
+                pooled.closePhysical();
+            }
+        }
+    }
+
+    /**
+     * Closes connections idle for longer than idleTimeoutMillis, reports connections held for longer than
+     * leakDetectionThresholdMillis and refills the pool to minIdle. Runs every HOUSEKEEPING_INTERVAL_MILLIS.
+     */
+    void housekeep() {
+        long now = System.currentTimeMillis();
+        List<PooledConnection> evicted = new ArrayList<>();
+        List<PooledConnection> leaked = new ArrayList<>();
+
+        lock.lock();
+        try {
+            Iterator<PooledConnection> iterator = idleConnections.descendingIterator();
+            while (iterator.hasNext() && totalConnections>minIdle) {
+                PooledConnection pooled = iterator.next();
+                if(now - pooled.lastUsedAt > idleTimeoutMillis){
+                    iterator.remove();
+                    totalConnections--;
+                    evicted.add(pooled);
+                }
+            }
+            if(leakDetectionThresholdMillis>0){
+                for(PooledConnection pooled : borrowedConnections){
+                    if(!pooled.leakReported && now - pooled.borrowedAt > leakDetectionThresholdMillis){
+                        pooled.leakReported = true;
+                        leakCount++;
+                        leaked.add(pooled);
+                    }
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+
+        for(PooledConnection pooled : evicted){
+            pooled.closePhysical();
+        }
+        for(PooledConnection pooled : leaked){
+            LOGGER.log(Level.WARNING, "Possible connection leak: connection held for more than "
+                    + leakDetectionThresholdMillis + " ms", pooled.borrowStack);
+        }
+        fillToMinIdle();
+    }
+
+    /**
+     * A physical connection owned by the pool. Each checkout gets a new logical connection
+     * so that a stale reference closed twice cannot return the connection to the pool twice.
+     */
+    private class PooledConnection {
+        final Connection physical;
+        final List<Statement> openStatements = new ArrayList<>();
+        final Map<String, CachedStatement> statementCache = new LinkedHashMap<String, CachedStatement>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+                if(size()<=statementCacheSize){
+                    return false;
+                }
+                if(eldest.getValue().inUse){
+                    // still held by the borrower, close it when the connection is returned
+                    openStatements.add(eldest.getValue().physical);
+                } else {
+                    eldest.getValue().closePhysical();
+                }
+                return true;
+            }
+        };
+        long lastUsedAt = System.currentTimeMillis();
+        long borrowedAt;
+        Throwable borrowStack;
+        boolean leakReported;
+        boolean broken;
+
+        PooledConnection(Connection physical) {
+            this.physical = physical;
+        }
+
+        Connection newLogicalConnection() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class<?>[]{Connection.class}, new LogicalConnectionHandler(this));
+        }
+
+        void closeOpenStatements() {
+            for(Statement statement : openStatements){
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+            openStatements.clear();
+            for(CachedStatement cached : statementCache.values()){
+                cached.release();
+            }
+        }
+
+        /**
+         * Returns a cached statement for the SQL text, preparing and caching it on a miss.
+         * If the cached statement is still in use by the same borrower an uncached one is prepared instead.
+         */
+        PreparedStatement prepareCached(Method method, Object[] args) throws Throwable {
+            String key = cacheKey(method, args);
+            CachedStatement cached = statementCache.get(key);
+            if(cached!=null && !cached.inUse){
+                statementCacheHits.incrementAndGet();
+                return cached.checkOut();
+            }
+            statementCacheMisses.incrementAndGet();
+            PreparedStatement statement = (PreparedStatement) invokePhysical(method, args);
+            if(cached!=null){
+                openStatements.add(statement);
+                return statement;
+            }
+            cached = new CachedStatement(statement);
+            statementCache.put(key, cached);
+            return cached.checkOut();
+        }
+
+        Object invokePhysical(Method method, Object[] args) throws Throwable {
+            try {
+                return method.invoke(physical, args);
+            } catch (InvocationTargetException e) {
+                Throwable cause = e.getCause();
+                if(cause instanceof SQLException){
+                    String sqlState = ((SQLException) cause).getSQLState();
+                    if(sqlState!=null && sqlState.startsWith("08")){
+                        broken = true;
+                    }
+                }
+                throw cause;
+            }
+        }
+
+        void closePhysical() {
+            for(CachedStatement cached : statementCache.values()){
+                cached.closePhysical();
+            }
+            statementCache.clear();
+            try {
+                physical.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    /**
+     * Builds the statement cache key from the SQL text and any generated-key arguments,
+     * or returns null if this prepareStatement variant is not cached.
+     */
+    private static String cacheKey(Method method, Object[] args) {
+        if(args==null || args.length==0 || !(args[0] instanceof String)){
+            return null;
+        }
+        if(args.length==1){
+            return (String) args[0];
+        }
+        if(args.length==2 && args[1] instanceof Integer){
+            return args[1] + "|" + args[0];
+        }
+        if(args.length==2 && args[1] instanceof String[]){
+            return Arrays.toString((String[]) args[1]) + "|" + args[0];
+        }
+        return null;
+    }
+
+    /**
+     * A prepared statement kept open across checkouts of its connection.
+     * Callers receive a proxy whose close() clears the parameters and makes the statement available again.
+     */
+    private static class CachedStatement {
+        final PreparedStatement physical;
+        boolean inUse = false;
+        // closed flag of the proxy handed out by the latest checkout
+        boolean[] currentClosed = null;
+
+        CachedStatement(PreparedStatement physical) {
+            this.physical = physical;
+        }
+
+        PreparedStatement checkOut() {
+            inUse = true;
+            final boolean[] closed = {false};
+            currentClosed = closed;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                if(!closed[0]){
+                                    release();
+                                }
+                                return null;
+                            case "isClosed":
+                                return closed[0] || physical.isClosed();
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            case "toString":
+                                return "cached " + physical;
+                            default:
+                                break;
+                        }
+                        if(closed[0]){
+                            throw new SQLException("Statement is closed");
+                        }
+                        try {
+                            return method.invoke(physical, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+        }
+
+        void release() {
+            if(!inUse){
+                return;
+            }
+            inUse = false;
+            currentClosed[0] = true;
+            currentClosed = null;
+            try {
+                physical.clearParameters();
+                physical.clearBatch();
+            } catch (SQLException e) {
+            }
+        }
+
+        void closePhysical() {
+            try {
+                physical.close();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+    private class LogicalConnectionHandler implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean closed = false;
+
+        LogicalConnectionHandler(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            switch (name) {
+                case "close":
+                    if(!closed){
+                        closed = true;
+                        pooled.closeOpenStatements();
+                        checkIn(pooled);
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || pooled.physical.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "pooled " + pooled.physical;
+                case "unwrap":
+                    if(((Class<?>) args[0]).isInstance(proxy)){
+                        return proxy;
+                    }
+                    break;
+                default:
+                    break;
+            }
+            if(closed){
+                throw new SQLException("Connection is closed");
+            }
+            if(statementCacheSize>0 && name.equals("prepareStatement") && cacheKey(method, args)!=null){
+                return pooled.prepareCached(method, args);
+            }
+            Object result = pooled.invokePhysical(method, args);
+            if(result instanceof Statement){
+                pooled.openStatements.add((Statement) result);
+            }
+            return result;
+        }
+    }
+}
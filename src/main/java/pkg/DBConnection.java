@@ -1,34 +1,179 @@
 package pkg;
 
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Defines a static method to receive the Connection object for JDBC Connection.
  * All methods that interact with the database will call this method for initiating the connection.
+ * Connections are handed out by a shared ConnectionPool, so closing them returns them to the pool.
  */
 public class DBConnection {
+    // the JDBC server URL and the name of database to use,
+    // server-side prepared statements let cached statements be parsed and planned once per connection
+    // and batched inserts are rewritten into multi-row inserts
+    static final String SERVER_URL = "jdbc:mysql://localhost:3306/";
+    static final String DATABASE = "3901_course_project_b00900955";
+    static final String URL_OPTIONS = "?useServerPrepStmts=true&rewriteBatchedStatements=true";
+    // the username for access to the database
+    static final String USERNAME = "root";
+    // the password for access to the database
+    static final String PASSWORD = "root";
+
+    // default pool settings, can be changed with configurePool
+    static final int DEFAULT_MIN_IDLE = 2;
+    static final int DEFAULT_MAX_SIZE = 10;
+    static final long DEFAULT_MAX_WAIT_MILLIS = 30000;
+    static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 600000;
+    // leak detection records where every connection was borrowed, so it is off unless configured
+    static final long DEFAULT_LEAK_DETECTION_THRESHOLD_MILLIS = 0;
+    static final int DEFAULT_STATEMENT_CACHE_SIZE = ConnectionPool.DEFAULT_STATEMENT_CACHE_SIZE;
+
+    private static ConnectionPool pool = null;
+    private static String database = DATABASE;
+
     /**
      * static method to receive the Connection object for JDBC Connection.
-     * @return JDBC Connection object
+     * @return JDBC Connection object, closing it returns it to the pool
      * @throws SQLException if error while creating Connection with database
      */
     public static Connection getConnection() throws SQLException {
+        return getPool().getConnection();
+    }
+
+    /**
+     * @return the shared connection pool, created with the default settings on first use
+     */
+    public static synchronized ConnectionPool getPool() {
+        if(pool==null){
+            pool = createPool(DEFAULT_MIN_IDLE, DEFAULT_MAX_SIZE, DEFAULT_MAX_WAIT_MILLIS,
+                    DEFAULT_IDLE_TIMEOUT_MILLIS, DEFAULT_LEAK_DETECTION_THRESHOLD_MILLIS,
+                    DEFAULT_STATEMENT_CACHE_SIZE);
+        }
+        return pool;
+    }
+
+    /**
+     * Replaces the shared connection pool with one using the given settings.
+     * The previous pool is shut down; connections already borrowed from it are closed when returned.
+     * @param minIdle number of connections kept open even when unused
+     * @param maxSize maximum number of connections open at any time
+     * @param maxWaitMillis how long getConnection() waits for a free connection
+     * @param idleTimeoutMillis how long an unused connection above minIdle stays open
+     * @param leakDetectionThresholdMillis how long a connection may be held before it is reported, 0 disables reporting
+     */
+    public static synchronized void configurePool(int minIdle, int maxSize, long maxWaitMillis,
+                                                  long idleTimeoutMillis, long leakDetectionThresholdMillis) {
+        configurePool(minIdle, maxSize, maxWaitMillis, idleTimeoutMillis, leakDetectionThresholdMillis,
+                DEFAULT_STATEMENT_CACHE_SIZE);
+    }
+
+    /**
+     * Replaces the shared connection pool with one using the given settings.
+     * The previous pool is shut down; connections already borrowed from it are closed when returned.
+     * @param minIdle number of connections kept open even when unused
+     * @param maxSize maximum number of connections open at any time
+     * @param maxWaitMillis how long getConnection() waits for a free connection
+     * @param idleTimeoutMillis how long an unused connection above minIdle stays open
+     * @param leakDetectionThresholdMillis how long a connection may be held before it is reported, 0 disables reporting
+     * @param statementCacheSize number of prepared statements cached per connection, 0 disables caching
+     */
+    public static synchronized void configurePool(int minIdle, int maxSize, long maxWaitMillis,
+                                                  long idleTimeoutMillis, long leakDetectionThresholdMillis,
+                                                  int statementCacheSize) {
+        ConnectionPool newPool = createPool(minIdle, maxSize, maxWaitMillis, idleTimeoutMillis,
+                leakDetectionThresholdMillis, statementCacheSize);
+        if(pool!=null){
+            pool.shutdown();
+        }
+        pool = newPool;
+    }
+
+    /**
+     * Closes all pooled connections. A new pool is created on the next call to getConnection().
+     */
+    public static synchronized void shutdown() {
+        if(pool!=null){
+            pool.shutdown();
+            pool = null;
+        }
+    }
+
+    /**
+     * Switches the shared connection pool to another database on the same server, e.g. a scratch schema for
+     * benchmarks. The previous pool is shut down and a new one is created with the default settings on next use.
+     * @param name name of the database, DATABASE to switch back to the family tree database
+     */
+    static synchronized void useDatabase(String name) {
+        shutdown();
+        database = name;
+    }
+
+    /**
+     * @return name of the database the shared connection pool connects to
+     */
+    static synchronized String getDatabase() {
+        return database;
+    }
+
+    /**
+     * Creates a database on the same server with empty copies of the tables of the family tree database,
+     * apart from event_types whose rows are copied too, replacing a database of that name left by an earlier run.
+     * @param name name of the new database, e.g. a scratch schema for benchmarks or tests
+     * @throws SQLException if the database could not be created
+     */
+    static void createDatabaseLike(String name) throws SQLException {
+        String FIND_TABLES = "SELECT table_name FROM information_schema.tables " +
+                "WHERE table_schema=? AND table_type='BASE TABLE'";
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            List<String> tables = new ArrayList<>();
+            try (PreparedStatement pStmt = conn.prepareStatement(FIND_TABLES)) {
+                pStmt.setString(1, DATABASE);
+                try (ResultSet resultSet = pStmt.executeQuery()) {
+                    while(resultSet.next()){
+                        tables.add(resultSet.getString(1));
+                    }
+                }
+            }
+            stmt.executeUpdate("DROP DATABASE IF EXISTS `" + name + "`");
+            stmt.executeUpdate("CREATE DATABASE `" + name + "`");
+            for(String table : tables){
+                stmt.executeUpdate("CREATE TABLE `" + name + "`.`" + table + "` LIKE `" + DATABASE + "`.`" + table + "`");
+                if(table.equalsIgnoreCase("event_types")){
+                    stmt.executeUpdate("INSERT INTO `" + name + "`.`" + table + "` SELECT * FROM `"
+                            + DATABASE + "`.`" + table + "`");
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops a database created with createDatabaseLike.
+     * @throws SQLException if the database could not be dropped
+     */
+    static void dropDatabase(String name) throws SQLException {
+        try (Connection conn = getConnection();
+             Statement stmt = conn.createStatement()) {
+            stmt.executeUpdate("DROP DATABASE IF EXISTS `" + name + "`");
+        }
+    }
+
+    private static ConnectionPool createPool(int minIdle, int maxSize, long maxWaitMillis,
+                                             long idleTimeoutMillis, long leakDetectionThresholdMillis,
+                                             int statementCacheSize) {
         // check if MySQL driver is assigned for the project
         try {
             Class.forName("com.mysql.cj.jdbc.Driver");
         } catch (ClassNotFoundException e) {
             e.printStackTrace();
         }
-
-        // the JDBC database URL along with the name of database to use
-        final String URL = "jdbc:mysql://localhost:3306/3901_course_project_b00900955";
-        // the username for access to the database
-        final String USERNAME = "root";
-        // the password for access to the database
-        final String PASSWORD = "root";
-        return DriverManager.getConnection(URL, USERNAME, PASSWORD);
-
+        return new ConnectionPool(SERVER_URL + database + URL_OPTIONS, USERNAME, PASSWORD, minIdle, maxSize, maxWaitMillis,
+                idleTimeoutMillis, leakDetectionThresholdMillis, statementCacheSize);
     }
 }
@@ -0,0 +1,37 @@
+package pkg;
+
+/**
+ * A group of people connected by parent/child relations, as listed by Genealogy.findFamilyClusters.
+ * People in different clusters are never biologically related.
+ */
+public class FamilyCluster {
+    private final PersonIdentity representative;
+    private final int size;
+
+    FamilyCluster(PersonIdentity representative, int size) {
+        this.representative = representative;
+        this.size = size;
+    }
+
+    /**
+     * @return the person with the smallest id in the cluster, which identifies the cluster
+     */
+    public PersonIdentity getRepresentative() {
+        return representative;
+    }
+
+    /**
+     * @return the number of people in the cluster
+     */
+    public int getSize() {
+        return size;
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.FamilyCluster{" +
+                "representative=" + representative +
+                ", size=" + size +
+                '}';
+    }
+}
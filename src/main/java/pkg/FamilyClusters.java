@@ -0,0 +1,205 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Union-find over people and their parent/child relations, kept by PedigreeGraph.
+ * Two people in different clusters share no relatives at all, so they cannot be biologically related;
+ * people in the same cluster may still be unrelated, e.g. two partners who only share children.
+ *
+ * Clusters are merged by size, so every person is at most a logarithmic number of links from the root of
+ * their cluster, and paths are halved whenever a merge looks them up. Each cluster is identified by the
+ * smallest person id in it, which stays the same as long as the cluster only grows by merging with clusters
+ * of newer people.
+ *
+ * Changes take a lock, but sameCluster and root read the links without it, so the relation searches running
+ * in parallel do not wait for each other. A link only ever moves closer to the root of its cluster, so a reader
+ * racing a change still finds a root of the person's cluster as it was or as it became.
+ */
+class FamilyClusters {
+
+    private final ReentrantLock lock = new ReentrantLock();
+
+    // parent[id] is 0 for ids that are not people, id itself for the root of a cluster; replaced when it grows
+    private volatile AtomicIntegerArray parent;
+    private int[] size;
+    private int[] smallestId;
+    private int clusterCount = 0;
+
+    FamilyClusters(int capacity) {
+        parent = new AtomicIntegerArray(Math.max(capacity, 16));
+        size = new int[parent.length()];
+        smallestId = new int[parent.length()];
+    }
+
+    void addPerson(int personId) {
+        lock.lock();
+        try {
+            ensureCapacity(personId);
+            if(parent.get(personId)==0){
+                parent.set(personId, personId);
+                size[personId] = 1;
+                smallestId[personId] = personId;
+                clusterCount++;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Merge the clusters of two people, adding either person first if they are not known yet.
+     */
+    void union(int personId1, int personId2) {
+        lock.lock();
+        try {
+            addPerson(personId1);
+            addPerson(personId2);
+            int root1 = find(personId1);
+            int root2 = find(personId2);
+            if(root1==root2){
+                return;
+            }
+            if(size[root1]<size[root2]){
+                int swap = root1;
+                root1 = root2;
+                root2 = swap;
+            }
+            parent.set(root2, root1);
+            size[root1] += size[root2];
+            smallestId[root1] = Math.min(smallestId[root1], smallestId[root2]);
+            clusterCount--;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return true if both people are known and in the same cluster
+     */
+    boolean sameCluster(int personId1, int personId2) {
+        AtomicIntegerArray links = parent;
+        if(!contains(links, personId1) || !contains(links, personId2)){
+            return false;
+        }
+        while (true) {
+            int root1 = root(links, personId1);
+            int root2 = root(links, personId2);
+            if(root1==root2){
+                return true;
+            }
+            // if root1 is still a root, the clusters were different when root2 was found
+            if(links.get(root1)==root1){
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return the root of the person's cluster, which only changes when the cluster is merged; 0 if the person
+     * is not known
+     */
+    int root(int personId) {
+        AtomicIntegerArray links = parent;
+        return contains(links, personId) ? root(links, personId) : 0;
+    }
+
+    /**
+     * @return the smallest person id in the person's cluster, 0 if the person is not known
+     */
+    int clusterId(int personId) {
+        lock.lock();
+        try {
+            return contains(parent, personId) ? smallestId[find(personId)] : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the number of people in the person's cluster, 0 if the person is not known
+     */
+    int clusterSize(int personId) {
+        lock.lock();
+        try {
+            return contains(parent, personId) ? size[find(personId)] : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int getClusterCount() {
+        lock.lock();
+        try {
+            return clusterCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return {cluster id, size} of every cluster with at least minimumSize people, largest first
+     */
+    List<int[]> clusters(int minimumSize) {
+        lock.lock();
+        try {
+            List<int[]> clusters = new ArrayList<>();
+            for(int personId=1; personId<parent.length(); personId++){
+                if(parent.get(personId)==personId && size[personId]>=minimumSize){
+                    clusters.add(new int[]{smallestId[personId], size[personId]});
+                }
+            }
+            clusters.sort((cluster1, cluster2) -> cluster1[1]!=cluster2[1]
+                    ? Integer.compare(cluster2[1], cluster1[1]) : Integer.compare(cluster1[0], cluster2[0]));
+            return clusters;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static boolean contains(AtomicIntegerArray links, int personId) {
+        return personId>0 && personId<links.length() && links.get(personId)!=0;
+    }
+
+    /**
+     * Follow the links to the root without changing them, for readers that do not hold the lock.
+     */
+    private static int root(AtomicIntegerArray links, int personId) {
+        int current = personId;
+        int next;
+        while ((next = links.get(current))!=current) {
+            current = next;
+        }
+        return current;
+    }
+
+    /**
+     * Follow the links to the root, halving the path on the way; only called while holding the lock.
+     */
+    private int find(int personId) {
+        int current = personId;
+        while (parent.get(current)!=current) {
+            parent.set(current, parent.get(parent.get(current)));
+            current = parent.get(current);
+        }
+        return current;
+    }
+
+    private void ensureCapacity(int personId) {
+        if(personId<parent.length()){
+            return;
+        }
+        int capacity = Math.max(personId + 1, parent.length() + parent.length() / 2);
+        AtomicIntegerArray grown = new AtomicIntegerArray(capacity);
+        for(int i=0;i<parent.length();i++){
+            grown.set(i, parent.get(i));
+        }
+        parent = grown;
+        size = Arrays.copyOf(size, capacity);
+        smallestId = Arrays.copyOf(smallestId, capacity);
+    }
+}
@@ -0,0 +1,86 @@
+package pkg;
+
+/**
+ * Counters reported by GedcomImporter for one run over a GEDCOM file.
+ */
+public class GedcomImportResult {
+
+    long recordsRead;
+    long recordsSkippedOnResume;
+    long peopleImported;
+    long familiesImported;
+    long ignoredRecords;
+    long ignoredLinks;
+    long elapsedMillis;
+    boolean completed;
+
+    /**
+     * @return number of level 0 records read from the file, including those skipped when resuming
+     */
+    public long getRecordsRead() {
+        return recordsRead;
+    }
+
+    /**
+     * @return number of records that were skipped because a checkpoint showed they were already imported
+     */
+    public long getRecordsSkippedOnResume() {
+        return recordsSkippedOnResume;
+    }
+
+    public long getPeopleImported() {
+        return peopleImported;
+    }
+
+    public long getFamiliesImported() {
+        return familiesImported;
+    }
+
+    /**
+     * @return number of records of types other than INDI and FAM, such as HEAD, SOUR or OBJE
+     */
+    public long getIgnoredRecords() {
+        return ignoredRecords;
+    }
+
+    /**
+     * @return number of family links that could not be stored, e.g. to unknown people, a third parent or an ancestor of the parent
+     */
+    public long getIgnoredLinks() {
+        return ignoredLinks;
+    }
+
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+
+    /**
+     * @return records processed per second in this run, not counting records skipped when resuming
+     */
+    public double getRecordsPerSecond() {
+        if(elapsedMillis==0){
+            return 0;
+        }
+        return (recordsRead - recordsSkippedOnResume) * 1000.0 / elapsedMillis;
+    }
+
+    /**
+     * @return true if the whole file was imported, false if the import stopped at a failed transaction
+     */
+    public boolean isCompleted() {
+        return completed;
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.GedcomImportResult{" +
+                "recordsRead=" + recordsRead +
+                ", peopleImported=" + peopleImported +
+                ", familiesImported=" + familiesImported +
+                ", ignoredRecords=" + ignoredRecords +
+                ", ignoredLinks=" + ignoredLinks +
+                ", recordsPerSecond=" + String.format("%.1f", getRecordsPerSecond()) +
+                ", completed=" + completed +
+                '}';
+    }
+}
@@ -0,0 +1,619 @@
+package pkg;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Streams a GEDCOM file into the family tree through a GenealogyBatch.
+ * The file is read one level 0 record at a time, so memory use does not grow with the size of the file
+ * apart from the map from GEDCOM identifiers (@I1@) to imported people, the identifiers of imported families
+ * and the families that refer to people who appear later in the file.
+ *
+ * INDI records become people with their name, gender, birth and death dates and places, occupation,
+ * notes and sources. FAM records become parent/child relations, partnerings and dissolutions.
+ * Other records are ignored.
+ *
+ * When a checkpoint file is given, the importer records after every committed transaction which record
+ * to resume from and which people and families were imported. Running the importer again with the same
+ * checkpoint after a failure continues from there instead of importing the same people or families twice.
+ * The checkpoint files are deleted once the whole file has been imported.
+ */
+public class GedcomImporter {
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+    static final int MAX_NAME_LENGTH = 100;
+    static final int MAX_TEXT_LENGTH = 200;
+    static final String UNKNOWN_NAME = "Unknown";
+    static final String RESUME_RECORD_PROPERTY = "resumeRecord";
+    static final String PEOPLE_FILE_SUFFIX = ".people";
+    static final String FAMILIES_FILE_SUFFIX = ".families";
+
+    private static final String[] MONTHS = {"JAN", "FEB", "MAR", "APR", "MAY", "JUN",
+            "JUL", "AUG", "SEP", "OCT", "NOV", "DEC"};
+
+    private final Genealogy genealogy;
+    private final int batchSize;
+    private final PrintStream progress;
+
+    public GedcomImporter(Genealogy genealogy) {
+        this(genealogy, DEFAULT_BATCH_SIZE, null);
+    }
+
+    /**
+     * @param genealogy family tree to import into
+     * @param batchSize number of edits committed per transaction
+     * @param progress stream that receives a progress line after every transaction, null for none
+     */
+    public GedcomImporter(Genealogy genealogy, int batchSize, PrintStream progress) {
+        if(genealogy==null){
+            throw new IllegalArgumentException("genealogy cannot be null");
+        }
+        if(batchSize<1){
+            throw new IllegalArgumentException("batch size must be at least 1");
+        }
+        this.genealogy = genealogy;
+        this.batchSize = batchSize;
+        this.progress = progress;
+    }
+
+    /**
+     * Import a GEDCOM file.
+     * @param gedcomFile location of the GEDCOM file
+     * @param checkpointFile location of the checkpoint used to resume a failed import, null to disable checkpoints
+     * @return counters for this run; isCompleted() is false if a transaction failed and the import stopped
+     * @throws IOException if the GEDCOM or checkpoint file cannot be read or written
+     */
+    public GedcomImportResult importFile(String gedcomFile, String checkpointFile) throws IOException {
+        if(gedcomFile==null || gedcomFile.trim().isEmpty()){
+            throw new IllegalArgumentException("GEDCOM file location cannot be empty");
+        }
+        Path checkpoint = checkpointFile==null ? null : Paths.get(checkpointFile);
+        ImportRun run = new ImportRun(checkpoint);
+        run.loadCheckpoint();
+
+        try (BufferedReader reader = Files.newBufferedReader(Paths.get(gedcomFile), StandardCharsets.UTF_8);
+             GenealogyBatch batch = genealogy.openBatch(Integer.MAX_VALUE)) {
+            run.batch = batch;
+            List<GedcomLine> record = new ArrayList<>();
+            String text;
+            boolean firstLine = true;
+            while ((text = reader.readLine()) != null) {
+                if(firstLine && text.startsWith("\uFEFF")){
+                    text = text.substring(1);
+                }
+                firstLine = false;
+                GedcomLine line = GedcomLine.parse(text);
+                if(line==null){
+                    continue;
+                }
+                if(line.level==0 && !record.isEmpty()){
+                    if(!run.process(record)){
+                        return run.finish(false);
+                    }
+                    record = new ArrayList<>();
+                }
+                record.add(line);
+            }
+            if(!record.isEmpty() && !run.process(record)){
+                return run.finish(false);
+            }
+            if(!run.completeDeferredFamilies()){
+                return run.finish(false);
+            }
+            return run.finish(true);
+        }
+    }
+
+    /**
+     * Converts a GEDCOM date such as "12 MAR 1900", "ABT MAR 1900" or "BET 1900 AND 1910"
+     * into yyyy-MM-dd, yyyy-MM or yyyy, using the first date of a range.
+     * A day that does not exist in its month, such as 31 FEB 1900, is dropped and the month kept.
+     * @return the converted date, null if the text has no recognizable year
+     */
+    static String convertDate(String gedcomDate) {
+        if(gedcomDate==null){
+            return null;
+        }
+        String[] words = gedcomDate.trim().toUpperCase(Locale.ROOT).split("\\s+");
+        int day = 0;
+        int month = 0;
+        for(String word : words){
+            if(word.matches("\\d{1,2}") && month==0){
+                day = Integer.parseInt(word);
+            } else if(month==0 && Arrays.asList(MONTHS).contains(word)){
+                month = Arrays.asList(MONTHS).indexOf(word)+1;
+            } else if(word.matches("\\d{4}")){
+                if(month==0){
+                    return word;
+                }
+                String yearMonth = String.format("%s-%02d", word, month);
+                String date = String.format("%s-%02d", yearMonth, day);
+                return PartialDate.parse(date)==null ? yearMonth : date;
+            } else if(!word.matches("[A-Z]+")){
+                day = 0;
+                month = 0;
+            }
+        }
+        return null;
+    }
+
+    static String convertName(String gedcomName) {
+        if(gedcomName==null){
+            return UNKNOWN_NAME;
+        }
+        String name = gedcomName.replace("/", " ").trim().replaceAll("\\s+", " ");
+        if(name.isEmpty()){
+            return UNKNOWN_NAME;
+        }
+        return truncate(name, MAX_NAME_LENGTH);
+    }
+
+    private static String truncate(String text, int maxLength) {
+        return text.length()<=maxLength ? text : text.substring(0, maxLength);
+    }
+
+    /**
+     * One line of a GEDCOM file: level, optional cross-reference id, tag and optional value.
+     */
+    static class GedcomLine {
+        final int level;
+        final String xref;
+        final String tag;
+        final String value;
+
+        GedcomLine(int level, String xref, String tag, String value) {
+            this.level = level;
+            this.xref = xref;
+            this.tag = tag;
+            this.value = value;
+        }
+
+        static GedcomLine parse(String text) {
+            String trimmed = text.trim();
+            if(trimmed.isEmpty()){
+                return null;
+            }
+            String[] parts = trimmed.split(" ", 3);
+            int level;
+            try {
+                level = Integer.parseInt(parts[0]);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if(parts.length<2){
+                return null;
+            }
+            if(parts[1].startsWith("@") && parts.length==3){
+                String[] rest = parts[2].split(" ", 2);
+                return new GedcomLine(level, parts[1], rest[0], rest.length>1 ? rest[1] : null);
+            }
+            return new GedcomLine(level, null, parts[1], parts.length>2 ? parts[2] : null);
+        }
+
+        boolean isPointer() {
+            return value!=null && value.startsWith("@") && value.endsWith("@");
+        }
+    }
+
+    /**
+     * A FAM record waiting for people that appear later in the file.
+     */
+    private static class DeferredFamily {
+        final long recordIndex;
+        final List<GedcomLine> lines;
+
+        DeferredFamily(long recordIndex, List<GedcomLine> lines) {
+            this.recordIndex = recordIndex;
+            this.lines = lines;
+        }
+    }
+
+    /**
+     * State of one importFile call.
+     */
+    private class ImportRun {
+        final Path checkpoint;
+        final Path peopleFile;
+        final Path familiesFile;
+        final GedcomImportResult result = new GedcomImportResult();
+        final long startTime = System.currentTimeMillis();
+        final Map<String, PersonIdentity> people = new HashMap<>();
+        final Map<PersonIdentity, List<PersonIdentity>> parentsOfChild = new IdentityHashMap<>();
+        final List<String> uncommittedPeople = new ArrayList<>();
+        final Set<String> families = new HashSet<>();
+        final List<String> uncommittedFamilies = new ArrayList<>();
+        final Deque<DeferredFamily> deferredFamilies = new ArrayDeque<>();
+        GenealogyBatch batch;
+        long resumeRecord = 0;
+        long recordIndex = 0;
+
+        ImportRun(Path checkpoint) {
+            this.checkpoint = checkpoint;
+            this.peopleFile = checkpoint==null ? null
+                    : checkpoint.resolveSibling(checkpoint.getFileName() + PEOPLE_FILE_SUFFIX);
+            this.familiesFile = checkpoint==null ? null
+                    : checkpoint.resolveSibling(checkpoint.getFileName() + FAMILIES_FILE_SUFFIX);
+        }
+
+        void loadCheckpoint() throws IOException {
+            if(checkpoint==null || !Files.exists(checkpoint)){
+                return;
+            }
+            Properties properties = new Properties();
+            try (Reader reader = Files.newBufferedReader(checkpoint, StandardCharsets.UTF_8)) {
+                properties.load(reader);
+            }
+            resumeRecord = Long.parseLong(properties.getProperty(RESUME_RECORD_PROPERTY, "0"));
+            if(Files.exists(peopleFile)){
+                try (BufferedReader reader = Files.newBufferedReader(peopleFile, StandardCharsets.UTF_8)) {
+                    String text;
+                    while ((text = reader.readLine()) != null) {
+                        String[] parts = text.split("\t", 3);
+                        if(parts.length==3){
+                            people.put(parts[0], new PersonIdentity(Integer.parseInt(parts[1]), parts[2]));
+                        }
+                    }
+                }
+            }
+            if(Files.exists(familiesFile)){
+                try (BufferedReader reader = Files.newBufferedReader(familiesFile, StandardCharsets.UTF_8)) {
+                    String text;
+                    while ((text = reader.readLine()) != null) {
+                        if(!text.isEmpty()){
+                            families.add(text);
+                        }
+                    }
+                }
+            }
+        }
+
+        boolean process(List<GedcomLine> record) throws IOException {
+            long index = recordIndex++;
+            result.recordsRead++;
+            if(index<resumeRecord){
+                result.recordsSkippedOnResume++;
+                return true;
+            }
+            GedcomLine header = record.get(0);
+            if("INDI".equals(header.tag) && header.xref!=null){
+                importPerson(header.xref, record);
+            } else if("FAM".equals(header.tag)){
+                if(header.xref!=null && families.contains(header.xref)){
+                    // imported before the checkpoint we resumed from, but after a family that was waiting
+                    result.recordsSkippedOnResume++;
+                } else if(allMembersKnown(record)){
+                    importFamily(record);
+                } else {
+                    deferredFamilies.add(new DeferredFamily(index, record));
+                }
+            } else {
+                result.ignoredRecords++;
+            }
+            if(batch.getPendingOperations()>=batchSize){
+                return commit();
+            }
+            return true;
+        }
+
+        boolean completeDeferredFamilies() throws IOException {
+            while (!deferredFamilies.isEmpty()) {
+                importFamily(deferredFamilies.peekFirst().lines);
+                deferredFamilies.pollFirst();
+                if(batch.getPendingOperations()>=batchSize && !commit()){
+                    return false;
+                }
+            }
+            return commit();
+        }
+
+        void importPerson(String xref, List<GedcomLine> record) {
+            if(people.containsKey(xref)){
+                // already imported before the checkpoint we resumed from
+                return;
+            }
+            String name = null;
+            Map<String, String> attributes = new LinkedHashMap<>();
+            List<String> notes = new ArrayList<>();
+            List<String> references = new ArrayList<>();
+
+            for(int i=1;i<record.size();i++){
+                GedcomLine line = record.get(i);
+                if(line.level!=1){
+                    continue;
+                }
+                switch (line.tag){
+                    case "NAME":
+                        if(name==null){
+                            name = convertName(line.value);
+                        }
+                        break;
+                    case "SEX":
+                        if("M".equalsIgnoreCase(line.value)){
+                            attributes.put("gender", "male");
+                        } else if("F".equalsIgnoreCase(line.value)){
+                            attributes.put("gender", "female");
+                        }
+                        break;
+                    case "BIRT":
+                        putEventAttributes(record, i, "date of birth", "birth location", attributes);
+                        break;
+                    case "DEAT":
+                        putEventAttributes(record, i, "date of death", "death location", attributes);
+                        break;
+                    case "OCCU":
+                        if(line.value!=null && !line.value.trim().isEmpty()){
+                            attributes.put("occupation", truncate(line.value.trim(), MAX_TEXT_LENGTH));
+                        }
+                        break;
+                    case "NOTE":
+                        String note = continuedText(record, i);
+                        if(!line.isPointer() && !note.trim().isEmpty()){
+                            notes.add(truncate(note, MAX_TEXT_LENGTH));
+                        }
+                        break;
+                    case "SOUR":
+                        String reference = sourceReference(record, i);
+                        if(reference!=null && !reference.trim().isEmpty()){
+                            references.add(truncate(reference, MAX_TEXT_LENGTH));
+                        }
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            PersonIdentity person = batch.addPerson(name==null ? UNKNOWN_NAME : name);
+            people.put(xref, person);
+            uncommittedPeople.add(xref);
+            result.peopleImported++;
+            if(!attributes.isEmpty()){
+                batch.recordAttributes(person, attributes);
+            }
+            for(String note : notes){
+                batch.recordNote(person, note);
+            }
+            for(String reference : references){
+                batch.recordReference(person, reference);
+            }
+        }
+
+        void importFamily(List<GedcomLine> record) {
+            String xref = record.get(0).xref;
+            PersonIdentity husband = null;
+            PersonIdentity wife = null;
+            List<PersonIdentity> children = new ArrayList<>();
+            boolean married = false;
+            boolean divorced = false;
+
+            for(int i=1;i<record.size();i++){
+                GedcomLine line = record.get(i);
+                if(line.level!=1){
+                    continue;
+                }
+                switch (line.tag){
+                    case "HUSB":
+                        husband = member(line);
+                        break;
+                    case "WIFE":
+                        wife = member(line);
+                        break;
+                    case "CHIL":
+                        PersonIdentity child = member(line);
+                        if(child!=null){
+                            children.add(child);
+                        }
+                        break;
+                    case "MARR":
+                        married = true;
+                        break;
+                    case "DIV":
+                        divorced = true;
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            for(PersonIdentity child : children){
+                for(PersonIdentity parent : Arrays.asList(husband, wife)){
+                    if(parent!=null && parent!=child){
+                        recordChild(parent, child);
+                    }
+                }
+            }
+            if(husband!=null && wife!=null && husband!=wife){
+                if(married || divorced){
+                    batch.recordPartnering(husband, wife);
+                }
+                if(divorced){
+                    batch.recordDissolution(husband, wife);
+                }
+            }
+            if(xref!=null){
+                families.add(xref);
+                uncommittedFamilies.add(xref);
+            }
+            result.familiesImported++;
+        }
+
+        /**
+         * Records a parent unless the child already has two or is an ancestor of the parent, which the family tree
+         * does not allow.
+         */
+        void recordChild(PersonIdentity parent, PersonIdentity child) {
+            List<PersonIdentity> parents = parentsOfChild.get(child);
+            if(parents==null){
+                parents = new ArrayList<>(2);
+                if(child.getPersonId()>0){
+                    // imported by an earlier run, look up the parents already stored
+                    Set<PersonIdentity> storedParents = genealogy.ancestors(child, 1);
+                    if(storedParents!=null){
+                        parents.addAll(storedParents);
+                    }
+                }
+                parentsOfChild.put(child, parents);
+            }
+            for(PersonIdentity existing : parents){
+                if(existing==parent || (parent.getPersonId()>0 && existing.getPersonId()==parent.getPersonId())){
+                    return;
+                }
+            }
+            if(parents.size()>=2){
+                result.ignoredLinks++;
+                return;
+            }
+            try {
+                batch.recordChild(parent, child);
+            } catch (IllegalArgumentException e) {
+                // the child is already an ancestor of the parent
+                result.ignoredLinks++;
+                return;
+            }
+            parents.add(parent);
+        }
+
+        PersonIdentity member(GedcomLine line) {
+            PersonIdentity person = line.value==null ? null : people.get(line.value.trim());
+            if(person==null){
+                result.ignoredLinks++;
+            }
+            return person;
+        }
+
+        boolean allMembersKnown(List<GedcomLine> record) {
+            for(GedcomLine line : record){
+                if(line.level==1 && ("HUSB".equals(line.tag) || "WIFE".equals(line.tag) || "CHIL".equals(line.tag))
+                        && (line.value==null || !people.containsKey(line.value.trim()))){
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        void putEventAttributes(List<GedcomLine> record, int eventIndex, String dateAttribute,
+                                String placeAttribute, Map<String, String> attributes) {
+            for(int i=eventIndex+1;i<record.size() && record.get(i).level>1;i++){
+                GedcomLine line = record.get(i);
+                if(line.level!=2 || line.value==null){
+                    continue;
+                }
+                if("DATE".equals(line.tag)){
+                    String date = convertDate(line.value);
+                    if(date!=null){
+                        attributes.put(dateAttribute, date);
+                    }
+                } else if("PLAC".equals(line.tag) && !line.value.trim().isEmpty()){
+                    attributes.put(placeAttribute, truncate(line.value.trim(), MAX_TEXT_LENGTH));
+                }
+            }
+        }
+
+        /**
+         * Joins a value with its CONT (new line) and CONC (same line) continuation lines.
+         */
+        String continuedText(List<GedcomLine> record, int index) {
+            GedcomLine first = record.get(index);
+            StringBuilder text = new StringBuilder(first.value==null ? "" : first.value);
+            for(int i=index+1;i<record.size() && record.get(i).level>first.level;i++){
+                GedcomLine line = record.get(i);
+                if(line.level!=first.level+1){
+                    continue;
+                }
+                if("CONT".equals(line.tag)){
+                    text.append('\n').append(line.value==null ? "" : line.value);
+                } else if("CONC".equals(line.tag)){
+                    text.append(line.value==null ? "" : line.value);
+                }
+            }
+            return text.toString();
+        }
+
+        /**
+         * @return the citation text of a SOUR line, its PAGE for a pointer to a source record
+         */
+        String sourceReference(List<GedcomLine> record, int index) {
+            GedcomLine source = record.get(index);
+            if(!source.isPointer()){
+                return continuedText(record, index);
+            }
+            for(int i=index+1;i<record.size() && record.get(i).level>source.level;i++){
+                GedcomLine line = record.get(i);
+                if(line.level==source.level+1 && "PAGE".equals(line.tag) && line.value!=null){
+                    return source.value + " " + line.value;
+                }
+            }
+            return source.value;
+        }
+
+        boolean commit() throws IOException {
+            if(!batch.commit()){
+                return false;
+            }
+            writeCheckpoint();
+            if(progress!=null){
+                long elapsed = Math.max(1, System.currentTimeMillis() - startTime);
+                progress.println(String.format("Imported %d records, %d people, %d families (%.1f records/sec)",
+                        result.recordsRead, result.peopleImported, result.familiesImported,
+                        (result.recordsRead - result.recordsSkippedOnResume) * 1000.0 / elapsed));
+            }
+            return true;
+        }
+
+        void writeCheckpoint() throws IOException {
+            if(checkpoint==null){
+                uncommittedPeople.clear();
+                uncommittedFamilies.clear();
+                return;
+            }
+            if(!uncommittedPeople.isEmpty()){
+                try (BufferedWriter writer = Files.newBufferedWriter(peopleFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for(String xref : uncommittedPeople){
+                        PersonIdentity person = people.get(xref);
+                        writer.write(xref + "\t" + person.getPersonId() + "\t" + person.getName());
+                        writer.newLine();
+                    }
+                }
+                uncommittedPeople.clear();
+            }
+            if(!uncommittedFamilies.isEmpty()){
+                try (BufferedWriter writer = Files.newBufferedWriter(familiesFile, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for(String xref : uncommittedFamilies){
+                        writer.write(xref);
+                        writer.newLine();
+                    }
+                }
+                uncommittedFamilies.clear();
+            }
+            // families still waiting for people must be read again when resuming; the records after them are
+            // replayed too, where imported people and families are skipped by their GEDCOM identifiers so
+            // partnerings and dissolutions are not recorded twice
+            long safeRecord = deferredFamilies.isEmpty() ? recordIndex : deferredFamilies.peekFirst().recordIndex;
+            Properties properties = new Properties();
+            properties.setProperty(RESUME_RECORD_PROPERTY, Long.toString(safeRecord));
+            Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+            try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+                properties.store(writer, "GEDCOM import checkpoint");
+            }
+            Files.move(temporary, checkpoint, StandardCopyOption.REPLACE_EXISTING);
+        }
+
+        GedcomImportResult finish(boolean completed) throws IOException {
+            result.completed = completed;
+            result.elapsedMillis = System.currentTimeMillis() - startTime;
+            if(completed && checkpoint!=null){
+                Files.deleteIfExists(checkpoint);
+                Files.deleteIfExists(peopleFile);
+                Files.deleteIfExists(familiesFile);
+            }
+            return result;
+        }
+    }
+}
@@ -1,20 +1,79 @@
 package pkg;
 
-import java.sql.*;
-import java.text.ParseException;
-import java.text.SimpleDateFormat;
 import java.util.*;
-import java.util.Date;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class Genealogy {
 
-    static final int MARRIAGE_DB_KEY = 1;
-    static final int DIVORCE_DB_KEY = 2;
-    static final int NO_DATES_PROVIDED = 1;
-    static final int BOTH_DATES_PROVIDED = 2;
-    static final int START_DATE_PROVIDED = 3;
-    static final int END_DATE_PROVIDED = 4;
+    private final GenealogyStore store;
+    private final boolean memoryIndexes;
+    // in-memory indexes are loaded on first use and updated after every successful write;
+    // loading and updating both hold indexLock so a write made during loading is not lost
+    private final Object indexLock = new Object();
+    // recordChild and batch commits check for a cycle and store the relations while holding relationLock,
+    // so two relations that close a cycle between them cannot both pass the check
+    private final Object relationLock = new Object();
+    private volatile PedigreeGraph pedigree;
+    private volatile NameIndex nameIndex;
+    private volatile AttributeIndex attributeIndex;
+    private volatile MediaIndex mediaIndex;
+    private final RelativesCache relativesCache = new RelativesCache(RelativesCache.DEFAULT_MAX_WEIGHT);
+
+    /**
+     * Creates a Genealogy backed by the MySQL database configured in DBConnection.
+     */
+    public Genealogy() {
+        this(new JdbcGenealogyStore());
+    }
+
+    /**
+     * Creates a Genealogy backed by the given storage engine,
+     * e.g. a JdbcGenealogyStore or an InMemoryGenealogyStore.
+     * @param store storage engine that persists the family tree and media archive
+     */
+    public Genealogy(GenealogyStore store) {
+        this(store, true);
+    }
+
+    /**
+     * Creates a Genealogy backed by the given storage engine.
+     * @param store storage engine that persists the family tree and media archive
+     * @param memoryIndexes true to answer queries from in-memory indexes where possible; false to send
+     *                      every query to the store, e.g. when other programs write to the same database
+     */
+    public Genealogy(GenealogyStore store, boolean memoryIndexes) {
+        if(store==null){
+            throw new IllegalArgumentException("store cannot be null");
+        }
+        this.store = store;
+        this.memoryIndexes = memoryIndexes;
+    }
+
+    /**
+     * Open a batch that groups many family tree edits into few transactions.
+     * @param batchSize number of queued edits after which the batch commits automatically
+     * @return a new batch, commit() it before closing to keep the edits
+     */
+    public GenealogyBatch openBatch(int batchSize) {
+        return new GenealogyBatch(batchSize, this::applyBatch, this::storedAncestry);
+    }
 
+    /**
+     * Load the in-memory indexes now instead of on first use, e.g. at application startup.
+     * @return true if the indexes are loaded, false if the store could not be read
+     */
+    public Boolean loadIndexes() {
+        return !memoryIndexes || (pedigree()!=null && nameIndex()!=null && attributeIndex()!=null
+                && mediaIndex()!=null);
+    }
+
+    /**
+     * @return the cache of ancestors and descendents results, for its metrics and size limit
+     */
+    public RelativesCache getRelativesCache() {
+        return relativesCache;
+    }
 
     public PersonIdentity addPerson(String name){
         if(name==null){
@@ -23,51 +82,18 @@ public class Genealogy {
         if(name.trim().isEmpty()){
            throw new IllegalArgumentException("Name cannot be an empty string");
         }
-        String SQL = "INSERT INTO person_details(name) VALUES(?)";
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        PersonIdentity person = null;
-        ResultSet generatedKeys = null;
-        int result = 0;
-        boolean exceptionOccurred = false;
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(SQL, new String[] {"person_id"});
-            pStmt.setString(1,name);
-            result = pStmt.executeUpdate();
-            generatedKeys = pStmt.getGeneratedKeys();
-            if (result==0 || !generatedKeys.isBeforeFirst()){
-                throw new SQLException("Error while adding person");
-            } else {
-                int insertedId = 0;
-                while (generatedKeys.next()){
-                    insertedId = generatedKeys.getInt(1);
-                }
-                if(insertedId==0){
-                    throw new SQLException("Error while adding person");
-                }
-                person = new PersonIdentity(insertedId, name);
-            }
-        } catch(SQLException e){
-            exceptionOccurred = true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
+
+        PersonIdentity person = store.addPerson(name);
+        if(person!=null){
+            synchronized (indexLock) {
+                if(pedigree!=null){
+                    pedigree.addPerson(person.getPersonId(), person.getName());
                 }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
+                if(nameIndex!=null){
+                    nameIndex.addPerson(person.getPersonId(), person.getName());
                 }
             }
         }
-        if(exceptionOccurred){
-            return null;
-        }
         return person;
     }
 
@@ -84,41 +110,8 @@ public class Genealogy {
         if(reference.trim().isEmpty()){
             throw new IllegalArgumentException("reference cannot be an empty string");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        String SQL = "INSERT INTO person_references (reference, person_id) VALUES(?, ?)";
-        int result = 0;
-        int index = 1;
-        boolean exceptionOccurred = false;
-
-        try{
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(SQL);
-            pStmt.setString(index++, reference);
-            pStmt.setInt(index, person.getPersonId());
-            result = pStmt.executeUpdate();
-        } catch (SQLException e){
-            exceptionOccurred = true;
-        } finally {
-            if (pStmt != null) {
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
 
-        if(exceptionOccurred){
-            return false;
-        }
-
-        return result!=0;
+        return store.recordReference(person, reference);
     }
 
     public Boolean recordNote(PersonIdentity person, String note){
@@ -134,41 +127,8 @@ public class Genealogy {
         if(note.trim().isEmpty()){
             throw new IllegalArgumentException("note cannot be an empty string");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        String SQL = "INSERT INTO person_notes (note, person_id) VALUES(?, ?)";
-        int result = 0;
-        int index = 1;
-        boolean exceptionOccurred = false;
-
-        try{
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(SQL);
-            pStmt.setString(index++, note);
-            pStmt.setInt(index, person.getPersonId());
-            result = pStmt.executeUpdate();
-        } catch (SQLException e){
-            exceptionOccurred = true;
-        } finally {
-            if (pStmt != null) {
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
 
-        if(exceptionOccurred){
-            return false;
-        }
-
-        return result!=0;
+        return store.recordNote(person, note);
     }
 
     public PersonIdentity findPerson(String name){
@@ -178,60 +138,47 @@ public class Genealogy {
         if(name.trim().isEmpty()){
             throw new IllegalArgumentException("name cannot be an empty string");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        PersonIdentity person = null;
-        boolean exceptionOccurred = false;
-
-        String SQL = "SELECT * FROM person_details WHERE name=?";
-
-        try {
-                conn = DBConnection.getConnection();
-                pStmt = conn.prepareStatement(SQL);
-                pStmt.setString(1, name);
-                resultSet = pStmt.executeQuery();
-                int personId = 0;
-                int rowCount = 0;
-                while (resultSet.next()){
-                    rowCount++;
-                    personId = resultSet.getInt("person_id");
-                }
-
-                if(rowCount>1){
-                    throw new RuntimeException();
-                }
 
-                if(personId != 0){
-                    person = new PersonIdentity(personId, name);
+        NameIndex index = nameIndex();
+        if(index!=null){
+            PersonIdentity found = null;
+            for(PersonIdentity person : index.search(name, NameMatch.EXACT, Integer.MAX_VALUE)){
+                if(!NameIndex.sameName(person.getName(), name)){
+                    continue;
                 }
-
-            } catch (SQLException e) {
-                exceptionOccurred = true;
-            } finally {
-                if(pStmt!=null){
-                    try {
-                        pStmt.close();
-                    } catch (SQLException e) {
-                    }
-                }
-                if(resultSet!=null){
-                    try {
-                        resultSet.close();
-                    } catch (SQLException e) {
-                    }
-                }
-                try {
-                    if(conn!=null){
-                        conn.close();
-                    }
-                } catch (SQLException e) {
+                if(found!=null){
+                    throw new IllegalStateException("more than one person is named " + name + ", use searchPeople to list them");
                 }
+                found = person;
             }
-        if(exceptionOccurred){
+            return found;
+        }
+        return store.findPerson(name);
+    }
+
+    /**
+     * Search people by name, e.g. for autocomplete, ignoring case, accents and punctuation.
+     * Unlike findPerson it lists every person who shares a name.
+     * @param text the name or part of it
+     * @param match how the name must match the text
+     * @param limit maximum number of people to return
+     * @return the matching people, best matches first, null if memory indexes are disabled or the store could not be read
+     */
+    public List<PersonIdentity> searchPeople(String text, NameMatch match, int limit) {
+        if(text==null){
+            throw new IllegalArgumentException("search text cannot be null");
+        }
+        if(match==null){
+            throw new IllegalArgumentException("match cannot be null");
+        }
+        if(limit<1){
+            throw new IllegalArgumentException("limit must be at least 1");
+        }
+        NameIndex index = nameIndex();
+        if(index==null){
             return null;
         }
-        return person;
+        return index.search(text, match, limit);
     }
 
     String findName(PersonIdentity person) {
@@ -251,82 +198,16 @@ public class Genealogy {
         if(fileLocation.trim().isEmpty()){
             throw new IllegalArgumentException("file location cannot be an empty string");
         }
-        String CHECK_EXISTING_FILE = "SELECT * FROM media_details WHERE file_location=?";
-        String SQL = "INSERT INTO media_details(file_location) VALUES(?)";
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        FileIdentifier fileIdentifier = null;
-        ResultSet generatedKeys = null;
-        ResultSet resultSet = null;
-        int result = 0;
-        boolean exceptionOccurred = false;
-        int existingMediaId = 0;
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt=conn.prepareStatement(CHECK_EXISTING_FILE);
 
-            pStmt.setString(1,fileLocation);
-
-            resultSet = pStmt.executeQuery();
-
-            while(resultSet.next()){
-                existingMediaId=resultSet.getInt("media_id");
-            }
-
-            if(existingMediaId!=0){
-                throw new IllegalArgumentException("Media file already exists");
-            }
-
-            pStmt.close();
-            pStmt = conn.prepareStatement(SQL, new String[] {"media_id"});
-            pStmt.setString(1,fileLocation);
-            result = pStmt.executeUpdate();
-            generatedKeys = pStmt.getGeneratedKeys();
-            if (result==0 || !generatedKeys.isBeforeFirst()){
-                throw new SQLException();
-            } else {
-                int insertedId = 0;
-                while (generatedKeys.next()){
-                    insertedId = generatedKeys.getInt(1);
-                }
-                if(insertedId==0){
-                    throw new SQLException();
-                }
-                fileIdentifier = new FileIdentifier(insertedId, fileLocation);
-            }
-        } catch(SQLException e){
-            exceptionOccurred = true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(generatedKeys!=null){
-                try {
-                    generatedKeys.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
+        FileIdentifier file = store.addMediaFile(fileLocation);
+        if(file!=null){
+            synchronized (indexLock) {
+                if(mediaIndex!=null){
+                    mediaIndex.addMediaFile(file.getMediaId(), file.getFileLocation());
                 }
             }
         }
-        if(exceptionOccurred){
-            return null;
-        }
-        return fileIdentifier;
+        return file;
     }
 
     FileIdentifier findMediaFile(String fileLocation){
@@ -336,60 +217,8 @@ public class Genealogy {
         if(fileLocation.trim().isEmpty()){
             throw new IllegalArgumentException("file location cannot be an empty string");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        FileIdentifier fileIdentifier = null;
-        boolean exceptionOccurred = false;
-        String SQL = "SELECT * FROM media_details WHERE file_location=?";;
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(SQL);
-            pStmt.setString(1, fileLocation);
-            resultSet = pStmt.executeQuery();
-
-            int media_id = 0;
-            int rowCount=0;
-
-            while (resultSet.next()){
-                rowCount++;
-                media_id = resultSet.getInt("media_id");
-            }
-
-            if(rowCount>1){
-                throw new RuntimeException();
-            }
-
-            if(media_id != 0){
-                fileIdentifier = new FileIdentifier(media_id, fileLocation);
-            }
 
-        } catch (SQLException e) {
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
-            }
-            try {
-                if(conn!=null){
-                    conn.close();
-                }
-            } catch (SQLException e) {
-            }
-        }
-        if(exceptionOccurred){
-            return null;
-        }
-        return fileIdentifier;
+        return store.findMediaFile(fileLocation);
     }
 
     String findFileLocation(FileIdentifier file) {
@@ -415,57 +244,21 @@ public class Genealogy {
         if(people.isEmpty()){
             return true;
         }
-        int i=0;
-        StringBuilder SQL = new StringBuilder("INSERT INTO person_media(person_id, media_id) VALUES ");
         for(PersonIdentity person : people){
             if(person.getPersonId()<1){
                 throw new IllegalArgumentException("invalid person object in list");
             }
-            SQL.append("( ?, ? ) ");
-            if(i!=(people.size()-1)){
-                SQL.append(", ");
-            }
-            i++;
         }
-        SQL.append("AS new ON DUPLICATE KEY UPDATE person_id=new.person_id, media_id=new.media_id");
-
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        int result = 0;
-        boolean exceptionOccurred = false;
 
-        try{
-            conn = DBConnection.getConnection();
-
-            int index=1;
-            pStmt = conn.prepareStatement(SQL.toString());
-            for(PersonIdentity person : people) {
-                pStmt.setInt(index++, person.getPersonId());
-                pStmt.setInt(index++, fileIdentifier.getMediaId());
-            }
-            result = pStmt.executeUpdate();
-
-        } catch (SQLException e) {
-            e.printStackTrace();
-            exceptionOccurred = true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
+        Boolean linked = store.peopleInMedia(fileIdentifier, people);
+        if(Boolean.TRUE.equals(linked)){
+            synchronized (indexLock) {
+                if(mediaIndex!=null){
+                    mediaIndex.peopleInMedia(fileIdentifier.getMediaId(), people);
                 }
             }
         }
-        if(exceptionOccurred){
-            return false;
-        }
-        return result!=0;
+        return linked;
     }
 
     Boolean tagMedia(FileIdentifier fileIdentifier, String tag) {
@@ -481,102 +274,16 @@ public class Genealogy {
         if(tag.trim().isEmpty()){
             throw new IllegalArgumentException("tag cannot be an empty string");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        ResultSet generatedKeys = null;
-        String CHECK_EXISTING_TAG = "SELECT * FROM media_tags_types WHERE tag_name=?";
-        String CHECK_EXISTING_RECORD = "SELECT * FROM media_tags WHERE media_id=? AND tag_id=?";
-        String INSERT_NEW_TAG = "INSERT INTO media_tags_types(tag_name) VALUES(?)";
-        String RECORD_TAG = "INSERT INTO media_tags (tag_id, media_id) VALUES(?, ?)";
-        int result = 0;
-        int existingRecord = 0;
-        boolean exceptionOccurred = false;
-
-        int existingTagId=0;
-
-        try{
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(CHECK_EXISTING_TAG);
-            pStmt.setString(1, tag);
-            resultSet = pStmt.executeQuery();
-
-            while (resultSet.next()){
-                existingTagId=resultSet.getInt("tag_id");
-            }
-
-            if(existingTagId==0){
-                pStmt.close();
-                pStmt = conn.prepareStatement(INSERT_NEW_TAG, new String[]{"tag_id"});
-                pStmt.setString(1,tag);
-
-                result = pStmt.executeUpdate();
-                generatedKeys=pStmt.getGeneratedKeys();
 
-                if(result==0 || !generatedKeys.isBeforeFirst()){
-                    throw new SQLException();
-                }
-
-                while(generatedKeys.next()){
-                    existingTagId=generatedKeys.getInt(1);
-                }
-            } else {
-                pStmt.close();
-                resultSet.close();
-
-                pStmt = conn.prepareStatement(CHECK_EXISTING_RECORD);
-                pStmt.setInt(1,fileIdentifier.getMediaId());
-                pStmt.setInt(2,existingTagId);
-
-                resultSet = pStmt.executeQuery();
-
-
-                while(resultSet.next()){
-                    existingRecord++;
-                }
-            }
-
-            if(existingTagId==0){
-                throw new SQLException();
-            }
-
-            if(existingRecord==0){
-                pStmt.close();
-                pStmt = conn.prepareStatement(RECORD_TAG);
-
-                pStmt.setInt(1,existingTagId);
-                pStmt.setInt(2,fileIdentifier.getMediaId());
-
-                result = pStmt.executeUpdate();
-
-                if(result==0){
-                    throw new SQLException();
-                }
-            }
-
-        } catch (SQLException e){
-            e.printStackTrace();
-            exceptionOccurred = true;
-        } finally {
-            if (pStmt != null) {
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
+        Boolean tagged = store.tagMedia(fileIdentifier, tag);
+        if(Boolean.TRUE.equals(tagged)){
+            synchronized (indexLock) {
+                if(mediaIndex!=null){
+                    mediaIndex.tagMedia(fileIdentifier.getMediaId(), tag);
                 }
             }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-
-        if(exceptionOccurred){
-            return false;
         }
-
-        return true;
+        return tagged;
     }
 
     Boolean recordAttributes(PersonIdentity person, Map<String, String> attributes) {
@@ -598,148 +305,38 @@ public class Genealogy {
                 throw new IllegalArgumentException("empty value passed in attribute");
             }
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-        int result = 0;
-
-        Map<String, Integer> attributeTypes = new HashMap<>();
-        String GET_ATTRIBUTE_KEYS = "SELECT * FROM person_attributes_types";
-        StringBuilder INSERT_ATTRIBUTES_SQL = new StringBuilder("INSERT INTO person_attributes VALUES ");
-        for(int i=0;i<attributeCount;i++){
-            if(i<(attributeCount-1)){
-                INSERT_ATTRIBUTES_SQL.append("(?,?,?), ");
-            } else {
-                INSERT_ATTRIBUTES_SQL.append("(?,?,?) ");
-            }
-        }
-
-        INSERT_ATTRIBUTES_SQL.append("AS new ON DUPLICATE KEY UPDATE attribute_value=new.attribute_value");
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(GET_ATTRIBUTE_KEYS);
-
-            resultSet = pStmt.executeQuery();
-
-            if(!resultSet.isBeforeFirst()){
-                throw new SQLException("No attribute types are defined in the database");
-            }
-
-            while (resultSet.next()){
-                attributeTypes.put(resultSet.getString("attribute_type"), resultSet.getInt("attribute_id"));
-            }
 
-            pStmt.close();
-            pStmt = conn.prepareStatement(INSERT_ATTRIBUTES_SQL.toString());
-
-            int index=1;
-            for(Map.Entry<String,String> attribute: attributes.entrySet()){
-                int attributeId = 0;
-                if(!attributeTypes.containsKey(attribute.getKey())){
-                    attributeId = addNewAttributeType(attribute.getKey(), "person_attributes_types", conn);
-                } else {
-                    if(attribute.getKey().contains("date")){
-                        if(!attribute.getValue().matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")
-                                && !attribute.getValue().matches("^\\d{4}-(0[1-9]|1[0-2])")
-                                && !attribute.getValue().matches("^\\d{4}")){
-                            throw new IllegalArgumentException("Invalid Date Format");
-                        }
-                    }
-                    attributeId=attributeTypes.get(attribute.getKey());
-                }
-                if(attributeId==0){
-                    throw new SQLException("Cannot find attribute type id");
-                }
-                pStmt.setInt(index++,person.getPersonId());
-                pStmt.setInt(index++, attributeId);
-                pStmt.setString(index++, attribute.getValue());
-            }
-
-            result = pStmt.executeUpdate();
-
-            if(result==0){
-                throw new SQLException();
-            }
-
-        } catch(SQLException sqe){
-            exceptionOccurred = true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
+        Boolean recorded = store.recordAttributes(person, attributes);
+        if(Boolean.TRUE.equals(recorded)){
+            synchronized (indexLock) {
+                if(attributeIndex!=null){
+                    attributeIndex.recordAttributes(person.getPersonId(), attributes);
                 }
             }
         }
-        if(exceptionOccurred){
-            return false;
-        }
-
-        return true;
+        return recorded;
     }
 
-    int addNewAttributeType(String attributeType, String tableName, Connection conn){
-        if(attributeType==null){
-            return 0;
+    /**
+     * Find the people whose attributes match every filter, e.g. everybody with occupation "Soldier"
+     * born between 1900 and 1950.
+     * @return the matching people in order of their ids, null if memory indexes are disabled or the store could not be read
+     */
+    public List<PersonIdentity> findPeopleByAttributes(List<AttributeFilter> filters) {
+        if(filters==null || filters.isEmpty()){
+            throw new IllegalArgumentException("at least one attribute filter is needed");
         }
-        if(attributeType.trim().isEmpty()){
-            return 0;
-        }
-
-        PreparedStatement pStmt = null;
-        boolean exceptionOccurred = false;
-        ResultSet generatedKeys=null;
-        int result = 0;
-        int newKey=0;
-
-        String INSERT_ATTRIBUTE_TYPE = "INSERT INTO "+tableName+" (attribute_type) VALUES(?)";
-
-        try {
-            pStmt = conn.prepareStatement(INSERT_ATTRIBUTE_TYPE,new String[]{"attribute_id"});
-
-            pStmt.setString(1,attributeType);
-
-            result=pStmt.executeUpdate();
-            generatedKeys=pStmt.getGeneratedKeys();
-
-            if(result==0 || generatedKeys==null){
-                throw new Exception();
-            }
-
-            while(generatedKeys.next()){
-                newKey = generatedKeys.getInt(1);
-            }
-
-            if(newKey==0){
-                throw new Exception();
-            }
-
-        } catch(SQLException sqe){
-            sqe.printStackTrace();
-            exceptionOccurred = true;
-        } catch (Exception e){
-            exceptionOccurred=true;
-        }finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
+        for(AttributeFilter filter : filters){
+            if(filter==null){
+                throw new IllegalArgumentException("attribute filters cannot be null");
             }
         }
-        if(exceptionOccurred){
-            return 0;
+        AttributeIndex attributes = attributeIndex();
+        NameIndex names = nameIndex();
+        if(attributes==null || names==null){
+            return null;
         }
-        return newKey;
+        return names.people(attributes.find(filters));
     }
 
     Boolean recordMediaAttributes(FileIdentifier fileIdentifier, Map<String, String> attributes) {
@@ -760,93 +357,24 @@ public class Genealogy {
             if(attribute.getValue().trim().isEmpty()){
                 throw new IllegalArgumentException("empty value passed in attribute");
             }
-        }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-        int result = 0;
-
-        Map<String, Integer> attributeTypes = new HashMap<>();
-        String GET_ATTRIBUTE_KEYS = "SELECT * FROM media_attributes_types";
-        StringBuilder INSERT_ATTRIBUTES_SQL = new StringBuilder("INSERT INTO media_attributes VALUES ");
-        for(int i=0;i<attributeCount;i++){
-            if(i<(attributeCount-1)){
-                INSERT_ATTRIBUTES_SQL.append("(?,?,?), ");
-            } else {
-                INSERT_ATTRIBUTES_SQL.append("(?,?,?) ");
+            String type = NameIndex.fold(attribute.getKey());
+            if(type.equals(GeoIndex.LATITUDE_ATTRIBUTE) && GeoIndex.parseCoordinate(attribute.getValue(), 90)==null){
+                throw new IllegalArgumentException("latitude must be a number of degrees between -90 and 90");
             }
-        }
-
-        INSERT_ATTRIBUTES_SQL.append("AS new ON DUPLICATE KEY UPDATE attribute_value=new.attribute_value");
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(GET_ATTRIBUTE_KEYS);
-
-            resultSet = pStmt.executeQuery();
-
-            if(!resultSet.isBeforeFirst()){
-                throw new SQLException("No attribute types are defined in the database");
-            }
-
-            while (resultSet.next()){
-                attributeTypes.put(resultSet.getString("attribute_type"), resultSet.getInt("attribute_id"));
-            }
-
-            pStmt.close();
-            pStmt = conn.prepareStatement(INSERT_ATTRIBUTES_SQL.toString());
-
-            int index=1;
-            for(Map.Entry<String,String> attribute: attributes.entrySet()){
-                int attributeId = 0;
-                if(!attributeTypes.containsKey(attribute.getKey())){
-                    attributeId = addNewAttributeType(attribute.getKey(), "media_attributes_types", conn);
-                } else {
-                    if(attribute.getKey().contains("date")){
-                        if(!attribute.getValue().matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")
-                        && !attribute.getValue().matches("^\\d{4}-(0[1-9]|1[0-2])")
-                        && !attribute.getValue().matches("^\\d{4}")){
-                            throw new IllegalArgumentException("Invalid Date format");
-                        }
-                    }
-                    attributeId=attributeTypes.get(attribute.getKey());
-                }
-                if(attributeId==0){
-                    throw new SQLException("Cannot find attribute type id");
-                }
-                pStmt.setInt(index++,fileIdentifier.getMediaId());
-                pStmt.setInt(index++, attributeId);
-                pStmt.setString(index++, attribute.getValue());
-            }
-
-            result = pStmt.executeUpdate();
-
-            if(result==0){
-                throw new SQLException();
+            if(type.equals(GeoIndex.LONGITUDE_ATTRIBUTE) && GeoIndex.parseCoordinate(attribute.getValue(), 180)==null){
+                throw new IllegalArgumentException("longitude must be a number of degrees between -180 and 180");
             }
+        }
 
-        } catch(SQLException sqe){
-            exceptionOccurred = true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
+        Boolean recorded = store.recordMediaAttributes(fileIdentifier, attributes);
+        if(Boolean.TRUE.equals(recorded)){
+            synchronized (indexLock) {
+                if(mediaIndex!=null){
+                    mediaIndex.recordAttributes(fileIdentifier.getMediaId(), attributes);
                 }
             }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-        if(exceptionOccurred){
-            return false;
         }
-
-        return true;
+        return recorded;
     }
 
     Boolean recordChild(PersonIdentity parent, PersonIdentity child) {
@@ -862,82 +390,60 @@ public class Genealogy {
         if(child.getPersonId()<1){
             throw new IllegalArgumentException("invalid child object");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        int result = 0;
-        boolean exceptionOccurred = false;
-        int noOfParents = 0, existingParentId=0,existingChildId=0;
-
-        String CHECK_EXISTING_RELATION = "SELECT * FROM parent_child WHERE parent_id=? AND child_id=?";
-        String FIND_PARENTS = "SELECT COUNT(parent_id) as noOfParents FROM parent_child WHERE child_id=?";
-        String INSERT_NEW_CHILD = "INSERT INTO parent_child VALUES(?,?)";
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt=conn.prepareStatement(CHECK_EXISTING_RELATION);
-            pStmt.setInt(1,parent.getPersonId());
-            pStmt.setInt(2,child.getPersonId());
-            resultSet = pStmt.executeQuery();
-
-            while(resultSet.next()){
-                existingParentId=resultSet.getInt("parent_id");
-                existingChildId=resultSet.getInt("child_id");
+        if(parent.getPersonId()==child.getPersonId()){
+            throw new IllegalArgumentException("a person cannot be their own parent");
+        }
+        synchronized (relationLock) {
+            // answered from the pedigree graph, or from the store when the memory indexes are disabled
+            Boolean cycle = isAncestor(child, parent);
+            if(cycle==null){
+                return false;
             }
-
-            if(!(existingParentId>0 && existingChildId>0)){
-                pStmt.close();
-                resultSet.close();
-                pStmt = conn.prepareStatement(FIND_PARENTS);
-                pStmt.setInt(1,child.getPersonId());
-                resultSet = pStmt.executeQuery();
-
-                while(resultSet.next()){
-                    noOfParents = resultSet.getInt("noOfParents");
-                }
-
-                if(noOfParents>=2){
-                    throw new IllegalArgumentException("2 parents already exist for child");
-                }
-
-                pStmt.close();
-                pStmt = conn.prepareStatement(INSERT_NEW_CHILD);
-                pStmt.setInt(1,parent.getPersonId());
-                pStmt.setInt(2,child.getPersonId());
-
-                result = pStmt.executeUpdate();
-
-                if(result==0){
-                    throw new SQLException();
-                }
+            if(cycle){
+                throw new IllegalArgumentException("child is an ancestor of the parent");
             }
 
-        } catch(SQLException e){
-            exceptionOccurred = true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
+            Boolean recorded = store.recordChild(parent, child);
+            if(Boolean.TRUE.equals(recorded)){
+                synchronized (indexLock) {
+                    if(pedigree!=null){
+                        pedigree.addRelation(parent.getPersonId(), child.getPersonId());
+                    }
                 }
+                // invalidated only once the graph has the relation, so a result computed from the old graph
+                // read the old version and is not cached
+                relativesCache.relationAdded(parent.getPersonId(), child.getPersonId());
             }
+            return recorded;
+        }
+    }
+
+    /**
+     * Report whether the first person is a parent, grandparent or earlier ancestor of the second.
+     * @return true if ancestor is an ancestor of descendant, null if the store could not be read
+     */
+    Boolean isAncestor(PersonIdentity ancestor, PersonIdentity descendant) {
+        if(ancestor==null || descendant==null){
+            throw new IllegalArgumentException("person objects cannot be null");
         }
-        if(exceptionOccurred){
-            return false;
+        if(ancestor.getPersonId()<1 || descendant.getPersonId()<1){
+            throw new IllegalArgumentException("invalid person objects");
+        }
+
+        PedigreeGraph graph = pedigree();
+        if(graph!=null && graph.contains(ancestor.getPersonId()) && graph.contains(descendant.getPersonId())){
+            return graph.isAncestor(ancestor.getPersonId(), descendant.getPersonId());
+        }
+        Set<PersonIdentity> ancestors = store.ancestors(descendant, Integer.MAX_VALUE);
+        if(ancestors==null){
+            return null;
+        }
+        for(PersonIdentity person : ancestors){
+            if(person.getPersonId()==ancestor.getPersonId()){
+                return true;
+            }
         }
-        return true;
+        return false;
     }
 
     Set<PersonIdentity> descendents(PersonIdentity person, Integer generations){
@@ -957,68 +463,22 @@ public class Genealogy {
             return descendants;
         }
 
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        int parentId = person.getPersonId();
-
-        String FIND_DESCENDANTS_RECURSIVE = "with recursive descendants (child_id, gen) as "+
-                "(select child_id, 1 from parent_child where parent_id=? " +
-                "union all " +
-                "select pc.child_id, d.gen+1 from descendants d " +
-                "inner join parent_child pc on pc.parent_id=d.child_id where d.gen<?) " +
-                "select pd.person_id, pd.name from descendants d inner join person_details pd on d.child_id=pd.person_id";
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(FIND_DESCENDANTS_RECURSIVE);
-
-            pStmt.setInt(1, parentId);
-            pStmt.setInt(2, generations);
-
-            resultSet = pStmt.executeQuery();
-
-
-            while(resultSet.next()){
-                int childId = resultSet.getInt("person_id");
-                String childName = resultSet.getString("name");
-                if(childId < 1 || childName == null || childName.trim().isEmpty()){
-                    throw new SQLException();
-                }
-                PersonIdentity child = new PersonIdentity(childId,childName);
-                descendants.add(child);
-            }
-
-        } catch (SQLException sqe){
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
+        Set<PersonIdentity> cached = relativesCache.get(person.getPersonId(), generations, false);
+        if(cached!=null){
+            return cached;
         }
-
-        if(exceptionOccurred){
-            return null;
+        long cacheVersion = relativesCache.getVersion();
+        Set<PersonIdentity> result;
+        PedigreeGraph graph = pedigree();
+        if(graph!=null && graph.contains(person.getPersonId())){
+            result = graph.descendents(person.getPersonId(), generations);
+        } else {
+            result = store.descendents(person, generations);
         }
-
-        return descendants;
+        if(result!=null){
+            relativesCache.put(person.getPersonId(), generations, false, result, cacheVersion);
+        }
+        return result;
     }
 
     Set<PersonIdentity> ancestors(PersonIdentity person, Integer generations){
@@ -1039,68 +499,44 @@ public class Genealogy {
             return ancestors;
         }
 
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        int childId = person.getPersonId();
-
-        String FIND_ANCESTORS_RECURSIVE = "with recursive ancestors (parent_id, gen) as " +
-                "(select parent_id, 1 from parent_child where child_id=? " +
-                "union all " +
-                "select pc.parent_id, a.gen+1 from parent_child pc " +
-                "inner join ancestors a on pc.child_id=a.parent_id where a.gen<?) " +
-                "select pd.person_id, pd.name from ancestors a inner join person_details pd on a.parent_id=pd.person_id";
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(FIND_ANCESTORS_RECURSIVE);
-
-            pStmt.setInt(1, childId);
-            pStmt.setInt(2, generations);
-
-            resultSet = pStmt.executeQuery();
-
-
-            while(resultSet.next()){
-                int parentId = resultSet.getInt("person_id");
-                String parentName = resultSet.getString("name");
-                if(parentId < 1 || parentName == null || parentName.trim().isEmpty()){
-                    throw new SQLException();
-                }
-                PersonIdentity parent = new PersonIdentity(parentId,parentName);
-                ancestors.add(parent);
-            }
-
-        } catch (SQLException sqe){
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
+        Set<PersonIdentity> cached = relativesCache.get(person.getPersonId(), generations, true);
+        if(cached!=null){
+            return cached;
         }
-
-        if(exceptionOccurred){
-            return null;
+        long cacheVersion = relativesCache.getVersion();
+        Set<PersonIdentity> result;
+        PedigreeGraph graph = pedigree();
+        if(graph!=null && graph.contains(person.getPersonId())){
+            result = graph.ancestors(person.getPersonId(), generations);
+        } else {
+            result = store.ancestors(person, generations);
         }
+        if(result!=null){
+            relativesCache.put(person.getPersonId(), generations, true, result, cacheVersion);
+        }
+        return result;
+    }
 
-        return ancestors;
+    /**
+     * Stream the ancestors of a person nearest generation first, expanding a generation only when the
+     * stream reaches it. Use this instead of ancestors() to page through or take the first few of a large pedigree.
+     * @param generations number of generations to walk, Integer.MAX_VALUE for all
+     * @return lazy stream of ancestors with their generation; reading it throws IllegalStateException
+     * if the store fails while a generation is expanded
+     */
+    public Stream<PersonGeneration> ancestorStream(PersonIdentity person, int generations) {
+        return generationStream(person, generations, true);
+    }
+
+    /**
+     * Stream the descendents of a person nearest generation first, expanding a generation only when the
+     * stream reaches it.
+     * @param generations number of generations to walk, Integer.MAX_VALUE for all
+     * @return lazy stream of descendents with their generation; reading it throws IllegalStateException
+     * if the store fails while a generation is expanded
+     */
+    public Stream<PersonGeneration> descendentStream(PersonIdentity person, int generations) {
+        return generationStream(person, generations, false);
     }
 
     BiologicalRelation findRelation(PersonIdentity person1, PersonIdentity person2) {
@@ -1110,91 +546,162 @@ public class Genealogy {
         if(person1.getPersonId()<1 || person2.getPersonId()<1){
             throw new IllegalArgumentException("invalid person objects");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        int depth1=-1;
-        int depth2=-1;
-        int LCA = -1;
-        BiologicalRelation biologicalRelation=null;
-
-        String FIND_LCA = "with table1 as ( " +
-                "with recursive parentList1 (child_id, parent_id, depth) as ( " +
-                "select child_id, parent_id, 1 from parent_child where child_id=? " +
-                "union all " +
-                "select pc.child_id, pc.parent_id, depth+1 from parent_child pc " +
-                "inner join parentList1 pl1 on pc.child_id=pl1.parent_id " +
-                "), initialNodeTable1 as ( " +
-                "select child_id, 0 as depth from parent_child where child_id=?) " +
-                "select child_id as parent_id, depth from initialNodeTable1 union select parent_id, depth from parentList1 " +
-                "), table2 as ( " +
-                "with recursive parentList2 (child_id, parent_id, depth) as ( " +
-                "select child_id, parent_id, 1 from parent_child where child_id=? " +
-                "union all " +
-                "select pc.child_id, pc.parent_id, depth+1 from parent_child pc " +
-                "inner join parentList2 pl2 on pc.child_id=pl2.parent_id " +
-                "), initialNodeTable2 as ( " +
-                "select child_id, 0 as depth from parent_child where child_id=?) " +
-                "select child_id as parent_id, depth from initialNodeTable2 union select parent_id, depth from parentList2 " +
-                ") select t1.parent_id as LCA, t1.depth as depth1, t2.depth as depth2 from table1 t1 inner join table2 t2 on t1.parent_id=t2.parent_id LIMIT 1";
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt=conn.prepareStatement(FIND_LCA);
-
-            pStmt.setInt(1,person1.getPersonId());
-            pStmt.setInt(2,person1.getPersonId());
-            pStmt.setInt(3,person2.getPersonId());
-            pStmt.setInt(4,person2.getPersonId());
-
-            resultSet = pStmt.executeQuery();
-
-            while(resultSet.next()){
-                LCA=resultSet.getInt("LCA");
-                depth1=resultSet.getInt("depth1");
-                depth2=resultSet.getInt("depth2");
-            }
 
-            if(LCA==-1 || depth1==-1 || depth2==-1){
-                throw new SQLException();
+        PedigreeGraph graph = pedigree();
+        if(graph!=null && graph.contains(person1.getPersonId()) && graph.contains(person2.getPersonId())){
+            if(!graph.mayBeRelated(person1.getPersonId(), person2.getPersonId())){
+                return null;
             }
+            return graph.findRelation(person1.getPersonId(), person2.getPersonId());
+        }
+        return store.findRelation(person1, person2);
+    }
 
-            int cousinship = Math.min(depth1, depth2)-1;
+    /**
+     * Report the chain of people through which two people are related, e.g. to explain a relation.
+     * Costs the same search as findRelation on the in-memory pedigree graph.
+     * @return the path through their closest common ancestor, null if they are not biologically related,
+     * either person is not known, or memory indexes are disabled
+     */
+    public RelationPath findRelationPath(PersonIdentity person1, PersonIdentity person2) {
+        if(person1==null || person2==null){
+            throw new IllegalArgumentException("person objects cannot be null");
+        }
+        if(person1.getPersonId()<1 || person2.getPersonId()<1){
+            throw new IllegalArgumentException("invalid person objects");
+        }
+        PedigreeGraph graph = pedigree();
+        if(graph==null || !graph.contains(person1.getPersonId()) || !graph.contains(person2.getPersonId())
+                || !graph.mayBeRelated(person1.getPersonId(), person2.getPersonId())){
+            return null;
+        }
+        return graph.findRelationPath(person1.getPersonId(), person2.getPersonId());
+    }
 
-            biologicalRelation = new BiologicalRelation();
-            biologicalRelation.setCousinship(cousinship);
-            biologicalRelation.setRemoval(Math.abs(depth1-depth2));
+    /**
+     * Report the relation paths of many pairs at once, spread over all processors.
+     * @param people1 first person of each pair
+     * @param people2 second person of each pair, at the same position as the first
+     * @return the path of each pair in the same order, with null for pairs that are not biologically related
+     * or contain an unknown person; null if memory indexes are disabled
+     */
+    public List<RelationPath> findRelationPaths(List<PersonIdentity> people1, List<PersonIdentity> people2) {
+        if(people1==null || people2==null){
+            throw new IllegalArgumentException("people cannot be null");
+        }
+        if(people1.size()!=people2.size()){
+            throw new IllegalArgumentException("both lists must have the same number of people");
+        }
+        int[] personIds1 = new int[people1.size()];
+        int[] personIds2 = new int[people2.size()];
+        for(int i=0;i<people1.size();i++){
+            PersonIdentity person1 = people1.get(i);
+            PersonIdentity person2 = people2.get(i);
+            if(person1==null || person2==null){
+                throw new IllegalArgumentException("person objects cannot be null");
+            }
+            if(person1.getPersonId()<1 || person2.getPersonId()<1){
+                throw new IllegalArgumentException("invalid person objects");
+            }
+            personIds1[i] = person1.getPersonId();
+            personIds2[i] = person2.getPersonId();
+        }
+        PedigreeGraph graph = pedigree();
+        if(graph==null){
+            return null;
+        }
+        // pairs with an unknown person have no path and are left out of the search
+        int[] known = new int[personIds1.length];
+        int knownCount = 0;
+        for(int i=0;i<personIds1.length;i++){
+            if(graph.contains(personIds1[i]) && graph.contains(personIds2[i])){
+                personIds1[knownCount] = personIds1[i];
+                personIds2[knownCount] = personIds2[i];
+                known[knownCount++] = i;
+            }
+        }
+        RelationPath[] paths = graph.findRelationPaths(Arrays.copyOf(personIds1, knownCount),
+                Arrays.copyOf(personIds2, knownCount));
+        List<RelationPath> result = new ArrayList<>(Collections.nCopies(people1.size(), (RelationPath) null));
+        for(int i=0;i<knownCount;i++){
+            result.set(known[i], paths[i]);
+        }
+        return result;
+    }
 
-        } catch (SQLException sqe){
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
+    /**
+     * Report how every pair of the given people is related, e.g. everybody who appears in a photo.
+     * @param people people to relate, duplicates are included once
+     * @return the relations of all pairs, null if the store could not be read
+     */
+    public RelationMatrix findRelations(Collection<PersonIdentity> people) {
+        if(people==null){
+            throw new IllegalArgumentException("people cannot be null");
+        }
+        Map<Integer, PersonIdentity> distinctPeople = new LinkedHashMap<>();
+        for(PersonIdentity person : people){
+            if(person==null){
+                throw new IllegalArgumentException("person objects cannot be null");
             }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
+            if(person.getPersonId()<1){
+                throw new IllegalArgumentException("invalid person objects");
             }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
+            distinctPeople.putIfAbsent(person.getPersonId(), person);
+        }
+
+        List<PersonIdentity> members = new ArrayList<>(distinctPeople.values());
+        RelationMatrix matrix = new RelationMatrix(members);
+        int[] personIds = new int[members.size()];
+        boolean inGraph = true;
+        PedigreeGraph graph = pedigree();
+        for(int i=0;i<members.size();i++){
+            personIds[i] = members.get(i).getPersonId();
+            inGraph = inGraph && graph!=null && graph.contains(personIds[i]);
+        }
+        if(inGraph){
+            graph.findRelations(personIds, matrix);
+            return matrix;
+        }
+
+        for(int row=0;row<members.size();row++){
+            for(int column=row+1;column<members.size();column++){
+                matrix.setRelation(row, column, store.findRelation(members.get(row), members.get(column)));
             }
         }
+        return matrix;
+    }
 
-        if(exceptionOccurred){
+    /**
+     * List the groups of people connected by parent/child relations, e.g. to shard or prewarm per family.
+     * @param minimumSize smallest cluster to list, 1 includes people without any relations
+     * @return the clusters, largest first, null if the store could not be read or memory indexes are disabled
+     */
+    public List<FamilyCluster> findFamilyClusters(int minimumSize) {
+        if(minimumSize<1){
+            throw new IllegalArgumentException("minimum size must be at least 1");
+        }
+        PedigreeGraph graph = pedigree();
+        if(graph==null){
             return null;
         }
+        return graph.findFamilyClusters(minimumSize);
+    }
 
-        return biologicalRelation;
+    /**
+     * @return the cluster the person belongs to, null if the person is not known or memory indexes are disabled
+     */
+    public FamilyCluster findFamilyCluster(PersonIdentity person) {
+        if(person==null){
+            throw new IllegalArgumentException("person object cannot be null");
+        }
+        if(person.getPersonId()<1){
+            throw new IllegalArgumentException("invalid person object");
+        }
+        PedigreeGraph graph = pedigree();
+        if(graph==null){
+            return null;
+        }
+        return graph.findFamilyCluster(person.getPersonId());
     }
 
     Boolean recordPartnering(PersonIdentity partner1, PersonIdentity partner2){
@@ -1204,74 +711,8 @@ public class Genealogy {
         if(partner1.getPersonId()<1 || partner2.getPersonId()<1){
             throw new IllegalArgumentException("invalid person objects");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        String FIND_EXISTING_EVENT_TYPE = "SELECT event_type_id FROM person_events WHERE (person_id_1=? AND person_id_2=?) OR (person_id_2=? AND person_id_1=?) ORDER BY event_id DESC LIMIT 1";
-        String INSERT_NEW_EVENT = "INSERT INTO person_events(person_id_1,person_id_2,event_type_id) VALUES(?,?,?)";
-        int existingEventTypeId=0;
-        int result=0;
-
-        try {
-            conn=DBConnection.getConnection();
-            pStmt = conn.prepareStatement(FIND_EXISTING_EVENT_TYPE);
 
-            pStmt.setInt(1,partner1.getPersonId());
-            pStmt.setInt(2,partner2.getPersonId());
-            pStmt.setInt(3,partner1.getPersonId());
-            pStmt.setInt(4,partner2.getPersonId());
-
-            resultSet = pStmt.executeQuery();
-
-            while(resultSet.next()){
-                existingEventTypeId=resultSet.getInt("event_type_id");
-            }
-
-            if(existingEventTypeId != MARRIAGE_DB_KEY){
-                pStmt.close();
-                pStmt = conn.prepareStatement(INSERT_NEW_EVENT);
-
-                pStmt.setInt(1,partner1.getPersonId());
-                pStmt.setInt(2,partner2.getPersonId());
-                pStmt.setInt(3,MARRIAGE_DB_KEY);
-
-                result=pStmt.executeUpdate();
-
-                if(result==0){
-                    throw new SQLException();
-                }
-            }
-
-        } catch (SQLException sqe){
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-
-        if(exceptionOccurred){
-            return false;
-        }
-
-        return true;
+        return store.recordPartnering(partner1, partner2);
     }
 
     Boolean recordDissolution(PersonIdentity partner1, PersonIdentity partner2){
@@ -1281,74 +722,8 @@ public class Genealogy {
         if(partner1.getPersonId()<1 || partner2.getPersonId()<1){
             throw new IllegalArgumentException("invalid person objects");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        String FIND_EXISTING_EVENT_TYPE = "SELECT event_type_id FROM person_events WHERE (person_id_1=? AND person_id_2=?) OR (person_id_2=? AND person_id_1=?) ORDER BY event_id DESC LIMIT 1";
-        String INSERT_NEW_EVENT = "INSERT INTO person_events(person_id_1,person_id_2,event_type_id) VALUES(?,?,?)";
-        int existingEventTypeId=0;
-        int result=0;
-
-        try {
-            conn=DBConnection.getConnection();
-            pStmt = conn.prepareStatement(FIND_EXISTING_EVENT_TYPE);
-
-            pStmt.setInt(1,partner1.getPersonId());
-            pStmt.setInt(2,partner2.getPersonId());
-            pStmt.setInt(3,partner1.getPersonId());
-            pStmt.setInt(4,partner2.getPersonId());
-
-            resultSet = pStmt.executeQuery();
-
-            while(resultSet.next()){
-                existingEventTypeId=resultSet.getInt("event_type_id");
-            }
-
-            if(existingEventTypeId != DIVORCE_DB_KEY){
-                pStmt.close();
-                pStmt = conn.prepareStatement(INSERT_NEW_EVENT);
-
-                pStmt.setInt(1,partner1.getPersonId());
-                pStmt.setInt(2,partner2.getPersonId());
-                pStmt.setInt(3,DIVORCE_DB_KEY);
-
-                result=pStmt.executeUpdate();
-
-                if(result==0){
-                    throw new SQLException();
-                }
-            }
 
-        } catch (SQLException sqe){
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-
-        if(exceptionOccurred){
-            return false;
-        }
-
-        return true;
+        return store.recordDissolution(partner1, partner2);
     }
 
     List<String> notesAndReferences(PersonIdentity person){
@@ -1359,73 +734,7 @@ public class Genealogy {
             throw new IllegalArgumentException("invalid person object");
         }
 
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        List<String> notesReferences = new ArrayList<>();
-
-        String GET_NOTES_REFERENCES = "with table1 as ( " +
-                "select pd.person_id, pd.name, pn.note as noteOrReference from person_details pd " +
-                "inner join person_notes pn " +
-                "on pd.person_id=pn.person_id " +
-                "where pd.person_id=? " +
-                "order by pn.note_id ASC " +
-                "), table2 as ( " +
-                "select pd.person_id, pd.name, pr.reference as noteOrReference from person_details pd " +
-                "inner join person_references pr " +
-                "on pd.person_id=pr.person_id " +
-                "where pd.person_id=? " +
-                "order by pr.reference_id ASC " +
-                ") select * from table1 " +
-                "union " +
-                "select * from table2;";
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(GET_NOTES_REFERENCES);
-
-            pStmt.setInt(1,person.getPersonId());
-            pStmt.setInt(2,person.getPersonId());
-
-            resultSet=pStmt.executeQuery();
-
-            while(resultSet.next()){
-                notesReferences.add(resultSet.getString("noteOrReference"));
-            }
-
-        }catch (SQLException sqe){
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        if(exceptionOccurred){
-            return null;
-        }
-
-        return notesReferences;
+        return store.notesAndReferences(person);
     }
 
     Set<FileIdentifier> findMediaByTag(String tag, String startDate, String endDate){
@@ -1441,170 +750,133 @@ public class Genealogy {
         if(endDate!=null && endDate.trim().isEmpty()){
             throw new IllegalArgumentException("end date cannot be an empty string");
         }
-        if(startDate!=null && !startDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")
-                && !startDate.matches("^\\d{4}-(0[1-9]|1[0-2])")
-                && !startDate.matches("^\\d{4}")){
-            throw new IllegalArgumentException("Invalid Start Date Format");
-        }
-        if(endDate!=null && !endDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")
-                && !endDate.matches("^\\d{4}-(0[1-9]|1[0-2])")
-                && !endDate.matches("^\\d{4}")){
-            throw new IllegalArgumentException("Invalid End Date Format");
-        }
-
-        if(startDate!=null && endDate!=null){
-            try {
-                Date start;
-                Date end;
-                if(startDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")){
-                    start = new SimpleDateFormat("yyyy-MM-dd").parse(startDate);
-                } else if (startDate.matches("^\\d{4}-(0[1-9]|1[0-2])")){
-                    start = new SimpleDateFormat("yyyy-MM").parse(startDate);
-                } else {
-                    start = new SimpleDateFormat("yyyy").parse(startDate);
-                }
+        validateDateRange(startDate, endDate);
 
-                if(endDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")){
-                    end = new SimpleDateFormat("yyyy-MM-dd").parse(endDate);
-                } else if (endDate.matches("^\\d{4}-(0[1-9]|1[0-2])")){
-                    end = new SimpleDateFormat("yyyy-MM").parse(endDate);
-                } else {
-                    end = new SimpleDateFormat("yyyy").parse(endDate);
-                }
-                if(start.after(end)){
-                    throw new IllegalArgumentException("Start Date occurs after End Date");
-                }
-            } catch (ParseException pe){
-            }
+        MediaIndex media = mediaIndex();
+        if(media!=null){
+            return media.findByTags(TagQuery.tag(tag), startDate, endDate);
         }
+        return store.findMediaByTag(tag, startDate, endDate);
+    }
 
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        int dateCondition = 0;
-
-        String CHECK_EXISTING_TAG = "SELECT * FROM media_tags_types WHERE tag_name=?";
-        StringBuilder GET_MEDIA_BY_TAG = new StringBuilder("with table1 as( " +
-                "select md.media_id, md.file_location, mtt.tag_name, mat.attribute_type, " +
-                "STR_TO_DATE(ma.attribute_value,'%Y-%m-%d') as date_created " +
-                "from media_details md " +
-                "inner join media_tags mt on md.media_id=mt.media_id " +
-                "inner join media_tags_types mtt on mt.tag_id=mtt.tag_id " +
-                "left join media_attributes ma on md.media_id=ma.media_id " +
-                "left join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
-                "where mtt.tag_id=? " +
-                "order by date_created " +
-                "), table2 as ( " +
-                "select media_id, file_location, tag_name, date_created from table1 " +
-                "where attribute_type='date' and date_created ");
-
-        if(startDate==null && endDate==null){
-            GET_MEDIA_BY_TAG = new StringBuilder("select md.media_id, md.file_location, mtt.tag_name " +
-                    "from media_details md " +
-                    "inner join media_tags mt on md.media_id=mt.media_id " +
-                    "inner join media_tags_types mtt on mt.tag_id=mtt.tag_id " +
-                    "where mtt.tag_id=?");
-            dateCondition=NO_DATES_PROVIDED;
-        } else if(startDate!=null && endDate!=null){
-            GET_MEDIA_BY_TAG.append("between str_to_date(?,'%Y-%m-%d') and str_to_date(?,'%Y-%m-%d'))  " +
-                    "select * from table2 " +
-                    "order by date_created ASC, file_location ASC");
-            dateCondition=BOTH_DATES_PROVIDED;
-        } else if(endDate==null){
-            GET_MEDIA_BY_TAG.append(">= str_to_date(?,'%Y-%m-%d'))  " +
-                    "select * from table2 " +
-                    "order by date_created ASC, file_location ASC");
-            dateCondition=START_DATE_PROVIDED;
-        } else{
-            GET_MEDIA_BY_TAG.append("<= str_to_date(?,'%Y-%m-%d'))  " +
-                    "select * from table2 " +
-                    "order by date_created ASC, file_location ASC");
-            dateCondition=END_DATE_PROVIDED;
-        }
-
-        Set<FileIdentifier> fileIdentifierSet=new LinkedHashSet<>();
-        int existingTagId=0;
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(CHECK_EXISTING_TAG);
-
-            pStmt.setString(1,tag);
-            resultSet = pStmt.executeQuery();
-
-            if(resultSet.isBeforeFirst()){
-                while(resultSet.next()){
-                    existingTagId = resultSet.getInt("tag_id");
-                }
-
-                if(existingTagId==0){
-                    throw new SQLException();
-                }
+    /**
+     * Find the media whose tags match the query, e.g. tagged "beach" and "1990s" but not "work".
+     * Null values for the dates indicate no restrictions on the dates.
+     * @return the matching media like findMediaByTag: in order of their ids without a date range, otherwise only
+     * the dated media in the range by date and file location; null if memory indexes are disabled or the store
+     * could not be read
+     */
+    public Set<FileIdentifier> findMediaByTags(TagQuery query, String startDate, String endDate) {
+        if(query==null){
+            throw new IllegalArgumentException("tag query cannot be null");
+        }
+        validateDateRange(startDate, endDate);
+        MediaIndex media = mediaIndex();
+        if(media==null){
+            return null;
+        }
+        return media.findByTags(query, startDate, endDate);
+    }
 
-                pStmt.close();
-                resultSet.close();
-
-                pStmt = conn.prepareStatement(GET_MEDIA_BY_TAG.toString());
-                pStmt.setInt(1, existingTagId);
-
-                switch (dateCondition){
-                    case BOTH_DATES_PROVIDED:
-                        pStmt.setString(2, startDate);
-                        pStmt.setString(3, endDate);
-                        break;
-                    case START_DATE_PROVIDED:
-                        pStmt.setString(2, startDate);
-                        break;
-                    case END_DATE_PROVIDED:
-                        pStmt.setString(2, endDate);
-                        break;
-                }
+    /**
+     * Find the media taken within a distance of a position, from their "latitude" and "longitude" attributes in
+     * decimal degrees. Null values for the dates indicate no restrictions on the dates.
+     * @return the media within the radius, nearest first, only the dated media in the range if one is given;
+     * null if memory indexes are disabled or the store could not be read
+     */
+    public List<FileIdentifier> findMediaNear(double latitude, double longitude, double radiusKm,
+                                              String startDate, String endDate) {
+        validatePosition(latitude, longitude);
+        if(!(radiusKm>=0) || Double.isInfinite(radiusKm)){
+            throw new IllegalArgumentException("radius must be a non-negative number of kilometres");
+        }
+        validateDateRange(startDate, endDate);
+        MediaIndex media = mediaIndex();
+        if(media==null){
+            return null;
+        }
+        return media.findNear(latitude, longitude, radiusKm, startDate, endDate);
+    }
 
-                boolean result=pStmt.execute();
+    /**
+     * Find the media positioned within a bounding box, edges included. A western edge east of the eastern one
+     * makes a box across the 180th meridian. Null values for the dates indicate no restrictions on the dates.
+     * @return the media in the box in order of their ids, only the dated media in the range if one is given;
+     * null if memory indexes are disabled or the store could not be read
+     */
+    public Set<FileIdentifier> findMediaInBox(double south, double west, double north, double east,
+                                              String startDate, String endDate) {
+        validatePosition(south, west);
+        validatePosition(north, east);
+        if(south>north){
+            throw new IllegalArgumentException("southern edge lies north of the northern edge");
+        }
+        validateDateRange(startDate, endDate);
+        MediaIndex media = mediaIndex();
+        if(media==null){
+            return null;
+        }
+        return media.findInBox(south, west, north, east, startDate, endDate);
+    }
 
-                if(result){
-                    resultSet= pStmt.getResultSet();
-                    while(resultSet.next()){
-                        int mediaId=resultSet.getInt("media_id");
-                        String fileLocation=resultSet.getString("file_location");
-                        FileIdentifier fileIdentifier = new FileIdentifier(mediaId,fileLocation);
+    /**
+     * Find the media matching a combination of tags, locations, people, dates, positions and other media
+     * attributes, e.g. MediaQuery.and(MediaQuery.tag("wedding"), MediaQuery.dated("1950", "1959")).
+     * @return the matching media in order of their ids; null if memory indexes are disabled or the store could
+     * not be read
+     */
+    public Set<FileIdentifier> findMedia(MediaQuery query) {
+        MediaQueryPlan plan = explainMedia(query);
+        return plan==null ? null : plan.getMedia();
+    }
 
-                        fileIdentifierSet.add(fileIdentifier);
-                    }
-                }
+    /**
+     * Find the media matching a query like findMedia, along with the plan that found them: the order in which
+     * the criteria were evaluated and how many media each was estimated to match and actually matched.
+     * @return the media and their plan; null if memory indexes are disabled or the store could not be read
+     */
+    public MediaQueryPlan explainMedia(MediaQuery query) {
+        if(query==null){
+            throw new IllegalArgumentException("media query cannot be null");
+        }
+        MediaIndex media = mediaIndex();
+        if(media==null){
+            return null;
+        }
+        return media.findMedia(query);
+    }
 
-            }
+    static void validatePosition(double latitude, double longitude) {
+        if(!(latitude>=-90 && latitude<=90)){
+            throw new IllegalArgumentException("latitude must be between -90 and 90");
+        }
+        if(!(longitude>=-180 && longitude<=180)){
+            throw new IllegalArgumentException("longitude must be between -180 and 180");
+        }
+    }
 
-        } catch (SQLException sqe){
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
+    /**
+     * Checks optional date bounds in yyyy-MM-dd, yyyy-MM or yyyy format. Media queries take media whose date
+     * starts between the first day of the start date and the last day of the end date.
+     */
+    static void validateDateRange(String startDate, String endDate) {
+        PartialDate start = null;
+        PartialDate end = null;
+        if(startDate!=null){
+            start = PartialDate.parse(startDate);
+            if(start==null){
+                throw new IllegalArgumentException("Invalid Start Date Format");
             }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
+        }
+        if(endDate!=null){
+            end = PartialDate.parse(endDate);
+            if(end==null){
+                throw new IllegalArgumentException("Invalid End Date Format");
             }
         }
-
-        if(exceptionOccurred){
-            return null;
+        if(start!=null && end!=null && start.getFirstDay()>end.getFirstDay()){
+            throw new IllegalArgumentException("Start Date occurs after End Date");
         }
-
-        return fileIdentifierSet;
     }
 
     Set<FileIdentifier> findMediaByLocation(String location, String startDate, String endDate){
@@ -1620,151 +892,13 @@ public class Genealogy {
         if(endDate!=null && endDate.trim().isEmpty()){
             throw new IllegalArgumentException("end date cannot be an empty string");
         }
-        if(startDate!=null && !startDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")
-                && !startDate.matches("^\\d{4}-(0[1-9]|1[0-2])")
-                && !startDate.matches("^\\d{4}")){
-            throw new IllegalArgumentException("Invalid Start Date Format");
-        }
-        if(endDate!=null && !endDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")
-                && !endDate.matches("^\\d{4}-(0[1-9]|1[0-2])")
-                && !endDate.matches("^\\d{4}")){
-            throw new IllegalArgumentException("Invalid End Date Format");
-        }
-
-        if(startDate!=null && endDate!=null){
-            try {
-                Date start;
-                Date end;
-                if(startDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")){
-                    start = new SimpleDateFormat("yyyy-MM-dd").parse(startDate);
-                } else if (startDate.matches("^\\d{4}-(0[1-9]|1[0-2])")){
-                    start = new SimpleDateFormat("yyyy-MM").parse(startDate);
-                } else {
-                    start = new SimpleDateFormat("yyyy").parse(startDate);
-                }
+        validateDateRange(startDate, endDate);
 
-                if(endDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")){
-                    end = new SimpleDateFormat("yyyy-MM-dd").parse(endDate);
-                } else if (endDate.matches("^\\d{4}-(0[1-9]|1[0-2])")){
-                    end = new SimpleDateFormat("yyyy-MM").parse(endDate);
-                } else {
-                    end = new SimpleDateFormat("yyyy").parse(endDate);
-                }
-                if(start.after(end)){
-                    throw new IllegalArgumentException("Start Date occurs after End Date");
-                }
-            } catch (ParseException pe){
-            }
+        MediaIndex media = mediaIndex();
+        if(media!=null){
+            return media.findByLocation(location, startDate, endDate);
         }
-
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        int dateCondition = 0;
-
-        StringBuilder GET_MEDIA_BY_LOCATION = new StringBuilder("with table1 as ( " +
-                "select md.media_id, md.file_location, mat.attribute_type, ma.attribute_value " +
-                "from media_details md " +
-                "inner join media_attributes ma on md.media_id=ma.media_id " +
-                "inner join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
-                "where mat.attribute_type='location' and ma.attribute_value LIKE ? " +
-                "), table2 as ( " +
-                "select md.media_id, md.file_location, mat.attribute_type, " +
-                "STR_TO_DATE(ma.attribute_value,'%Y-%m-%d') as date_created " +
-                "from media_details md " +
-                "inner join media_attributes ma on md.media_id=ma.media_id " +
-                "inner join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
-                "where mat.attribute_type='date' " +
-                "order by date_created " +
-                "), table3 as ( " +
-                "select t1.media_id,t1.file_location,t1.attribute_value as location, " +
-                "t2.date_created from table1 t1 inner join table2 t2 " +
-                "on t1.media_id=t2.media_id " +
-                "where t2.date_created ");
-
-        if(startDate==null && endDate==null){
-            GET_MEDIA_BY_LOCATION = new StringBuilder("select md.media_id, md.file_location, mat.attribute_type, ma.attribute_value " +
-                    "from media_details md " +
-                    "inner join media_attributes ma on md.media_id=ma.media_id " +
-                    "inner join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
-                    "where mat.attribute_type='location' and ma.attribute_value LIKE ? ");
-            dateCondition=NO_DATES_PROVIDED;
-        } else if(startDate!=null && endDate!=null){
-            GET_MEDIA_BY_LOCATION.append(" between str_to_date(?,'%Y-%m-%d') and str_to_date(?,'%Y-%m-%d')) " +
-            "select * from table3 ");
-            dateCondition=BOTH_DATES_PROVIDED;
-        } else if(endDate==null){
-            GET_MEDIA_BY_LOCATION.append(" >= str_to_date(?,'%Y-%m-%d')) " +
-                    "select * from table3 t3");
-            dateCondition=START_DATE_PROVIDED;
-        } else{
-            GET_MEDIA_BY_LOCATION.append(" <= str_to_date(?,'%Y-%m-%d')) " +
-                    "select * from table3 t3");
-            dateCondition=END_DATE_PROVIDED;
-        }
-
-        Set<FileIdentifier> fileIdentifierSet=new LinkedHashSet<>();
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(GET_MEDIA_BY_LOCATION.toString());
-
-            pStmt.setString(1,"%"+location+"%");
-
-            switch (dateCondition){
-                case BOTH_DATES_PROVIDED:
-                    pStmt.setString(2, startDate);
-                    pStmt.setString(3, endDate);
-                    break;
-                case START_DATE_PROVIDED:
-                    pStmt.setString(2, startDate);
-                    break;
-                case END_DATE_PROVIDED:
-                    pStmt.setString(2, endDate);
-                    break;
-            }
-
-            resultSet = pStmt.executeQuery();
-
-            while(resultSet.next()){
-                int mediaId=resultSet.getInt("media_id");
-                String fileLocation=resultSet.getString("file_location");
-                FileIdentifier fileIdentifier = new FileIdentifier(mediaId,fileLocation);
-
-                fileIdentifierSet.add(fileIdentifier);
-            }
-
-        } catch (SQLException sqe){
-            sqe.printStackTrace();
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-
-        if(exceptionOccurred){
-            return null;
-        }
-
-        return fileIdentifierSet;
+        return store.findMediaByLocation(location, startDate, endDate);
     }
 
     List<FileIdentifier> findBiologicalFamilyMedia(PersonIdentity person){
@@ -1774,91 +908,11 @@ public class Genealogy {
         if(person.getPersonId()<1){
             throw new IllegalArgumentException("invalid person object");
         }
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        String GET_FAMILY_MEDIA = "with table1 as( " +
-                "with recursive descendants (child_id, gen) as ( " +
-                "select child_id, 1 from parent_child where parent_id=? " +
-                "union all " +
-                "select pc.child_id, d.gen+1 from descendants d " +
-                "inner join parent_child pc on pc.parent_id=d.child_id where d.gen<1 " +
-                ") " +
-                "select md.media_id, md.file_location, mat.attribute_type, " +
-                "STR_TO_DATE(ma.attribute_value,'%Y-%m-%d') as date_created " +
-                "from descendants d " +
-                "inner join person_details pd on d.child_id=pd.person_id " +
-                "inner join person_media pm on pd.person_id=pm.person_id " +
-                "inner join media_details md on pm.media_id=md.media_id " +
-                "left join media_attributes ma on pm.media_id=ma.media_id " +
-                "left join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
-                "order by date_created " +
-                "), table2 as ( " +
-                "select media_id, file_location, date_created from table1 where attribute_type='date' " +
-                "), table3 as ( " +
-                "select media_id, file_location, null as date_created from (select t1.media_id, t1.file_location, " +
-                "sum(case when attribute_type='date' then 1 else 0 end) as recordsWithDate " +
-                "from table1 t1 group by t1.media_id) as table4 where table4.recordsWithDate=0) " +
-                "select * from table2 " +
-                "union " +
-                "select * from table3 order by -date_created DESC, file_location ASC;";
 
-        List<FileIdentifier> fileIdentifierList=new ArrayList<>();
-
-        try {
-            conn=DBConnection.getConnection();
-            pStmt = conn.prepareStatement(GET_FAMILY_MEDIA);
-
-            pStmt.setInt(1,person.getPersonId());
-
-            boolean result =pStmt.execute();
-
-            if(!result){
-                throw new SQLException();
-            } else {
-                resultSet=pStmt.getResultSet();
-                while(resultSet.next()){
-                    int mediaId = resultSet.getInt("media_id");
-                    String fileLocation = resultSet.getString("file_location");
-                    FileIdentifier fileIdentifier = new FileIdentifier(mediaId,fileLocation);
-                    fileIdentifierList.add(fileIdentifier);
-                }
-            }
-
-        } catch (SQLException sqe){
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
-                }
-            }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
-                }
-            }
-        }
-
-        if(exceptionOccurred){
-            return null;
-        }
-
-        return fileIdentifierList;
+        return store.findBiologicalFamilyMedia(person);
     }
 
-    List<FileIdentifier> findIndividualsMedia(Set<PersonIdentity> people, String startDate, String
-            endDate) {
+    List<FileIdentifier> findIndividualsMedia(Set<PersonIdentity> people, String startDate, String endDate) {
 
         if(people==null){
             throw new IllegalArgumentException("set of people cannot be null");
@@ -1875,54 +929,7 @@ public class Genealogy {
         if(endDate!=null && endDate.trim().isEmpty()){
             throw new IllegalArgumentException("end date cannot be an empty string");
         }
-        if(startDate!=null && !startDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")
-                && !startDate.matches("^\\d{4}-(0[1-9]|1[0-2])")
-                && !startDate.matches("^\\d{4}")){
-            throw new IllegalArgumentException("Invalid Start Date Format");
-        }
-        if(endDate!=null && !endDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")
-                && !endDate.matches("^\\d{4}-(0[1-9]|1[0-2])")
-                && !endDate.matches("^\\d{4}")){
-            throw new IllegalArgumentException("Invalid End Date Format");
-        }
-
-        if(startDate!=null && endDate!=null){
-            try {
-                Date start;
-                Date end;
-                if(startDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")){
-                    start = new SimpleDateFormat("yyyy-MM-dd").parse(startDate);
-                } else if (startDate.matches("^\\d{4}-(0[1-9]|1[0-2])")){
-                    start = new SimpleDateFormat("yyyy-MM").parse(startDate);
-                } else {
-                    start = new SimpleDateFormat("yyyy").parse(startDate);
-                }
-
-                if(endDate.matches("^\\d{4}-(0[1-9]|1[0-2])-(0[1-9]|[12][0-9]|3[01])$")){
-                    end = new SimpleDateFormat("yyyy-MM-dd").parse(endDate);
-                } else if (endDate.matches("^\\d{4}-(0[1-9]|1[0-2])")){
-                    end = new SimpleDateFormat("yyyy-MM").parse(endDate);
-                } else {
-                    end = new SimpleDateFormat("yyyy").parse(endDate);
-                }
-                if(start.after(end)){
-                    throw new IllegalArgumentException("Start Date occurs after End Date");
-                }
-            } catch (ParseException pe){
-            }
-        }
-
-        StringBuilder GET_INDIVIDUALS_MEDIA = new StringBuilder("with table1 as( " +
-                "select md.media_id, md.file_location, mat.attribute_type, " +
-                "STR_TO_DATE(ma.attribute_value,'%Y-%m-%d') as date_created " +
-                "from person_details pd " +
-                "inner join person_media pm on pd.person_id=pm.person_id " +
-                "inner join media_details md on pm.media_id=md.media_id " +
-                "left join media_attributes ma on pm.media_id=ma.media_id " +
-                "left join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
-                "where pd.person_id IN ");
-        int i=0;
-        int dateCondition=0;
+        validateDateRange(startDate, endDate);
 
         for(PersonIdentity person: people){
             if(person==null){
@@ -1931,116 +938,210 @@ public class Genealogy {
             if(person.getPersonId()<1){
                 throw new IllegalArgumentException("invalid person object");
             }
-            if(i==0){
-                GET_INDIVIDUALS_MEDIA.append("( ");
-            }
-            GET_INDIVIDUALS_MEDIA.append("? ");
-            if(i!=(people.size()-1)){
-                GET_INDIVIDUALS_MEDIA.append(", ");
-            } else {
-                GET_INDIVIDUALS_MEDIA.append(") ");
-            }
-            i++;
-        }
-
-        GET_INDIVIDUALS_MEDIA.append(" order by date_created " +
-                "), table2 as ( " +
-                "select media_id, file_location, date_created from table1 where attribute_type='date' ");
-
-        if(startDate==null && endDate==null){
-            GET_INDIVIDUALS_MEDIA.append("");
-            dateCondition=NO_DATES_PROVIDED;
-        } else if(startDate!=null && endDate!=null){
-            GET_INDIVIDUALS_MEDIA.append(" and date_created between str_to_date(?,'%Y-%m-%d') and str_to_date(?,'%Y-%m-%d') ");
-            dateCondition=BOTH_DATES_PROVIDED;
-        } else if(endDate==null){
-            GET_INDIVIDUALS_MEDIA.append(" and date_created >= str_to_date(?,'%Y-%m-%d') ");
-            dateCondition=START_DATE_PROVIDED;
-        } else{
-            GET_INDIVIDUALS_MEDIA.append(" and date_created <= str_to_date(?,'%Y-%m-%d') ");
-            dateCondition=END_DATE_PROVIDED;
-        }
-
-        GET_INDIVIDUALS_MEDIA.append(" ),table3 as ( " +
-                "select media_id, file_location, null as date_created from (select t1.media_id, t1.file_location, " +
-                "sum(case when attribute_type='date' then 1 else 0 end) as recordsWithDate " +
-                "from table1 t1 group by t1.media_id) as table4 where table4.recordsWithDate=0) " +
-                "select * from table2 " +
-                "union " +
-                "select * from table3 order by -date_created DESC, file_location ASC");
-
-        Connection conn = null;
-        PreparedStatement pStmt = null;
-        ResultSet resultSet = null;
-        boolean exceptionOccurred = false;
-
-        try {
-            conn = DBConnection.getConnection();
-            pStmt = conn.prepareStatement(GET_INDIVIDUALS_MEDIA.toString());
-
-            int index=1;
-            for(PersonIdentity person:people){
-                pStmt.setInt(index++,person.getPersonId());
-            }
+        }
 
-            switch (dateCondition){
-                case BOTH_DATES_PROVIDED:
-                    pStmt.setString(index++, startDate);
-                    pStmt.setString(index++, endDate);
-                    break;
-                case START_DATE_PROVIDED:
-                    pStmt.setString(index++, startDate);
-                    break;
-                case END_DATE_PROVIDED:
-                    pStmt.setString(index++, endDate);
-                    break;
-            }
+        MediaIndex media = mediaIndex();
+        if(media!=null){
+            return media.findIndividualsMedia(people, startDate, endDate);
+        }
+        return store.findIndividualsMedia(people, startDate, endDate);
+    }
 
-            boolean result=pStmt.execute();
 
-            if(result){
-                resultSet= pStmt.getResultSet();
-                while(resultSet.next()){
-                    int mediaId=resultSet.getInt("media_id");
-                    String fileLocation=resultSet.getString("file_location");
-                    FileIdentifier fileIdentifier = new FileIdentifier(mediaId,fileLocation);
+    private Stream<PersonGeneration> generationStream(PersonIdentity person, int generations, boolean ancestors) {
+        if(person==null){
+            throw new IllegalArgumentException("person object cannot be null");
+        }
+        if(person.getPersonId()<1){
+            throw new IllegalArgumentException("invalid person object");
+        }
+        if(generations<0){
+            throw new IllegalArgumentException("generations cannot be a negative integer");
+        }
+
+        PedigreeGraph graph = pedigree();
+        GenerationSpliterator spliterator;
+        if(graph!=null && graph.contains(person.getPersonId())){
+            spliterator = new GenerationSpliterator(person, generations,
+                    generation -> graph.nextGeneration(generation, ancestors));
+        } else {
+            // without the graph every person of a generation costs one query
+            spliterator = new GenerationSpliterator(person, generations, generation -> {
+                List<PersonIdentity> relatives = new ArrayList<>();
+                for(PersonIdentity member : generation){
+                    Set<PersonIdentity> found = ancestors ? store.ancestors(member, 1) : store.descendents(member, 1);
+                    if(found==null){
+                        return null;
+                    }
+                    relatives.addAll(found);
+                }
+                return relatives;
+            });
+        }
+        return StreamSupport.stream(spliterator, false);
+    }
 
-                    fileIdentifierList.add(fileIdentifier);
+    /**
+     * @return the pedigree graph, loading it if needed; null if memory indexes are disabled or the store could not be read
+     */
+    private PedigreeGraph pedigree() {
+        PedigreeGraph graph = pedigree;
+        if(graph==null && memoryIndexes){
+            synchronized (indexLock) {
+                if(pedigree==null){
+                    pedigree = PedigreeGraph.load(store);
                 }
-            } else {
-                throw new SQLException();
+                graph = pedigree;
             }
+        }
+        return graph;
+    }
 
+    /**
+     * Find people whose name is spelled differently from the given one or sounds like it, e.g. "Mcdonald"
+     * for "MacDonald". Each word of the name matches a word of a person's name that is at most maxDistance
+     * single-character edits away or has the same Soundex or Metaphone key.
+     * @param maxDistance edits allowed per word, 0 for phonetic matches only besides the exact spelling
+     * @return the matching people, fewest edits first, null if memory indexes are disabled or the store could not be read
+     */
+    public List<PersonIdentity> findPersonsLike(String name, int maxDistance) {
+        if(name==null){
+            throw new IllegalArgumentException("name cannot be null");
+        }
+        if(maxDistance<0){
+            throw new IllegalArgumentException("maximum distance cannot be negative");
+        }
+        NameIndex index = nameIndex();
+        if(index==null){
+            return null;
+        }
+        return index.searchLike(name, maxDistance);
+    }
 
-        } catch (SQLException sqe){
-            sqe.printStackTrace();
-            exceptionOccurred=true;
-        } finally {
-            if(pStmt!=null){
-                try {
-                    pStmt.close();
-                } catch (SQLException e) {
+    /**
+     * @return the name index, loading it if needed; null if memory indexes are disabled or the store could not be read
+     */
+    private NameIndex nameIndex() {
+        NameIndex index = nameIndex;
+        if(index==null && memoryIndexes){
+            synchronized (indexLock) {
+                if(nameIndex==null){
+                    nameIndex = NameIndex.load(store);
                 }
+                index = nameIndex;
             }
-            if(resultSet!=null){
-                try {
-                    resultSet.close();
-                } catch (SQLException e) {
+        }
+        return index;
+    }
+
+    /**
+     * @return the attribute index, loading it if needed; null if memory indexes are disabled or the store could not be read
+     */
+    private AttributeIndex attributeIndex() {
+        AttributeIndex index = attributeIndex;
+        if(index==null && memoryIndexes){
+            synchronized (indexLock) {
+                if(attributeIndex==null){
+                    attributeIndex = AttributeIndex.load(store);
                 }
+                index = attributeIndex;
             }
-            if(conn!=null){
-                try {
-                    conn.close();
-                } catch (SQLException e) {
+        }
+        return index;
+    }
+
+    /**
+     * @return the media index, loading it if needed; null if memory indexes are disabled or the store could not be read
+     */
+    private MediaIndex mediaIndex() {
+        MediaIndex index = mediaIndex;
+        if(index==null && memoryIndexes){
+            synchronized (indexLock) {
+                if(mediaIndex==null){
+                    mediaIndex = MediaIndex.load(store);
                 }
+                index = mediaIndex;
             }
         }
+        return index;
+    }
 
-        if(exceptionOccurred){
-            return null;
+    /**
+     * Check the relations of a batch transaction, store it and apply it to the in-memory indexes, all under
+     * relationLock like recordChild.
+     * @return true if the transaction was committed
+     * @throws IllegalArgumentException if a relation would make a person their own ancestor or give a child more
+     * than two parents; nothing is stored
+     */
+    private Boolean applyBatch(List<BatchOperation> operations) {
+        synchronized (relationLock) {
+            if(PendingRelations.check(operations, storedAncestry())==null){
+                return false;
+            }
+            Boolean applied = store.applyBatch(operations);
+            if(Boolean.TRUE.equals(applied)){
+                batchCommitted(operations);
+            }
+            return applied;
         }
+    }
 
-        return fileIdentifierList;
+    /**
+     * Ancestry of stored people for checking batched relations, answered like isAncestor from the pedigree graph
+     * or, for people it does not contain, from the store.
+     */
+    private PendingRelations.Ancestry storedAncestry() {
+        PendingRelations.Ancestry stored = PendingRelations.storedIn(store);
+        return new PendingRelations.Ancestry() {
+            @Override
+            public Boolean isAncestor(int ancestorId, int descendantId) {
+                PedigreeGraph graph = pedigree();
+                if(graph!=null && graph.contains(ancestorId) && graph.contains(descendantId)){
+                    return graph.isAncestor(ancestorId, descendantId);
+                }
+                return stored.isAncestor(ancestorId, descendantId);
+            }
+
+            @Override
+            public Set<Integer> parents(int childId) {
+                PedigreeGraph graph = pedigree();
+                if(graph!=null && graph.contains(childId)){
+                    return PendingRelations.ids(graph.ancestors(childId, 1));
+                }
+                return stored.parents(childId);
+            }
+        };
     }
 
+    /**
+     * Apply the edits of a committed batch transaction to the in-memory indexes.
+     */
+    private void batchCommitted(List<BatchOperation> operations) {
+        List<int[]> relations = new ArrayList<>();
+        for(BatchOperation operation : operations){
+            if(operation.getType()==BatchOperation.Type.RECORD_CHILD){
+                relations.add(new int[]{operation.getPerson().getPersonId(), operation.getOtherPerson().getPersonId()});
+            }
+        }
+        synchronized (indexLock) {
+            for(BatchOperation operation : operations){
+                if(operation.getType()==BatchOperation.Type.ADD_PERSON){
+                    if(pedigree!=null){
+                        pedigree.addPerson(operation.getPerson().getPersonId(), operation.getPerson().getName());
+                    }
+                    if(nameIndex!=null){
+                        nameIndex.addPerson(operation.getPerson().getPersonId(), operation.getPerson().getName());
+                    }
+                } else if(operation.getType()==BatchOperation.Type.RECORD_CHILD && pedigree!=null){
+                    pedigree.addRelation(operation.getPerson().getPersonId(), operation.getOtherPerson().getPersonId());
+                } else if(operation.getType()==BatchOperation.Type.RECORD_ATTRIBUTES && attributeIndex!=null){
+                    attributeIndex.recordAttributes(operation.getPerson().getPersonId(), operation.getAttributes());
+                }
+            }
+        }
+        // like recordChild, invalidate after the graph has the new relations
+        if(!relations.isEmpty()){
+            relativesCache.relationsAdded(relations);
+        }
+    }
 }
@@ -0,0 +1,253 @@
+package pkg;
+
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Groups many family tree edits into few transactions for bulk loading.
+ * Edits are validated and queued; every batchSize queued edits, and on commit(), the queue is applied
+ * by the store in a single transaction using batched inserts. Edits are checked like the single-edit
+ * operations when they are queued, and an invalid one is rejected with an IllegalArgumentException without
+ * affecting the queue. Relations are checked again on commit, against relations stored in the meantime.
+ * If applying fails the whole transaction is rolled back, the queued edits are discarded and the ids of
+ * people added in it are reset to 0; a single relation that can no longer be recorded fails all of them.
+ * An automatic commit that fails that way throws from the edit that triggered it.
+ * Edits committed by earlier transactions stay committed.
+ * close() discards edits that were not committed, so call commit() before closing.
+ *
+ * People added through the batch have id 0 until their transaction commits; they can be used in
+ * further edits of the same batch and receive their generated id when the batch is applied.
+ * A batch is meant to be used by one thread at a time.
+ */
+public class GenealogyBatch implements AutoCloseable {
+
+    private final int batchSize;
+    // checks and stores a transaction, and lets in-memory indexes follow the store
+    private final Function<List<BatchOperation>, Boolean> apply;
+    // ancestry of stored people, for checking relations as they are queued
+    private final Supplier<PendingRelations.Ancestry> ancestry;
+    private final List<BatchOperation> pending = new ArrayList<>();
+    // people added since the last commit, compared by identity since their ids are not known yet
+    private final Set<PersonIdentity> pendingPeople = Collections.newSetFromMap(new IdentityHashMap<>());
+    // relations queued since the last commit, created with the first of them
+    private PendingRelations pendingRelations;
+    private long committedOperations = 0;
+    private int committedTransactions = 0;
+    private boolean closed = false;
+
+    GenealogyBatch(GenealogyStore store, int batchSize) {
+        this(batchSize, operations -> Boolean.TRUE.equals(
+                PendingRelations.check(operations, PendingRelations.storedIn(store))) ? store.applyBatch(operations)
+                : Boolean.FALSE, () -> PendingRelations.storedIn(store));
+    }
+
+    /**
+     * @param apply checks the relations of a transaction again and stores it, true if it was committed
+     * @param ancestry ancestry of the stored people, for checking relations as they are queued
+     */
+    GenealogyBatch(int batchSize, Function<List<BatchOperation>, Boolean> apply,
+                   Supplier<PendingRelations.Ancestry> ancestry) {
+        if(batchSize<1){
+            throw new IllegalArgumentException("batch size must be at least 1");
+        }
+        this.batchSize = batchSize;
+        this.apply = apply;
+        this.ancestry = ancestry;
+    }
+
+    /**
+     * Queue a new person. The returned identity has id 0 until the batch commits.
+     * @return the queued person, null if an automatic commit triggered by this edit failed
+     */
+    public PersonIdentity addPerson(String name) {
+        if(name==null){
+            throw new IllegalArgumentException("Name cannot be null");
+        }
+        if(name.trim().isEmpty()){
+            throw new IllegalArgumentException("Name cannot be an empty string");
+        }
+        PersonIdentity person = new PersonIdentity(0, name);
+        pendingPeople.add(person);
+        if(!queue(BatchOperation.addPerson(person))){
+            return null;
+        }
+        return person;
+    }
+
+    public Boolean recordAttributes(PersonIdentity person, Map<String, String> attributes) {
+        checkPerson(person, "Person object cannot be null");
+        if(attributes==null || attributes.isEmpty()){
+            throw new IllegalArgumentException("no attributes provided");
+        }
+        for(Map.Entry<String,String> attribute: attributes.entrySet()){
+            if(attribute.getKey().trim().isEmpty()){
+                throw new IllegalArgumentException("empty key passed in attribute");
+            }
+            if(attribute.getValue().trim().isEmpty()){
+                throw new IllegalArgumentException("empty value passed in attribute");
+            }
+            if(AttributeFilter.isDateType(attribute.getKey())
+                    && InMemoryGenealogyStore.parseDate(attribute.getValue())==null){
+                throw new IllegalArgumentException("Invalid Date Format");
+            }
+        }
+        return queue(BatchOperation.recordAttributes(person, attributes));
+    }
+
+    public Boolean recordNote(PersonIdentity person, String note) {
+        checkPerson(person, "person object cannot be null");
+        if(note==null){
+            throw new IllegalArgumentException("note cannot be null");
+        }
+        if(note.trim().isEmpty()){
+            throw new IllegalArgumentException("note cannot be an empty string");
+        }
+        return queue(BatchOperation.recordNote(person, note));
+    }
+
+    public Boolean recordReference(PersonIdentity person, String reference) {
+        checkPerson(person, "person object cannot be null");
+        if(reference==null){
+            throw new IllegalArgumentException("reference cannot be null");
+        }
+        if(reference.trim().isEmpty()){
+            throw new IllegalArgumentException("reference cannot be an empty string");
+        }
+        return queue(BatchOperation.recordReference(person, reference));
+    }
+
+    /**
+     * Queue a parent/child relation. Like Genealogy.recordChild it is rejected when the child is the parent or
+     * one of the parent's ancestors, or already has two other parents, counting stored relations and the ones
+     * queued since the last commit.
+     * @return false if the stored relations could not be read or an automatic commit triggered by this edit failed
+     * @throws IllegalArgumentException if the relation is rejected; the edits queued before it stay queued
+     */
+    public Boolean recordChild(PersonIdentity parent, PersonIdentity child) {
+        checkPerson(parent, "parent object cannot be null");
+        checkPerson(child, "child object cannot be null");
+        checkOpen();
+        if(pendingRelations==null){
+            pendingRelations = new PendingRelations(ancestry.get());
+        }
+        if(pendingRelations.add(parent, child)==null){
+            return false;
+        }
+        return queue(BatchOperation.recordChild(parent, child));
+    }
+
+    public Boolean recordPartnering(PersonIdentity partner1, PersonIdentity partner2) {
+        checkPerson(partner1, "person objects cannot be null");
+        checkPerson(partner2, "person objects cannot be null");
+        return queue(BatchOperation.recordPartnering(partner1, partner2));
+    }
+
+    public Boolean recordDissolution(PersonIdentity partner1, PersonIdentity partner2) {
+        checkPerson(partner1, "person objects cannot be null");
+        checkPerson(partner2, "person objects cannot be null");
+        return queue(BatchOperation.recordDissolution(partner1, partner2));
+    }
+
+    /**
+     * Apply all queued edits in one transaction. The queue is empty afterwards, whether or not they were committed.
+     * @return true if the edits were committed, false if the transaction was rolled back
+     * @throws IllegalArgumentException if a queued relation can no longer be recorded because of relations stored
+     * since it was queued, e.g. a third parent; the whole transaction is rolled back and none of its edits is stored
+     */
+    public Boolean commit() {
+        checkOpen();
+        if(pending.isEmpty()){
+            return true;
+        }
+        List<BatchOperation> operations = new ArrayList<>(pending);
+        pending.clear();
+        pendingPeople.clear();
+        pendingRelations = null;
+
+        boolean applied;
+        try {
+            applied = Boolean.TRUE.equals(apply.apply(operations));
+        } catch (RuntimeException e) {
+            resetPeople(operations);
+            throw e;
+        }
+        if(!applied){
+            resetPeople(operations);
+            return false;
+        }
+        committedOperations += operations.size();
+        committedTransactions++;
+        return true;
+    }
+
+    /**
+     * Discard all edits queued since the last commit.
+     */
+    public void rollback() {
+        checkOpen();
+        resetPeople(pending);
+        pending.clear();
+        pendingPeople.clear();
+        pendingRelations = null;
+    }
+
+    /**
+     * Discard uncommitted edits and close the batch.
+     */
+    @Override
+    public void close() {
+        if(!closed){
+            rollback();
+            closed = true;
+        }
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public int getPendingOperations() {
+        return pending.size();
+    }
+
+    public long getCommittedOperations() {
+        return committedOperations;
+    }
+
+    public int getCommittedTransactions() {
+        return committedTransactions;
+    }
+
+    private Boolean queue(BatchOperation operation) {
+        checkOpen();
+        pending.add(operation);
+        if(pending.size()>=batchSize){
+            return commit();
+        }
+        return true;
+    }
+
+    private void checkPerson(PersonIdentity person, String nullMessage) {
+        if(person==null){
+            throw new IllegalArgumentException(nullMessage);
+        }
+        if(person.getPersonId()<1 && !pendingPeople.contains(person)){
+            throw new IllegalArgumentException("invalid person object");
+        }
+    }
+
+    private void checkOpen() {
+        if(closed){
+            throw new IllegalStateException("batch is closed");
+        }
+    }
+
+    private static void resetPeople(List<BatchOperation> operations) {
+        for(BatchOperation operation : operations){
+            if(operation.getType()==BatchOperation.Type.ADD_PERSON){
+                operation.getPerson().setPersonId(0);
+            }
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package pkg;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage engine behind Genealogy. Genealogy validates the arguments of every operation
+ * before calling the store, so implementations can assume non-null objects with valid ids,
+ * non-empty strings and well-formed dates.
+ * Implementations report storage failures the same way Genealogy does:
+ * write operations return false (or null for generated identifiers) and queries return null.
+ */
+public interface GenealogyStore {
+
+    /**
+     * Receives the people read by scanPeople.
+     */
+    interface PersonVisitor {
+        void visit(int personId, String name);
+    }
+
+    /**
+     * Receives the parent/child relations read by scanParentChild.
+     */
+    interface RelationVisitor {
+        void visit(int parentId, int childId);
+    }
+
+    /**
+     * Receives the attributes read by scanPersonAttributes.
+     */
+    interface AttributeVisitor {
+        void visit(int id, String attributeType, String value);
+    }
+
+    /**
+     * Receives the media files read by scanMedia.
+     */
+    interface MediaVisitor {
+        void visit(int mediaId, String fileLocation);
+    }
+
+    /**
+     * Receives the media tags read by scanMediaTags.
+     */
+    interface TagVisitor {
+        void visit(int mediaId, String tag);
+    }
+
+    /**
+     * Receives the people in media read by scanPersonMedia.
+     */
+    interface PersonMediaVisitor {
+        void visit(int personId, int mediaId);
+    }
+
+    /**
+     * Add an individual to the family tree.
+     * @return identity of the new person, null if it could not be stored
+     */
+    PersonIdentity addPerson(String name);
+
+    /**
+     * Record a source reference for the individual.
+     */
+    Boolean recordReference(PersonIdentity person, String reference);
+
+    /**
+     * Record a note for the individual.
+     */
+    Boolean recordNote(PersonIdentity person, String note);
+
+    /**
+     * Locate an individual by name.
+     * @return the person, null if nobody has that name
+     */
+    PersonIdentity findPerson(String name);
+
+    /**
+     * Add a media file to the archive.
+     * @throws IllegalArgumentException if the file location is already in the archive
+     */
+    FileIdentifier addMediaFile(String fileLocation);
+
+    /**
+     * Locate a media file by its location.
+     * @return the file, null if it is not in the archive
+     */
+    FileIdentifier findMediaFile(String fileLocation);
+
+    /**
+     * Record that the given people appear in the media file.
+     */
+    Boolean peopleInMedia(FileIdentifier fileIdentifier, List<PersonIdentity> people);
+
+    /**
+     * Record a tag for the media file, creating the tag if it does not exist yet.
+     */
+    Boolean tagMedia(FileIdentifier fileIdentifier, String tag);
+
+    /**
+     * Record attributes of an individual, replacing earlier values of the same attributes.
+     */
+    Boolean recordAttributes(PersonIdentity person, Map<String, String> attributes);
+
+    /**
+     * Record attributes of a media file, replacing earlier values of the same attributes.
+     */
+    Boolean recordMediaAttributes(FileIdentifier fileIdentifier, Map<String, String> attributes);
+
+    /**
+     * Record a parent/child relation.
+     * @throws IllegalArgumentException if the child already has two parents
+     */
+    Boolean recordChild(PersonIdentity parent, PersonIdentity child);
+
+    /**
+     * Report all descendents within the given number of generations, generations is at least 1.
+     */
+    Set<PersonIdentity> descendents(PersonIdentity person, Integer generations);
+
+    /**
+     * Report all ancestors within the given number of generations, generations is at least 1.
+     */
+    Set<PersonIdentity> ancestors(PersonIdentity person, Integer generations);
+
+    /**
+     * Report how two individuals are related through their lowest common ancestor.
+     * @return the relation, null if they are not biologically related
+     */
+    BiologicalRelation findRelation(PersonIdentity person1, PersonIdentity person2);
+
+    /**
+     * Record a partnering between two individuals unless they are already partnered.
+     */
+    Boolean recordPartnering(PersonIdentity partner1, PersonIdentity partner2);
+
+    /**
+     * Record a dissolution between two individuals unless their partnering is already dissolved.
+     */
+    Boolean recordDissolution(PersonIdentity partner1, PersonIdentity partner2);
+
+    /**
+     * Return the notes followed by the references of the individual, each in the order they were added.
+     */
+    List<String> notesAndReferences(PersonIdentity person);
+
+    /**
+     * Return the media files with the tag whose dates fall within the range, null dates mean no restriction.
+     */
+    Set<FileIdentifier> findMediaByTag(String tag, String startDate, String endDate);
+
+    /**
+     * Return the media files whose location contains the given text and whose dates fall within the range.
+     */
+    Set<FileIdentifier> findMediaByLocation(String location, String startDate, String endDate);
+
+    /**
+     * Return the media files that include the person's immediate children,
+     * in ascending chronological order with undated files last, ties broken by file name.
+     */
+    List<FileIdentifier> findBiologicalFamilyMedia(PersonIdentity person);
+
+    /**
+     * Return the media files that include any of the people and whose dates fall within the range,
+     * in ascending chronological order with undated files last, ties broken by file name.
+     */
+    List<FileIdentifier> findIndividualsMedia(Set<PersonIdentity> people, String startDate, String endDate);
+
+    /**
+     * Apply a batch of family tree edits atomically, in a single transaction where the store has transactions.
+     * People added by the batch receive their generated ids through PersonIdentity.setPersonId.
+     * Edits that would not change anything, such as recording an existing parent/child relation
+     * or a partnering between people who are already partners, are skipped like the single-edit operations.
+     * @param operations edits in the order they were queued
+     * @return true if every edit was applied, false if nothing was applied
+     */
+    Boolean applyBatch(List<BatchOperation> operations);
+
+    /**
+     * Pass every person in the family tree to the visitor, used to load in-memory indexes.
+     * @return true if all people were read, false if the store could not be read
+     */
+    Boolean scanPeople(PersonVisitor visitor);
+
+    /**
+     * Pass every parent/child relation to the visitor, used to load in-memory indexes.
+     * @return true if all relations were read, false if the store could not be read
+     */
+    Boolean scanParentChild(RelationVisitor visitor);
+
+    /**
+     * Pass every attribute of every person to the visitor, used to load in-memory indexes.
+     * @return true if all attributes were read, false if the store could not be read
+     */
+    Boolean scanPersonAttributes(AttributeVisitor visitor);
+
+    /**
+     * Pass every media file to the visitor, used to load in-memory indexes.
+     * @return true if all media files were read, false if the store could not be read
+     */
+    Boolean scanMedia(MediaVisitor visitor);
+
+    /**
+     * Pass every tag of every media file to the visitor, used to load in-memory indexes.
+     * @return true if all tags were read, false if the store could not be read
+     */
+    Boolean scanMediaTags(TagVisitor visitor);
+
+    /**
+     * Pass every attribute of every media file to the visitor, used to load in-memory indexes.
+     * @return true if all attributes were read, false if the store could not be read
+     */
+    Boolean scanMediaAttributes(AttributeVisitor visitor);
+
+    /**
+     * Pass every person linked to a media file to the visitor, used to load in-memory indexes.
+     * @return true if all links were read, false if the store could not be read
+     */
+    Boolean scanPersonMedia(PersonMediaVisitor visitor);
+}
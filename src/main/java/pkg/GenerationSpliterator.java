@@ -0,0 +1,56 @@
+package pkg;
+
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Walks ancestors or descendents one generation at a time for the streams of Genealogy.
+ * The next generation is only looked up when the consumer has taken every person of the current one,
+ * so a stream that is limited or short-circuited never expands the generations it does not reach.
+ * Each person is reported once, at the generation where they are first reached.
+ */
+class GenerationSpliterator extends Spliterators.AbstractSpliterator<PersonGeneration> {
+
+    // returns the parents or children of all people of a generation, or null if they could not be read
+    private final Function<List<PersonIdentity>, List<PersonIdentity>> nextGeneration;
+    private final int generations;
+    private final Set<Integer> visited = new HashSet<>();
+    private List<PersonIdentity> current;
+    private int generation = 0;
+    private int position = 0;
+
+    GenerationSpliterator(PersonIdentity person, int generations,
+                          Function<List<PersonIdentity>, List<PersonIdentity>> nextGeneration) {
+        super(Long.MAX_VALUE, Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.ORDERED);
+        this.nextGeneration = nextGeneration;
+        this.generations = generations;
+        this.current = Collections.singletonList(person);
+        this.position = 1;
+        visited.add(person.getPersonId());
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super PersonGeneration> action) {
+        while (position>=current.size()) {
+            if(generation>=generations || current.isEmpty()){
+                return false;
+            }
+            List<PersonIdentity> relatives = nextGeneration.apply(current);
+            if(relatives==null){
+                throw new IllegalStateException("relatives could not be read from the store");
+            }
+            List<PersonIdentity> next = new ArrayList<>();
+            for(PersonIdentity relative : relatives){
+                if(visited.add(relative.getPersonId())){
+                    next.add(relative);
+                }
+            }
+            current = next;
+            position = 0;
+            generation++;
+        }
+        action.accept(new PersonGeneration(current.get(position++), generation));
+        return true;
+    }
+}
@@ -0,0 +1,392 @@
+package pkg;
+
+import java.util.Arrays;
+
+/**
+ * Media positions from their latitude and longitude attributes, kept by MediaIndex for radius and bounding box
+ * searches.
+ *
+ * Each position gets a geohash-like key: latitude and longitude are cut into 65536 steps each (about 300 m of
+ * latitude) and their bits interleaved, so that every cell of the grid at any coarser level is one contiguous
+ * range of keys. Media are kept sorted by key in primitive arrays, and a box is answered from the few cells of
+ * a level about as fine as the box, each found by binary search, checking the exact position of the media in
+ * them. Like MediaDates, positions set after loading collect in a pending run merged once it fills up, and a
+ * media that moved leaves a stale entry recognized by its generation.
+ * Not thread safe; MediaIndex guards it with its lock.
+ */
+class GeoIndex {
+
+    static final String LATITUDE_ATTRIBUTE = "latitude";
+    static final String LONGITUDE_ATTRIBUTE = "longitude";
+    static final double EARTH_RADIUS_KM = 6371.0088;
+
+    private static final int BITS = 16;
+    private static final long NO_KEY = -1;
+    private static final int MERGE_AFTER = 1024;
+
+    // current position, key and generation of each media id; NaN when the coordinate is missing
+    private double[] latitudes = newCoordinates(1024);
+    private double[] longitudes = newCoordinates(1024);
+    private long[] keys = newKeys(1024);
+    private int[] generations = new int[1024];
+
+    // main run, sorted by key
+    private long[] runKeys = new long[0];
+    private int[] runIds = new int[0];
+    private int[] runGenerations = new int[0];
+    private int stale;
+
+    // positions set since the last merge, in arrival order
+    private final int[] pendingIds = new int[MERGE_AFTER];
+    private final int[] pendingGenerations = new int[MERGE_AFTER];
+    private int pendingCount;
+
+    /**
+     * @return the coordinate in decimal degrees, null if the text is not a number within -limit and limit
+     */
+    static Double parseCoordinate(String text, double limit) {
+        double value;
+        try {
+            value = Double.parseDouble(text.trim());
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        return value>=-limit && value<=limit ? value : null;
+    }
+
+    /**
+     * @return the great circle distance between two positions in kilometres
+     */
+    static double distanceKm(double latitude1, double longitude1, double latitude2, double longitude2) {
+        double latitudeSine = Math.sin(Math.toRadians(latitude2 - latitude1) / 2);
+        double longitudeSine = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        double a = latitudeSine * latitudeSine
+                + Math.cos(Math.toRadians(latitude1)) * Math.cos(Math.toRadians(latitude2)) * longitudeSine * longitudeSine;
+        return 2 * EARTH_RADIUS_KM * Math.asin(Math.min(1, Math.sqrt(a)));
+    }
+
+    double latitude(int mediaId) {
+        return mediaId<latitudes.length ? latitudes[mediaId] : Double.NaN;
+    }
+
+    double longitude(int mediaId) {
+        return mediaId<longitudes.length ? longitudes[mediaId] : Double.NaN;
+    }
+
+    /**
+     * Set the latitude of a media file, NaN to remove it.
+     * @param bulk true while loading, followed by build()
+     */
+    void setLatitude(int mediaId, double latitude, boolean bulk) {
+        grow(mediaId);
+        latitudes[mediaId] = latitude;
+        update(mediaId, bulk);
+    }
+
+    /**
+     * Set the longitude of a media file, NaN to remove it.
+     * @param bulk true while loading, followed by build()
+     */
+    void setLongitude(int mediaId, double longitude, boolean bulk) {
+        grow(mediaId);
+        longitudes[mediaId] = longitude;
+        update(mediaId, bulk);
+    }
+
+    /**
+     * Sort every positioned media into the main run after bulk loading.
+     */
+    void build() {
+        // keys take 32 bits and ids 31, so both pack into one long that sorts by key
+        int count = 0;
+        long[] packed = new long[keys.length];
+        for(int mediaId=0;mediaId<keys.length;mediaId++){
+            if(keys[mediaId]!=NO_KEY){
+                packed[count++] = (keys[mediaId] << 31) | mediaId;
+            }
+        }
+        Arrays.sort(packed, 0, count);
+        runKeys = new long[count];
+        runIds = new int[count];
+        runGenerations = new int[count];
+        for(int i=0;i<count;i++){
+            int mediaId = (int) (packed[i] & Integer.MAX_VALUE);
+            runKeys[i] = keys[mediaId];
+            runIds[i] = mediaId;
+            runGenerations[i] = generations[mediaId];
+        }
+        pendingCount = 0;
+        stale = 0;
+    }
+
+    /**
+     * @param west western edge, greater than east for a box across the 180th meridian
+     * @return the media positioned within the box, edges included, in increasing order
+     */
+    int[] inBox(double south, double west, double north, double east) {
+        if(west>east){
+            int[] both = concat(inBox(south, west, north, 180), inBox(south, -180, north, east));
+            Arrays.sort(both);
+            return both;
+        }
+        int[] found = new int[16];
+        int count = 0;
+        int[] ranges = cellRanges(south, west, north, east);
+        for(int range=0;range<ranges.length;range+=2){
+            for(int i=ranges[range];i<ranges[range + 1];i++){
+                int mediaId = runIds[i];
+                if(runGenerations[i]==generations[mediaId] && contains(mediaId, south, west, north, east)){
+                    if(count==found.length){
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = mediaId;
+                }
+            }
+        }
+        for(int i=0;i<pendingCount;i++){
+            int mediaId = pendingIds[i];
+            if(pendingGenerations[i]==generations[mediaId] && contains(mediaId, south, west, north, east)){
+                if(count==found.length){
+                    found = Arrays.copyOf(found, count * 2);
+                }
+                found[count++] = mediaId;
+            }
+        }
+        Arrays.sort(found, 0, count);
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * @return the media within the distance of the position, in increasing order
+     */
+    int[] near(double latitude, double longitude, double radiusKm) {
+        double[] box = circleBox(latitude, longitude, radiusKm);
+        int[] candidates = inBox(box[0], box[1], box[2], box[3]);
+        int count = 0;
+        for(int mediaId : candidates){
+            if(distanceKm(latitude, longitude, latitudes[mediaId], longitudes[mediaId])<=radiusKm){
+                candidates[count++] = mediaId;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * @return at most how many media near() returns: the media in the cells it reads, counting stale entries
+     */
+    int estimateNear(double latitude, double longitude, double radiusKm) {
+        double[] box = circleBox(latitude, longitude, radiusKm);
+        int[] ranges = box[1]>box[3]
+                ? concat(cellRanges(box[0], box[1], box[2], 180), cellRanges(box[0], -180, box[2], box[3]))
+                : cellRanges(box[0], box[1], box[2], box[3]);
+        int estimate = pendingCount;
+        for(int range=0;range<ranges.length;range+=2){
+            estimate += ranges[range + 1] - ranges[range];
+        }
+        return estimate;
+    }
+
+    /**
+     * @return true if the media has a position within the distance of the given one
+     */
+    boolean isNear(int mediaId, double latitude, double longitude, double radiusKm) {
+        return mediaId<keys.length && keys[mediaId]!=NO_KEY
+                && distanceKm(latitude, longitude, latitudes[mediaId], longitudes[mediaId])<=radiusKm;
+    }
+
+    /**
+     * @return south, west, north and east edges of the box around the circle, across the 180th meridian if
+     * west is greater than east, and spanning every longitude when the circle reaches a pole
+     */
+    private static double[] circleBox(double latitude, double longitude, double radiusKm) {
+        double angle = radiusKm / EARTH_RADIUS_KM;
+        double latitudeSpan = Math.toDegrees(angle);
+        double south = Math.max(-90, latitude - latitudeSpan);
+        double north = Math.min(90, latitude + latitudeSpan);
+        double west = -180;
+        double east = 180;
+        if(south>-90 && north<90){
+            double longitudeSpan = Math.toDegrees(Math.asin(Math.sin(angle) / Math.cos(Math.toRadians(latitude))));
+            west = longitude - longitudeSpan;
+            east = longitude + longitudeSpan;
+            if(west<-180){
+                west += 360;
+            }
+            if(east>180){
+                east -= 360;
+            }
+        }
+        return new double[]{south, west, north, east};
+    }
+
+    /**
+     * @return start and end positions in the main run of the cells covering a box within -180 and 180,
+     * as consecutive pairs
+     */
+    private int[] cellRanges(double south, double west, double north, double east) {
+        // the finest level whose cells are at least a quarter of the box: at most 5 by 5 cells, each a binary
+        // search, that together cover little more than the box
+        int level = BITS;
+        while (level>0 && (north - south>720.0 / (1 << level) || east - west>1440.0 / (1 << level))) {
+            level--;
+        }
+        int shift = BITS - level;
+        int firstLatitude = step(south, 90) >>> shift;
+        int lastLatitude = step(north, 90) >>> shift;
+        int firstLongitude = step(west, 180) >>> shift;
+        int lastLongitude = step(east, 180) >>> shift;
+        int[] ranges = new int[2 * (lastLatitude - firstLatitude + 1) * (lastLongitude - firstLongitude + 1)];
+        int count = 0;
+        for(int latitudeCell=firstLatitude;latitudeCell<=lastLatitude;latitudeCell++){
+            for(int longitudeCell=firstLongitude;longitudeCell<=lastLongitude;longitudeCell++){
+                long cell = interleave(latitudeCell, longitudeCell);
+                ranges[count++] = lowerBound(cell << (2 * shift));
+                ranges[count++] = lowerBound((cell + 1) << (2 * shift));
+            }
+        }
+        return ranges;
+    }
+
+    private static int[] concat(int[] first, int[] second) {
+        int[] both = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, both, first.length, second.length);
+        return both;
+    }
+
+    private void update(int mediaId, boolean bulk) {
+        long key = Double.isNaN(latitudes[mediaId]) || Double.isNaN(longitudes[mediaId]) ? NO_KEY
+                : interleave(step(latitudes[mediaId], 90), step(longitudes[mediaId], 180));
+        if(keys[mediaId]!=NO_KEY){
+            stale++;
+        }
+        keys[mediaId] = key;
+        generations[mediaId]++;
+        if(bulk || key==NO_KEY){
+            return;
+        }
+        pendingIds[pendingCount] = mediaId;
+        pendingGenerations[pendingCount] = generations[mediaId];
+        pendingCount++;
+        if(pendingCount==MERGE_AFTER || stale>runIds.length / 2 + MERGE_AFTER){
+            merge();
+        }
+    }
+
+    /**
+     * Merge the pending run into the main run, dropping stale entries.
+     */
+    private void merge() {
+        long[] pending = new long[pendingCount];
+        int live = 0;
+        for(int i=0;i<pendingCount;i++){
+            int mediaId = pendingIds[i];
+            if(pendingGenerations[i]==generations[mediaId]){
+                pending[live++] = (keys[mediaId] << 31) | mediaId;
+            }
+        }
+        Arrays.sort(pending, 0, live);
+
+        long[] mergedKeys = new long[runIds.length + live];
+        int[] mergedIds = new int[mergedKeys.length];
+        int[] mergedGenerations = new int[mergedKeys.length];
+        int count = 0;
+        int next = 0;
+        for(int i=0;i<runIds.length;i++){
+            int mediaId = runIds[i];
+            if(runGenerations[i]!=generations[mediaId]){
+                continue;
+            }
+            while (next<live && (pending[next] >>> 31)<runKeys[i]) {
+                int pendingId = (int) (pending[next++] & Integer.MAX_VALUE);
+                mergedKeys[count] = keys[pendingId];
+                mergedIds[count] = pendingId;
+                mergedGenerations[count++] = generations[pendingId];
+            }
+            mergedKeys[count] = runKeys[i];
+            mergedIds[count] = mediaId;
+            mergedGenerations[count++] = runGenerations[i];
+        }
+        while (next<live) {
+            int pendingId = (int) (pending[next++] & Integer.MAX_VALUE);
+            mergedKeys[count] = keys[pendingId];
+            mergedIds[count] = pendingId;
+            mergedGenerations[count++] = generations[pendingId];
+        }
+        runKeys = Arrays.copyOf(mergedKeys, count);
+        runIds = Arrays.copyOf(mergedIds, count);
+        runGenerations = Arrays.copyOf(mergedGenerations, count);
+        pendingCount = 0;
+        stale = 0;
+    }
+
+    private boolean contains(int mediaId, double south, double west, double north, double east) {
+        double latitude = latitudes[mediaId];
+        double longitude = longitudes[mediaId];
+        return latitude>=south && latitude<=north && longitude>=west && longitude<=east;
+    }
+
+    /**
+     * @return the first position of the main run with a key not less than the key
+     */
+    private int lowerBound(long key) {
+        int low = 0;
+        int high = runKeys.length;
+        while (low<high) {
+            int middle = (low + high) >>> 1;
+            if(runKeys[middle]<key){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void grow(int mediaId) {
+        if(mediaId<keys.length){
+            return;
+        }
+        int capacity = Math.max(mediaId + 1, keys.length * 2);
+        double[] grownLatitudes = newCoordinates(capacity);
+        double[] grownLongitudes = newCoordinates(capacity);
+        long[] grownKeys = newKeys(capacity);
+        System.arraycopy(latitudes, 0, grownLatitudes, 0, latitudes.length);
+        System.arraycopy(longitudes, 0, grownLongitudes, 0, longitudes.length);
+        System.arraycopy(keys, 0, grownKeys, 0, keys.length);
+        latitudes = grownLatitudes;
+        longitudes = grownLongitudes;
+        keys = grownKeys;
+        generations = Arrays.copyOf(generations, capacity);
+    }
+
+    /**
+     * @return the grid step of a coordinate between -limit and limit
+     */
+    private static int step(double coordinate, double limit) {
+        int step = (int) ((coordinate + limit) / (2 * limit) * (1 << BITS));
+        return Math.max(0, Math.min((1 << BITS) - 1, step));
+    }
+
+    /**
+     * @return the cell key with latitude bits on odd positions and longitude bits on even ones
+     */
+    private static long interleave(int latitudeStep, int longitudeStep) {
+        long key = 0;
+        for(int bit=BITS-1;bit>=0;bit--){
+            key = (key << 2) | (((latitudeStep >>> bit) & 1L) << 1) | ((longitudeStep >>> bit) & 1L);
+        }
+        return key;
+    }
+
+    private static double[] newCoordinates(int capacity) {
+        double[] coordinates = new double[capacity];
+        Arrays.fill(coordinates, Double.NaN);
+        return coordinates;
+    }
+
+    private static long[] newKeys(int capacity) {
+        long[] keys = new long[capacity];
+        Arrays.fill(keys, NO_KEY);
+        return keys;
+    }
+}
@@ -0,0 +1,744 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.*;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * GenealogyStore that keeps the whole family tree and media archive in memory.
+ * It mirrors the behaviour of the MySQL schema (case-insensitive names, tags and file locations,
+ * at most two parents per child, one value per attribute) without any database round trips,
+ * and is useful for small archives and for running Genealogy without a MySQL server.
+ * Nothing is persisted, so all data is lost when the store is discarded.
+ */
+public class InMemoryGenealogyStore implements GenealogyStore {
+
+    static final int MARRIAGE_EVENT = 1;
+    static final int DIVORCE_EVENT = 2;
+    static final String MEDIA_DATE_ATTRIBUTE = "date";
+    static final String MEDIA_LOCATION_ATTRIBUTE = "location";
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    private int nextPersonId = 1;
+    private int nextMediaId = 1;
+
+    private final Map<Integer, String> personNames = new HashMap<>();
+    private final Map<String, List<Integer>> personIdsByName = new HashMap<>();
+    private final Map<Integer, List<Integer>> parentsOf = new HashMap<>();
+    private final Map<Integer, List<Integer>> childrenOf = new HashMap<>();
+    private final Map<Integer, List<String>> notes = new HashMap<>();
+    private final Map<Integer, List<String>> references = new HashMap<>();
+    // attribute types compare case-insensitively, like the database collation
+    private final Map<Integer, Map<String, String>> personAttributes = new HashMap<>();
+    // partnering event types of each pair of partners in the order they were recorded, like person_events
+    private final Map<Long, List<Integer>> partnerEvents = new HashMap<>();
+
+    private final Map<Integer, String> mediaLocations = new HashMap<>();
+    private final Map<String, Integer> mediaIdsByLocation = new HashMap<>();
+    private final Map<Integer, Map<String, String>> mediaAttributes = new HashMap<>();
+    // first day of each media's date attribute in days since 1970-01-01, parsed once when it is recorded
+    private final Map<Integer, Long> mediaDays = new HashMap<>();
+    private final Map<String, Set<Integer>> mediaByTag = new HashMap<>();
+    private final Map<Integer, Set<Integer>> mediaByPerson = new HashMap<>();
+
+    @Override
+    public PersonIdentity addPerson(String name) {
+        lock.writeLock().lock();
+        try {
+            int personId = nextPersonId++;
+            personNames.put(personId, name);
+            personIdsByName.computeIfAbsent(normalize(name), key -> new ArrayList<>()).add(personId);
+            return new PersonIdentity(personId, name);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean recordReference(PersonIdentity person, String reference) {
+        lock.writeLock().lock();
+        try {
+            if(!personNames.containsKey(person.getPersonId())){
+                return false;
+            }
+            references.computeIfAbsent(person.getPersonId(), key -> new ArrayList<>()).add(reference);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean recordNote(PersonIdentity person, String note) {
+        lock.writeLock().lock();
+        try {
+            if(!personNames.containsKey(person.getPersonId())){
+                return false;
+            }
+            notes.computeIfAbsent(person.getPersonId(), key -> new ArrayList<>()).add(note);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public PersonIdentity findPerson(String name) {
+        lock.readLock().lock();
+        try {
+            List<Integer> personIds = personIdsByName.get(normalize(name));
+            if(personIds==null){
+                return null;
+            }
+            if(personIds.size()>1){
+                throw new IllegalStateException("more than one person is named " + name);
+            }
+            return new PersonIdentity(personIds.get(0), name);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public FileIdentifier addMediaFile(String fileLocation) {
+        lock.writeLock().lock();
+        try {
+            if(mediaIdsByLocation.containsKey(normalize(fileLocation))){
+                throw new IllegalArgumentException("Media file already exists");
+            }
+            int mediaId = nextMediaId++;
+            mediaLocations.put(mediaId, fileLocation);
+            mediaIdsByLocation.put(normalize(fileLocation), mediaId);
+            return new FileIdentifier(mediaId, fileLocation);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public FileIdentifier findMediaFile(String fileLocation) {
+        lock.readLock().lock();
+        try {
+            Integer mediaId = mediaIdsByLocation.get(normalize(fileLocation));
+            if(mediaId==null){
+                return null;
+            }
+            return new FileIdentifier(mediaId, fileLocation);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean peopleInMedia(FileIdentifier fileIdentifier, List<PersonIdentity> people) {
+        lock.writeLock().lock();
+        try {
+            if(!mediaLocations.containsKey(fileIdentifier.getMediaId())){
+                return false;
+            }
+            for(PersonIdentity person : people){
+                if(!personNames.containsKey(person.getPersonId())){
+                    return false;
+                }
+            }
+            for(PersonIdentity person : people){
+                mediaByPerson.computeIfAbsent(person.getPersonId(), key -> new HashSet<>())
+                        .add(fileIdentifier.getMediaId());
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean tagMedia(FileIdentifier fileIdentifier, String tag) {
+        lock.writeLock().lock();
+        try {
+            if(!mediaLocations.containsKey(fileIdentifier.getMediaId())){
+                return false;
+            }
+            mediaByTag.computeIfAbsent(normalize(tag), key -> new HashSet<>()).add(fileIdentifier.getMediaId());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean recordAttributes(PersonIdentity person, Map<String, String> attributes) {
+        validateDates(attributes);
+        lock.writeLock().lock();
+        try {
+            if(!personNames.containsKey(person.getPersonId())){
+                return false;
+            }
+            personAttributes.computeIfAbsent(person.getPersonId(), key -> attributeMap()).putAll(attributes);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean recordMediaAttributes(FileIdentifier fileIdentifier, Map<String, String> attributes) {
+        validateDates(attributes);
+        lock.writeLock().lock();
+        try {
+            if(!mediaLocations.containsKey(fileIdentifier.getMediaId())){
+                return false;
+            }
+            Map<String, String> recorded = mediaAttributes.computeIfAbsent(fileIdentifier.getMediaId(),
+                    key -> attributeMap());
+            recorded.putAll(attributes);
+            String date = recorded.get(MEDIA_DATE_ATTRIBUTE);
+            if(date!=null){
+                mediaDays.put(fileIdentifier.getMediaId(), PartialDate.parse(date).getFirstDay());
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean recordChild(PersonIdentity parent, PersonIdentity child) {
+        lock.writeLock().lock();
+        try {
+            if(!personNames.containsKey(parent.getPersonId()) || !personNames.containsKey(child.getPersonId())){
+                return false;
+            }
+            List<Integer> parents = parentsOf.computeIfAbsent(child.getPersonId(), key -> new ArrayList<>(2));
+            if(parents.contains(parent.getPersonId())){
+                return true;
+            }
+            if(parents.size()>=2){
+                throw new IllegalArgumentException("2 parents already exist for child");
+            }
+            parents.add(parent.getPersonId());
+            childrenOf.computeIfAbsent(parent.getPersonId(), key -> new ArrayList<>()).add(child.getPersonId());
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<PersonIdentity> descendents(PersonIdentity person, Integer generations) {
+        lock.readLock().lock();
+        try {
+            return breadthFirst(person.getPersonId(), generations, childrenOf);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<PersonIdentity> ancestors(PersonIdentity person, Integer generations) {
+        lock.readLock().lock();
+        try {
+            return breadthFirst(person.getPersonId(), generations, parentsOf);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public BiologicalRelation findRelation(PersonIdentity person1, PersonIdentity person2) {
+        lock.readLock().lock();
+        try {
+            Map<Integer, Integer> depths1 = ancestorDepths(person1.getPersonId());
+            Map<Integer, Integer> depths2 = ancestorDepths(person2.getPersonId());
+
+            int depth1 = -1;
+            int depth2 = -1;
+            int lowestCommonAncestor = -1;
+            for(Map.Entry<Integer, Integer> entry : depths1.entrySet()){
+                Integer otherDepth = depths2.get(entry.getKey());
+                if(otherDepth==null){
+                    continue;
+                }
+                int candidate1 = entry.getValue();
+                int candidate2 = otherDepth;
+                if(lowestCommonAncestor==-1 || isCloser(candidate1, candidate2, entry.getKey(),
+                        depth1, depth2, lowestCommonAncestor)){
+                    depth1 = candidate1;
+                    depth2 = candidate2;
+                    lowestCommonAncestor = entry.getKey();
+                }
+            }
+            if(lowestCommonAncestor==-1){
+                return null;
+            }
+
+            BiologicalRelation biologicalRelation = new BiologicalRelation();
+            biologicalRelation.setCousinship(Math.min(depth1, depth2)-1);
+            biologicalRelation.setRemoval(Math.abs(depth1-depth2));
+            return biologicalRelation;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean recordPartnering(PersonIdentity partner1, PersonIdentity partner2) {
+        return recordPartnerEvent(partner1, partner2, MARRIAGE_EVENT);
+    }
+
+    @Override
+    public Boolean recordDissolution(PersonIdentity partner1, PersonIdentity partner2) {
+        return recordPartnerEvent(partner1, partner2, DIVORCE_EVENT);
+    }
+
+    @Override
+    public List<String> notesAndReferences(PersonIdentity person) {
+        lock.readLock().lock();
+        try {
+            // the database version combines both lists with UNION, which drops duplicates
+            Set<String> notesReferences = new LinkedHashSet<>();
+            notesReferences.addAll(notes.getOrDefault(person.getPersonId(), Collections.emptyList()));
+            notesReferences.addAll(references.getOrDefault(person.getPersonId(), Collections.emptyList()));
+            return new ArrayList<>(notesReferences);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<FileIdentifier> findMediaByTag(String tag, String startDate, String endDate) {
+        lock.readLock().lock();
+        try {
+            Set<Integer> mediaIds = mediaByTag.getOrDefault(normalize(tag), Collections.emptySet());
+            if(startDate==null && endDate==null){
+                return new LinkedHashSet<>(toFileIdentifiers(new TreeSet<>(mediaIds)));
+            }
+            return new LinkedHashSet<>(toFileIdentifiers(chronological(mediaIds, startDate, endDate, false)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Set<FileIdentifier> findMediaByLocation(String location, String startDate, String endDate) {
+        lock.readLock().lock();
+        try {
+            String locationText = normalize(location);
+            long from = lowerBound(startDate);
+            long to = upperBound(endDate);
+            List<Integer> mediaIds = new ArrayList<>();
+            for(Integer mediaId : new TreeSet<>(mediaAttributes.keySet())){
+                String mediaLocation = mediaAttributes.get(mediaId).get(MEDIA_LOCATION_ATTRIBUTE);
+                if(mediaLocation==null || !normalize(mediaLocation).contains(locationText)){
+                    continue;
+                }
+                if(startDate!=null || endDate!=null){
+                    Long day = mediaDays.get(mediaId);
+                    if(day==null || day<from || day>to){
+                        continue;
+                    }
+                }
+                mediaIds.add(mediaId);
+            }
+            return new LinkedHashSet<>(toFileIdentifiers(mediaIds));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<FileIdentifier> findBiologicalFamilyMedia(PersonIdentity person) {
+        lock.readLock().lock();
+        try {
+            Set<Integer> mediaIds = new HashSet<>();
+            for(Integer childId : childrenOf.getOrDefault(person.getPersonId(), Collections.emptyList())){
+                mediaIds.addAll(mediaByPerson.getOrDefault(childId, Collections.emptySet()));
+            }
+            return toFileIdentifiers(chronological(mediaIds, null, null, true));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<FileIdentifier> findIndividualsMedia(Set<PersonIdentity> people, String startDate, String endDate) {
+        lock.readLock().lock();
+        try {
+            Set<Integer> mediaIds = new HashSet<>();
+            for(PersonIdentity person : people){
+                mediaIds.addAll(mediaByPerson.getOrDefault(person.getPersonId(), Collections.emptySet()));
+            }
+            return toFileIdentifiers(chronological(mediaIds, startDate, endDate, true));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean applyBatch(List<BatchOperation> operations) {
+        lock.writeLock().lock();
+        try {
+            // work out the ids of the new people and check every edit before changing anything
+            Map<PersonIdentity, Integer> newPersonIds = new IdentityHashMap<>();
+            int personId = nextPersonId;
+            for(BatchOperation operation : operations){
+                if(operation.getType()==BatchOperation.Type.ADD_PERSON){
+                    newPersonIds.put(operation.getPerson(), personId++);
+                }
+            }
+            Map<Integer, Set<Integer>> addedParents = new HashMap<>();
+            for(BatchOperation operation : operations){
+                if(operation.getType()==BatchOperation.Type.ADD_PERSON){
+                    continue;
+                }
+                int id = batchPersonId(operation.getPerson(), newPersonIds);
+                if(id<1){
+                    return false;
+                }
+                if(operation.getOtherPerson()!=null){
+                    int otherId = batchPersonId(operation.getOtherPerson(), newPersonIds);
+                    if(otherId<1){
+                        return false;
+                    }
+                    if(operation.getType()==BatchOperation.Type.RECORD_CHILD){
+                        if(otherId==id){
+                            throw new IllegalArgumentException("a person cannot be their own parent");
+                        }
+                        Set<Integer> parents = addedParents.computeIfAbsent(otherId,
+                                key -> new HashSet<>(parentsOf.getOrDefault(key, Collections.emptyList())));
+                        parents.add(id);
+                        if(parents.size()>2){
+                            throw new IllegalArgumentException("2 parents already exist for child");
+                        }
+                    }
+                }
+            }
+
+            for(BatchOperation operation : operations){
+                PersonIdentity person = operation.getPerson();
+                if(operation.getType()==BatchOperation.Type.ADD_PERSON){
+                    int newId = newPersonIds.get(person);
+                    nextPersonId = newId+1;
+                    personNames.put(newId, person.getName());
+                    personIdsByName.computeIfAbsent(normalize(person.getName()), key -> new ArrayList<>()).add(newId);
+                    person.setPersonId(newId);
+                    continue;
+                }
+                int id = person.getPersonId();
+                switch (operation.getType()){
+                    case RECORD_ATTRIBUTES:
+                        personAttributes.computeIfAbsent(id, key -> attributeMap()).putAll(operation.getAttributes());
+                        break;
+                    case RECORD_NOTE:
+                        notes.computeIfAbsent(id, key -> new ArrayList<>()).add(operation.getText());
+                        break;
+                    case RECORD_REFERENCE:
+                        references.computeIfAbsent(id, key -> new ArrayList<>()).add(operation.getText());
+                        break;
+                    case RECORD_CHILD:
+                        int childId = operation.getOtherPerson().getPersonId();
+                        List<Integer> parents = parentsOf.computeIfAbsent(childId, key -> new ArrayList<>(2));
+                        if(!parents.contains(id)){
+                            parents.add(id);
+                            childrenOf.computeIfAbsent(id, key -> new ArrayList<>()).add(childId);
+                        }
+                        break;
+                    case RECORD_PARTNERING:
+                        addPartnerEvent(pairKey(id, operation.getOtherPerson().getPersonId()), MARRIAGE_EVENT);
+                        break;
+                    case RECORD_DISSOLUTION:
+                        addPartnerEvent(pairKey(id, operation.getOtherPerson().getPersonId()), DIVORCE_EVENT);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean scanPeople(PersonVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<Integer, String> person : personNames.entrySet()){
+                visitor.visit(person.getKey(), person.getValue());
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean scanParentChild(RelationVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<Integer, List<Integer>> parents : parentsOf.entrySet()){
+                for(Integer parentId : parents.getValue()){
+                    visitor.visit(parentId, parents.getKey());
+                }
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean scanPersonAttributes(AttributeVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<Integer, Map<String, String>> attributes : personAttributes.entrySet()){
+                for(Map.Entry<String, String> attribute : attributes.getValue().entrySet()){
+                    visitor.visit(attributes.getKey(), attribute.getKey(), attribute.getValue());
+                }
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean scanMedia(MediaVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<Integer, String> media : mediaLocations.entrySet()){
+                visitor.visit(media.getKey(), media.getValue());
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean scanMediaTags(TagVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<String, Set<Integer>> tag : mediaByTag.entrySet()){
+                for(Integer mediaId : tag.getValue()){
+                    visitor.visit(mediaId, tag.getKey());
+                }
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean scanPersonMedia(PersonMediaVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<Integer, Set<Integer>> media : mediaByPerson.entrySet()){
+                for(Integer mediaId : media.getValue()){
+                    visitor.visit(media.getKey(), mediaId);
+                }
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public Boolean scanMediaAttributes(AttributeVisitor visitor) {
+        lock.readLock().lock();
+        try {
+            for(Map.Entry<Integer, Map<String, String>> attributes : mediaAttributes.entrySet()){
+                for(Map.Entry<String, String> attribute : attributes.getValue().entrySet()){
+                    visitor.visit(attributes.getKey(), attribute.getKey(), attribute.getValue());
+                }
+            }
+            return true;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the id a person will have once the batch is applied, 0 if the person does not exist
+     */
+    private int batchPersonId(PersonIdentity person, Map<PersonIdentity, Integer> newPersonIds) {
+        Integer newId = newPersonIds.get(person);
+        if(newId!=null){
+            return newId;
+        }
+        return personNames.containsKey(person.getPersonId()) ? person.getPersonId() : 0;
+    }
+
+    private Boolean recordPartnerEvent(PersonIdentity partner1, PersonIdentity partner2, int eventType) {
+        lock.writeLock().lock();
+        try {
+            if(!personNames.containsKey(partner1.getPersonId()) || !personNames.containsKey(partner2.getPersonId())){
+                return false;
+            }
+            addPartnerEvent(pairKey(partner1.getPersonId(), partner2.getPersonId()), eventType);
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Records an event unless it repeats the latest event of the pair, like the JDBC store.
+     */
+    private void addPartnerEvent(long pair, int eventType) {
+        List<Integer> events = partnerEvents.computeIfAbsent(pair, key -> new ArrayList<>(2));
+        if(events.isEmpty() || events.get(events.size()-1)!=eventType){
+            events.add(eventType);
+        }
+    }
+
+    /**
+     * @return the partnering event types recorded for a pair of partners, oldest first
+     */
+    List<Integer> partnerEvents(PersonIdentity partner1, PersonIdentity partner2) {
+        lock.readLock().lock();
+        try {
+            List<Integer> events = partnerEvents.get(pairKey(partner1.getPersonId(), partner2.getPersonId()));
+            return events==null ? Collections.emptyList() : new ArrayList<>(events);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Set<PersonIdentity> breadthFirst(int personId, int generations, Map<Integer, List<Integer>> edges) {
+        Set<PersonIdentity> relatives = new LinkedHashSet<>();
+        Set<Integer> visited = new HashSet<>();
+        List<Integer> frontier = Collections.singletonList(personId);
+        for(int generation=1; generation<=generations && !frontier.isEmpty(); generation++){
+            List<Integer> next = new ArrayList<>();
+            for(Integer current : frontier){
+                for(Integer relative : edges.getOrDefault(current, Collections.emptyList())){
+                    if(visited.add(relative)){
+                        next.add(relative);
+                        relatives.add(new PersonIdentity(relative, personNames.get(relative)));
+                    }
+                }
+            }
+            frontier = next;
+        }
+        return relatives;
+    }
+
+    /**
+     * @return the person and all their ancestors, each with its distance in generations from the person
+     */
+    private Map<Integer, Integer> ancestorDepths(int personId) {
+        Map<Integer, Integer> depths = new HashMap<>();
+        depths.put(personId, 0);
+        Deque<Integer> queue = new ArrayDeque<>();
+        queue.add(personId);
+        while (!queue.isEmpty()) {
+            int current = queue.poll();
+            for(Integer parent : parentsOf.getOrDefault(current, Collections.emptyList())){
+                if(!depths.containsKey(parent)){
+                    depths.put(parent, depths.get(current)+1);
+                    queue.add(parent);
+                }
+            }
+        }
+        return depths;
+    }
+
+    /**
+     * Orders common ancestors by total distance, then by how uneven the two distances are, then by id,
+     * so that the same pair of people always gets the same relation.
+     */
+    static boolean isCloser(int depth1, int depth2, int ancestorId, int bestDepth1, int bestDepth2, int bestAncestorId) {
+        if(depth1+depth2 != bestDepth1+bestDepth2){
+            return depth1+depth2 < bestDepth1+bestDepth2;
+        }
+        if(Math.abs(depth1-depth2) != Math.abs(bestDepth1-bestDepth2)){
+            return Math.abs(depth1-depth2) < Math.abs(bestDepth1-bestDepth2);
+        }
+        return ancestorId < bestAncestorId;
+    }
+
+    /**
+     * Sorts media by date and file location, keeping only dated media within the range.
+     * Undated media are appended in file location order when includeUndated is set.
+     */
+    private List<Integer> chronological(Collection<Integer> mediaIds, String startDate, String endDate,
+                                        boolean includeUndated) {
+        long from = lowerBound(startDate);
+        long to = upperBound(endDate);
+        List<Integer> dated = new ArrayList<>();
+        List<Integer> undated = new ArrayList<>();
+        for(Integer mediaId : mediaIds){
+            Long day = mediaDays.get(mediaId);
+            if(day==null){
+                undated.add(mediaId);
+            } else if(day>=from && day<=to){
+                dated.add(mediaId);
+            }
+        }
+        Comparator<Integer> byFileLocation = Comparator.comparing(mediaLocations::get);
+        dated.sort(Comparator.comparing((Integer mediaId) -> mediaDays.get(mediaId)).thenComparing(byFileLocation));
+        if(includeUndated){
+            undated.sort(byFileLocation);
+            dated.addAll(undated);
+        }
+        return dated;
+    }
+
+    private List<FileIdentifier> toFileIdentifiers(Collection<Integer> mediaIds) {
+        List<FileIdentifier> files = new ArrayList<>();
+        for(Integer mediaId : mediaIds){
+            files.add(new FileIdentifier(mediaId, mediaLocations.get(mediaId)));
+        }
+        return files;
+    }
+
+    /**
+     * Media compare by the first day of their date, from the first day of the start bound
+     * to the last day of the end bound.
+     */
+    private static long lowerBound(String startDate) {
+        return startDate==null ? Long.MIN_VALUE : PartialDate.startBound(startDate);
+    }
+
+    private static long upperBound(String endDate) {
+        return endDate==null ? Long.MAX_VALUE : PartialDate.endBound(endDate);
+    }
+
+    /**
+     * Parses yyyy, yyyy-MM or yyyy-MM-dd, using the first day of the year or month when it is not given.
+     * @return the date, null if the text is not a date in one of those formats
+     */
+    static LocalDate parseDate(String text) {
+        PartialDate date = PartialDate.parse(text);
+        return date==null ? null : date.getFirstDate();
+    }
+
+    private static void validateDates(Map<String, String> attributes) {
+        for(Map.Entry<String, String> attribute : attributes.entrySet()){
+            if(AttributeFilter.isDateType(attribute.getKey()) && parseDate(attribute.getValue())==null){
+                throw new IllegalArgumentException("Invalid Date Format");
+            }
+        }
+    }
+
+    private static Map<String, String> attributeMap() {
+        return new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+    }
+
+    private static long pairKey(int personId1, int personId2) {
+        int low = Math.min(personId1, personId2);
+        int high = Math.max(personId1, personId2);
+        return ((long) low << 32) | (high & 0xffffffffL);
+    }
+
+    /**
+     * Names, tags and file locations compare case-insensitively, like the database collation.
+     */
+    private static String normalize(String text) {
+        return text.toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,101 @@
+package pkg;
+
+import java.util.Arrays;
+
+/**
+ * Set of positive ints using open addressing, for the in-memory indexes that would otherwise
+ * box every person or media id into a HashSet&lt;Integer&gt;. 0 marks an empty slot, so 0 cannot be stored.
+ */
+class IntHashSet {
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] slots;
+    private int size;
+
+    IntHashSet() {
+        this(MIN_CAPACITY);
+    }
+
+    IntHashSet(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        slots = new int[capacity];
+    }
+
+    /**
+     * @return true if the value was not in the set yet
+     */
+    boolean add(int value) {
+        if(value==0){
+            throw new IllegalArgumentException("0 cannot be stored in an IntHashSet");
+        }
+        int mask = slots.length - 1;
+        int slot = mix(value) & mask;
+        while (slots[slot]!=0) {
+            if(slots[slot]==value){
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = value;
+        size++;
+        if(size * 2 > slots.length){
+            grow();
+        }
+        return true;
+    }
+
+    boolean contains(int value) {
+        int mask = slots.length - 1;
+        int slot = mix(value) & mask;
+        while (slots[slot]!=0) {
+            if(slots[slot]==value){
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the values in no particular order
+     */
+    int[] toArray() {
+        int[] values = new int[size];
+        int count = 0;
+        for(int value : slots){
+            if(value!=0){
+                values[count++] = value;
+            }
+        }
+        return values;
+    }
+
+    void clear() {
+        Arrays.fill(slots, 0);
+        size = 0;
+    }
+
+    private void grow() {
+        int[] old = slots;
+        slots = new int[old.length * 2];
+        size = 0;
+        for(int value : old){
+            if(value!=0){
+                add(value);
+            }
+        }
+    }
+
+    private static int mix(int value) {
+        int hash = value * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
@@ -0,0 +1,110 @@
+package pkg;
+
+/**
+ * Map from positive int keys to int values using open addressing, the primitive counterpart of
+ * HashMap&lt;Integer, Integer&gt; for the in-memory indexes. 0 marks an empty slot, so 0 cannot be a key.
+ */
+class IntIntHashMap {
+
+    static final int MISSING = -1;
+
+    /**
+     * Receives the entries of the map.
+     */
+    interface EntryVisitor {
+        void visit(int key, int value);
+    }
+
+    private static final int MIN_CAPACITY = 16;
+
+    private int[] keys;
+    private int[] values;
+    private int size;
+
+    IntIntHashMap() {
+        this(MIN_CAPACITY);
+    }
+
+    IntIntHashMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new int[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * @return the value of the key, MISSING if the key is not in the map
+     */
+    int get(int key) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot]!=0) {
+            if(keys[slot]==key){
+                return values[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        return MISSING;
+    }
+
+    boolean containsKey(int key) {
+        return get(key)!=MISSING;
+    }
+
+    /**
+     * Store the value unless the key is already in the map.
+     * @return true if the key was added
+     */
+    boolean putIfAbsent(int key, int value) {
+        if(key==0){
+            throw new IllegalArgumentException("0 cannot be a key of an IntIntHashMap");
+        }
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot]!=0) {
+            if(keys[slot]==key){
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        size++;
+        if(size * 2 > keys.length){
+            grow();
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    void forEach(EntryVisitor visitor) {
+        for(int i=0;i<keys.length;i++){
+            if(keys[i]!=0){
+                visitor.visit(keys[i], values[i]);
+            }
+        }
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new int[oldKeys.length * 2];
+        size = 0;
+        for(int i=0;i<oldKeys.length;i++){
+            if(oldKeys[i]!=0){
+                putIfAbsent(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private static int mix(int value) {
+        int hash = value * 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+}
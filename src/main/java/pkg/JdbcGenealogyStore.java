@@ -0,0 +1,2121 @@
+package pkg;
+
+import java.sql.*;
+import java.time.LocalDate;
+import java.util.*;
+
+/**
+ * GenealogyStore that keeps the family tree and media archive in the MySQL database configured in DBConnection.
+ * Every operation borrows a connection from the pool and returns it before completing.
+ */
+public class JdbcGenealogyStore implements GenealogyStore {
+
+    static final int MARRIAGE_DB_KEY = 1;
+    static final int DIVORCE_DB_KEY = 2;
+    static final int NO_DATES_PROVIDED = 1;
+    static final int BOTH_DATES_PROVIDED = 2;
+    static final int START_DATE_PROVIDED = 3;
+    static final int END_DATE_PROVIDED = 4;
+
+    // adds a path through the new relation parent_id -> child_id from the parent and each of its ancestors
+    // to the child and each of its descendants, keeping the shortest distance when a pair is already known.
+    // The paths are selected from a derived table so the update can tell the stored distance from the new one
+    static final String EXTEND_ANCESTOR_CLOSURE = "INSERT INTO ancestor_closure (ancestor_id, descendant_id, distance) " +
+            "SELECT * FROM (SELECT a.ancestor_id, d.descendant_id, a.distance + d.distance + 1 AS path_distance FROM " +
+            "(SELECT ? AS ancestor_id, 0 AS distance UNION ALL " +
+            "SELECT ancestor_id, distance FROM ancestor_closure WHERE descendant_id=?) a CROSS JOIN " +
+            "(SELECT ? AS descendant_id, 0 AS distance UNION ALL " +
+            "SELECT descendant_id, distance FROM ancestor_closure WHERE ancestor_id=?) d " +
+            "WHERE a.ancestor_id<>d.descendant_id) AS paths " +
+            "ON DUPLICATE KEY UPDATE distance=LEAST(ancestor_closure.distance, paths.path_distance)";
+
+    // media dates are read from the typed date_value column, which is indexed with the attribute id
+    static final String MEDIA_DATE_TYPE_ID = "(select attribute_id from media_attributes_types where attribute_type='date')";
+
+    private final boolean ancestorClosure;
+    private final TypeDictionary personAttributeTypes =
+            new TypeDictionary("person_attributes_types", "attribute_id", "attribute_type");
+    private final TypeDictionary mediaAttributeTypes =
+            new TypeDictionary("media_attributes_types", "attribute_id", "attribute_type");
+    private final TypeDictionary tagNames = new TypeDictionary("media_tags_types", "tag_id", "tag_name");
+
+    /**
+     * Creates a store that answers ancestors, descendents and findRelation with recursive queries.
+     */
+    public JdbcGenealogyStore() {
+        this(false);
+    }
+
+    /**
+     * @param ancestorClosure true to maintain the ancestor_closure table on every new parent/child relation
+     *                        and answer ancestors, descendents and findRelation from it; the table must exist
+     *                        (sql/ancestor_closure.sql) and be filled by AncestorClosureTool rebuild first
+     */
+    public JdbcGenealogyStore(boolean ancestorClosure) {
+        this.ancestorClosure = ancestorClosure;
+    }
+
+    public boolean isAncestorClosureEnabled() {
+        return ancestorClosure;
+    }
+
+    @Override
+    public PersonIdentity addPerson(String name) {
+        String SQL = "INSERT INTO person_details(name) VALUES(?)";
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        PersonIdentity person = null;
+        ResultSet generatedKeys = null;
+        int result = 0;
+        boolean exceptionOccurred = false;
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(SQL, new String[] {"person_id"});
+            pStmt.setString(1,name);
+            result = pStmt.executeUpdate();
+            generatedKeys = pStmt.getGeneratedKeys();
+            if (result==0 || !generatedKeys.isBeforeFirst()){
+                throw new SQLException("Error while adding person");
+            } else {
+                int insertedId = 0;
+                while (generatedKeys.next()){
+                    insertedId = generatedKeys.getInt(1);
+                }
+                if(insertedId==0){
+                    throw new SQLException("Error while adding person");
+                }
+                person = new PersonIdentity(insertedId, name);
+            }
+        } catch(SQLException e){
+            exceptionOccurred = true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        if(exceptionOccurred){
+            return null;
+        }
+        return person;
+    }
+
+    @Override
+    public Boolean recordReference(PersonIdentity person, String reference) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        String SQL = "INSERT INTO person_references (reference, person_id) VALUES(?, ?)";
+        int result = 0;
+        int index = 1;
+        boolean exceptionOccurred = false;
+
+        try{
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(SQL);
+            pStmt.setString(index++, reference);
+            pStmt.setInt(index, person.getPersonId());
+            result = pStmt.executeUpdate();
+        } catch (SQLException e){
+            exceptionOccurred = true;
+        } finally {
+            if (pStmt != null) {
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return false;
+        }
+
+        return result!=0;
+    }
+
+    @Override
+    public Boolean recordNote(PersonIdentity person, String note) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        String SQL = "INSERT INTO person_notes (note, person_id) VALUES(?, ?)";
+        int result = 0;
+        int index = 1;
+        boolean exceptionOccurred = false;
+
+        try{
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(SQL);
+            pStmt.setString(index++, note);
+            pStmt.setInt(index, person.getPersonId());
+            result = pStmt.executeUpdate();
+        } catch (SQLException e){
+            exceptionOccurred = true;
+        } finally {
+            if (pStmt != null) {
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return false;
+        }
+
+        return result!=0;
+    }
+
+    @Override
+    public PersonIdentity findPerson(String name) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        PersonIdentity person = null;
+        boolean exceptionOccurred = false;
+
+        String SQL = "SELECT * FROM person_details WHERE name=?";
+
+        try {
+                conn = DBConnection.getConnection();
+                pStmt = conn.prepareStatement(SQL);
+                pStmt.setString(1, name);
+                resultSet = pStmt.executeQuery();
+                int personId = 0;
+                int rowCount = 0;
+                while (resultSet.next()){
+                    rowCount++;
+                    personId = resultSet.getInt("person_id");
+                }
+
+                if(rowCount>1){
+                    throw new IllegalStateException("more than one person is named " + name);
+                }
+
+                if(personId != 0){
+                    person = new PersonIdentity(personId, name);
+                }
+
+            } catch (SQLException e) {
+                exceptionOccurred = true;
+            } finally {
+                if(pStmt!=null){
+                    try {
+                        pStmt.close();
+                    } catch (SQLException e) {
+                    }
+                }
+                if(resultSet!=null){
+                    try {
+                        resultSet.close();
+                    } catch (SQLException e) {
+                    }
+                }
+                try {
+                    if(conn!=null){
+                        conn.close();
+                    }
+                } catch (SQLException e) {
+                }
+            }
+        if(exceptionOccurred){
+            return null;
+        }
+        return person;
+    }
+
+    @Override
+    public FileIdentifier addMediaFile(String fileLocation) {
+        String CHECK_EXISTING_FILE = "SELECT * FROM media_details WHERE file_location=?";
+        String SQL = "INSERT INTO media_details(file_location) VALUES(?)";
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        FileIdentifier fileIdentifier = null;
+        ResultSet generatedKeys = null;
+        ResultSet resultSet = null;
+        int result = 0;
+        boolean exceptionOccurred = false;
+        int existingMediaId = 0;
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt=conn.prepareStatement(CHECK_EXISTING_FILE);
+
+            pStmt.setString(1,fileLocation);
+
+            resultSet = pStmt.executeQuery();
+
+            while(resultSet.next()){
+                existingMediaId=resultSet.getInt("media_id");
+            }
+
+            if(existingMediaId!=0){
+                throw new IllegalArgumentException("Media file already exists");
+            }
+
+            pStmt.close();
+            pStmt = conn.prepareStatement(SQL, new String[] {"media_id"});
+            pStmt.setString(1,fileLocation);
+            result = pStmt.executeUpdate();
+            generatedKeys = pStmt.getGeneratedKeys();
+            if (result==0 || !generatedKeys.isBeforeFirst()){
+                throw new SQLException();
+            } else {
+                int insertedId = 0;
+                while (generatedKeys.next()){
+                    insertedId = generatedKeys.getInt(1);
+                }
+                if(insertedId==0){
+                    throw new SQLException();
+                }
+                fileIdentifier = new FileIdentifier(insertedId, fileLocation);
+            }
+        } catch(SQLException e){
+            exceptionOccurred = true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(generatedKeys!=null){
+                try {
+                    generatedKeys.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        if(exceptionOccurred){
+            return null;
+        }
+        return fileIdentifier;
+    }
+
+    @Override
+    public FileIdentifier findMediaFile(String fileLocation) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        FileIdentifier fileIdentifier = null;
+        boolean exceptionOccurred = false;
+        String SQL = "SELECT * FROM media_details WHERE file_location=?";;
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(SQL);
+            pStmt.setString(1, fileLocation);
+            resultSet = pStmt.executeQuery();
+
+            int media_id = 0;
+            int rowCount=0;
+
+            while (resultSet.next()){
+                rowCount++;
+                media_id = resultSet.getInt("media_id");
+            }
+
+            if(rowCount>1){
+                throw new RuntimeException();
+            }
+
+            if(media_id != 0){
+                fileIdentifier = new FileIdentifier(media_id, fileLocation);
+            }
+
+        } catch (SQLException e) {
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            try {
+                if(conn!=null){
+                    conn.close();
+                }
+            } catch (SQLException e) {
+            }
+        }
+        if(exceptionOccurred){
+            return null;
+        }
+        return fileIdentifier;
+    }
+
+    @Override
+    public Boolean peopleInMedia(FileIdentifier fileIdentifier, List<PersonIdentity> people) {
+        int i=0;
+        StringBuilder SQL = new StringBuilder("INSERT INTO person_media(person_id, media_id) VALUES ");
+        for(PersonIdentity person : people){
+            if(person.getPersonId()<1){
+                throw new IllegalArgumentException("invalid person object in list");
+            }
+            SQL.append("( ?, ? ) ");
+            if(i!=(people.size()-1)){
+                SQL.append(", ");
+            }
+            i++;
+        }
+        SQL.append("AS new ON DUPLICATE KEY UPDATE person_id=new.person_id, media_id=new.media_id");
+
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        int result = 0;
+        boolean exceptionOccurred = false;
+
+        try{
+            conn = DBConnection.getConnection();
+
+            int index=1;
+            pStmt = conn.prepareStatement(SQL.toString());
+            for(PersonIdentity person : people) {
+                pStmt.setInt(index++, person.getPersonId());
+                pStmt.setInt(index++, fileIdentifier.getMediaId());
+            }
+            result = pStmt.executeUpdate();
+
+        } catch (SQLException e) {
+            e.printStackTrace();
+            exceptionOccurred = true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        if(exceptionOccurred){
+            return false;
+        }
+        return result!=0;
+    }
+
+    @Override
+    public Boolean tagMedia(FileIdentifier fileIdentifier, String tag) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        String CHECK_EXISTING_RECORD = "SELECT * FROM media_tags WHERE media_id=? AND tag_id=?";
+        String RECORD_TAG = "INSERT INTO media_tags (tag_id, media_id) VALUES(?, ?)";
+        int result = 0;
+        int existingRecord = 0;
+        boolean exceptionOccurred = false;
+
+        int existingTagId=0;
+
+        try{
+            conn = DBConnection.getConnection();
+            existingTagId = tagNames.find(conn, tag);
+
+            if(existingTagId==0){
+                existingTagId = tagNames.add(conn, tag);
+                tagNames.put(tag, existingTagId);
+            } else {
+                pStmt = conn.prepareStatement(CHECK_EXISTING_RECORD);
+                pStmt.setInt(1,fileIdentifier.getMediaId());
+                pStmt.setInt(2,existingTagId);
+
+                resultSet = pStmt.executeQuery();
+
+
+                while(resultSet.next()){
+                    existingRecord++;
+                }
+            }
+
+            if(existingTagId==0){
+                throw new SQLException();
+            }
+
+            if(existingRecord==0){
+                if(pStmt!=null){
+                    pStmt.close();
+                }
+                pStmt = conn.prepareStatement(RECORD_TAG);
+
+                pStmt.setInt(1,existingTagId);
+                pStmt.setInt(2,fileIdentifier.getMediaId());
+
+                result = pStmt.executeUpdate();
+
+                if(result==0){
+                    throw new SQLException();
+                }
+            }
+
+        } catch (SQLException e){
+            e.printStackTrace();
+            exceptionOccurred = true;
+        } finally {
+            if (pStmt != null) {
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public Boolean recordAttributes(PersonIdentity person, Map<String, String> attributes) {
+        int attributeCount = attributes.size();
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+        int result = 0;
+
+        StringBuilder INSERT_ATTRIBUTES_SQL = new StringBuilder("INSERT INTO person_attributes " +
+                "(person_id, attribute_id, attribute_value, date_value, date_precision) VALUES ");
+        for(int i=0;i<attributeCount;i++){
+            if(i<(attributeCount-1)){
+                INSERT_ATTRIBUTES_SQL.append("(?,?,?,?,?), ");
+            } else {
+                INSERT_ATTRIBUTES_SQL.append("(?,?,?,?,?) ");
+            }
+        }
+
+        INSERT_ATTRIBUTES_SQL.append("AS new ON DUPLICATE KEY UPDATE attribute_value=new.attribute_value, " +
+                "date_value=new.date_value, date_precision=new.date_precision");
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(INSERT_ATTRIBUTES_SQL.toString());
+
+            int index=1;
+            for(Map.Entry<String,String> attribute: attributes.entrySet()){
+                int attributeId = 0;
+                PartialDate date = typedDate(attribute.getKey(), attribute.getValue(), "Invalid Date Format");
+                attributeId = personAttributeTypes.find(conn, attribute.getKey());
+                if(attributeId==0){
+                    attributeId = addNewAttributeType(attribute.getKey(), personAttributeTypes, conn);
+                    personAttributeTypes.put(attribute.getKey(), attributeId);
+                }
+                if(attributeId==0){
+                    throw new SQLException("Cannot find attribute type id");
+                }
+                pStmt.setInt(index++,person.getPersonId());
+                pStmt.setInt(index++, attributeId);
+                pStmt.setString(index++, attribute.getValue());
+                index = setDateColumns(pStmt, index, date);
+            }
+
+            result = pStmt.executeUpdate();
+
+            if(result==0){
+                throw new SQLException();
+            }
+
+        } catch(SQLException sqe){
+            exceptionOccurred = true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        if(exceptionOccurred){
+            return false;
+        }
+
+        return true;
+    }
+
+    /**
+     * Adds an attribute type, or finds the id another writer added it with. The id is not cached, so that a
+     * batch can roll the new type back; callers put it in the dictionary once it is committed.
+     * @return the id of the attribute type, 0 if it could not be added
+     */
+    int addNewAttributeType(String attributeType, TypeDictionary attributeTypes, Connection conn){
+        if(attributeType==null){
+            return 0;
+        }
+        if(attributeType.trim().isEmpty()){
+            return 0;
+        }
+
+        try {
+            return attributeTypes.add(conn, attributeType);
+        } catch(SQLException sqe){
+            sqe.printStackTrace();
+            return 0;
+        }
+    }
+
+    @Override
+    public Boolean recordMediaAttributes(FileIdentifier fileIdentifier, Map<String, String> attributes) {
+        int attributeCount = attributes.size();
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+        int result = 0;
+
+        StringBuilder INSERT_ATTRIBUTES_SQL = new StringBuilder("INSERT INTO media_attributes " +
+                "(media_id, attribute_id, attribute_value, date_value, date_precision) VALUES ");
+        for(int i=0;i<attributeCount;i++){
+            if(i<(attributeCount-1)){
+                INSERT_ATTRIBUTES_SQL.append("(?,?,?,?,?), ");
+            } else {
+                INSERT_ATTRIBUTES_SQL.append("(?,?,?,?,?) ");
+            }
+        }
+
+        INSERT_ATTRIBUTES_SQL.append("AS new ON DUPLICATE KEY UPDATE attribute_value=new.attribute_value, " +
+                "date_value=new.date_value, date_precision=new.date_precision");
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(INSERT_ATTRIBUTES_SQL.toString());
+
+            int index=1;
+            for(Map.Entry<String,String> attribute: attributes.entrySet()){
+                int attributeId = 0;
+                PartialDate date = typedDate(attribute.getKey(), attribute.getValue(), "Invalid Date format");
+                attributeId = mediaAttributeTypes.find(conn, attribute.getKey());
+                if(attributeId==0){
+                    attributeId = addNewAttributeType(attribute.getKey(), mediaAttributeTypes, conn);
+                    mediaAttributeTypes.put(attribute.getKey(), attributeId);
+                }
+                if(attributeId==0){
+                    throw new SQLException("Cannot find attribute type id");
+                }
+                pStmt.setInt(index++,fileIdentifier.getMediaId());
+                pStmt.setInt(index++, attributeId);
+                pStmt.setString(index++, attribute.getValue());
+                index = setDateColumns(pStmt, index, date);
+            }
+
+            result = pStmt.executeUpdate();
+
+            if(result==0){
+                throw new SQLException();
+            }
+
+        } catch(SQLException sqe){
+            exceptionOccurred = true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        if(exceptionOccurred){
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public Boolean recordChild(PersonIdentity parent, PersonIdentity child) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        int result = 0;
+        boolean exceptionOccurred = false;
+        int noOfParents = 0, existingParentId=0,existingChildId=0;
+
+        String CHECK_EXISTING_RELATION = "SELECT * FROM parent_child WHERE parent_id=? AND child_id=?";
+        String FIND_PARENTS = "SELECT COUNT(parent_id) as noOfParents FROM parent_child WHERE child_id=?";
+        String INSERT_NEW_CHILD = "INSERT INTO parent_child VALUES(?,?)";
+
+        try {
+            conn = DBConnection.getConnection();
+            if(ancestorClosure){
+                // the relation and its closure rows are committed together
+                conn.setAutoCommit(false);
+            }
+            pStmt=conn.prepareStatement(CHECK_EXISTING_RELATION);
+            pStmt.setInt(1,parent.getPersonId());
+            pStmt.setInt(2,child.getPersonId());
+            resultSet = pStmt.executeQuery();
+
+            while(resultSet.next()){
+                existingParentId=resultSet.getInt("parent_id");
+                existingChildId=resultSet.getInt("child_id");
+            }
+
+            if(!(existingParentId>0 && existingChildId>0)){
+                pStmt.close();
+                resultSet.close();
+                pStmt = conn.prepareStatement(FIND_PARENTS);
+                pStmt.setInt(1,child.getPersonId());
+                resultSet = pStmt.executeQuery();
+
+                while(resultSet.next()){
+                    noOfParents = resultSet.getInt("noOfParents");
+                }
+
+                if(noOfParents>=2){
+                    throw new IllegalArgumentException("2 parents already exist for child");
+                }
+
+                pStmt.close();
+                pStmt = conn.prepareStatement(INSERT_NEW_CHILD);
+                pStmt.setInt(1,parent.getPersonId());
+                pStmt.setInt(2,child.getPersonId());
+
+                result = pStmt.executeUpdate();
+
+                if(result==0){
+                    throw new SQLException();
+                }
+
+                if(ancestorClosure){
+                    extendAncestorClosure(conn, parent.getPersonId(), child.getPersonId());
+                    conn.commit();
+                }
+            }
+
+        } catch(SQLException e){
+            if(ancestorClosure){
+                rollbackQuietly(conn);
+            }
+            exceptionOccurred = true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+        if(exceptionOccurred){
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Set<PersonIdentity> descendents(PersonIdentity person, Integer generations) {
+        Set<PersonIdentity> descendants = new LinkedHashSet<>();
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        int parentId = person.getPersonId();
+
+        String FIND_DESCENDANTS_RECURSIVE = "with recursive descendants (child_id, gen) as "+
+                "(select child_id, 1 from parent_child where parent_id=? " +
+                "union all " +
+                "select pc.child_id, d.gen+1 from descendants d " +
+                "inner join parent_child pc on pc.parent_id=d.child_id where d.gen<?) " +
+                "select pd.person_id, pd.name from descendants d inner join person_details pd on d.child_id=pd.person_id";
+        String FIND_DESCENDANTS_CLOSURE = "select pd.person_id, pd.name from ancestor_closure ac " +
+                "inner join person_details pd on ac.descendant_id=pd.person_id " +
+                "where ac.ancestor_id=? and ac.distance<=? order by ac.distance, pd.person_id";
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(ancestorClosure ? FIND_DESCENDANTS_CLOSURE : FIND_DESCENDANTS_RECURSIVE);
+
+            pStmt.setInt(1, parentId);
+            pStmt.setInt(2, generations);
+
+            resultSet = pStmt.executeQuery();
+
+
+            while(resultSet.next()){
+                int childId = resultSet.getInt("person_id");
+                String childName = resultSet.getString("name");
+                if(childId < 1 || childName == null || childName.trim().isEmpty()){
+                    throw new SQLException();
+                }
+                PersonIdentity child = new PersonIdentity(childId,childName);
+                descendants.add(child);
+            }
+
+        } catch (SQLException sqe){
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return null;
+        }
+
+        return descendants;
+    }
+
+    @Override
+    public Set<PersonIdentity> ancestors(PersonIdentity person, Integer generations) {
+        Set<PersonIdentity> ancestors = new LinkedHashSet<>();
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        int childId = person.getPersonId();
+
+        String FIND_ANCESTORS_RECURSIVE = "with recursive ancestors (parent_id, gen) as " +
+                "(select parent_id, 1 from parent_child where child_id=? " +
+                "union all " +
+                "select pc.parent_id, a.gen+1 from parent_child pc " +
+                "inner join ancestors a on pc.child_id=a.parent_id where a.gen<?) " +
+                "select pd.person_id, pd.name from ancestors a inner join person_details pd on a.parent_id=pd.person_id";
+        String FIND_ANCESTORS_CLOSURE = "select pd.person_id, pd.name from ancestor_closure ac " +
+                "inner join person_details pd on ac.ancestor_id=pd.person_id " +
+                "where ac.descendant_id=? and ac.distance<=? order by ac.distance, pd.person_id";
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(ancestorClosure ? FIND_ANCESTORS_CLOSURE : FIND_ANCESTORS_RECURSIVE);
+
+            pStmt.setInt(1, childId);
+            pStmt.setInt(2, generations);
+
+            resultSet = pStmt.executeQuery();
+
+
+            while(resultSet.next()){
+                int parentId = resultSet.getInt("person_id");
+                String parentName = resultSet.getString("name");
+                if(parentId < 1 || parentName == null || parentName.trim().isEmpty()){
+                    throw new SQLException();
+                }
+                PersonIdentity parent = new PersonIdentity(parentId,parentName);
+                ancestors.add(parent);
+            }
+
+        } catch (SQLException sqe){
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return null;
+        }
+
+        return ancestors;
+    }
+
+    @Override
+    public BiologicalRelation findRelation(PersonIdentity person1, PersonIdentity person2) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        int depth1=-1;
+        int depth2=-1;
+        int LCA = -1;
+        BiologicalRelation biologicalRelation=null;
+
+        // each person is their own ancestor at depth 0, also when they have no parents; the closest common
+        // ancestor is chosen like InMemoryGenealogyStore.isCloser so that the same pair always gets the same relation
+        String FIND_LCA = "with recursive parentList1 (child_id, parent_id, depth) as ( " +
+                "select child_id, parent_id, 1 from parent_child where child_id=? " +
+                "union all " +
+                "select pc.child_id, pc.parent_id, depth+1 from parent_child pc " +
+                "inner join parentList1 pl1 on pc.child_id=pl1.parent_id " +
+                "), table1 as ( " +
+                "select parent_id, depth from parentList1 union all select ?, 0 " +
+                "), parentList2 (child_id, parent_id, depth) as ( " +
+                "select child_id, parent_id, 1 from parent_child where child_id=? " +
+                "union all " +
+                "select pc.child_id, pc.parent_id, depth+1 from parent_child pc " +
+                "inner join parentList2 pl2 on pc.child_id=pl2.parent_id " +
+                "), table2 as ( " +
+                "select parent_id, depth from parentList2 union all select ?, 0 " +
+                ") select t1.parent_id as LCA, t1.depth as depth1, t2.depth as depth2 from table1 t1 " +
+                "inner join table2 t2 on t1.parent_id=t2.parent_id " +
+                "order by t1.depth+t2.depth, abs(t1.depth-t2.depth), t1.parent_id LIMIT 1";
+        String FIND_LCA_CLOSURE = "select a1.ancestor_id as LCA, a1.distance as depth1, a2.distance as depth2 from " +
+                "(select ancestor_id, distance from ancestor_closure where descendant_id=? union all select ?, 0) a1 " +
+                "inner join " +
+                "(select ancestor_id, distance from ancestor_closure where descendant_id=? union all select ?, 0) a2 " +
+                "on a1.ancestor_id=a2.ancestor_id " +
+                "order by a1.distance+a2.distance, abs(a1.distance-a2.distance), a1.ancestor_id LIMIT 1";
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt=conn.prepareStatement(ancestorClosure ? FIND_LCA_CLOSURE : FIND_LCA);
+
+            pStmt.setInt(1,person1.getPersonId());
+            pStmt.setInt(2,person1.getPersonId());
+            pStmt.setInt(3,person2.getPersonId());
+            pStmt.setInt(4,person2.getPersonId());
+
+            resultSet = pStmt.executeQuery();
+
+            while(resultSet.next()){
+                LCA=resultSet.getInt("LCA");
+                depth1=resultSet.getInt("depth1");
+                depth2=resultSet.getInt("depth2");
+            }
+
+            if(LCA==-1 || depth1==-1 || depth2==-1){
+                throw new SQLException();
+            }
+
+            int cousinship = Math.min(depth1, depth2)-1;
+
+            biologicalRelation = new BiologicalRelation();
+            biologicalRelation.setCousinship(cousinship);
+            biologicalRelation.setRemoval(Math.abs(depth1-depth2));
+
+        } catch (SQLException sqe){
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return null;
+        }
+
+        return biologicalRelation;
+    }
+
+    @Override
+    public Boolean recordPartnering(PersonIdentity partner1, PersonIdentity partner2) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        String FIND_EXISTING_EVENT_TYPE = "SELECT event_type_id FROM person_events WHERE (person_id_1=? AND person_id_2=?) OR (person_id_2=? AND person_id_1=?) ORDER BY event_id DESC LIMIT 1";
+        String INSERT_NEW_EVENT = "INSERT INTO person_events(person_id_1,person_id_2,event_type_id) VALUES(?,?,?)";
+        int existingEventTypeId=0;
+        int result=0;
+
+        try {
+            conn=DBConnection.getConnection();
+            pStmt = conn.prepareStatement(FIND_EXISTING_EVENT_TYPE);
+
+            pStmt.setInt(1,partner1.getPersonId());
+            pStmt.setInt(2,partner2.getPersonId());
+            pStmt.setInt(3,partner1.getPersonId());
+            pStmt.setInt(4,partner2.getPersonId());
+
+            resultSet = pStmt.executeQuery();
+
+            while(resultSet.next()){
+                existingEventTypeId=resultSet.getInt("event_type_id");
+            }
+
+            if(existingEventTypeId != MARRIAGE_DB_KEY){
+                pStmt.close();
+                pStmt = conn.prepareStatement(INSERT_NEW_EVENT);
+
+                pStmt.setInt(1,partner1.getPersonId());
+                pStmt.setInt(2,partner2.getPersonId());
+                pStmt.setInt(3,MARRIAGE_DB_KEY);
+
+                result=pStmt.executeUpdate();
+
+                if(result==0){
+                    throw new SQLException();
+                }
+            }
+
+        } catch (SQLException sqe){
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public Boolean recordDissolution(PersonIdentity partner1, PersonIdentity partner2) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        String FIND_EXISTING_EVENT_TYPE = "SELECT event_type_id FROM person_events WHERE (person_id_1=? AND person_id_2=?) OR (person_id_2=? AND person_id_1=?) ORDER BY event_id DESC LIMIT 1";
+        String INSERT_NEW_EVENT = "INSERT INTO person_events(person_id_1,person_id_2,event_type_id) VALUES(?,?,?)";
+        int existingEventTypeId=0;
+        int result=0;
+
+        try {
+            conn=DBConnection.getConnection();
+            pStmt = conn.prepareStatement(FIND_EXISTING_EVENT_TYPE);
+
+            pStmt.setInt(1,partner1.getPersonId());
+            pStmt.setInt(2,partner2.getPersonId());
+            pStmt.setInt(3,partner1.getPersonId());
+            pStmt.setInt(4,partner2.getPersonId());
+
+            resultSet = pStmt.executeQuery();
+
+            while(resultSet.next()){
+                existingEventTypeId=resultSet.getInt("event_type_id");
+            }
+
+            if(existingEventTypeId != DIVORCE_DB_KEY){
+                pStmt.close();
+                pStmt = conn.prepareStatement(INSERT_NEW_EVENT);
+
+                pStmt.setInt(1,partner1.getPersonId());
+                pStmt.setInt(2,partner2.getPersonId());
+                pStmt.setInt(3,DIVORCE_DB_KEY);
+
+                result=pStmt.executeUpdate();
+
+                if(result==0){
+                    throw new SQLException();
+                }
+            }
+
+        } catch (SQLException sqe){
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return false;
+        }
+
+        return true;
+    }
+
+    @Override
+    public List<String> notesAndReferences(PersonIdentity person) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        List<String> notesReferences = new ArrayList<>();
+
+        String GET_NOTES_REFERENCES = "with table1 as ( " +
+                "select pd.person_id, pd.name, pn.note as noteOrReference from person_details pd " +
+                "inner join person_notes pn " +
+                "on pd.person_id=pn.person_id " +
+                "where pd.person_id=? " +
+                "order by pn.note_id ASC " +
+                "), table2 as ( " +
+                "select pd.person_id, pd.name, pr.reference as noteOrReference from person_details pd " +
+                "inner join person_references pr " +
+                "on pd.person_id=pr.person_id " +
+                "where pd.person_id=? " +
+                "order by pr.reference_id ASC " +
+                ") select * from table1 " +
+                "union " +
+                "select * from table2;";
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(GET_NOTES_REFERENCES);
+
+            pStmt.setInt(1,person.getPersonId());
+            pStmt.setInt(2,person.getPersonId());
+
+            resultSet=pStmt.executeQuery();
+
+            while(resultSet.next()){
+                notesReferences.add(resultSet.getString("noteOrReference"));
+            }
+
+        }catch (SQLException sqe){
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return null;
+        }
+
+        return notesReferences;
+    }
+
+    @Override
+    public Set<FileIdentifier> findMediaByTag(String tag, String startDate, String endDate) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        int dateCondition = 0;
+
+        StringBuilder GET_MEDIA_BY_TAG = new StringBuilder("select md.media_id, md.file_location, " +
+                "ma.date_value as date_created " +
+                "from media_tags mt " +
+                "inner join media_details md on md.media_id=mt.media_id " +
+                "inner join media_attributes ma on md.media_id=ma.media_id and ma.attribute_id=" + MEDIA_DATE_TYPE_ID + " " +
+                "where mt.tag_id=? and ma.date_value ");
+
+        if(startDate==null && endDate==null){
+            GET_MEDIA_BY_TAG = new StringBuilder("select md.media_id, md.file_location, mtt.tag_name " +
+                    "from media_details md " +
+                    "inner join media_tags mt on md.media_id=mt.media_id " +
+                    "inner join media_tags_types mtt on mt.tag_id=mtt.tag_id " +
+                    "where mtt.tag_id=?");
+            dateCondition=NO_DATES_PROVIDED;
+        } else if(startDate!=null && endDate!=null){
+            GET_MEDIA_BY_TAG.append("between ? and ? " +
+                    "order by date_created ASC, file_location ASC");
+            dateCondition=BOTH_DATES_PROVIDED;
+        } else if(endDate==null){
+            GET_MEDIA_BY_TAG.append(">= ? " +
+                    "order by date_created ASC, file_location ASC");
+            dateCondition=START_DATE_PROVIDED;
+        } else{
+            GET_MEDIA_BY_TAG.append("<= ? " +
+                    "order by date_created ASC, file_location ASC");
+            dateCondition=END_DATE_PROVIDED;
+        }
+
+        Set<FileIdentifier> fileIdentifierSet=new LinkedHashSet<>();
+        int existingTagId=0;
+
+        try {
+            conn = DBConnection.getConnection();
+            existingTagId = tagNames.find(conn, tag);
+
+            if(existingTagId!=0){
+                pStmt = conn.prepareStatement(GET_MEDIA_BY_TAG.toString());
+                pStmt.setInt(1, existingTagId);
+
+                switch (dateCondition){
+                    case BOTH_DATES_PROVIDED:
+                        pStmt.setDate(2, startDateBound(startDate));
+                        pStmt.setDate(3, endDateBound(endDate));
+                        break;
+                    case START_DATE_PROVIDED:
+                        pStmt.setDate(2, startDateBound(startDate));
+                        break;
+                    case END_DATE_PROVIDED:
+                        pStmt.setDate(2, endDateBound(endDate));
+                        break;
+                }
+
+                boolean result=pStmt.execute();
+
+                if(result){
+                    resultSet= pStmt.getResultSet();
+                    while(resultSet.next()){
+                        int mediaId=resultSet.getInt("media_id");
+                        String fileLocation=resultSet.getString("file_location");
+                        FileIdentifier fileIdentifier = new FileIdentifier(mediaId,fileLocation);
+
+                        fileIdentifierSet.add(fileIdentifier);
+                    }
+                }
+
+            }
+
+        } catch (SQLException sqe){
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return null;
+        }
+
+        return fileIdentifierSet;
+    }
+
+    @Override
+    public Set<FileIdentifier> findMediaByLocation(String location, String startDate, String endDate) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        int dateCondition = 0;
+
+        StringBuilder GET_MEDIA_BY_LOCATION = new StringBuilder("with table1 as ( " +
+                "select md.media_id, md.file_location, mat.attribute_type, ma.attribute_value " +
+                "from media_details md " +
+                "inner join media_attributes ma on md.media_id=ma.media_id " +
+                "inner join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
+                "where mat.attribute_type='location' and ma.attribute_value LIKE ? " +
+                "), table3 as ( " +
+                "select t1.media_id,t1.file_location,t1.attribute_value as location, " +
+                "ma.date_value as date_created from table1 t1 inner join media_attributes ma " +
+                "on t1.media_id=ma.media_id and ma.attribute_id=" + MEDIA_DATE_TYPE_ID + " " +
+                "where ma.date_value ");
+
+        if(startDate==null && endDate==null){
+            GET_MEDIA_BY_LOCATION = new StringBuilder("select md.media_id, md.file_location, mat.attribute_type, ma.attribute_value " +
+                    "from media_details md " +
+                    "inner join media_attributes ma on md.media_id=ma.media_id " +
+                    "inner join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
+                    "where mat.attribute_type='location' and ma.attribute_value LIKE ? ");
+            dateCondition=NO_DATES_PROVIDED;
+        } else if(startDate!=null && endDate!=null){
+            GET_MEDIA_BY_LOCATION.append(" between ? and ?) " +
+            "select * from table3 ");
+            dateCondition=BOTH_DATES_PROVIDED;
+        } else if(endDate==null){
+            GET_MEDIA_BY_LOCATION.append(" >= ?) " +
+                    "select * from table3 t3");
+            dateCondition=START_DATE_PROVIDED;
+        } else{
+            GET_MEDIA_BY_LOCATION.append(" <= ?) " +
+                    "select * from table3 t3");
+            dateCondition=END_DATE_PROVIDED;
+        }
+
+        Set<FileIdentifier> fileIdentifierSet=new LinkedHashSet<>();
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(GET_MEDIA_BY_LOCATION.toString());
+
+            pStmt.setString(1,"%"+location+"%");
+
+            switch (dateCondition){
+                case BOTH_DATES_PROVIDED:
+                    pStmt.setDate(2, startDateBound(startDate));
+                    pStmt.setDate(3, endDateBound(endDate));
+                    break;
+                case START_DATE_PROVIDED:
+                    pStmt.setDate(2, startDateBound(startDate));
+                    break;
+                case END_DATE_PROVIDED:
+                    pStmt.setDate(2, endDateBound(endDate));
+                    break;
+            }
+
+            resultSet = pStmt.executeQuery();
+
+            while(resultSet.next()){
+                int mediaId=resultSet.getInt("media_id");
+                String fileLocation=resultSet.getString("file_location");
+                FileIdentifier fileIdentifier = new FileIdentifier(mediaId,fileLocation);
+
+                fileIdentifierSet.add(fileIdentifier);
+            }
+
+        } catch (SQLException sqe){
+            sqe.printStackTrace();
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return null;
+        }
+
+        return fileIdentifierSet;
+    }
+
+    @Override
+    public List<FileIdentifier> findBiologicalFamilyMedia(PersonIdentity person) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        String GET_FAMILY_MEDIA = "with table1 as( " +
+                "with recursive descendants (child_id, gen) as ( " +
+                "select child_id, 1 from parent_child where parent_id=? " +
+                "union all " +
+                "select pc.child_id, d.gen+1 from descendants d " +
+                "inner join parent_child pc on pc.parent_id=d.child_id where d.gen<1 " +
+                ") " +
+                "select md.media_id, md.file_location, mat.attribute_type, " +
+                "ma.date_value as date_created " +
+                "from descendants d " +
+                "inner join person_details pd on d.child_id=pd.person_id " +
+                "inner join person_media pm on pd.person_id=pm.person_id " +
+                "inner join media_details md on pm.media_id=md.media_id " +
+                "left join media_attributes ma on pm.media_id=ma.media_id " +
+                "left join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
+                "order by date_created " +
+                "), table2 as ( " +
+                "select media_id, file_location, date_created from table1 where attribute_type='date' " +
+                "), table3 as ( " +
+                "select media_id, file_location, null as date_created from (select t1.media_id, t1.file_location, " +
+                "sum(case when attribute_type='date' then 1 else 0 end) as recordsWithDate " +
+                "from table1 t1 group by t1.media_id) as table4 where table4.recordsWithDate=0) " +
+                "select * from table2 " +
+                "union " +
+                "select * from table3 order by -date_created DESC, file_location ASC;";
+
+        List<FileIdentifier> fileIdentifierList=new ArrayList<>();
+
+        try {
+            conn=DBConnection.getConnection();
+            pStmt = conn.prepareStatement(GET_FAMILY_MEDIA);
+
+            pStmt.setInt(1,person.getPersonId());
+
+            boolean result =pStmt.execute();
+
+            if(!result){
+                throw new SQLException();
+            } else {
+                resultSet=pStmt.getResultSet();
+                while(resultSet.next()){
+                    int mediaId = resultSet.getInt("media_id");
+                    String fileLocation = resultSet.getString("file_location");
+                    FileIdentifier fileIdentifier = new FileIdentifier(mediaId,fileLocation);
+                    fileIdentifierList.add(fileIdentifier);
+                }
+            }
+
+        } catch (SQLException sqe){
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return null;
+        }
+
+        return fileIdentifierList;
+    }
+
+    @Override
+    public List<FileIdentifier> findIndividualsMedia(Set<PersonIdentity> people, String startDate, String endDate) {
+        List<FileIdentifier> fileIdentifierList=new ArrayList<>();
+        StringBuilder GET_INDIVIDUALS_MEDIA = new StringBuilder("with table1 as( " +
+                "select md.media_id, md.file_location, mat.attribute_type, " +
+                "ma.date_value as date_created " +
+                "from person_details pd " +
+                "inner join person_media pm on pd.person_id=pm.person_id " +
+                "inner join media_details md on pm.media_id=md.media_id " +
+                "left join media_attributes ma on pm.media_id=ma.media_id " +
+                "left join media_attributes_types mat on ma.attribute_id=mat.attribute_id " +
+                "where pd.person_id IN ");
+        int i=0;
+        int dateCondition=0;
+
+        for(PersonIdentity person: people){
+            if(person==null){
+                throw new IllegalArgumentException("person object cannot be null");
+            }
+            if(person.getPersonId()<1){
+                throw new IllegalArgumentException("invalid person object");
+            }
+            if(i==0){
+                GET_INDIVIDUALS_MEDIA.append("( ");
+            }
+            GET_INDIVIDUALS_MEDIA.append("? ");
+            if(i!=(people.size()-1)){
+                GET_INDIVIDUALS_MEDIA.append(", ");
+            } else {
+                GET_INDIVIDUALS_MEDIA.append(") ");
+            }
+            i++;
+        }
+
+        GET_INDIVIDUALS_MEDIA.append(" order by date_created " +
+                "), table2 as ( " +
+                "select media_id, file_location, date_created from table1 where attribute_type='date' ");
+
+        if(startDate==null && endDate==null){
+            GET_INDIVIDUALS_MEDIA.append("");
+            dateCondition=NO_DATES_PROVIDED;
+        } else if(startDate!=null && endDate!=null){
+            GET_INDIVIDUALS_MEDIA.append(" and date_created between ? and ? ");
+            dateCondition=BOTH_DATES_PROVIDED;
+        } else if(endDate==null){
+            GET_INDIVIDUALS_MEDIA.append(" and date_created >= ? ");
+            dateCondition=START_DATE_PROVIDED;
+        } else{
+            GET_INDIVIDUALS_MEDIA.append(" and date_created <= ? ");
+            dateCondition=END_DATE_PROVIDED;
+        }
+
+        GET_INDIVIDUALS_MEDIA.append(" ),table3 as ( " +
+                "select media_id, file_location, null as date_created from (select t1.media_id, t1.file_location, " +
+                "sum(case when attribute_type='date' then 1 else 0 end) as recordsWithDate " +
+                "from table1 t1 group by t1.media_id) as table4 where table4.recordsWithDate=0) " +
+                "select * from table2 " +
+                "union " +
+                "select * from table3 order by -date_created DESC, file_location ASC");
+
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(GET_INDIVIDUALS_MEDIA.toString());
+
+            int index=1;
+            for(PersonIdentity person:people){
+                pStmt.setInt(index++,person.getPersonId());
+            }
+
+            switch (dateCondition){
+                case BOTH_DATES_PROVIDED:
+                    pStmt.setDate(index++, startDateBound(startDate));
+                    pStmt.setDate(index++, endDateBound(endDate));
+                    break;
+                case START_DATE_PROVIDED:
+                    pStmt.setDate(index++, startDateBound(startDate));
+                    break;
+                case END_DATE_PROVIDED:
+                    pStmt.setDate(index++, endDateBound(endDate));
+                    break;
+            }
+
+            boolean result=pStmt.execute();
+
+            if(result){
+                resultSet= pStmt.getResultSet();
+                while(resultSet.next()){
+                    int mediaId=resultSet.getInt("media_id");
+                    String fileLocation=resultSet.getString("file_location");
+                    FileIdentifier fileIdentifier = new FileIdentifier(mediaId,fileLocation);
+
+                    fileIdentifierList.add(fileIdentifier);
+                }
+            } else {
+                throw new SQLException();
+            }
+
+
+        } catch (SQLException sqe){
+            sqe.printStackTrace();
+            exceptionOccurred=true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return null;
+        }
+
+        return fileIdentifierList;
+    }
+
+    @Override
+    public Boolean applyBatch(List<BatchOperation> operations) {
+        Connection conn = null;
+        List<PreparedStatement> statements = new ArrayList<>();
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        String INSERT_PERSON = "INSERT INTO person_details(name) VALUES(?)";
+        String INSERT_ATTRIBUTE = "INSERT INTO person_attributes " +
+                "(person_id, attribute_id, attribute_value, date_value, date_precision) VALUES(?,?,?,?,?) " +
+                "ON DUPLICATE KEY UPDATE attribute_value=VALUES(attribute_value), " +
+                "date_value=VALUES(date_value), date_precision=VALUES(date_precision)";
+        String INSERT_NOTE = "INSERT INTO person_notes (note, person_id) VALUES(?, ?)";
+        String INSERT_REFERENCE = "INSERT INTO person_references (reference, person_id) VALUES(?, ?)";
+        String INSERT_NEW_CHILD = "INSERT INTO parent_child VALUES(?,?)";
+        String FIND_EXISTING_EVENT_TYPE = "SELECT event_type_id FROM person_events WHERE (person_id_1=? AND person_id_2=?) OR (person_id_2=? AND person_id_1=?) ORDER BY event_id DESC LIMIT 1";
+        String INSERT_NEW_EVENT = "INSERT INTO person_events(person_id_1,person_id_2,event_type_id) VALUES(?,?,?)";
+
+        try {
+            conn = DBConnection.getConnection();
+            conn.setAutoCommit(false);
+
+            // insert all new people first so that the other edits can refer to their generated ids
+            List<PersonIdentity> newPeople = new ArrayList<>();
+            PreparedStatement personStmt = conn.prepareStatement(INSERT_PERSON, new String[] {"person_id"});
+            statements.add(personStmt);
+            for(BatchOperation operation : operations){
+                if(operation.getType()==BatchOperation.Type.ADD_PERSON){
+                    personStmt.setString(1, operation.getText());
+                    personStmt.addBatch();
+                    newPeople.add(operation.getPerson());
+                }
+            }
+            if(!newPeople.isEmpty()){
+                personStmt.executeBatch();
+                resultSet = personStmt.getGeneratedKeys();
+                int index = 0;
+                while(resultSet.next() && index<newPeople.size()){
+                    newPeople.get(index++).setPersonId(resultSet.getInt(1));
+                }
+                resultSet.close();
+                if(index!=newPeople.size()){
+                    throw new SQLException("Error while adding people");
+                }
+            }
+
+            // attribute types used by the batch, with the ones it adds cached only after the commit
+            Map<String, Integer> attributeTypes = new HashMap<>();
+            Map<String, Integer> newAttributeTypes = new HashMap<>();
+            Map<Integer, Set<Integer>> parentsOfChild = null;
+            Map<Long, Integer> latestEventTypes = new HashMap<>();
+            List<int[]> newRelations = new ArrayList<>();
+
+            PreparedStatement attributeStmt = conn.prepareStatement(INSERT_ATTRIBUTE);
+            PreparedStatement noteStmt = conn.prepareStatement(INSERT_NOTE);
+            PreparedStatement referenceStmt = conn.prepareStatement(INSERT_REFERENCE);
+            PreparedStatement childStmt = conn.prepareStatement(INSERT_NEW_CHILD);
+            PreparedStatement eventStmt = conn.prepareStatement(INSERT_NEW_EVENT);
+            statements.addAll(Arrays.asList(attributeStmt, noteStmt, referenceStmt, childStmt, eventStmt));
+
+            for(BatchOperation operation : operations){
+                int personId = operation.getPerson().getPersonId();
+                switch (operation.getType()){
+                    case RECORD_ATTRIBUTES:
+                        for(Map.Entry<String, String> attribute : operation.getAttributes().entrySet()){
+                            Integer attributeId = attributeTypes.get(attribute.getKey());
+                            if(attributeId==null){
+                                attributeId = personAttributeTypes.find(conn, attribute.getKey());
+                                if(attributeId==0){
+                                    attributeId = addNewAttributeType(attribute.getKey(), personAttributeTypes, conn);
+                                    newAttributeTypes.put(attribute.getKey(), attributeId);
+                                }
+                                if(attributeId==0){
+                                    throw new SQLException("Cannot find attribute type id");
+                                }
+                                attributeTypes.put(attribute.getKey(), attributeId);
+                            }
+                            attributeStmt.setInt(1, personId);
+                            attributeStmt.setInt(2, attributeId);
+                            attributeStmt.setString(3, attribute.getValue());
+                            setDateColumns(attributeStmt, 4,
+                                    typedDate(attribute.getKey(), attribute.getValue(), "Invalid Date Format"));
+                            attributeStmt.addBatch();
+                        }
+                        break;
+                    case RECORD_NOTE:
+                        noteStmt.setString(1, operation.getText());
+                        noteStmt.setInt(2, personId);
+                        noteStmt.addBatch();
+                        break;
+                    case RECORD_REFERENCE:
+                        referenceStmt.setString(1, operation.getText());
+                        referenceStmt.setInt(2, personId);
+                        referenceStmt.addBatch();
+                        break;
+                    case RECORD_CHILD:
+                        if(parentsOfChild==null){
+                            parentsOfChild = loadParents(conn, operations);
+                        }
+                        int childId = operation.getOtherPerson().getPersonId();
+                        if(childId==personId){
+                            throw new IllegalArgumentException("a person cannot be their own parent");
+                        }
+                        Set<Integer> parents = parentsOfChild.computeIfAbsent(childId, key -> new HashSet<>());
+                        if(!parents.contains(personId)){
+                            if(parents.size()>=2){
+                                throw new IllegalArgumentException("2 parents already exist for child");
+                            }
+                            parents.add(personId);
+                            childStmt.setInt(1, personId);
+                            childStmt.setInt(2, childId);
+                            childStmt.addBatch();
+                            newRelations.add(new int[]{personId, childId});
+                        }
+                        break;
+                    case RECORD_PARTNERING:
+                    case RECORD_DISSOLUTION:
+                        int partnerId = operation.getOtherPerson().getPersonId();
+                        long pair = ((long) Math.min(personId, partnerId) << 32) | Math.max(personId, partnerId);
+                        Integer latestEventType = latestEventTypes.get(pair);
+                        if(latestEventType==null){
+                            latestEventType = findLatestEventType(conn, FIND_EXISTING_EVENT_TYPE, personId, partnerId);
+                        }
+                        int eventType = operation.getType()==BatchOperation.Type.RECORD_PARTNERING
+                                ? MARRIAGE_DB_KEY : DIVORCE_DB_KEY;
+                        if(latestEventType!=eventType){
+                            eventStmt.setInt(1, personId);
+                            eventStmt.setInt(2, partnerId);
+                            eventStmt.setInt(3, eventType);
+                            eventStmt.addBatch();
+                        }
+                        latestEventTypes.put(pair, eventType);
+                        break;
+                    default:
+                        break;
+                }
+            }
+
+            for(PreparedStatement statement : statements){
+                if(statement!=personStmt){
+                    statement.executeBatch();
+                }
+            }
+            if(ancestorClosure){
+                for(int[] relation : newRelations){
+                    extendAncestorClosure(conn, relation[0], relation[1]);
+                }
+            }
+            conn.commit();
+            for(Map.Entry<String, Integer> attributeType : newAttributeTypes.entrySet()){
+                personAttributeTypes.put(attributeType.getKey(), attributeType.getValue());
+            }
+
+        } catch (SQLException sqe){
+            rollbackQuietly(conn);
+            exceptionOccurred = true;
+        } catch (RuntimeException e){
+            rollbackQuietly(conn);
+            throw e;
+        } finally {
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            for(PreparedStatement statement : statements){
+                try {
+                    statement.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public Boolean scanPeople(PersonVisitor visitor) {
+        return scan("SELECT person_id, name FROM person_details",
+                resultSet -> visitor.visit(resultSet.getInt("person_id"), resultSet.getString("name")));
+    }
+
+    @Override
+    public Boolean scanParentChild(RelationVisitor visitor) {
+        return scan("SELECT parent_id, child_id FROM parent_child",
+                resultSet -> visitor.visit(resultSet.getInt("parent_id"), resultSet.getInt("child_id")));
+    }
+
+    @Override
+    public Boolean scanPersonAttributes(AttributeVisitor visitor) {
+        return scan("SELECT pa.person_id, pat.attribute_type, pa.attribute_value FROM person_attributes pa " +
+                        "JOIN person_attributes_types pat ON pat.attribute_id=pa.attribute_id",
+                resultSet -> visitor.visit(resultSet.getInt("person_id"), resultSet.getString("attribute_type"),
+                        resultSet.getString("attribute_value")));
+    }
+
+    @Override
+    public Boolean scanMedia(MediaVisitor visitor) {
+        return scan("SELECT media_id, file_location FROM media_details",
+                resultSet -> visitor.visit(resultSet.getInt("media_id"), resultSet.getString("file_location")));
+    }
+
+    @Override
+    public Boolean scanMediaTags(TagVisitor visitor) {
+        return scan("SELECT mt.media_id, mtt.tag_name FROM media_tags mt " +
+                        "JOIN media_tags_types mtt ON mtt.tag_id=mt.tag_id",
+                resultSet -> visitor.visit(resultSet.getInt("media_id"), resultSet.getString("tag_name")));
+    }
+
+    @Override
+    public Boolean scanPersonMedia(PersonMediaVisitor visitor) {
+        return scan("SELECT person_id, media_id FROM person_media",
+                resultSet -> visitor.visit(resultSet.getInt("person_id"), resultSet.getInt("media_id")));
+    }
+
+    @Override
+    public Boolean scanMediaAttributes(AttributeVisitor visitor) {
+        return scan("SELECT ma.media_id, mat.attribute_type, ma.attribute_value FROM media_attributes ma " +
+                        "JOIN media_attributes_types mat ON mat.attribute_id=ma.attribute_id",
+                resultSet -> visitor.visit(resultSet.getInt("media_id"), resultSet.getString("attribute_type"),
+                        resultSet.getString("attribute_value")));
+    }
+
+    /**
+     * Receives the current row of a scan.
+     */
+    private interface RowHandler {
+        void handle(ResultSet resultSet) throws SQLException;
+    }
+
+    /**
+     * Stream all rows of a query to the handler without holding the whole result in memory.
+     * @return true if every row was read, false if the query failed
+     */
+    private Boolean scan(String sql, RowHandler handler) {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        ResultSet resultSet = null;
+        boolean exceptionOccurred = false;
+
+        try {
+            conn = DBConnection.getConnection();
+            pStmt = conn.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            // makes Connector/J stream the rows one at a time instead of buffering the table
+            pStmt.setFetchSize(Integer.MIN_VALUE);
+            resultSet = pStmt.executeQuery();
+            while (resultSet.next()){
+                handler.handle(resultSet);
+            }
+        } catch (SQLException e) {
+            exceptionOccurred = true;
+        } finally {
+            if(resultSet!=null){
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            try {
+                if(conn!=null){
+                    conn.close();
+                }
+            } catch (SQLException e) {
+            }
+        }
+        return !exceptionOccurred;
+    }
+
+    /**
+     * Parses the value of an attribute whose type holds dates.
+     * @return the date, null if the attribute type does not hold dates
+     * @throws IllegalArgumentException with the given message if the type holds dates and the value is not one
+     */
+    private static PartialDate typedDate(String attributeType, String value, String invalidMessage) {
+        if(!AttributeFilter.isDateType(attributeType)){
+            return null;
+        }
+        PartialDate date = PartialDate.parse(value);
+        if(date==null){
+            throw new IllegalArgumentException(invalidMessage);
+        }
+        return date;
+    }
+
+    /**
+     * Binds date_value and date_precision of an attribute row, nulls if the attribute is not a date.
+     * @return the index of the next parameter
+     */
+    private static int setDateColumns(PreparedStatement pStmt, int index, PartialDate date) throws SQLException {
+        if(date==null){
+            pStmt.setNull(index++, Types.DATE);
+            pStmt.setNull(index++, Types.VARCHAR);
+        } else {
+            pStmt.setDate(index++, java.sql.Date.valueOf(date.getFirstDate()));
+            pStmt.setString(index++, date.getPrecision().name());
+        }
+        return index;
+    }
+
+    /**
+     * @return the first day of a start date bound given as yyyy-MM-dd, yyyy-MM or yyyy, compared with date_value
+     */
+    private static java.sql.Date startDateBound(String startDate) {
+        return java.sql.Date.valueOf(LocalDate.ofEpochDay(PartialDate.startBound(startDate)));
+    }
+
+    /**
+     * @return the last day of an end date bound, so an end date of "2000" includes media dated 2000-06
+     */
+    private static java.sql.Date endDateBound(String endDate) {
+        return java.sql.Date.valueOf(LocalDate.ofEpochDay(PartialDate.endBound(endDate)));
+    }
+
+    /**
+     * Loads the existing parents of every child that a batch records a parent for.
+     */
+    private Map<Integer, Set<Integer>> loadParents(Connection conn, List<BatchOperation> operations) throws SQLException {
+        Set<Integer> childIds = new LinkedHashSet<>();
+        for(BatchOperation operation : operations){
+            if(operation.getType()==BatchOperation.Type.RECORD_CHILD){
+                childIds.add(operation.getOtherPerson().getPersonId());
+            }
+        }
+        StringBuilder FIND_PARENTS = new StringBuilder("SELECT parent_id, child_id FROM parent_child WHERE child_id IN (");
+        for(int i=0;i<childIds.size();i++){
+            FIND_PARENTS.append(i==0 ? "?" : ", ?");
+        }
+        FIND_PARENTS.append(")");
+
+        Map<Integer, Set<Integer>> parentsOfChild = new HashMap<>();
+        try (PreparedStatement pStmt = conn.prepareStatement(FIND_PARENTS.toString())) {
+            int index = 1;
+            for(Integer childId : childIds){
+                pStmt.setInt(index++, childId);
+            }
+            try (ResultSet resultSet = pStmt.executeQuery()) {
+                while (resultSet.next()){
+                    parentsOfChild.computeIfAbsent(resultSet.getInt("child_id"), key -> new HashSet<>())
+                            .add(resultSet.getInt("parent_id"));
+                }
+            }
+        }
+        return parentsOfChild;
+    }
+
+    private int findLatestEventType(Connection conn, String sql, int personId1, int personId2) throws SQLException {
+        int existingEventTypeId = 0;
+        try (PreparedStatement pStmt = conn.prepareStatement(sql)) {
+            pStmt.setInt(1, personId1);
+            pStmt.setInt(2, personId2);
+            pStmt.setInt(3, personId1);
+            pStmt.setInt(4, personId2);
+            try (ResultSet resultSet = pStmt.executeQuery()) {
+                while (resultSet.next()){
+                    existingEventTypeId = resultSet.getInt("event_type_id");
+                }
+            }
+        }
+        return existingEventTypeId;
+    }
+
+    /**
+     * Add the ancestor_closure rows implied by a new parent/child relation, on the caller's transaction.
+     */
+    static void extendAncestorClosure(Connection conn, int parentId, int childId) throws SQLException {
+        try (PreparedStatement pStmt = conn.prepareStatement(EXTEND_ANCESTOR_CLOSURE)) {
+            pStmt.setInt(1, parentId);
+            pStmt.setInt(2, parentId);
+            pStmt.setInt(3, childId);
+            pStmt.setInt(4, childId);
+            pStmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Recompute the whole ancestor_closure table from parent_child in one transaction.
+     * Other writes to the family tree should be stopped while it runs.
+     * @return number of rows in the rebuilt table, -1 if the rebuild failed and was rolled back
+     */
+    public long rebuildAncestorClosure() {
+        Connection conn = null;
+        PreparedStatement pStmt = null;
+        boolean exceptionOccurred = false;
+        long rows = 0;
+
+        String CLEAR_CLOSURE = "DELETE FROM ancestor_closure";
+        String INSERT_PARENTS = "INSERT INTO ancestor_closure (ancestor_id, descendant_id, distance) " +
+                "SELECT parent_id, child_id, 1 FROM parent_child WHERE parent_id<>child_id";
+        // extends every path of the given length by one generation upwards
+        String INSERT_NEXT_GENERATION = "INSERT INTO ancestor_closure (ancestor_id, descendant_id, distance) " +
+                "SELECT * FROM (SELECT pc.parent_id, ac.descendant_id, ac.distance+1 AS path_distance " +
+                "FROM parent_child pc INNER JOIN ancestor_closure ac ON ac.ancestor_id=pc.child_id " +
+                "WHERE ac.distance=? AND pc.parent_id<>ac.descendant_id) AS paths " +
+                "ON DUPLICATE KEY UPDATE distance=LEAST(ancestor_closure.distance, paths.path_distance)";
+
+        try {
+            conn = DBConnection.getConnection();
+            conn.setAutoCommit(false);
+            pStmt = conn.prepareStatement(CLEAR_CLOSURE);
+            pStmt.executeUpdate();
+            pStmt.close();
+
+            pStmt = conn.prepareStatement(INSERT_PARENTS);
+            int inserted = pStmt.executeUpdate();
+            rows += inserted;
+            pStmt.close();
+
+            pStmt = conn.prepareStatement(INSERT_NEXT_GENERATION);
+            for(int distance=1; inserted>0; distance++){
+                pStmt.setInt(1, distance);
+                // generations are added in order of distance, so every row is new and counts once
+                inserted = pStmt.executeUpdate();
+                rows += inserted;
+            }
+            conn.commit();
+        } catch (SQLException e) {
+            rollbackQuietly(conn);
+            exceptionOccurred = true;
+        } finally {
+            if(pStmt!=null){
+                try {
+                    pStmt.close();
+                } catch (SQLException e) {
+                }
+            }
+            if(conn!=null){
+                try {
+                    conn.close();
+                } catch (SQLException e) {
+                }
+            }
+        }
+
+        if(exceptionOccurred){
+            return -1;
+        }
+        return rows;
+    }
+
+    private static void rollbackQuietly(Connection conn) {
+        if(conn!=null){
+            try {
+                conn.rollback();
+            } catch (SQLException e) {
+            }
+        }
+    }
+
+}
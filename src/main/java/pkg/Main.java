@@ -8,12 +8,21 @@ public class Main {
     final static String reportCommand = "report";
     final static String quitCommand = "quit";
     final static String returnCommand = "return";
+    final static String inMemoryOption = "--in-memory";
     public static void main(String[] args) {
 
         String userCommand = "";
         Scanner scanner = new Scanner(System.in);
 
-        Genealogy genealogy = new Genealogy();
+        // run against the MySQL database unless an in-memory archive was requested
+        Genealogy genealogy;
+        if (args.length > 0 && args[0].equalsIgnoreCase(inMemoryOption)) {
+            genealogy = new Genealogy(new InMemoryGenealogyStore());
+        } else {
+            genealogy = new Genealogy();
+        }
+        // build the in-memory indexes up front so the first report does not pay for loading them
+        genealogy.loadIndexes();
 
         System.out.println("Commands available:");
         System.out.println("family - manage the family tree");
@@ -48,6 +57,7 @@ public class Main {
         String childCommand = "child";
         String marriageCommand = "marriage";
         String divorceCommand = "divorce";
+        String importCommand = "import";
 
         System.out.println("Commands available:");
         System.out.println("add - add a new person to the family tree");
@@ -57,6 +67,7 @@ public class Main {
         System.out.println("child - record a child for a person");
         System.out.println("marriage - record a marriage for between two people");
         System.out.println("divorce - record a divorce for between two people");
+        System.out.println("import - import people and families from a GEDCOM file");
         System.out.println("return - return to the main menu");
         String selectedFamilyCommand = "";
 
@@ -196,6 +207,23 @@ public class Main {
                 } else {
                     System.out.println("Person not found");
                 }
+            } else if (selectedFamilyCommand.equalsIgnoreCase(importCommand)) {
+                System.out.println("Enter the location of the GEDCOM file to import:");
+                userArgument = scanner.nextLine();
+                // keep the checkpoint next to the file so a failed import can be resumed by importing it again
+                String checkpoint = userArgument + ".checkpoint";
+                try {
+                    GedcomImporter importer = new GedcomImporter(genealogy, GedcomImporter.DEFAULT_BATCH_SIZE, System.out);
+                    GedcomImportResult result = importer.importFile(userArgument, checkpoint);
+                    if (result.isCompleted()) {
+                        System.out.println("Imported " + result.getPeopleImported() + " people and "
+                                + result.getFamiliesImported() + " families");
+                    } else {
+                        System.out.println("Import stopped after a failed transaction, import the file again to resume");
+                    }
+                } catch (java.io.IOException e) {
+                    System.out.println("Failed to read " + userArgument + ": " + e.getMessage());
+                }
             } else {
                 System.out.println("Invalid command");
             }
@@ -314,6 +342,8 @@ public class Main {
         String userArgument = "";
 
         String findPersonCommand = "find-person";
+        String searchPeopleCommand = "search-people";
+        String findSimilarPeopleCommand = "find-similar-people";
         String findMediaCommand = "find-media";
         String findRelationshipCommand = "find-relationship";
         String findDescendantsCommand = "find-descendants";
@@ -327,6 +357,8 @@ public class Main {
 
         System.out.println("Commands available:");
         System.out.println("find-person - find a person");
+        System.out.println("search-people - list people whose name contains some text");
+        System.out.println("find-similar-people - list people whose name is spelled or sounds alike");
         System.out.println("find-media - find a media file");
         System.out.println("find-relationship - find a relationship");
         System.out.println("find-descendants - find descendants");
@@ -355,6 +387,30 @@ public class Main {
                 } else {
                     System.out.println("Person not found");
                 }
+            } else if (selectedReportCommand.equalsIgnoreCase(searchPeopleCommand)) {
+                System.out.println("Enter part of the name to search for:");
+                userArgument = scanner.nextLine();
+                List<PersonIdentity> people = genealogy.searchPeople(userArgument, NameMatch.SUBSTRING, 20);
+                if (people != null && !people.isEmpty()) {
+                    System.out.println("People found:");
+                    for (PersonIdentity person : people) {
+                        System.out.println(person.getName());
+                    }
+                } else {
+                    System.out.println("People not found");
+                }
+            } else if (selectedReportCommand.equalsIgnoreCase(findSimilarPeopleCommand)) {
+                System.out.println("Enter the name to search for:");
+                userArgument = scanner.nextLine();
+                List<PersonIdentity> people = genealogy.findPersonsLike(userArgument, 2);
+                if (people != null && !people.isEmpty()) {
+                    System.out.println("People found:");
+                    for (PersonIdentity person : people.subList(0, Math.min(20, people.size()))) {
+                        System.out.println(person.getName());
+                    }
+                } else {
+                    System.out.println("People not found");
+                }
             } else if (selectedReportCommand.equalsIgnoreCase(findMediaCommand)) {
                 System.out.println("Enter the name of the media file to find:");
                 userArgument = scanner.nextLine();
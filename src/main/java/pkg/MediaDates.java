@@ -0,0 +1,315 @@
+package pkg;
+
+import java.util.*;
+import java.util.function.IntFunction;
+
+/**
+ * Media ids ordered by date, kept by MediaIndex so date range queries are a binary search plus a walk over the
+ * media in the range, already in the order results are returned: by date, then file location, then id.
+ *
+ * Dates are the first day a yyyy, yyyy-MM or yyyy-MM-dd date covers, in days since 1970-01-01, held in primitive
+ * arrays. New dates are collected in a small pending run that queries merge on the fly and that is merged into
+ * the main run once it fills up; a media whose date changes leaves a stale entry behind, recognized by its
+ * generation and dropped by the next merge.
+ * Not thread safe; MediaIndex guards it with its lock.
+ */
+class MediaDates {
+
+    static final long NO_DATE = Long.MIN_VALUE;
+    private static final int MERGE_AFTER = 1024;
+
+    private final IntFunction<String> fileLocations;
+    // current date and generation of each media id
+    private long[] days = newDays(1024);
+    private int[] generations = new int[1024];
+
+    // main run, sorted
+    private long[] runDays = new long[0];
+    private int[] runIds = new int[0];
+    private int[] runGenerations = new int[0];
+    private int stale;
+
+    // dates set since the last merge, in arrival order
+    private final long[] pendingDays = new long[MERGE_AFTER];
+    private final int[] pendingIds = new int[MERGE_AFTER];
+    private final int[] pendingGenerations = new int[MERGE_AFTER];
+    private int pendingCount;
+
+    /**
+     * @param fileLocations file location of a media id, which orders media with the same date
+     */
+    MediaDates(IntFunction<String> fileLocations) {
+        this.fileLocations = fileLocations;
+    }
+
+    /**
+     * @return the date of the media, NO_DATE if it has none
+     */
+    long day(int mediaId) {
+        return mediaId<days.length ? days[mediaId] : NO_DATE;
+    }
+
+    /**
+     * Set the date of a media file.
+     * @param bulk true while loading, followed by build()
+     */
+    void set(int mediaId, long day, boolean bulk) {
+        if(mediaId>=days.length){
+            int capacity = Math.max(mediaId + 1, days.length * 2);
+            long[] grown = newDays(capacity);
+            System.arraycopy(days, 0, grown, 0, days.length);
+            days = grown;
+            generations = Arrays.copyOf(generations, capacity);
+        }
+        if(days[mediaId]==day){
+            return;
+        }
+        if(days[mediaId]!=NO_DATE){
+            stale++;
+        }
+        days[mediaId] = day;
+        generations[mediaId]++;
+        if(bulk || day==NO_DATE){
+            return;
+        }
+        pendingDays[pendingCount] = day;
+        pendingIds[pendingCount] = mediaId;
+        pendingGenerations[pendingCount] = generations[mediaId];
+        pendingCount++;
+        if(pendingCount==MERGE_AFTER || stale>runIds.length / 2 + MERGE_AFTER){
+            merge();
+        }
+    }
+
+    /**
+     * Sort every dated media into the main run after bulk loading.
+     */
+    void build() {
+        // sort by date with primitive longs, then order media sharing a date by file location
+        int count = 0;
+        long[] packed = new long[days.length];
+        for(int mediaId=0;mediaId<days.length;mediaId++){
+            if(days[mediaId]!=NO_DATE){
+                packed[count++] = (days[mediaId] << 32) | mediaId;
+            }
+        }
+        Arrays.sort(packed, 0, count);
+        int[] ids = new int[count];
+        for(int i=0;i<count;i++){
+            ids[i] = (int) packed[i];
+        }
+        for(int start=0;start<count;){
+            int end = start + 1;
+            while (end<count && days[ids[end]]==days[ids[start]]) {
+                end++;
+            }
+            if(end - start>1){
+                sortByKey(ids, start, end);
+            }
+            start = end;
+        }
+        runIds = ids;
+        runDays = new long[count];
+        runGenerations = new int[count];
+        for(int i=0;i<count;i++){
+            runDays[i] = days[ids[i]];
+            runGenerations[i] = generations[ids[i]];
+        }
+        pendingCount = 0;
+        stale = 0;
+    }
+
+    /**
+     * @return roughly how many media are dated within the range, counting stale entries
+     */
+    int estimate(long from, long to) {
+        return Math.max(0, upperBound(to) - lowerBound(from)) + pendingCount;
+    }
+
+    /**
+     * @param candidates media to choose from, null for all media
+     * @return the candidates dated within the range, bounds included, by date, file location and id
+     */
+    int[] inRange(CompressedBitmap candidates, long from, long to) {
+        int low = lowerBound(from);
+        int high = Math.max(low, upperBound(to));
+        int candidateCount = candidates==null ? Integer.MAX_VALUE : candidates.cardinality();
+        if(candidateCount<high - low && (long) candidateCount * (32 - Integer.numberOfLeadingZeros(candidateCount) + 1)<high - low){
+            // few candidates in a wide range: sorting them costs less than walking the range
+            int[] ids = candidates.toArray();
+            int count = 0;
+            for(int mediaId : ids){
+                long day = day(mediaId);
+                if(day!=NO_DATE && day>=from && day<=to){
+                    ids[count++] = mediaId;
+                }
+            }
+            sortByKey(ids, 0, count);
+            return Arrays.copyOf(ids, count);
+        }
+
+        int[] pending = pendingInRange(candidates, from, to);
+        int[] result = new int[Math.min(high - low, candidateCount) + pending.length];
+        int count = 0;
+        int next = 0;
+        for(int i=low;i<high;i++){
+            int mediaId = runIds[i];
+            if(runGenerations[i]!=generations[mediaId] || (candidates!=null && !candidates.contains(mediaId))){
+                continue;
+            }
+            while (next<pending.length && compare(pending[next], mediaId)<0) {
+                result[count++] = pending[next++];
+            }
+            result[count++] = mediaId;
+        }
+        while (next<pending.length) {
+            result[count++] = pending[next++];
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the candidates without a date, by file location and id
+     */
+    int[] undated(CompressedBitmap candidates) {
+        int[] ids = candidates.toArray();
+        int count = 0;
+        for(int mediaId : ids){
+            if(day(mediaId)==NO_DATE){
+                ids[count++] = mediaId;
+            }
+        }
+        sortByKey(ids, 0, count);
+        return Arrays.copyOf(ids, count);
+    }
+
+    private int[] pendingInRange(CompressedBitmap candidates, long from, long to) {
+        int[] found = new int[pendingCount];
+        int count = 0;
+        for(int i=0;i<pendingCount;i++){
+            int mediaId = pendingIds[i];
+            if(pendingGenerations[i]==generations[mediaId] && pendingDays[i]>=from && pendingDays[i]<=to
+                    && (candidates==null || candidates.contains(mediaId))){
+                found[count++] = mediaId;
+            }
+        }
+        sortByKey(found, 0, count);
+        return Arrays.copyOf(found, count);
+    }
+
+    /**
+     * Merge the pending run into the main run, dropping stale entries.
+     */
+    private void merge() {
+        int[] pending = Arrays.copyOf(pendingIds, pendingCount);
+        int[] pendingOrder = new int[pendingCount];
+        int live = 0;
+        for(int i=0;i<pendingCount;i++){
+            if(pendingGenerations[i]==generations[pending[i]]){
+                pendingOrder[live++] = pending[i];
+            }
+        }
+        sortByKey(pendingOrder, 0, live);
+
+        long[] mergedDays = new long[runIds.length + live];
+        int[] mergedIds = new int[mergedDays.length];
+        int[] mergedGenerations = new int[mergedDays.length];
+        int count = 0;
+        int next = 0;
+        for(int i=0;i<runIds.length;i++){
+            int mediaId = runIds[i];
+            if(runGenerations[i]!=generations[mediaId]){
+                continue;
+            }
+            while (next<live && compare(pendingOrder[next], mediaId)<0) {
+                count = append(mergedDays, mergedIds, mergedGenerations, count, pendingOrder[next++]);
+            }
+            count = append(mergedDays, mergedIds, mergedGenerations, count, mediaId);
+        }
+        while (next<live) {
+            count = append(mergedDays, mergedIds, mergedGenerations, count, pendingOrder[next++]);
+        }
+        runDays = Arrays.copyOf(mergedDays, count);
+        runIds = Arrays.copyOf(mergedIds, count);
+        runGenerations = Arrays.copyOf(mergedGenerations, count);
+        pendingCount = 0;
+        stale = 0;
+    }
+
+    private int append(long[] mergedDays, int[] mergedIds, int[] mergedGenerations, int count, int mediaId) {
+        mergedDays[count] = days[mediaId];
+        mergedIds[count] = mediaId;
+        mergedGenerations[count] = generations[mediaId];
+        return count + 1;
+    }
+
+    /**
+     * @return the first position of the main run dated on or after the day
+     */
+    private int lowerBound(long day) {
+        int low = 0;
+        int high = runDays.length;
+        while (low<high) {
+            int middle = (low + high) >>> 1;
+            if(runDays[middle]<day){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * @return the first position of the main run dated after the day
+     */
+    private int upperBound(long day) {
+        int low = 0;
+        int high = runDays.length;
+        while (low<high) {
+            int middle = (low + high) >>> 1;
+            if(runDays[middle]<=day){
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private void sortByKey(int[] ids, int from, int to) {
+        Integer[] boxed = new Integer[to - from];
+        for(int i=from;i<to;i++){
+            boxed[i - from] = ids[i];
+        }
+        Arrays.sort(boxed, this::compare);
+        for(int i=from;i<to;i++){
+            ids[i] = boxed[i - from];
+        }
+    }
+
+    /**
+     * Orders media by date, then file location, then id; media without a date compare by file location.
+     */
+    private int compare(int first, int second) {
+        int byDay = Long.compare(day(first), day(second));
+        if(byDay!=0){
+            return byDay;
+        }
+        String firstLocation = fileLocations.apply(first);
+        String secondLocation = fileLocations.apply(second);
+        if(firstLocation!=null && secondLocation!=null){
+            int byLocation = firstLocation.compareTo(secondLocation);
+            if(byLocation!=0){
+                return byLocation;
+            }
+        }
+        return Integer.compare(first, second);
+    }
+
+    private static long[] newDays(int capacity) {
+        long[] days = new long[capacity];
+        Arrays.fill(days, NO_DATE);
+        return days;
+    }
+}
@@ -0,0 +1,574 @@
+package pkg;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory index of the media archive, kept by Genealogy: the file location of every media file, the media
+ * ordered by date (MediaDates), for every tag a compressed bitmap of the media carrying it, for every person
+ * the media they appear in, the trigrams of every location attribute, the position of media with latitude and
+ * longitude attributes (GeoIndex) and an AttributeIndex over every media attribute. Queries combine the bitmaps and postings first and then take the combined media in
+ * date order from the date index, so a date range costs a binary search plus the media in the range.
+ */
+class MediaIndex {
+
+    static final String DATE_ATTRIBUTE = "date";
+    static final String LOCATION_ATTRIBUTE = "location";
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private String[] fileLocations = new String[1024];
+    private final MediaDates dates = new MediaDates(mediaId -> mediaId<fileLocations.length ? fileLocations[mediaId] : null);
+    private final CompressedBitmap allMedia = new CompressedBitmap();
+    private final Map<String, CompressedBitmap> byTag = new HashMap<>();
+    private final Map<Integer, Postings> byPerson = new HashMap<>();
+    // folded location attribute of each media, null if it has none
+    private String[] locations = new String[1024];
+    // postings are only added, so a media whose location changed stays under its old trigrams until reloaded
+    private final TrigramIndex byLocation = new TrigramIndex();
+    private final GeoIndex positions = new GeoIndex();
+    private final AttributeIndex attributes = new AttributeIndex();
+
+    private MediaIndex() {
+    }
+
+    /**
+     * Read the media files with their tags and attributes from the store.
+     * @return the index, null if the store could not be read
+     */
+    static MediaIndex load(GenealogyStore store) {
+        MediaIndex index = new MediaIndex();
+        if(!Boolean.TRUE.equals(store.scanMedia(index::putFile))
+                || !Boolean.TRUE.equals(store.scanMediaTags(index::putTag))
+                || !Boolean.TRUE.equals(store.scanPersonMedia(index::putPerson))
+                || !Boolean.TRUE.equals(store.scanMediaAttributes((mediaId, attributeType, value) -> {
+                    index.putAttribute(mediaId, attributeType, value, true);
+                    index.attributes.put(mediaId, attributeType, value);
+                }))){
+            return null;
+        }
+        // people may be scanned in any order, so their postings were appended unsorted
+        for(Postings postings : index.byPerson.values()){
+            postings.sort();
+        }
+        index.dates.build();
+        index.byLocation.sort();
+        index.positions.build();
+        index.attributes.sort();
+        return index;
+    }
+
+    void addMediaFile(int mediaId, String fileLocation) {
+        lock.writeLock().lock();
+        try {
+            putFile(mediaId, fileLocation);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void tagMedia(int mediaId, String tag) {
+        lock.writeLock().lock();
+        try {
+            putTag(mediaId, tag);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void peopleInMedia(int mediaId, List<PersonIdentity> people) {
+        lock.writeLock().lock();
+        try {
+            for(PersonIdentity person : people){
+                byPerson.computeIfAbsent(person.getPersonId(), unused -> new Postings()).add(mediaId);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void recordAttributes(int mediaId, Map<String, String> attributes) {
+        lock.writeLock().lock();
+        try {
+            for(Map.Entry<String, String> attribute : attributes.entrySet()){
+                putAttribute(mediaId, attribute.getKey(), attribute.getValue(), false);
+            }
+            this.attributes.recordAttributes(mediaId, attributes);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the media matching the tag query, like GenealogyStore.findMediaByTag: in order of their ids
+     * without a date range, otherwise only the dated media in the range by date and file location
+     */
+    Set<FileIdentifier> findByTags(TagQuery query, String startDate, String endDate) {
+        lock.readLock().lock();
+        try {
+            CompressedBitmap tagged = evaluate(query);
+            int[] mediaIds;
+            if(startDate==null && endDate==null){
+                mediaIds = tagged.toArray();
+            } else {
+                mediaIds = dates.inRange(tagged, lowerBound(startDate), upperBound(endDate));
+            }
+            return new LinkedHashSet<>(files(mediaIds));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the media whose location contains the text, ignoring case and accents, like
+     * GenealogyStore.findMediaByLocation: in order of their ids, only the dated media in the range if one is given
+     */
+    Set<FileIdentifier> findByLocation(String location, String startDate, String endDate) {
+        lock.readLock().lock();
+        try {
+            int[] mediaIds = locationCandidates(NameIndex.fold(location));
+            return new LinkedHashSet<>(files(datedWithin(mediaIds, startDate, endDate)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the media within the distance of the position, nearest first, only the dated media in the range
+     * if one is given
+     */
+    List<FileIdentifier> findNear(double latitude, double longitude, double radiusKm, String startDate, String endDate) {
+        lock.readLock().lock();
+        try {
+            int[] mediaIds = datedWithin(positions.near(latitude, longitude, radiusKm), startDate, endDate);
+            double[] distances = new double[mediaIds.length];
+            Integer[] order = new Integer[mediaIds.length];
+            for(int i=0;i<mediaIds.length;i++){
+                distances[i] = GeoIndex.distanceKm(latitude, longitude, positions.latitude(mediaIds[i]), positions.longitude(mediaIds[i]));
+                order[i] = i;
+            }
+            // media ids are increasing, so a stable sort keeps equally distant media in id order
+            Arrays.sort(order, Comparator.comparingDouble((Integer i) -> distances[i]));
+            List<FileIdentifier> files = new ArrayList<>(order.length);
+            for(int i : order){
+                files.add(new FileIdentifier(mediaIds[i], fileLocations[mediaIds[i]]));
+            }
+            return files;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the media positioned within the box, in order of their ids, only the dated media in the range
+     * if one is given
+     */
+    Set<FileIdentifier> findInBox(double south, double west, double north, double east, String startDate, String endDate) {
+        lock.readLock().lock();
+        try {
+            return new LinkedHashSet<>(files(datedWithin(positions.inBox(south, west, north, east), startDate, endDate)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the media any of the people appear in, like GenealogyStore.findIndividualsMedia: the dated media
+     * in the range by date and file location, followed by the undated media by file location
+     */
+    List<FileIdentifier> findIndividualsMedia(Collection<PersonIdentity> people, String startDate, String endDate) {
+        lock.readLock().lock();
+        try {
+            CompressedBitmap media = new CompressedBitmap();
+            for(PersonIdentity person : people){
+                Postings postings = byPerson.get(person.getPersonId());
+                if(postings!=null){
+                    for(int mediaId : postings.toArray()){
+                        media.add(mediaId);
+                    }
+                }
+            }
+            List<FileIdentifier> files = files(dates.inRange(media, lowerBound(startDate), upperBound(endDate)));
+            files.addAll(files(dates.undated(media)));
+            return files;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the media whose folded location contains the query, in increasing order
+     */
+    private int[] locationCandidates(String query) {
+        int[] candidates;
+        if(query.length()<TrigramIndex.GRAM){
+            // too short for a trigram: check every location
+            candidates = new int[16];
+            int count = 0;
+            for(int mediaId=0;mediaId<locations.length;mediaId++){
+                if(locations[mediaId]!=null && locations[mediaId].contains(query)){
+                    if(count==candidates.length){
+                        candidates = Arrays.copyOf(candidates, count * 2);
+                    }
+                    candidates[count++] = mediaId;
+                }
+            }
+            return Arrays.copyOf(candidates, count);
+        }
+
+        candidates = byLocation.candidates(query);
+        // locations with all the trigrams may have them in another order, or may have changed since
+        int count = 0;
+        for(int mediaId : candidates){
+            if(locations[mediaId]!=null && locations[mediaId].contains(query)){
+                candidates[count++] = mediaId;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    /**
+     * Plan and run a media query: the criteria of an AND run from the one expected to match the fewest media
+     * to the one expected to match the most, and each criterion either reads its index or, once fewer media
+     * remain than it is expected to match, checks each remaining media.
+     * @return the media matching the query in order of their ids, with the plan that found them
+     */
+    MediaQueryPlan findMedia(MediaQuery query) {
+        lock.readLock().lock();
+        try {
+            MediaQueryPlan.Step root = new MediaQueryPlan.Step(query, estimate(query));
+            int[] mediaIds = evaluate(query, null, root);
+            return new MediaQueryPlan(root, new LinkedHashSet<>(files(mediaIds)));
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return roughly how many media match the query on its own
+     */
+    private long estimate(MediaQuery query) {
+        switch (query.getOperator()) {
+            case TAG:
+                CompressedBitmap tagged = byTag.get(NameIndex.fold(query.getText()));
+                return tagged==null ? 0 : tagged.cardinality();
+            case LOCATION:
+                String location = NameIndex.fold(query.getText());
+                return location.length()<TrigramIndex.GRAM ? allMedia.cardinality() : byLocation.estimate(location);
+            case PERSON:
+                Postings postings = byPerson.get(query.getPerson().getPersonId());
+                return postings==null ? 0 : postings.size();
+            case ATTRIBUTE:
+                return attributes.estimate(query.getFilter());
+            case DATED:
+                return dates.estimate(lowerBound(query.getStartDate()), upperBound(query.getEndDate()));
+            case NEAR:
+                return positions.estimateNear(query.getLatitude(), query.getLongitude(), query.getRadiusKm());
+            case NOT:
+                return Math.max(0, allMedia.cardinality() - estimate(query.getOperands().get(0)));
+            case OR:
+                long union = 0;
+                for(MediaQuery operand : query.getOperands()){
+                    union += estimate(operand);
+                }
+                return Math.min(union, allMedia.cardinality());
+            default:
+                long intersection = allMedia.cardinality();
+                for(MediaQuery operand : query.getOperands()){
+                    if(operand.getOperator()!=MediaQuery.Operator.NOT){
+                        intersection = Math.min(intersection, estimate(operand));
+                    }
+                }
+                return intersection;
+        }
+    }
+
+    /**
+     * @param candidates the media still possible, in increasing order; null for all media
+     * @param step records how the query was evaluated
+     * @return the candidates matching the query, in increasing order
+     */
+    private int[] evaluate(MediaQuery query, int[] candidates, MediaQueryPlan.Step step) {
+        int[] matching;
+        switch (query.getOperator()) {
+            case AND:
+                // the most selective criteria first, and negated ones last since they only remove media
+                List<MediaQueryPlan.Step> order = new ArrayList<>();
+                for(MediaQuery operand : query.getOperands()){
+                    order.add(new MediaQueryPlan.Step(operand, estimate(operand)));
+                }
+                order.sort(Comparator.comparing((MediaQueryPlan.Step child) -> child.query.getOperator()==MediaQuery.Operator.NOT)
+                        .thenComparingLong(child -> child.estimate));
+                matching = candidates;
+                for(MediaQueryPlan.Step child : order){
+                    if(matching!=null && matching.length==0){
+                        break;
+                    }
+                    matching = evaluate(child.query, matching, child);
+                    step.children.add(child);
+                }
+                step.access = "intersect, fewest first";
+                break;
+            case OR:
+                matching = new int[0];
+                for(MediaQuery operand : query.getOperands()){
+                    MediaQueryPlan.Step child = new MediaQueryPlan.Step(operand, estimate(operand));
+                    // media already matched need not be checked again
+                    int[] remaining = candidates==null ? null : difference(candidates, matching);
+                    matching = union(matching, evaluate(operand, remaining, child));
+                    step.children.add(child);
+                }
+                step.access = "union";
+                break;
+            case NOT:
+                MediaQuery negated = query.getOperands().get(0);
+                MediaQueryPlan.Step child = new MediaQueryPlan.Step(negated, estimate(negated));
+                int[] from = candidates==null ? allMedia.toArray() : candidates;
+                matching = difference(from, evaluate(negated, from, child));
+                step.children.add(child);
+                step.access = candidates==null ? "subtract from all media" : "subtract from " + candidates.length + " media";
+                break;
+            default:
+                if(candidates!=null && candidates.length<step.estimate){
+                    matching = check(query, candidates);
+                    step.access = "check " + candidates.length + " media";
+                } else {
+                    matching = read(query);
+                    if(candidates!=null){
+                        matching = Postings.intersect(candidates, matching);
+                    }
+                    step.access = "read index";
+                }
+        }
+        step.actual = matching.length;
+        return matching;
+    }
+
+    /**
+     * @return the media matching a single criterion, in increasing order
+     */
+    private int[] read(MediaQuery query) {
+        switch (query.getOperator()) {
+            case TAG:
+                CompressedBitmap tagged = byTag.get(NameIndex.fold(query.getText()));
+                return tagged==null ? new int[0] : tagged.toArray();
+            case LOCATION:
+                return locationCandidates(NameIndex.fold(query.getText()));
+            case PERSON:
+                Postings postings = byPerson.get(query.getPerson().getPersonId());
+                return postings==null ? new int[0] : postings.toArray();
+            case ATTRIBUTE:
+                return attributes.find(query.getFilter());
+            case DATED:
+                int[] dated = dates.inRange(null, lowerBound(query.getStartDate()), upperBound(query.getEndDate()));
+                Arrays.sort(dated);
+                return dated;
+            default:
+                return positions.near(query.getLatitude(), query.getLongitude(), query.getRadiusKm());
+        }
+    }
+
+    /**
+     * @return the candidates matching a single criterion, in the same order
+     */
+    private int[] check(MediaQuery query, int[] candidates) {
+        if(query.getOperator()==MediaQuery.Operator.ATTRIBUTE){
+            return attributes.check(candidates, query.getFilter());
+        }
+        CompressedBitmap tagged = query.getOperator()==MediaQuery.Operator.TAG
+                ? byTag.get(NameIndex.fold(query.getText())) : null;
+        String location = query.getOperator()==MediaQuery.Operator.LOCATION ? NameIndex.fold(query.getText()) : null;
+        Postings postings = query.getOperator()==MediaQuery.Operator.PERSON
+                ? byPerson.get(query.getPerson().getPersonId()) : null;
+        long from = lowerBound(query.getStartDate());
+        long to = upperBound(query.getEndDate());
+        int[] matching = new int[candidates.length];
+        int count = 0;
+        for(int mediaId : candidates){
+            boolean matches;
+            switch (query.getOperator()) {
+                case TAG:
+                    matches = tagged!=null && tagged.contains(mediaId);
+                    break;
+                case LOCATION:
+                    matches = mediaId<locations.length && locations[mediaId]!=null && locations[mediaId].contains(location);
+                    break;
+                case PERSON:
+                    matches = postings!=null && postings.contains(mediaId);
+                    break;
+                case DATED:
+                    long day = dates.day(mediaId);
+                    matches = day!=MediaDates.NO_DATE && day>=from && day<=to;
+                    break;
+                default:
+                    matches = positions.isNear(mediaId, query.getLatitude(), query.getLongitude(), query.getRadiusKm());
+            }
+            if(matches){
+                matching[count++] = mediaId;
+            }
+        }
+        return Arrays.copyOf(matching, count);
+    }
+
+    /**
+     * @return the ids of the first sorted list that are not in the second, in increasing order
+     */
+    private static int[] difference(int[] first, int[] second) {
+        int[] result = new int[first.length];
+        int count = 0;
+        int j = 0;
+        for(int id : first){
+            while (j<second.length && second[j]<id) {
+                j++;
+            }
+            if(j==second.length || second[j]!=id){
+                result[count++] = id;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the ids in either sorted list, in increasing order
+     */
+    private static int[] union(int[] first, int[] second) {
+        int[] result = new int[first.length + second.length];
+        int count = 0;
+        int i = 0;
+        int j = 0;
+        while (i<first.length || j<second.length) {
+            if(j==second.length || (i<first.length && first[i]<second[j])){
+                result[count++] = first[i++];
+            } else if(i==first.length || second[j]<first[i]){
+                result[count++] = second[j++];
+            } else {
+                result[count++] = first[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * @return the media dated within the range, in the same order; all of them without a range
+     */
+    private int[] datedWithin(int[] mediaIds, String startDate, String endDate) {
+        if(startDate==null && endDate==null){
+            return mediaIds;
+        }
+        long from = lowerBound(startDate);
+        long to = upperBound(endDate);
+        int count = 0;
+        for(int mediaId : mediaIds){
+            long day = dates.day(mediaId);
+            if(day!=MediaDates.NO_DATE && day>=from && day<=to){
+                mediaIds[count++] = mediaId;
+            }
+        }
+        return Arrays.copyOf(mediaIds, count);
+    }
+
+    private List<FileIdentifier> files(int[] mediaIds) {
+        List<FileIdentifier> files = new ArrayList<>(mediaIds.length);
+        for(int mediaId : mediaIds){
+            files.add(new FileIdentifier(mediaId, fileLocations[mediaId]));
+        }
+        return files;
+    }
+
+    /**
+     * Date bounds compare with the first day of media dates, from the first day of the start bound to the last
+     * day of the end bound, so an end date of "2000" includes media dated 2000-06.
+     */
+    private static long lowerBound(String startDate) {
+        return startDate==null ? Long.MIN_VALUE + 1 : PartialDate.startBound(startDate);
+    }
+
+    private static long upperBound(String endDate) {
+        return endDate==null ? Long.MAX_VALUE : PartialDate.endBound(endDate);
+    }
+
+    /**
+     * @return the media matching the query; a single tag's own bitmap, so callers only read it under the lock
+     */
+    private CompressedBitmap evaluate(TagQuery query) {
+        switch (query.getOperator()) {
+            case TAG:
+                CompressedBitmap tagged = byTag.get(NameIndex.fold(query.getTag()));
+                return tagged==null ? new CompressedBitmap() : tagged;
+            case NOT:
+                return CompressedBitmap.andNot(allMedia, evaluate(query.getOperands().get(0)));
+            case OR:
+                CompressedBitmap union = new CompressedBitmap();
+                for(TagQuery operand : query.getOperands()){
+                    union = CompressedBitmap.or(union, evaluate(operand));
+                }
+                return union;
+            default:
+                // intersect the smallest sets first, and subtract negated operands instead of complementing them
+                List<CompressedBitmap> included = new ArrayList<>();
+                List<CompressedBitmap> excluded = new ArrayList<>();
+                for(TagQuery operand : query.getOperands()){
+                    if(operand.getOperator()==TagQuery.Operator.NOT){
+                        excluded.add(evaluate(operand.getOperands().get(0)));
+                    } else {
+                        included.add(evaluate(operand));
+                    }
+                }
+                if(included.isEmpty()){
+                    included.add(allMedia);
+                }
+                included.sort(Comparator.comparingInt(CompressedBitmap::cardinality));
+                CompressedBitmap result = included.get(0);
+                for(int i=1;i<included.size() && !result.isEmpty();i++){
+                    result = CompressedBitmap.and(result, included.get(i));
+                }
+                for(int i=0;i<excluded.size() && !result.isEmpty();i++){
+                    result = CompressedBitmap.andNot(result, excluded.get(i));
+                }
+                return result;
+        }
+    }
+
+    private void putFile(int mediaId, String fileLocation) {
+        if(mediaId>=fileLocations.length){
+            fileLocations = Arrays.copyOf(fileLocations, Math.max(mediaId + 1, fileLocations.length * 2));
+        }
+        fileLocations[mediaId] = fileLocation;
+        allMedia.add(mediaId);
+    }
+
+    private void putTag(int mediaId, String tag) {
+        byTag.computeIfAbsent(NameIndex.fold(tag), unused -> new CompressedBitmap()).add(mediaId);
+    }
+
+    private void putPerson(int personId, int mediaId) {
+        byPerson.computeIfAbsent(personId, unused -> new Postings()).append(mediaId);
+    }
+
+    /**
+     * @param bulk true while loading, followed by dates.build(), byLocation.sort() and positions.build()
+     */
+    private void putAttribute(int mediaId, String attributeType, String value, boolean bulk) {
+        String type = NameIndex.fold(attributeType);
+        if(type.equals(DATE_ATTRIBUTE)){
+            PartialDate date = PartialDate.parse(value);
+            dates.set(mediaId, date==null ? MediaDates.NO_DATE : date.getFirstDay(), bulk);
+        } else if(type.equals(LOCATION_ATTRIBUTE)){
+            if(mediaId>=locations.length){
+                locations = Arrays.copyOf(locations, Math.max(mediaId + 1, locations.length * 2));
+            }
+            String location = NameIndex.fold(value);
+            if(!location.equals(locations[mediaId])){
+                locations[mediaId] = location;
+                byLocation.add(mediaId, location, !bulk);
+            }
+        } else if(type.equals(GeoIndex.LATITUDE_ATTRIBUTE)){
+            Double latitude = GeoIndex.parseCoordinate(value, 90);
+            positions.setLatitude(mediaId, latitude==null ? Double.NaN : latitude, bulk);
+        } else if(type.equals(GeoIndex.LONGITUDE_ATTRIBUTE)){
+            Double longitude = GeoIndex.parseCoordinate(value, 180);
+            positions.setLongitude(mediaId, longitude==null ? Double.NaN : longitude, bulk);
+        }
+    }
+}
@@ -0,0 +1,266 @@
+package pkg;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Combination of media criteria for Genealogy.findMedia: tags, location text, people, dates, positions and any
+ * other media attribute, combined with and, or and not, e.g.
+ * MediaQuery.and(MediaQuery.tag("wedding"), MediaQuery.person(grandmother), MediaQuery.dated("1950", "1959")).
+ * Tags, locations and attribute values compare case-insensitively, like the database collation.
+ */
+public class MediaQuery {
+
+    enum Operator {
+        TAG,
+        LOCATION,
+        PERSON,
+        ATTRIBUTE,
+        DATED,
+        NEAR,
+        AND,
+        OR,
+        NOT
+    }
+
+    private final Operator operator;
+    private final String text;
+    private final PersonIdentity person;
+    private final AttributeFilter filter;
+    private final String startDate;
+    private final String endDate;
+    private final double latitude;
+    private final double longitude;
+    private final double radiusKm;
+    private final List<MediaQuery> operands;
+
+    private MediaQuery(Operator operator, String text, PersonIdentity person, AttributeFilter filter,
+                       String startDate, String endDate, double latitude, double longitude, double radiusKm,
+                       List<MediaQuery> operands) {
+        this.operator = operator;
+        this.text = text;
+        this.person = person;
+        this.filter = filter;
+        this.startDate = startDate;
+        this.endDate = endDate;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.radiusKm = radiusKm;
+        this.operands = operands;
+    }
+
+    private static MediaQuery leaf(Operator operator, String text) {
+        return new MediaQuery(operator, text, null, null, null, null, 0, 0, 0, Collections.emptyList());
+    }
+
+    /**
+     * Media tagged with the tag.
+     */
+    public static MediaQuery tag(String tag) {
+        if(tag==null){
+            throw new IllegalArgumentException("tag cannot be null");
+        }
+        if(tag.trim().isEmpty()){
+            throw new IllegalArgumentException("tag cannot be an empty string");
+        }
+        return leaf(Operator.TAG, tag);
+    }
+
+    /**
+     * Media whose location attribute contains the text, like findMediaByLocation.
+     */
+    public static MediaQuery location(String location) {
+        if(location==null){
+            throw new IllegalArgumentException("location cannot be null");
+        }
+        if(location.trim().isEmpty()){
+            throw new IllegalArgumentException("location cannot be an empty string");
+        }
+        return leaf(Operator.LOCATION, location);
+    }
+
+    /**
+     * Media the person appears in.
+     */
+    public static MediaQuery person(PersonIdentity person) {
+        if(person==null){
+            throw new IllegalArgumentException("person object cannot be null");
+        }
+        if(person.getPersonId()<1){
+            throw new IllegalArgumentException("invalid person object");
+        }
+        return new MediaQuery(Operator.PERSON, null, person, null, null, null, 0, 0, 0, Collections.emptyList());
+    }
+
+    /**
+     * Media with an attribute matching the filter, e.g. AttributeFilter.equalTo("camera", "Brownie").
+     */
+    public static MediaQuery attribute(AttributeFilter filter) {
+        if(filter==null){
+            throw new IllegalArgumentException("attribute filter cannot be null");
+        }
+        return new MediaQuery(Operator.ATTRIBUTE, null, null, filter, null, null, 0, 0, 0, Collections.emptyList());
+    }
+
+    /**
+     * Dated media within the range like the other media queries: the first day of a media date lies between the
+     * first day of the start date and the last day of the end date.
+     * @param startDate lower bound in yyyy-MM-dd, yyyy-MM or yyyy format, null for no lower bound
+     * @param endDate upper bound, null for no upper bound
+     */
+    public static MediaQuery dated(String startDate, String endDate) {
+        if(startDate==null && endDate==null){
+            throw new IllegalArgumentException("a date range needs at least one bound");
+        }
+        Genealogy.validateDateRange(startDate, endDate);
+        return new MediaQuery(Operator.DATED, null, null, null, startDate, endDate, 0, 0, 0, Collections.emptyList());
+    }
+
+    /**
+     * Media positioned within the distance of a position, like findMediaNear.
+     */
+    public static MediaQuery near(double latitude, double longitude, double radiusKm) {
+        Genealogy.validatePosition(latitude, longitude);
+        if(!(radiusKm>=0) || Double.isInfinite(radiusKm)){
+            throw new IllegalArgumentException("radius must be a non-negative number of kilometres");
+        }
+        return new MediaQuery(Operator.NEAR, null, null, null, null, null, latitude, longitude, radiusKm,
+                Collections.emptyList());
+    }
+
+    /**
+     * Media matching every one of the queries.
+     */
+    public static MediaQuery and(MediaQuery... queries) {
+        return new MediaQuery(Operator.AND, null, null, null, null, null, 0, 0, 0, operands(queries));
+    }
+
+    /**
+     * Media matching any of the queries.
+     */
+    public static MediaQuery or(MediaQuery... queries) {
+        return new MediaQuery(Operator.OR, null, null, null, null, null, 0, 0, 0, operands(queries));
+    }
+
+    /**
+     * Media not matching the query.
+     */
+    public static MediaQuery not(MediaQuery query) {
+        return new MediaQuery(Operator.NOT, null, null, null, null, null, 0, 0, 0, operands(query));
+    }
+
+    Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return the tag of a TAG query or the text of a LOCATION query, null for the other operators
+     */
+    String getText() {
+        return text;
+    }
+
+    PersonIdentity getPerson() {
+        return person;
+    }
+
+    AttributeFilter getFilter() {
+        return filter;
+    }
+
+    String getStartDate() {
+        return startDate;
+    }
+
+    String getEndDate() {
+        return endDate;
+    }
+
+    double getLatitude() {
+        return latitude;
+    }
+
+    double getLongitude() {
+        return longitude;
+    }
+
+    double getRadiusKm() {
+        return radiusKm;
+    }
+
+    List<MediaQuery> getOperands() {
+        return operands;
+    }
+
+    private static List<MediaQuery> operands(MediaQuery... queries) {
+        if(queries==null || queries.length==0){
+            throw new IllegalArgumentException("at least one media query is needed");
+        }
+        for(MediaQuery query : queries){
+            if(query==null){
+                throw new IllegalArgumentException("media queries cannot be null");
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(queries)));
+    }
+
+    /**
+     * @return the criterion of a single query without its operands, e.g. "tag 'beach'" or "AND"
+     */
+    String criterion() {
+        switch (operator) {
+            case TAG:
+                return "tag '" + text + "'";
+            case LOCATION:
+                return "location contains '" + text + "'";
+            case PERSON:
+                return "person " + person.getPersonId();
+            case ATTRIBUTE:
+                if(!filter.isRange()){
+                    return "attribute '" + filter.getAttributeType() + "' = '" + filter.getValue() + "'";
+                }
+                return "attribute '" + filter.getAttributeType() + "' between "
+                        + bound(filter.getFrom(), Long.MIN_VALUE) + " and " + bound(filter.getTo(), Long.MAX_VALUE);
+            case DATED:
+                return "dated between " + (startDate==null ? "any" : startDate) + " and "
+                        + (endDate==null ? "any" : endDate);
+            case NEAR:
+                return "within " + radiusKm + " km of " + latitude + ", " + longitude;
+            default:
+                return operator.toString();
+        }
+    }
+
+    private String bound(long value, long unbounded) {
+        if(value==unbounded){
+            return "any";
+        }
+        return AttributeFilter.isDateType(filter.getAttributeType()) ? LocalDate.ofEpochDay(value).toString()
+                : Long.toString(value);
+    }
+
+    private String expression() {
+        if(operands.isEmpty()){
+            return criterion();
+        }
+        if(operator==Operator.NOT){
+            return "NOT " + operands.get(0).expression();
+        }
+        StringBuilder expression = new StringBuilder("(");
+        for(int i=0;i<operands.size();i++){
+            if(i>0){
+                expression.append(' ').append(operator).append(' ');
+            }
+            expression.append(operands.get(i).expression());
+        }
+        return expression.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.MediaQuery{" + expression() + '}';
+    }
+}
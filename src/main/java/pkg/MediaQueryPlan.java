@@ -0,0 +1,76 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The media found for a MediaQuery, as returned by Genealogy.explainMedia, with the plan that found them.
+ *
+ * Every step of the plan evaluates one criterion of the query, in the order chosen by the planner: the criteria
+ * of an AND from the one expected to match the fewest media to the one expected to match the most, each either
+ * read from its index or, once fewer media remain than it is expected to match, checked against those media.
+ * Each step reports how many media its criterion was estimated to match on its own and how many it actually
+ * passed on to the next step.
+ */
+public class MediaQueryPlan {
+
+    /**
+     * One criterion of the query as it was evaluated.
+     */
+    static final class Step {
+        final MediaQuery query;
+        final long estimate;
+        String access;
+        int actual;
+        final List<Step> children = new ArrayList<>();
+
+        Step(MediaQuery query, long estimate) {
+            this.query = query;
+            this.estimate = estimate;
+        }
+
+        private void explain(StringBuilder text, int depth) {
+            for(int i=0;i<depth;i++){
+                text.append("  ");
+            }
+            text.append(query.criterion()).append(" [").append(access).append("]: estimated ")
+                    .append(estimate).append(", actual ").append(actual).append('\n');
+            for(Step child : children){
+                child.explain(text, depth + 1);
+            }
+        }
+    }
+
+    private final Step root;
+    private final Set<FileIdentifier> media;
+
+    MediaQueryPlan(Step root, Set<FileIdentifier> media) {
+        this.root = root;
+        this.media = Collections.unmodifiableSet(media);
+    }
+
+    /**
+     * @return the media matching the query, in order of their ids
+     */
+    public Set<FileIdentifier> getMedia() {
+        return media;
+    }
+
+    /**
+     * @return the steps of the plan, one per line and indented under the step combining them, e.g.
+     * "AND [intersect, fewest first]: estimated 40, actual 12" followed by
+     * "  tag 'wedding' [read index]: estimated 40, actual 40"
+     */
+    public String explain() {
+        StringBuilder text = new StringBuilder();
+        root.explain(text, 0);
+        return text.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.MediaQueryPlan{" + root.query + ", media=" + media.size() + '}';
+    }
+}
@@ -0,0 +1,388 @@
+package pkg;
+
+import java.text.Normalizer;
+import java.util.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Pattern;
+
+/**
+ * In-memory index of person names for exact, prefix and substring search, kept by Genealogy.
+ *
+ * Names are normalized to lower case words without accents or punctuation. Each normalized name has a
+ * postings list of the people carrying it, each word has one in a sorted map so all words starting with
+ * a prefix are one contiguous range, and each three-character sequence (trigram) has one so a substring
+ * search intersects the postings of the query's trigrams and only checks the few names that contain all of them.
+ *
+ * For names spelled inconsistently, every distinct word is also kept in a BK-tree for edit distance search
+ * and under its Soundex and Metaphone keys, so a fuzzy search finds the words that are spelled or sound alike
+ * and then the people through the words' postings.
+ */
+class NameIndex {
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern SEPARATORS = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private String[] names = new String[1024];
+    private String[] keys = new String[1024];
+    private int maxPersonId = 0;
+    private final Map<String, Postings> byKey = new HashMap<>();
+    private final TreeMap<String, Postings> byWord = new TreeMap<>();
+    private final TrigramIndex byTrigram = new TrigramIndex();
+    private final BkTree wordTree = new BkTree();
+    private final Map<String, List<String>> wordsBySoundex = new HashMap<>();
+    private final Map<String, List<String>> wordsByMetaphone = new HashMap<>();
+
+    private NameIndex() {
+    }
+
+    /**
+     * Read the names of all people from the store.
+     * @return the index, null if the store could not be read
+     */
+    static NameIndex load(GenealogyStore store) {
+        NameIndex index = new NameIndex();
+        Boolean peopleRead = store.scanPeople((personId, name) -> index.put(personId, name, false));
+        if(!Boolean.TRUE.equals(peopleRead)){
+            return null;
+        }
+        // people may be scanned in any order, so the postings were appended unsorted
+        for(Postings postings : index.byKey.values()){
+            postings.sort();
+        }
+        for(Postings postings : index.byWord.values()){
+            postings.sort();
+        }
+        index.byTrigram.sort();
+        return index;
+    }
+
+    void addPerson(int personId, String name) {
+        lock.writeLock().lock();
+        try {
+            put(personId, name, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the identities of the given people, skipping ids without a known name
+     */
+    List<PersonIdentity> people(int[] personIds) {
+        lock.readLock().lock();
+        try {
+            List<PersonIdentity> people = new ArrayList<>(personIds.length);
+            for(int personId : personIds){
+                if(personId<names.length && names[personId]!=null){
+                    people.add(new PersonIdentity(personId, names[personId]));
+                }
+            }
+            return people;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the people whose name matches the text, best matches first: the whole name, then the start of
+     * the name, then whole words, then word prefixes, then other substrings; shorter names first within each
+     */
+    List<PersonIdentity> search(String text, NameMatch match, int limit) {
+        String query = normalize(text);
+        if(query.isEmpty()){
+            return new ArrayList<>();
+        }
+        String[] queryWords = query.split(" ");
+        lock.readLock().lock();
+        try {
+            int[] candidates;
+            if(match==NameMatch.EXACT){
+                Postings postings = byKey.get(query);
+                candidates = postings==null ? new int[0] : postings.toArray();
+            } else if(match==NameMatch.PREFIX){
+                candidates = wordPrefixCandidates(queryWords);
+            } else {
+                candidates = substringCandidates(query);
+            }
+
+            // keep the best matches in a bounded heap, each packed as rank, name length and id in one long
+            PriorityQueue<Long> best = new PriorityQueue<>(Collections.reverseOrder());
+            for(int personId : candidates){
+                long length = Math.min(keys[personId].length(), 0xFFFFF);
+                long order = ((long) rank(keys[personId], query, queryWords) << 52) | (length << 32) | personId;
+                if(best.size()<limit){
+                    best.add(order);
+                } else if(order<best.peek()){
+                    best.poll();
+                    best.add(order);
+                }
+            }
+            long[] ranked = new long[best.size()];
+            for(int i=ranked.length-1;i>=0;i--){
+                ranked[i] = best.poll();
+            }
+            List<PersonIdentity> people = new ArrayList<>();
+            for(long order : ranked){
+                int personId = (int) order;
+                people.add(new PersonIdentity(personId, names[personId]));
+            }
+            return people;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the people with a word spelled within maxDistance edits of, or sounding like, each word of the text;
+     * closest first by the edits summed over the words; a word that only sounds alike counts maxDistance + 1 if
+     * its Metaphone key matches and maxDistance + 2 if only its coarser Soundex key does
+     */
+    List<PersonIdentity> searchLike(String text, int maxDistance) {
+        String query = normalize(text);
+        if(query.isEmpty()){
+            return new ArrayList<>();
+        }
+        String[] queryWords = query.split(" ");
+        lock.readLock().lock();
+        try {
+            List<Map<String, Integer>> similarWords = new ArrayList<>();
+            BitSet candidates = null;
+            for(String queryWord : queryWords){
+                Map<String, Integer> similar = similarWords(queryWord, maxDistance);
+                similarWords.add(similar);
+                BitSet matching = new BitSet(maxPersonId + 1);
+                for(String word : similar.keySet()){
+                    byWord.get(word).addTo(matching);
+                }
+                if(candidates==null){
+                    candidates = matching;
+                } else {
+                    candidates.and(matching);
+                }
+            }
+
+            int[] found = candidates.stream().toArray();
+            long[] ranked = new long[found.length];
+            for(int i=0;i<found.length;i++){
+                int personId = found[i];
+                String[] words = keys[personId].split(" ");
+                long distance = 0;
+                for(Map<String, Integer> similar : similarWords){
+                    int closest = Integer.MAX_VALUE;
+                    for(String word : words){
+                        Integer wordDistance = similar.get(word);
+                        if(wordDistance!=null){
+                            closest = Math.min(closest, wordDistance);
+                        }
+                    }
+                    distance += closest;
+                }
+                long length = Math.min(keys[personId].length(), 0xFFFFF);
+                ranked[i] = (Math.min(distance, 0x7FF) << 52) | (length << 32) | personId;
+            }
+            Arrays.sort(ranked);
+            List<PersonIdentity> people = new ArrayList<>();
+            for(long order : ranked){
+                int personId = (int) order;
+                people.add(new PersonIdentity(personId, names[personId]));
+            }
+            return people;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the indexed words within maxDistance edits of the word or sounding like it, with their distance
+     */
+    private Map<String, Integer> similarWords(String queryWord, int maxDistance) {
+        Map<String, Integer> similar = new HashMap<>();
+        wordTree.search(queryWord, maxDistance, similar::put);
+        for(String word : wordsByMetaphone.getOrDefault(Phonetics.metaphone(queryWord), Collections.emptyList())){
+            similar.putIfAbsent(word, maxDistance + 1);
+        }
+        for(String word : wordsBySoundex.getOrDefault(Phonetics.soundex(queryWord), Collections.emptyList())){
+            similar.putIfAbsent(word, maxDistance + 2);
+        }
+        return similar;
+    }
+
+    /**
+     * Lower case words without accents, separated by single spaces, e.g. "Ren&eacute;e O'Brien" becomes "renee o brien".
+     */
+    static String normalize(String name) {
+        StringBuilder key = new StringBuilder(name.length());
+        boolean separator = false;
+        for(int i=0;i<name.length();i++){
+            char c = name.charAt(i);
+            if(c>=0x80){
+                // accents and other scripts take the slow path
+                return SEPARATORS.matcher(fold(name)).replaceAll(" ").trim();
+            }
+            if((c>='a' && c<='z') || (c>='0' && c<='9')){
+                if(separator && key.length()>0){
+                    key.append(' ');
+                }
+                key.append(c);
+                separator = false;
+            } else if(c>='A' && c<='Z'){
+                if(separator && key.length()>0){
+                    key.append(' ');
+                }
+                key.append((char) (c + ('a' - 'A')));
+                separator = false;
+            } else {
+                separator = true;
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * @return true if the names are equal ignoring case and accents, the way the database compares them
+     */
+    static boolean sameName(String name1, String name2) {
+        return fold(name1).equals(fold(name2));
+    }
+
+    /**
+     * Lower case without accents, keeping punctuation and spacing.
+     */
+    static String fold(String name) {
+        boolean ascii = true;
+        for(int i=0;i<name.length() && ascii;i++){
+            ascii = name.charAt(i)<0x80;
+        }
+        if(ascii){
+            return name.toLowerCase(Locale.ROOT);
+        }
+        return MARKS.matcher(Normalizer.normalize(name, Normalizer.Form.NFD)).replaceAll("").toLowerCase(Locale.ROOT);
+    }
+
+    private void put(int personId, String name, boolean sorted) {
+        if(personId>=names.length){
+            int capacity = Math.max(personId + 1, names.length * 2);
+            names = Arrays.copyOf(names, capacity);
+            keys = Arrays.copyOf(keys, capacity);
+        }
+        String key = normalize(name);
+        names[personId] = name;
+        keys[personId] = key;
+        maxPersonId = Math.max(maxPersonId, personId);
+
+        post(byKey, key, personId, sorted);
+        for(String word : key.split(" ")){
+            if(word.isEmpty()){
+                continue;
+            }
+            if(!byWord.containsKey(word)){
+                wordTree.add(word);
+                addSound(wordsBySoundex, Phonetics.soundex(word), word);
+                addSound(wordsByMetaphone, Phonetics.metaphone(word), word);
+            }
+            post(byWord, word, personId, sorted);
+        }
+        byTrigram.add(personId, key, sorted);
+    }
+
+    private static void addSound(Map<String, List<String>> wordsBySound, String sound, String word) {
+        if(!sound.isEmpty()){
+            wordsBySound.computeIfAbsent(sound, unused -> new ArrayList<>(1)).add(word);
+        }
+    }
+
+    private static void post(Map<String, Postings> index, String term, int personId, boolean sorted) {
+        Postings postings = index.computeIfAbsent(term, unused -> new Postings());
+        if(sorted){
+            postings.add(personId);
+        } else {
+            postings.append(personId);
+        }
+    }
+
+    /**
+     * @return the people with a word starting with each of the query words
+     */
+    private int[] wordPrefixCandidates(String[] queryWords) {
+        // a short prefix covers many words, so their postings are merged in a bitmap rather than sorted together
+        BitSet candidates = null;
+        for(String queryWord : queryWords){
+            BitSet matching = new BitSet(maxPersonId + 1);
+            for(Postings postings : byWord.subMap(queryWord, true, queryWord + Character.MAX_VALUE, true).values()){
+                postings.addTo(matching);
+            }
+            if(candidates==null){
+                candidates = matching;
+            } else {
+                candidates.and(matching);
+            }
+            if(candidates.isEmpty()){
+                break;
+            }
+        }
+        return candidates.stream().toArray();
+    }
+
+    /**
+     * @return the people whose normalized name contains the query
+     */
+    private int[] substringCandidates(String query) {
+        if(query.length()<TrigramIndex.GRAM){
+            // too short for a trigram: check every name
+            int[] found = new int[16];
+            int count = 0;
+            for(int personId=1;personId<=maxPersonId;personId++){
+                if(keys[personId]!=null && keys[personId].contains(query)){
+                    if(count==found.length){
+                        found = Arrays.copyOf(found, count * 2);
+                    }
+                    found[count++] = personId;
+                }
+            }
+            return Arrays.copyOf(found, count);
+        }
+
+        int[] candidates = byTrigram.candidates(query);
+        // names with all the trigrams may still have them in another order
+        int count = 0;
+        for(int personId : candidates){
+            if(keys[personId].contains(query)){
+                candidates[count++] = personId;
+            }
+        }
+        return Arrays.copyOf(candidates, count);
+    }
+
+    private static int rank(String key, String query, String[] queryWords) {
+        if(key.startsWith(query)){
+            return key.length()==query.length() ? 0 : 1;
+        }
+        boolean wholeWords = true;
+        for(String queryWord : queryWords){
+            int position = wordStart(key, queryWord, 0);
+            if(position<0){
+                return 4;
+            }
+            boolean whole = false;
+            while (position>=0 && !whole) {
+                int end = position + queryWord.length();
+                whole = end==key.length() || key.charAt(end)==' ';
+                position = wordStart(key, queryWord, position + 1);
+            }
+            wholeWords = wholeWords && whole;
+        }
+        return wholeWords ? 2 : 3;
+    }
+
+    /**
+     * @return the first position from the given one where a word of the key starts with the text, -1 if none does
+     */
+    private static int wordStart(String key, String text, int from) {
+        int position = key.indexOf(text, from);
+        while (position>0 && key.charAt(position-1)!=' ') {
+            position = key.indexOf(text, position + 1);
+        }
+        return position;
+    }
+}
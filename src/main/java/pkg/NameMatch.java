@@ -0,0 +1,14 @@
+package pkg;
+
+/**
+ * How Genealogy.searchPeople matches a name against the search text. Every kind also includes the
+ * matches of the kinds before it, ranked ahead of the looser ones.
+ */
+public enum NameMatch {
+    /** the whole name equals the text, ignoring case, accents and punctuation */
+    EXACT,
+    /** every word of the text starts a word of the name, e.g. "jo sm" finds "John Smith" */
+    PREFIX,
+    /** the text appears anywhere in the name, e.g. "ohn sm" finds "John Smith" */
+    SUBSTRING
+}
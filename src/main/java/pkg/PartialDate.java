@@ -0,0 +1,135 @@
+package pkg;
+
+import java.time.LocalDate;
+
+/**
+ * A date as recorded in attributes: a whole day ("1920-05-10"), a month ("1920-05") or a year ("1920"),
+ * kept as the range of days it covers so dates of different precision can be compared and indexed as numbers.
+ */
+final class PartialDate {
+
+    enum Precision {
+        YEAR,
+        MONTH,
+        DAY
+    }
+
+    private final long firstDay;
+    private final long lastDay;
+    private final Precision precision;
+
+    private PartialDate(LocalDate first, LocalDate last, Precision precision) {
+        this.firstDay = first.toEpochDay();
+        this.lastDay = last.toEpochDay();
+        this.precision = precision;
+    }
+
+    /**
+     * @return the date, null if the text is not a date in yyyy-MM-dd, yyyy-MM or yyyy format
+     */
+    static PartialDate parse(String text) {
+        if(text==null){
+            return null;
+        }
+        // checked by hand rather than with patterns, since every attribute is parsed when the indexes load
+        int length = text.length();
+        if((length!=4 && length!=7 && length!=10) || !digits(text, 0, 4)){
+            return null;
+        }
+        int year = Integer.parseInt(text.substring(0, 4));
+        if(length==4){
+            LocalDate first = LocalDate.of(year, 1, 1);
+            return new PartialDate(first, first.plusYears(1).minusDays(1), Precision.YEAR);
+        }
+        if(text.charAt(4)!='-' || !digits(text, 5, 7)){
+            return null;
+        }
+        int month = Integer.parseInt(text.substring(5, 7));
+        if(month<1 || month>12){
+            return null;
+        }
+        if(length==7){
+            LocalDate first = LocalDate.of(year, month, 1);
+            return new PartialDate(first, first.plusMonths(1).minusDays(1), Precision.MONTH);
+        }
+        if(text.charAt(7)!='-' || !digits(text, 8, 10)){
+            return null;
+        }
+        int day = Integer.parseInt(text.substring(8, 10));
+        try {
+            LocalDate date = LocalDate.of(year, month, day);
+            return new PartialDate(date, date, Precision.DAY);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the first day of a start date bound in yyyy-MM-dd, yyyy-MM or yyyy format, in days since 1970-01-01
+     * @throws IllegalArgumentException if the bound is not a valid date
+     */
+    static long startBound(String startDate) {
+        PartialDate date = parse(startDate);
+        if(date==null){
+            throw new IllegalArgumentException("Invalid Start Date Format");
+        }
+        return date.getFirstDay();
+    }
+
+    /**
+     * @return the last day of an end date bound, so "2000" includes everything dated in 2000 like AttributeFilter
+     * @throws IllegalArgumentException if the bound is not a valid date
+     */
+    static long endBound(String endDate) {
+        PartialDate date = parse(endDate);
+        if(date==null){
+            throw new IllegalArgumentException("Invalid End Date Format");
+        }
+        return date.getLastDay();
+    }
+
+    private static boolean digits(String text, int from, int to) {
+        for(int i=from;i<to;i++){
+            if(text.charAt(i)<'0' || text.charAt(i)>'9'){
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the first day covered, in days since 1970-01-01
+     */
+    long getFirstDay() {
+        return firstDay;
+    }
+
+    /**
+     * @return the first day covered, which orders and compares dates in the database's date_value column
+     */
+    LocalDate getFirstDate() {
+        return LocalDate.ofEpochDay(firstDay);
+    }
+
+    /**
+     * @return the last day covered, in days since 1970-01-01
+     */
+    long getLastDay() {
+        return lastDay;
+    }
+
+    Precision getPrecision() {
+        return precision;
+    }
+
+    @Override
+    public String toString() {
+        LocalDate first = LocalDate.ofEpochDay(firstDay);
+        if(precision==Precision.YEAR){
+            return String.format("%04d", first.getYear());
+        } else if(precision==Precision.MONTH){
+            return String.format("%04d-%02d", first.getYear(), first.getMonthValue());
+        }
+        return first.toString();
+    }
+}
@@ -0,0 +1,698 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory copy of the parent_child relation used to answer ancestors and descendents without the database.
+ *
+ * Both directions are stored in compressed sparse row form: for person id p, the parents of p are
+ * parents[parentOffsets[p]] .. parents[parentOffsets[p+1]-1], and the same for children. Person ids are
+ * assigned by the store in increasing order, so they are used directly as array indexes.
+ * Relations recorded after loading go into small per-person overflow arrays, which are merged into the
+ * compressed arrays once they hold more than an eighth of all relations.
+ *
+ * Every person also has a position in a topological order of the pedigree, ancestors before descendants,
+ * which is kept up to date as relations are added by moving only the people between the two ends of the new
+ * relation (Pearce and Kelly's dynamic topological sort). isAncestor(a, b) is false right away when a comes
+ * after b in that order, and otherwise searches b's ancestors, skipping everybody ordered before a.
+ * If the stored relations contain a cycle there is no such order; the graph then notes that and
+ * isAncestor falls back to an unpruned search.
+ *
+ * The graph is safe for concurrent use; queries share a read lock and updates take the write lock.
+ */
+class PedigreeGraph {
+
+    private static final int MIN_OVERFLOW_BEFORE_COMPACTION = 1024;
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // names[id] is null for ids that are not people
+    private String[] names;
+    private int personCount;
+
+    private int[] parentOffsets;
+    private int[] parents;
+    private int[] childOffsets;
+    private int[] children;
+
+    // extraParents[id][0] is the number of overflow parents that follow, likewise for children
+    private int[][] extraParents;
+    private int[][] extraChildren;
+    private int overflowCount;
+
+    // order[id] is the position of the person in the topological order, 0 for ids that are not people
+    private int[] order;
+    private int maxOrder;
+    private boolean orderValid = true;
+
+    private final FamilyClusters clusters;
+
+    private PedigreeGraph(String[] names, int personCount, int[] edgeParents, int[] edgeChildren, int edgeCount) {
+        this.names = names;
+        this.personCount = personCount;
+        this.extraParents = new int[names.length][];
+        this.extraChildren = new int[names.length][];
+        build(edgeParents, edgeChildren, edgeCount);
+        sortTopologically();
+        clusters = new FamilyClusters(names.length);
+        for(int personId=1; personId<names.length; personId++){
+            if(names[personId]!=null){
+                clusters.addPerson(personId);
+            }
+        }
+        for(int i=0;i<edgeCount;i++){
+            clusters.union(edgeParents[i], edgeChildren[i]);
+        }
+    }
+
+    /**
+     * Read all people and parent/child relations from the store.
+     * @return the graph, null if the store could not be read
+     */
+    static PedigreeGraph load(GenealogyStore store) {
+        final String[][] names = {new String[1024]};
+        final int[] maxId = {0};
+        final int[] personCount = {0};
+        Boolean peopleRead = store.scanPeople((personId, name) -> {
+            if(personId>=names[0].length){
+                names[0] = Arrays.copyOf(names[0], Math.max(personId + 1, names[0].length * 2));
+            }
+            if(names[0][personId]==null){
+                personCount[0]++;
+            }
+            names[0][personId] = name;
+            maxId[0] = Math.max(maxId[0], personId);
+        });
+        if(!Boolean.TRUE.equals(peopleRead)){
+            return null;
+        }
+
+        final int[][] edges = {new int[1024], new int[1024]};
+        final int[] edgeCount = {0};
+        Boolean relationsRead = store.scanParentChild((parentId, childId) -> {
+            if(edgeCount[0]==edges[0].length){
+                edges[0] = Arrays.copyOf(edges[0], edgeCount[0] * 2);
+                edges[1] = Arrays.copyOf(edges[1], edgeCount[0] * 2);
+            }
+            edges[0][edgeCount[0]] = parentId;
+            edges[1][edgeCount[0]] = childId;
+            edgeCount[0]++;
+            maxId[0] = Math.max(maxId[0], Math.max(parentId, childId));
+        });
+        if(!Boolean.TRUE.equals(relationsRead)){
+            return null;
+        }
+
+        return new PedigreeGraph(Arrays.copyOf(names[0], Math.max(maxId[0] + 1, names[0].length)), personCount[0],
+                edges[0], edges[1], edgeCount[0]);
+    }
+
+    /**
+     * @return true if the person was known when the graph was loaded or has been added since
+     */
+    boolean contains(int personId) {
+        lock.readLock().lock();
+        try {
+            return personId>0 && personId<names.length && names[personId]!=null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    void addPerson(int personId, String name) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(personId);
+            if(names[personId]==null){
+                personCount++;
+            }
+            names[personId] = name;
+            if(order[personId]==0){
+                // nobody is related to a new person yet, so any position is valid
+                order[personId] = ++maxOrder;
+            }
+            clusters.addPerson(personId);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Add a parent/child relation unless it is already in the graph.
+     * @return true if the relation was added
+     */
+    boolean addRelation(int parentId, int childId) {
+        lock.writeLock().lock();
+        try {
+            ensureCapacity(Math.max(parentId, childId));
+            if(hasParent(childId, parentId)){
+                return false;
+            }
+            for(int personId : new int[]{parentId, childId}){
+                if(order[personId]==0){
+                    order[personId] = ++maxOrder;
+                }
+            }
+            if(orderValid){
+                orderValid = reorder(parentId, childId);
+            }
+            clusters.union(parentId, childId);
+            extraParents[childId] = append(extraParents[childId], parentId);
+            extraChildren[parentId] = append(extraChildren[parentId], childId);
+            overflowCount++;
+            if(overflowCount > Math.max(MIN_OVERFLOW_BEFORE_COMPACTION, parents.length / 8)){
+                compact();
+            }
+            return true;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * All ancestors within the given number of generations, nearest generation first.
+     */
+    Set<PersonIdentity> ancestors(int personId, int generations) {
+        lock.readLock().lock();
+        try {
+            return breadthFirst(personId, generations, parentOffsets, parents, extraParents);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * All descendents within the given number of generations, nearest generation first.
+     */
+    Set<PersonIdentity> descendents(int personId, int generations) {
+        lock.readLock().lock();
+        try {
+            return breadthFirst(personId, generations, childOffsets, children, extraChildren);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return true if the first person is a parent, grandparent or earlier ancestor of the second
+     */
+    boolean isAncestor(int ancestorId, int descendantId) {
+        lock.readLock().lock();
+        try {
+            if(ancestorId==descendantId || ancestorId<1 || descendantId<1
+                    || ancestorId>=names.length || descendantId>=names.length){
+                return false;
+            }
+            if(orderValid && order[ancestorId]>=order[descendantId]){
+                return false;
+            }
+            int lowestOrder = orderValid ? order[ancestorId] : Integer.MIN_VALUE;
+            IntHashSet visited = new IntHashSet();
+            int[] stack = new int[16];
+            int stackSize = 0;
+            stack[stackSize++] = descendantId;
+            int[] buffer = new int[2];
+            while (stackSize>0) {
+                int current = stack[--stackSize];
+                int count = copyParents(current, buffer);
+                if(count>buffer.length){
+                    buffer = new int[count];
+                    copyParents(current, buffer);
+                }
+                for(int i=0;i<count;i++){
+                    int parent = buffer[i];
+                    if(parent==ancestorId){
+                        return true;
+                    }
+                    // people ordered before the ancestor cannot be its descendants
+                    if(order[parent]>lowestOrder && visited.add(parent)){
+                        if(stackSize==stack.length){
+                            stack = Arrays.copyOf(stack, stackSize * 2);
+                        }
+                        stack[stackSize++] = parent;
+                    }
+                }
+            }
+            return false;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * How the two people are related through their closest common ancestor.
+     * @return the relation, null if they have no common ancestor
+     */
+    BiologicalRelation findRelation(int personId1, int personId2) {
+        lock.readLock().lock();
+        try {
+            return new RelationshipEngine(this).findRelation(personId1, personId2);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The chain of people through which the two people are related.
+     * @return the path, null if they have no common ancestor
+     */
+    RelationPath findRelationPath(int personId1, int personId2) {
+        lock.readLock().lock();
+        try {
+            return new RelationshipEngine(this).findRelationPath(personId1, personId2);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The relation paths of many pairs, the pair at each position made of personIds1[i] and personIds2[i].
+     * @return the path of each pair, null for pairs with no common ancestor
+     */
+    RelationPath[] findRelationPaths(int[] personIds1, int[] personIds2) {
+        lock.readLock().lock();
+        try {
+            // the worker threads read the arrays while this thread holds the read lock
+            return RelationshipEngine.findRelationPaths(this, personIds1, personIds2);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Fill the matrix with the relation of every pair of the given people.
+     */
+    void findRelations(int[] personIds, RelationMatrix matrix) {
+        lock.readLock().lock();
+        try {
+            // the worker threads read the arrays while this thread holds the read lock
+            new RelationshipEngine(this).findRelations(personIds, matrix);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copy the parents of a person into the buffer without locking, for callers that hold the read lock.
+     * @return the number of parents, which may be larger than the buffer; only the first buffer.length are copied
+     */
+    int copyParents(int personId, int[] buffer) {
+        return copyRelatives(personId, parentOffsets, parents, extraParents, buffer);
+    }
+
+    private static int copyRelatives(int personId, int[] offsets, int[] targets, int[][] extra, int[] buffer) {
+        int count = 0;
+        if(personId+1<offsets.length){
+            for(int edge=offsets[personId]; edge<offsets[personId+1]; edge++){
+                if(count<buffer.length){
+                    buffer[count] = targets[edge];
+                }
+                count++;
+            }
+        }
+        int[] overflow = personId<extra.length ? extra[personId] : null;
+        if(overflow!=null){
+            for(int edge=1; edge<=overflow[0]; edge++){
+                if(count<buffer.length){
+                    buffer[count] = overflow[edge];
+                }
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The parents (or children) of a whole generation, for walking the pedigree one generation at a time.
+     * @param ancestors true for parents, false for children
+     * @return the relatives in the order of the people they belong to, a relative shared by several people is repeated
+     */
+    List<PersonIdentity> nextGeneration(List<PersonIdentity> people, boolean ancestors) {
+        lock.readLock().lock();
+        try {
+            List<PersonIdentity> relatives = new ArrayList<>();
+            int[] buffer = new int[4];
+            for(PersonIdentity person : people){
+                int personId = person.getPersonId();
+                int count = ancestors ? copyRelatives(personId, parentOffsets, parents, extraParents, buffer)
+                        : copyRelatives(personId, childOffsets, children, extraChildren, buffer);
+                if(count>buffer.length){
+                    buffer = new int[count];
+                    count = ancestors ? copyRelatives(personId, parentOffsets, parents, extraParents, buffer)
+                            : copyRelatives(personId, childOffsets, children, extraChildren, buffer);
+                }
+                for(int i=0;i<count;i++){
+                    relatives.add(new PersonIdentity(buffer[i], names[buffer[i]]));
+                }
+            }
+            return relatives;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return false if the two people are in different family clusters and therefore not related
+     */
+    boolean mayBeRelated(int personId1, int personId2) {
+        return personId1==personId2 || clusters.sameCluster(personId1, personId2);
+    }
+
+    /**
+     * The family cluster of each person as a number that is equal for people in the same cluster, for comparing
+     * many pairs; the numbers change when clusters merge, so they are only comparable while holding the read lock.
+     * @return the number of each person's cluster, 0 for people who are not in the graph
+     */
+    int[] clusterRoots(int[] personIds) {
+        int[] roots = new int[personIds.length];
+        for(int i=0;i<personIds.length;i++){
+            roots[i] = clusters.root(personIds[i]);
+        }
+        return roots;
+    }
+
+    /**
+     * @return the cluster of the person, null if the person is not in the graph
+     */
+    FamilyCluster findFamilyCluster(int personId) {
+        int clusterId = clusters.clusterId(personId);
+        if(clusterId==0){
+            return null;
+        }
+        return new FamilyCluster(person(clusterId), clusters.clusterSize(personId));
+    }
+
+    /**
+     * @return every cluster with at least minimumSize people, largest first
+     */
+    List<FamilyCluster> findFamilyClusters(int minimumSize) {
+        List<FamilyCluster> result = new ArrayList<>();
+        for(int[] cluster : clusters.clusters(minimumSize)){
+            result.add(new FamilyCluster(person(cluster[0]), cluster[1]));
+        }
+        return result;
+    }
+
+    private PersonIdentity person(int personId) {
+        lock.readLock().lock();
+        try {
+            return identity(personId);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * The identity of a person without locking, for callers that hold the read lock.
+     */
+    PersonIdentity identity(int personId) {
+        return new PersonIdentity(personId, personId<names.length ? names[personId] : null);
+    }
+
+    int getPersonCount() {
+        lock.readLock().lock();
+        try {
+            return personCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    int getRelationCount() {
+        lock.readLock().lock();
+        try {
+            return parents.length + overflowCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private Set<PersonIdentity> breadthFirst(int personId, int generations, int[] offsets, int[] targets,
+                                             int[][] extra) {
+        Set<PersonIdentity> relatives = new LinkedHashSet<>();
+        if(personId<1 || personId>=names.length){
+            return relatives;
+        }
+        IntHashSet visited = new IntHashSet();
+        visited.add(personId);
+        int[] frontier = {personId};
+        int frontierSize = 1;
+        int[] next = new int[4];
+        for(int generation=1; generation<=generations && frontierSize>0; generation++){
+            int nextSize = 0;
+            for(int i=0;i<frontierSize;i++){
+                int current = frontier[i];
+                if(current+1<offsets.length){
+                    for(int edge=offsets[current]; edge<offsets[current+1]; edge++){
+                        int relative = targets[edge];
+                        if(visited.add(relative)){
+                            if(nextSize==next.length){
+                                next = Arrays.copyOf(next, nextSize * 2);
+                            }
+                            next[nextSize++] = relative;
+                            relatives.add(new PersonIdentity(relative, names[relative]));
+                        }
+                    }
+                }
+                int[] overflow = extra[current];
+                if(overflow!=null){
+                    for(int edge=1; edge<=overflow[0]; edge++){
+                        int relative = overflow[edge];
+                        if(visited.add(relative)){
+                            if(nextSize==next.length){
+                                next = Arrays.copyOf(next, nextSize * 2);
+                            }
+                            next[nextSize++] = relative;
+                            relatives.add(new PersonIdentity(relative, names[relative]));
+                        }
+                    }
+                }
+            }
+            int[] swap = frontier;
+            frontier = next;
+            frontierSize = nextSize;
+            next = swap.length>=4 ? swap : new int[4];
+        }
+        return relatives;
+    }
+
+    private boolean hasParent(int childId, int parentId) {
+        if(childId+1<parentOffsets.length){
+            for(int edge=parentOffsets[childId]; edge<parentOffsets[childId+1]; edge++){
+                if(parents[edge]==parentId){
+                    return true;
+                }
+            }
+        }
+        int[] overflow = extraParents[childId];
+        if(overflow!=null){
+            for(int edge=1; edge<=overflow[0]; edge++){
+                if(overflow[edge]==parentId){
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Number every person so that parents come before their children (Kahn's algorithm).
+     * People on a cycle cannot be ordered; they are numbered last and the order is marked invalid.
+     */
+    private void sortTopologically() {
+        order = new int[names.length];
+        maxOrder = 0;
+        int[] pendingParents = new int[names.length];
+        int[] queue = new int[names.length];
+        int head = 0;
+        int tail = 0;
+        for(int personId=1; personId<names.length; personId++){
+            if(names[personId]==null){
+                continue;
+            }
+            pendingParents[personId] = parentOffsets[personId+1] - parentOffsets[personId];
+            if(pendingParents[personId]==0){
+                queue[tail++] = personId;
+            }
+        }
+        while (head<tail) {
+            int current = queue[head++];
+            order[current] = ++maxOrder;
+            for(int edge=childOffsets[current]; edge<childOffsets[current+1]; edge++){
+                int child = children[edge];
+                if(--pendingParents[child]==0){
+                    queue[tail++] = child;
+                }
+            }
+        }
+        for(int personId=1; personId<names.length; personId++){
+            if(names[personId]!=null && order[personId]==0){
+                order[personId] = ++maxOrder;
+                orderValid = false;
+            }
+        }
+    }
+
+    /**
+     * Restore the topological order before adding the relation parentId -> childId.
+     * Only when the child is ordered before the parent does anything move: the child's descendants ordered
+     * up to the parent are moved after the parent's ancestors ordered from the child, reusing their positions.
+     * @return false if the child is an ancestor of the parent, i.e. the relation closes a cycle
+     */
+    private boolean reorder(int parentId, int childId) {
+        int lower = order[childId];
+        int upper = order[parentId];
+        if(upper<lower){
+            return true;
+        }
+        int[] forward = reachable(childId, childOffsets, children, extraChildren, lower, upper, parentId);
+        if(forward==null){
+            return false;
+        }
+        int[] backward = reachable(parentId, parentOffsets, parents, extraParents, lower, upper, 0);
+
+        sortByOrder(backward);
+        sortByOrder(forward);
+        int[] positions = new int[backward.length + forward.length];
+        for(int i=0;i<backward.length;i++){
+            positions[i] = order[backward[i]];
+        }
+        for(int i=0;i<forward.length;i++){
+            positions[backward.length + i] = order[forward[i]];
+        }
+        Arrays.sort(positions);
+        for(int i=0;i<backward.length;i++){
+            order[backward[i]] = positions[i];
+        }
+        for(int i=0;i<forward.length;i++){
+            order[forward[i]] = positions[backward.length + i];
+        }
+        return true;
+    }
+
+    /**
+     * Depth-first search from start over the given direction, visiting only people ordered within [lower, upper].
+     * @return the people reached including start, null if stopAt was reached
+     */
+    private int[] reachable(int start, int[] offsets, int[] targets, int[][] extra, int lower, int upper, int stopAt) {
+        IntHashSet visited = new IntHashSet();
+        visited.add(start);
+        int[] stack = new int[16];
+        int stackSize = 0;
+        stack[stackSize++] = start;
+        int[] buffer = new int[4];
+        while (stackSize>0) {
+            int current = stack[--stackSize];
+            int count = copyRelatives(current, offsets, targets, extra, buffer);
+            if(count>buffer.length){
+                buffer = new int[count];
+                copyRelatives(current, offsets, targets, extra, buffer);
+            }
+            for(int i=0;i<count;i++){
+                int relative = buffer[i];
+                if(relative==stopAt){
+                    return null;
+                }
+                if(order[relative]>=lower && order[relative]<=upper && visited.add(relative)){
+                    if(stackSize==stack.length){
+                        stack = Arrays.copyOf(stack, stackSize * 2);
+                    }
+                    stack[stackSize++] = relative;
+                }
+            }
+        }
+        return visited.toArray();
+    }
+
+    private void sortByOrder(int[] people) {
+        long[] keyed = new long[people.length];
+        for(int i=0;i<people.length;i++){
+            keyed[i] = ((long) order[people[i]] << 32) | people[i];
+        }
+        Arrays.sort(keyed);
+        for(int i=0;i<people.length;i++){
+            people[i] = (int) keyed[i];
+        }
+    }
+
+    /**
+     * Merge the overflow arrays into the compressed arrays.
+     */
+    private void compact() {
+        int edgeCount = parents.length + overflowCount;
+        int[] edgeParents = new int[edgeCount];
+        int[] edgeChildren = new int[edgeCount];
+        int count = 0;
+        for(int child=0; child+1<parentOffsets.length; child++){
+            for(int edge=parentOffsets[child]; edge<parentOffsets[child+1]; edge++){
+                edgeParents[count] = parents[edge];
+                edgeChildren[count++] = child;
+            }
+        }
+        for(int child=0; child<extraParents.length; child++){
+            int[] overflow = extraParents[child];
+            if(overflow!=null){
+                for(int edge=1; edge<=overflow[0]; edge++){
+                    edgeParents[count] = overflow[edge];
+                    edgeChildren[count++] = child;
+                }
+            }
+        }
+        Arrays.fill(extraParents, null);
+        Arrays.fill(extraChildren, null);
+        overflowCount = 0;
+        build(edgeParents, edgeChildren, count);
+    }
+
+    /**
+     * Build both compressed arrays from an edge list with a counting sort on each endpoint.
+     */
+    private void build(int[] edgeParents, int[] edgeChildren, int edgeCount) {
+        int size = names.length + 1;
+        parentOffsets = new int[size];
+        childOffsets = new int[size];
+        for(int i=0;i<edgeCount;i++){
+            parentOffsets[edgeChildren[i] + 1]++;
+            childOffsets[edgeParents[i] + 1]++;
+        }
+        for(int i=1;i<size;i++){
+            parentOffsets[i] += parentOffsets[i-1];
+            childOffsets[i] += childOffsets[i-1];
+        }
+        parents = new int[edgeCount];
+        children = new int[edgeCount];
+        int[] parentFill = Arrays.copyOf(parentOffsets, size);
+        int[] childFill = Arrays.copyOf(childOffsets, size);
+        for(int i=0;i<edgeCount;i++){
+            parents[parentFill[edgeChildren[i]]++] = edgeParents[i];
+            children[childFill[edgeParents[i]]++] = edgeChildren[i];
+        }
+    }
+
+    private void ensureCapacity(int personId) {
+        if(personId<names.length){
+            return;
+        }
+        int capacity = Math.max(personId + 1, names.length + names.length / 2);
+        names = Arrays.copyOf(names, capacity);
+        order = Arrays.copyOf(order, capacity);
+        extraParents = Arrays.copyOf(extraParents, capacity);
+        extraChildren = Arrays.copyOf(extraChildren, capacity);
+        // ids beyond the old offsets have no compressed relations yet, compaction extends the offsets
+    }
+
+    private static int[] append(int[] overflow, int value) {
+        if(overflow==null){
+            overflow = new int[3];
+        } else if(overflow[0]+1==overflow.length){
+            overflow = Arrays.copyOf(overflow, overflow.length * 2);
+        }
+        overflow[++overflow[0]] = value;
+        return overflow;
+    }
+}
@@ -0,0 +1,195 @@
+package pkg;
+
+import java.util.*;
+
+/**
+ * The parent/child relations queued in one GenealogyBatch transaction, checked as they are added so that a batch
+ * cannot record what recordChild rejects: a person as their own parent or ancestor, or a third parent.
+ *
+ * A relation closes a cycle when its child reaches its parent going down through the stored relations and the
+ * relations queued before it. People added in the same transaction still have id 0; they are told apart by
+ * identity and, having no stored relations yet, only their queued relations are followed.
+ */
+class PendingRelations {
+
+    /**
+     * Ancestry of the people already in the store, e.g. answered by the pedigree graph.
+     */
+    interface Ancestry {
+        /**
+         * @return true if the first person is an ancestor of the second, null if the store could not be read
+         */
+        Boolean isAncestor(int ancestorId, int descendantId);
+
+        /**
+         * @return ids of the stored parents of the person, null if the store could not be read
+         */
+        Set<Integer> parents(int childId);
+    }
+
+    private final Ancestry stored;
+    // people are keyed by their id, or by their PersonIdentity while they are added in the same transaction
+    private final Map<Object, List<PersonIdentity>> children = new HashMap<>();
+    // stored and queued parents of every child with queued parents
+    private final Map<Object, Set<Object>> parents = new HashMap<>();
+    // stored people with queued children, the only way down from a stored person into the queued relations
+    private final Map<Object, PersonIdentity> storedParents = new LinkedHashMap<>();
+
+    PendingRelations(Ancestry stored) {
+        this.stored = stored;
+    }
+
+    /**
+     * Ancestry read from the store, remembering the ancestors of every person looked up.
+     */
+    static Ancestry storedIn(GenealogyStore store) {
+        return new Ancestry() {
+            private final Map<Integer, Set<Integer>> ancestorIds = new HashMap<>();
+
+            @Override
+            public Boolean isAncestor(int ancestorId, int descendantId) {
+                Set<Integer> ids = ancestorIds.get(descendantId);
+                if(ids==null){
+                    ids = ids(store.ancestors(new PersonIdentity(descendantId, null), Integer.MAX_VALUE));
+                    if(ids==null){
+                        return null;
+                    }
+                    ancestorIds.put(descendantId, ids);
+                }
+                return ids.contains(ancestorId);
+            }
+
+            @Override
+            public Set<Integer> parents(int childId) {
+                return ids(store.ancestors(new PersonIdentity(childId, null), 1));
+            }
+        };
+    }
+
+    /**
+     * @return the ids of the people, null for null
+     */
+    static Set<Integer> ids(Set<PersonIdentity> people) {
+        if(people==null){
+            return null;
+        }
+        Set<Integer> ids = new HashSet<>();
+        for(PersonIdentity person : people){
+            ids.add(person.getPersonId());
+        }
+        return ids;
+    }
+
+    /**
+     * Check the parent/child relations of a transaction in the order they were queued.
+     * @return true if they can all be recorded, null if the stored relations could not be read
+     * @throws IllegalArgumentException for a relation that makes a person their own parent or ancestor,
+     * or that gives a child more than two parents
+     */
+    static Boolean check(List<BatchOperation> operations, Ancestry stored) {
+        PendingRelations relations = new PendingRelations(stored);
+        for(BatchOperation operation : operations){
+            if(operation.getType()==BatchOperation.Type.RECORD_CHILD
+                    && relations.add(operation.getPerson(), operation.getOtherPerson())==null){
+                return null;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Check a relation and add it to the queued ones.
+     * @return true if the relation was added or is already stored or queued, null if the stored relations could
+     * not be read
+     * @throws IllegalArgumentException for a relation that makes a person their own parent or ancestor,
+     * or that gives a child more than two parents
+     */
+    Boolean add(PersonIdentity parent, PersonIdentity child) {
+        Object parentKey = key(parent);
+        Object childKey = key(child);
+        if(parentKey.equals(childKey)){
+            throw new IllegalArgumentException("a person cannot be their own parent");
+        }
+        Set<Object> childParents = parents.get(childKey);
+        if(childParents==null){
+            childParents = new HashSet<>(4);
+            if(child.getPersonId()>0){
+                Set<Integer> storedIds = stored.parents(child.getPersonId());
+                if(storedIds==null){
+                    return null;
+                }
+                childParents.addAll(storedIds);
+            }
+            parents.put(childKey, childParents);
+        }
+        if(childParents.contains(parentKey)){
+            return true;
+        }
+        if(childParents.size()>=2){
+            throw new IllegalArgumentException("2 parents already exist for child");
+        }
+        Boolean cycle = reaches(child, parent);
+        if(cycle==null){
+            return null;
+        }
+        if(cycle){
+            throw new IllegalArgumentException("child is an ancestor of the parent");
+        }
+
+        childParents.add(parentKey);
+        children.computeIfAbsent(parentKey, key -> new ArrayList<>()).add(child);
+        if(parent.getPersonId()>0){
+            storedParents.putIfAbsent(parentKey, parent);
+        }
+        return true;
+    }
+
+    /**
+     * @return true if the second person is the first or one of their descendants, null if the store could not be read
+     */
+    private Boolean reaches(PersonIdentity from, PersonIdentity to) {
+        Object target = key(to);
+        Set<Object> visited = new HashSet<>();
+        Deque<PersonIdentity> pending = new ArrayDeque<>();
+        visited.add(key(from));
+        pending.add(from);
+        while (!pending.isEmpty()) {
+            PersonIdentity current = pending.poll();
+            Object currentKey = key(current);
+            if(currentKey.equals(target)){
+                return true;
+            }
+            if(current.getPersonId()>0){
+                if(to.getPersonId()>0){
+                    Boolean ancestor = stored.isAncestor(current.getPersonId(), to.getPersonId());
+                    if(ancestor==null || ancestor){
+                        return ancestor;
+                    }
+                }
+                for(Map.Entry<Object, PersonIdentity> parent : storedParents.entrySet()){
+                    if(visited.contains(parent.getKey())){
+                        continue;
+                    }
+                    Boolean ancestor = stored.isAncestor(current.getPersonId(), parent.getValue().getPersonId());
+                    if(ancestor==null){
+                        return null;
+                    }
+                    if(ancestor){
+                        visited.add(parent.getKey());
+                        pending.add(parent.getValue());
+                    }
+                }
+            }
+            for(PersonIdentity child : children.getOrDefault(currentKey, Collections.emptyList())){
+                if(visited.add(key(child))){
+                    pending.add(child);
+                }
+            }
+        }
+        return false;
+    }
+
+    private static Object key(PersonIdentity person) {
+        return person.getPersonId()>0 ? (Object) person.getPersonId() : person;
+    }
+}
@@ -0,0 +1,32 @@
+package pkg;
+
+/**
+ * A relative reported by Genealogy.ancestorStream or descendentStream, with the number of generations
+ * between them and the person the stream started from: 1 for parents or children, 2 for grandparents
+ * or grandchildren, and so on.
+ */
+public class PersonGeneration {
+    private final PersonIdentity person;
+    private final int generation;
+
+    public PersonGeneration(PersonIdentity person, int generation) {
+        this.person = person;
+        this.generation = generation;
+    }
+
+    public PersonIdentity getPerson() {
+        return person;
+    }
+
+    public int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.PersonGeneration{" +
+                "person=" + person +
+                ", generation=" + generation +
+                '}';
+    }
+}
@@ -0,0 +1,232 @@
+package pkg;
+
+/**
+ * Phonetic keys of name words, so that differently spelled names that sound alike get the same key,
+ * e.g. "macdonald" and "mcdonell". Words are expected normalized by NameIndex: lower case letters a-z and digits.
+ */
+class Phonetics {
+
+    //                                         abcdefghijklmnopqrstuvwxyz
+    private static final String SOUNDEX_CODES = "01230120022455012623010202";
+
+    private Phonetics() {
+    }
+
+    /**
+     * American Soundex: the first letter followed by three digits for the consonant sounds after it.
+     * @return the key, empty if the word has no letter a-z
+     */
+    static String soundex(String word) {
+        StringBuilder key = new StringBuilder(4);
+        char previous = 0;
+        for(int i=0;i<word.length() && key.length()<4;i++){
+            char c = word.charAt(i);
+            if(c<'a' || c>'z'){
+                continue;
+            }
+            char code = SOUNDEX_CODES.charAt(c - 'a');
+            if(key.length()==0){
+                key.append(Character.toUpperCase(c));
+            } else if(code!='0' && code!=previous){
+                key.append(code);
+            }
+            // h and w do not separate letters with the same code, vowels do
+            if(c!='h' && c!='w'){
+                previous = code;
+            }
+        }
+        if(key.length()==0){
+            return "";
+        }
+        while (key.length()<4) {
+            key.append('0');
+        }
+        return key.toString();
+    }
+
+    /**
+     * Metaphone: the consonant sounds of the word, with a vowel kept only at the start.
+     * @return the key, empty if the word has no letter a-z
+     */
+    static String metaphone(String word) {
+        StringBuilder letters = new StringBuilder(word.length());
+        for(int i=0;i<word.length();i++){
+            char c = word.charAt(i);
+            if(c>='a' && c<='z' && (letters.length()==0 || c!=letters.charAt(letters.length()-1) || c=='c')){
+                letters.append(c);
+            }
+        }
+        String w = letters.toString();
+        if(w.isEmpty()){
+            return "";
+        }
+        int start = 0;
+        if(w.startsWith("kn") || w.startsWith("gn") || w.startsWith("pn") || w.startsWith("ae") || w.startsWith("wr")){
+            start = 1;
+        }
+        StringBuilder key = new StringBuilder();
+        if(w.charAt(0)=='x'){
+            key.append('S');
+            start = 1;
+        } else if(w.startsWith("wh")){
+            key.append('W');
+            start = 2;
+        }
+
+        for(int i=start;i<w.length();i++){
+            char c = w.charAt(i);
+            char next = i+1<w.length() ? w.charAt(i+1) : 0;
+            char afterNext = i+2<w.length() ? w.charAt(i+2) : 0;
+            char before = i>0 ? w.charAt(i-1) : 0;
+            switch (c) {
+                case 'a': case 'e': case 'i': case 'o': case 'u':
+                    if(i==start){
+                        key.append(Character.toUpperCase(c));
+                    }
+                    break;
+                case 'b':
+                    // silent in a final "mb"
+                    if(!(before=='m' && next==0)){
+                        key.append('B');
+                    }
+                    break;
+                case 'c':
+                    if(next=='i' && afterNext=='a'){
+                        key.append('X');
+                    } else if(next=='h'){
+                        key.append(before=='s' ? 'K' : 'X');
+                        i++;
+                    } else if(next=='i' || next=='e' || next=='y'){
+                        if(before!='s'){
+                            key.append('S');
+                        }
+                    } else {
+                        key.append('K');
+                    }
+                    break;
+                case 'd':
+                    if(next=='g' && (afterNext=='e' || afterNext=='i' || afterNext=='y')){
+                        key.append('J');
+                        i++;
+                    } else {
+                        key.append('T');
+                    }
+                    break;
+                case 'g':
+                    if(next=='h' && afterNext!=0 && !isVowel(afterNext)){
+                        // silent in "gh" before a consonant, e.g. "wright"
+                        i++;
+                    } else if(next=='n' && (afterNext==0 || (afterNext=='e' && i+3<w.length() && w.charAt(i+3)=='d'))){
+                        // silent in a final "gn" or "gned"
+                    } else if(next=='i' || next=='e' || next=='y'){
+                        key.append('J');
+                    } else {
+                        key.append('K');
+                    }
+                    break;
+                case 'h':
+                    if(isVowel(next) && !silencesH(before)){
+                        key.append('H');
+                    }
+                    break;
+                case 'k':
+                    if(before!='c'){
+                        key.append('K');
+                    }
+                    break;
+                case 'p':
+                    if(next=='h'){
+                        key.append('F');
+                        i++;
+                    } else {
+                        key.append('P');
+                    }
+                    break;
+                case 'q':
+                    key.append('K');
+                    break;
+                case 's':
+                    if(next=='h'){
+                        key.append('X');
+                        i++;
+                    } else if(next=='i' && (afterNext=='o' || afterNext=='a')){
+                        key.append('X');
+                    } else {
+                        key.append('S');
+                    }
+                    break;
+                case 't':
+                    if(next=='i' && (afterNext=='o' || afterNext=='a')){
+                        key.append('X');
+                    } else if(next=='h'){
+                        key.append('0');
+                        i++;
+                    } else if(!(next=='c' && afterNext=='h')){
+                        key.append('T');
+                    }
+                    break;
+                case 'v':
+                    key.append('F');
+                    break;
+                case 'w': case 'y':
+                    if(isVowel(next)){
+                        key.append(Character.toUpperCase(c));
+                    }
+                    break;
+                case 'x':
+                    key.append("KS");
+                    break;
+                case 'z':
+                    key.append('S');
+                    break;
+                default:
+                    // f, j, l, m, n, r sound as written
+                    key.append(Character.toUpperCase(c));
+            }
+        }
+        return key.toString();
+    }
+
+    private static boolean isVowel(char c) {
+        return c=='a' || c=='e' || c=='i' || c=='o' || c=='u';
+    }
+
+    /**
+     * Letters after which an h is not pronounced, e.g. in "sh" or "ph".
+     */
+    private static boolean silencesH(char c) {
+        return c=='c' || c=='g' || c=='p' || c=='s' || c=='t';
+    }
+
+    /**
+     * @return the number of single-character insertions, deletions and substitutions that turn one word into
+     * the other
+     */
+    static int editDistance(String first, String second) {
+        int longest = Math.max(first.length(), second.length());
+        return editDistance(first, second, new int[2][longest + 1]);
+    }
+
+    /**
+     * Same as editDistance(first, second), computed in two caller-provided rows at least as long as either word plus one.
+     */
+    static int editDistance(String first, String second, int[][] rows) {
+        int[] previous = rows[0];
+        int[] current = rows[1];
+        for(int j=0;j<=second.length();j++){
+            previous[j] = j;
+        }
+        for(int i=1;i<=first.length();i++){
+            current[0] = i;
+            char c = first.charAt(i-1);
+            for(int j=1;j<=second.length();j++){
+                int substitution = previous[j-1] + (c==second.charAt(j-1) ? 0 : 1);
+                current[j] = Math.min(substitution, Math.min(previous[j], current[j-1]) + 1);
+            }
+            int[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+        return previous[second.length()];
+    }
+}
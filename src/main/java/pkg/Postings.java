@@ -0,0 +1,157 @@
+package pkg;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Growable sorted list of ids without duplicates, the postings list of one key of an in-memory index.
+ * Ids usually arrive in increasing order, so adding one is an append; an id out of order is inserted in place.
+ */
+class Postings {
+
+    private int[] ids;
+    private int size;
+
+    Postings() {
+        ids = new int[2];
+    }
+
+    /**
+     * @return true if the id was not in the list yet
+     */
+    boolean add(int id) {
+        if(size>0 && ids[size-1]>=id){
+            int position = Arrays.binarySearch(ids, 0, size, id);
+            if(position>=0){
+                return false;
+            }
+            insert(-position - 1, id);
+            return true;
+        }
+        if(size==ids.length){
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+        return true;
+    }
+
+    /**
+     * @return true if the id was in the list
+     */
+    boolean remove(int id) {
+        int position = Arrays.binarySearch(ids, 0, size, id);
+        if(position<0){
+            return false;
+        }
+        System.arraycopy(ids, position + 1, ids, position, size - position - 1);
+        size--;
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean contains(int id) {
+        return Arrays.binarySearch(ids, 0, size, id)>=0;
+    }
+
+    /**
+     * @return a copy of the ids in increasing order
+     */
+    int[] toArray() {
+        return Arrays.copyOf(ids, size);
+    }
+
+    /**
+     * Set the bit of every id in the list.
+     */
+    void addTo(BitSet bits) {
+        for(int i=0;i<size;i++){
+            bits.set(ids[i]);
+        }
+    }
+
+    /**
+     * @return the ids of both sorted arrays, in increasing order
+     */
+    static int[] intersect(int[] first, int[] second) {
+        return intersect(first, first.length, second, second.length);
+    }
+
+    /**
+     * @return the ids of the sorted array that are also in the postings list, in increasing order
+     */
+    static int[] intersect(int[] first, Postings second) {
+        return intersect(first, first.length, second.ids, second.size);
+    }
+
+    private static int[] intersect(int[] first, int firstSize, int[] second, int secondSize) {
+        if(firstSize>secondSize){
+            return intersect(second, secondSize, first, firstSize);
+        }
+        int[] result = new int[firstSize];
+        int count = 0;
+        if(firstSize * 16 < secondSize){
+            // much smaller list: look each id up instead of walking the long one
+            int from = 0;
+            for(int i=0;i<firstSize;i++){
+                int position = Arrays.binarySearch(second, from, secondSize, first[i]);
+                if(position>=0){
+                    result[count++] = first[i];
+                    from = position + 1;
+                } else {
+                    from = -position - 1;
+                }
+            }
+        } else {
+            int i = 0;
+            int j = 0;
+            while (i<firstSize && j<secondSize) {
+                if(first[i]<second[j]){
+                    i++;
+                } else if(first[i]>second[j]){
+                    j++;
+                } else {
+                    result[count++] = first[i];
+                    i++;
+                    j++;
+                }
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Sort the ids after they were added in arbitrary order with append().
+     */
+    void sort() {
+        Arrays.sort(ids, 0, size);
+        int distinct = 0;
+        for(int i=0;i<size;i++){
+            if(distinct==0 || ids[distinct-1]!=ids[i]){
+                ids[distinct++] = ids[i];
+            }
+        }
+        size = distinct;
+    }
+
+    /**
+     * Add an id at the end without keeping the order, for bulk loading followed by sort().
+     */
+    void append(int id) {
+        if(size==ids.length){
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        ids[size++] = id;
+    }
+
+    private void insert(int position, int id) {
+        if(size==ids.length){
+            ids = Arrays.copyOf(ids, size * 2);
+        }
+        System.arraycopy(ids, position, ids, position + 1, size - position);
+        ids[position] = id;
+        size++;
+    }
+}
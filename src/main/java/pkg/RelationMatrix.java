@@ -0,0 +1,124 @@
+package pkg;
+
+import java.util.*;
+
+/**
+ * Pairwise biological relations among a group of people, as returned by Genealogy.findRelations.
+ * Relations are kept in two primitive arrays covering the pairs above the diagonal, so a group of
+ * 50 people takes 1,225 entries instead of 2,450 BiologicalRelation objects.
+ */
+public class RelationMatrix {
+
+    static final int UNRELATED = Integer.MIN_VALUE;
+
+    private final List<PersonIdentity> people;
+    private final Map<Integer, Integer> indexById = new HashMap<>();
+    private final int[] cousinship;
+    private final int[] removal;
+
+    RelationMatrix(List<PersonIdentity> people) {
+        this.people = Collections.unmodifiableList(new ArrayList<>(people));
+        for(int i=0;i<people.size();i++){
+            indexById.put(people.get(i).getPersonId(), i);
+        }
+        int pairs = people.size() * (people.size() - 1) / 2;
+        this.cousinship = new int[pairs];
+        this.removal = new int[pairs];
+        Arrays.fill(cousinship, UNRELATED);
+    }
+
+    /**
+     * @return the people in the matrix, in the order rows and columns are numbered
+     */
+    public List<PersonIdentity> getPeople() {
+        return people;
+    }
+
+    public int size() {
+        return people.size();
+    }
+
+    /**
+     * @return the relation between the people at the two positions, null if they are not biologically related
+     */
+    public BiologicalRelation getRelation(int row, int column) {
+        if(row<0 || column<0 || row>=people.size() || column>=people.size()){
+            throw new IndexOutOfBoundsException("no person at position " + Math.max(row, column));
+        }
+        if(row==column){
+            return relation(-1, 0);
+        }
+        int pair = pairIndex(row, column);
+        if(cousinship[pair]==UNRELATED){
+            return null;
+        }
+        return relation(cousinship[pair], removal[pair]);
+    }
+
+    /**
+     * @return the relation between the two people, null if they are not biologically related
+     * @throws IllegalArgumentException if either person is not in the matrix
+     */
+    public BiologicalRelation getRelation(PersonIdentity person1, PersonIdentity person2) {
+        return getRelation(indexOf(person1), indexOf(person2));
+    }
+
+    /**
+     * @return number of pairs of different people who are biologically related
+     */
+    public int getRelatedPairCount() {
+        int related = 0;
+        for(int value : cousinship){
+            if(value!=UNRELATED){
+                related++;
+            }
+        }
+        return related;
+    }
+
+    void setRelation(int row, int column, BiologicalRelation relation) {
+        if(relation==null){
+            return;
+        }
+        setRelation(row, column, relation.getCousinship(), relation.getRemoval());
+    }
+
+    void setRelation(int row, int column, int cousinshipValue, int removalValue) {
+        int pair = pairIndex(row, column);
+        cousinship[pair] = cousinshipValue;
+        removal[pair] = removalValue;
+    }
+
+    private int indexOf(PersonIdentity person) {
+        Integer index = person==null ? null : indexById.get(person.getPersonId());
+        if(index==null){
+            throw new IllegalArgumentException("person is not in the relation matrix");
+        }
+        return index;
+    }
+
+    /**
+     * Position of the pair in the upper triangle, stored row by row.
+     */
+    private int pairIndex(int row, int column) {
+        int low = Math.min(row, column);
+        int high = Math.max(row, column);
+        int n = people.size();
+        return low * (2 * n - low - 1) / 2 + (high - low - 1);
+    }
+
+    private static BiologicalRelation relation(int cousinshipValue, int removalValue) {
+        BiologicalRelation biologicalRelation = new BiologicalRelation();
+        biologicalRelation.setCousinship(cousinshipValue);
+        biologicalRelation.setRemoval(removalValue);
+        return biologicalRelation;
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.RelationMatrix{" +
+                "people=" + people.size() +
+                ", relatedPairs=" + getRelatedPairCount() +
+                '}';
+    }
+}
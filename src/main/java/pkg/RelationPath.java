@@ -0,0 +1,89 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * How two people are related, as returned by Genealogy.findRelationPath: the chain of people from the first
+ * person up to their closest common ancestor and down to the second person, and the relation it amounts to.
+ * Siblings and cousins usually share two closest common ancestors, a couple; the path runs through the one
+ * with the smaller id and the other is listed among the common ancestors.
+ */
+public class RelationPath {
+    private final PersonIdentity person1;
+    private final PersonIdentity person2;
+    private final List<PersonIdentity> commonAncestors;
+    private final List<PersonIdentity> path;
+    private final BiologicalRelation relation;
+    private final int generationsFromPerson1;
+    private final int generationsFromPerson2;
+
+    RelationPath(PersonIdentity person1, PersonIdentity person2, List<PersonIdentity> commonAncestors,
+                 List<PersonIdentity> path, BiologicalRelation relation,
+                 int generationsFromPerson1, int generationsFromPerson2) {
+        this.person1 = person1;
+        this.person2 = person2;
+        this.commonAncestors = Collections.unmodifiableList(new ArrayList<>(commonAncestors));
+        this.path = Collections.unmodifiableList(new ArrayList<>(path));
+        this.relation = relation;
+        this.generationsFromPerson1 = generationsFromPerson1;
+        this.generationsFromPerson2 = generationsFromPerson2;
+    }
+
+    public PersonIdentity getPerson1() {
+        return person1;
+    }
+
+    public PersonIdentity getPerson2() {
+        return person2;
+    }
+
+    /**
+     * @return the closest common ancestor the path runs through
+     */
+    public PersonIdentity getCommonAncestor() {
+        return commonAncestors.get(0);
+    }
+
+    /**
+     * @return every common ancestor as close as the one the path runs through, that one first
+     */
+    public List<PersonIdentity> getCommonAncestors() {
+        return commonAncestors;
+    }
+
+    /**
+     * @return the people from person1 to person2 inclusive, each one the parent or child of the one before
+     */
+    public List<PersonIdentity> getPath() {
+        return path;
+    }
+
+    public BiologicalRelation getRelation() {
+        return relation;
+    }
+
+    /**
+     * @return number of generations between person1 and the common ancestor
+     */
+    public int getGenerationsFromPerson1() {
+        return generationsFromPerson1;
+    }
+
+    /**
+     * @return number of generations between person2 and the common ancestor
+     */
+    public int getGenerationsFromPerson2() {
+        return generationsFromPerson2;
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.RelationPath{" +
+                "path=" + path +
+                ", commonAncestors=" + commonAncestors +
+                ", relation=" + relation +
+                '}';
+    }
+}
@@ -0,0 +1,340 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+
+/**
+ * Finds the lowest common ancestor of two people in a PedigreeGraph.
+ *
+ * Both people's ancestors are expanded one generation at a time, always on the side with the smaller
+ * frontier, and every person reached is looked up in the other side's depths. A common ancestor that has
+ * not been reached yet is further than the last expanded generation on at least one side, so once the
+ * closest common ancestor found is no further than one more generation on every side that can still grow,
+ * it is proven to be the closest and the search stops.
+ *
+ * Each ancestor reached remembers the child it was reached through, so the chain of people between the two
+ * can be walked back from the common ancestor at no extra search cost.
+ *
+ * For the relations among a whole group of people, each person's ancestors are expanded once and shared
+ * by all pairs, and both the expansions and the pairs are spread over the common fork/join pool.
+ *
+ * Ties between common ancestors at the same total distance are broken the same way as in
+ * InMemoryGenealogyStore.isCloser, so a pair of people always gets the same relation.
+ * The engine reads the graph without locking; PedigreeGraph calls it under its read lock.
+ */
+class RelationshipEngine {
+
+    private final PedigreeGraph graph;
+
+    // closest common ancestor found so far and its distance from each person
+    private int bestAncestor;
+    private int bestDepth1;
+    private int bestDepth2;
+    // other common ancestors at the same distances as the best one, e.g. the second parent of two siblings
+    private int[] coAncestors = new int[2];
+    private int coAncestorCount;
+
+    private Side side1;
+    private Side side2;
+
+    RelationshipEngine(PedigreeGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * @return the relation of the two people, null if they have no common ancestor
+     */
+    BiologicalRelation findRelation(int person1, int person2) {
+        if(!search(person1, person2)){
+            return null;
+        }
+        return relation(bestDepth1, bestDepth2);
+    }
+
+    /**
+     * @return the chain of people from person1 up to the closest common ancestor and down to person2,
+     * null if they have no common ancestor
+     */
+    RelationPath findRelationPath(int person1, int person2) {
+        if(!search(person1, person2)){
+            return null;
+        }
+        List<PersonIdentity> path = new ArrayList<>();
+        List<PersonIdentity> upward = new ArrayList<>();
+        for(int current=bestAncestor; current!=person1; current=side1.reachedFrom.get(current)){
+            upward.add(graph.identity(current));
+        }
+        path.add(graph.identity(person1));
+        for(int i=upward.size()-1;i>=0;i--){
+            path.add(upward.get(i));
+        }
+        // person2 is the last person reached on the way down, and has no entry when it is the ancestor itself
+        for(int current=side2.reachedFrom.get(bestAncestor); current!=IntIntHashMap.MISSING;
+            current=side2.reachedFrom.get(current)){
+            path.add(graph.identity(current));
+        }
+
+        List<PersonIdentity> commonAncestors = new ArrayList<>();
+        commonAncestors.add(graph.identity(bestAncestor));
+        int[] others = Arrays.copyOf(coAncestors, coAncestorCount);
+        Arrays.sort(others);
+        for(int other : others){
+            commonAncestors.add(graph.identity(other));
+        }
+        return new RelationPath(graph.identity(person1), graph.identity(person2), commonAncestors, path,
+                relation(bestDepth1, bestDepth2), bestDepth1, bestDepth2);
+    }
+
+    /**
+     * Find the relation path of every pair across the common fork/join pool, one engine per pair.
+     * @return the path of the pair at each position, null where the two people have no common ancestor
+     */
+    static RelationPath[] findRelationPaths(PedigreeGraph graph, int[] personIds1, int[] personIds2) {
+        RelationPath[] paths = new RelationPath[personIds1.length];
+        ForkJoinPool.commonPool().invoke(new RangeTask(0, personIds1.length, pair -> {
+            if(graph.mayBeRelated(personIds1[pair], personIds2[pair])){
+                paths[pair] = new RelationshipEngine(graph).findRelationPath(personIds1[pair], personIds2[pair]);
+            }
+        }));
+        return paths;
+    }
+
+    /**
+     * Run the bidirectional search, leaving the closest common ancestor in bestAncestor.
+     * @return true if the two people have a common ancestor
+     */
+    private boolean search(int person1, int person2) {
+        bestAncestor = -1;
+        coAncestorCount = 0;
+        side1 = new Side(person1);
+        side2 = new Side(person2);
+        if(person1==person2){
+            bestAncestor = person1;
+            bestDepth1 = 0;
+            bestDepth2 = 0;
+            return true;
+        }
+
+        while (true) {
+            int nextDepth1 = side1.isExhausted() ? Integer.MAX_VALUE : side1.depth + 1;
+            int nextDepth2 = side2.isExhausted() ? Integer.MAX_VALUE : side2.depth + 1;
+            int lowerBound = Math.min(nextDepth1, nextDepth2);
+            if(lowerBound==Integer.MAX_VALUE || (bestAncestor!=-1 && lowerBound > bestDepth1 + bestDepth2)){
+                break;
+            }
+            boolean expandFirst = side2.isExhausted()
+                    || (!side1.isExhausted() && side1.frontierSize <= side2.frontierSize);
+            if(expandFirst){
+                side1.expand(side2, true);
+            } else {
+                side2.expand(side1, false);
+            }
+        }
+
+        return bestAncestor!=-1;
+    }
+
+    /**
+     * Fill the matrix with the relation of every pair of the given people.
+     * @param personIds ids of the people, in the order of the matrix rows
+     */
+    void findRelations(int[] personIds, RelationMatrix matrix) {
+        // looked up once per person rather than per pair; the caller's read lock keeps clusters from merging
+        int[] clusterRoots = graph.clusterRoots(personIds);
+        IntIntHashMap[] depths = new IntIntHashMap[personIds.length];
+        ForkJoinPool.commonPool().invoke(new RangeTask(0, personIds.length,
+                row -> depths[row] = ancestorDepths(personIds[row])));
+        ForkJoinPool.commonPool().invoke(new RangeTask(0, personIds.length, row -> {
+            for(int column=row+1; column<personIds.length; column++){
+                if(clusterRoots[row]==0 || clusterRoots[row]!=clusterRoots[column]){
+                    continue;
+                }
+                int[] closest = closestCommonAncestor(depths[row], depths[column]);
+                if(closest!=null){
+                    matrix.setRelation(row, column, Math.min(closest[1], closest[2])-1, Math.abs(closest[1]-closest[2]));
+                }
+            }
+        }));
+    }
+
+    /**
+     * @return the person and all their ancestors, each with its distance in generations from the person
+     */
+    private IntIntHashMap ancestorDepths(int personId) {
+        IntIntHashMap depths = new IntIntHashMap();
+        depths.putIfAbsent(personId, 0);
+        int[] frontier = {personId};
+        int frontierSize = 1;
+        int[] buffer = new int[2];
+        for(int depth=1; frontierSize>0; depth++){
+            int[] next = new int[Math.max(4, frontierSize * 2)];
+            int nextSize = 0;
+            for(int i=0;i<frontierSize;i++){
+                int parentCount = graph.copyParents(frontier[i], buffer);
+                if(parentCount>buffer.length){
+                    buffer = new int[parentCount];
+                    graph.copyParents(frontier[i], buffer);
+                }
+                for(int p=0;p<parentCount;p++){
+                    if(depths.putIfAbsent(buffer[p], depth)){
+                        if(nextSize==next.length){
+                            next = Arrays.copyOf(next, nextSize * 2);
+                        }
+                        next[nextSize++] = buffer[p];
+                    }
+                }
+            }
+            frontier = next;
+            frontierSize = nextSize;
+        }
+        return depths;
+    }
+
+    /**
+     * @return {ancestor, depth1, depth2} of the closest common ancestor, null if there is none
+     */
+    private static int[] closestCommonAncestor(IntIntHashMap depths1, IntIntHashMap depths2) {
+        int[] best = {-1, 0, 0};
+        boolean firstIsSmaller = depths1.size() <= depths2.size();
+        IntIntHashMap smaller = firstIsSmaller ? depths1 : depths2;
+        IntIntHashMap larger = firstIsSmaller ? depths2 : depths1;
+        smaller.forEach((ancestor, depth) -> {
+            int otherDepth = larger.get(ancestor);
+            if(otherDepth==IntIntHashMap.MISSING){
+                return;
+            }
+            int depth1 = firstIsSmaller ? depth : otherDepth;
+            int depth2 = firstIsSmaller ? otherDepth : depth;
+            if(best[0]==-1 || InMemoryGenealogyStore.isCloser(depth1, depth2, ancestor, best[1], best[2], best[0])){
+                best[0] = ancestor;
+                best[1] = depth1;
+                best[2] = depth2;
+            }
+        });
+        return best[0]==-1 ? null : best;
+    }
+
+    /**
+     * Runs an action for every index of a range, splitting the range in halves across the fork/join pool.
+     */
+    private static class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final int from;
+        private final int to;
+        private final IntConsumer action;
+
+        RangeTask(int from, int to, IntConsumer action) {
+            this.from = from;
+            this.to = to;
+            this.action = action;
+        }
+
+        @Override
+        protected void compute() {
+            if(to - from <= 1){
+                for(int i=from;i<to;i++){
+                    action.accept(i);
+                }
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new RangeTask(from, middle, action), new RangeTask(middle, to, action));
+        }
+    }
+
+    private void offer(int ancestor, int depth1, int depth2) {
+        if(bestAncestor!=-1 && depth1==bestDepth1 && depth2==bestDepth2){
+            // equally close: keep the smaller id as the closest ancestor and the other as a co-ancestor
+            int other = Math.max(ancestor, bestAncestor);
+            bestAncestor = Math.min(ancestor, bestAncestor);
+            addCoAncestor(other);
+            return;
+        }
+        if(bestAncestor==-1 || InMemoryGenealogyStore.isCloser(depth1, depth2, ancestor,
+                bestDepth1, bestDepth2, bestAncestor)){
+            bestAncestor = ancestor;
+            bestDepth1 = depth1;
+            bestDepth2 = depth2;
+            coAncestorCount = 0;
+        }
+    }
+
+    private void addCoAncestor(int ancestor) {
+        if(coAncestorCount==coAncestors.length){
+            coAncestors = Arrays.copyOf(coAncestors, coAncestorCount * 2);
+        }
+        coAncestors[coAncestorCount++] = ancestor;
+    }
+
+    private static BiologicalRelation relation(int depth1, int depth2) {
+        BiologicalRelation biologicalRelation = new BiologicalRelation();
+        biologicalRelation.setCousinship(Math.min(depth1, depth2)-1);
+        biologicalRelation.setRemoval(Math.abs(depth1-depth2));
+        return biologicalRelation;
+    }
+
+    /**
+     * Ancestors of one of the two people reached so far, with their distance from that person.
+     */
+    private class Side {
+        final IntIntHashMap depths = new IntIntHashMap();
+        // the child through which each ancestor was first reached, to walk the path back down
+        final IntIntHashMap reachedFrom = new IntIntHashMap();
+        int[] frontier;
+        int frontierSize;
+        int depth = 0;
+        int[] parentBuffer = new int[2];
+
+        Side(int person) {
+            depths.putIfAbsent(person, 0);
+            frontier = new int[]{person};
+            frontierSize = 1;
+        }
+
+        boolean isExhausted() {
+            return frontierSize==0;
+        }
+
+        /**
+         * Reach the next generation of ancestors and record those already reached by the other side.
+         */
+        void expand(Side other, boolean isFirst) {
+            int[] next = new int[Math.max(4, frontierSize * 2)];
+            int nextSize = 0;
+            depth++;
+            for(int i=0;i<frontierSize;i++){
+                int parentCount = graph.copyParents(frontier[i], parentBuffer);
+                if(parentCount>parentBuffer.length){
+                    parentBuffer = new int[parentCount];
+                    graph.copyParents(frontier[i], parentBuffer);
+                }
+                for(int p=0;p<parentCount;p++){
+                    int parent = parentBuffer[p];
+                    if(!depths.putIfAbsent(parent, depth)){
+                        continue;
+                    }
+                    reachedFrom.putIfAbsent(parent, frontier[i]);
+                    if(nextSize==next.length){
+                        next = Arrays.copyOf(next, nextSize * 2);
+                    }
+                    next[nextSize++] = parent;
+                    int otherDepth = other.depths.get(parent);
+                    if(otherDepth!=IntIntHashMap.MISSING){
+                        if(isFirst){
+                            offer(parent, depth, otherDepth);
+                        } else {
+                            offer(parent, otherDepth, depth);
+                        }
+                    }
+                }
+            }
+            frontier = next;
+            frontierSize = nextSize;
+        }
+    }
+}
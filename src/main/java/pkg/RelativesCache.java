@@ -0,0 +1,302 @@
+package pkg;
+
+import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded cache of ancestors and descendents results, kept by Genealogy.
+ * Entries are keyed by person, number of generations and direction, and weigh one unit per person
+ * in the result plus one; the least recently used entries are evicted once the total weight exceeds the limit.
+ *
+ * A new parent/child relation only changes the ancestors of the child and of the child's descendants,
+ * and the descendents of the parent and of the parent's ancestors. So recording one drops just the
+ * ancestor entries for the child or that contain the child, and the descendent entries for the parent
+ * or that contain the parent.
+ */
+public class RelativesCache {
+
+    static final long DEFAULT_MAX_WEIGHT = 200000;
+    // batches with more relations than this clear the cache instead of checking every entry per relation
+    static final int MAX_RELATIONS_TO_INVALIDATE = 64;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long maxWeight;
+    private long weight = 0;
+    // increases with every invalidation, so results computed before a write are not cached after it
+    private long version = 0;
+
+    private long hits = 0;
+    private long misses = 0;
+    private long evictions = 0;
+    private long invalidations = 0;
+
+    RelativesCache(long maxWeight) {
+        setMaxWeight(maxWeight);
+    }
+
+    /**
+     * @param maxWeight total number of people the cached results may hold, 0 to disable the cache
+     */
+    public void setMaxWeight(long maxWeight) {
+        if(maxWeight<0){
+            throw new IllegalArgumentException("maximum weight cannot be negative");
+        }
+        lock.lock();
+        try {
+            this.maxWeight = maxWeight;
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMaxWeight() {
+        lock.lock();
+        try {
+            return maxWeight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return a copy of the cached result, null if it is not cached
+     */
+    Set<PersonIdentity> get(int personId, int generations, boolean ancestors) {
+        lock.lock();
+        try {
+            Entry entry = entries.get(new Key(personId, generations, ancestors));
+            if(entry==null){
+                misses++;
+                return null;
+            }
+            hits++;
+            Set<PersonIdentity> result = new LinkedHashSet<>();
+            for(PersonIdentity person : entry.people){
+                result.add(new PersonIdentity(person.getPersonId(), person.getName()));
+            }
+            return result;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return the current version, to pass to put() with the result computed afterwards
+     */
+    long getVersion() {
+        lock.lock();
+        try {
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Cache a result unless the family tree changed since the version was read.
+     */
+    void put(int personId, int generations, boolean ancestors, Set<PersonIdentity> result, long readVersion) {
+        lock.lock();
+        try {
+            if(readVersion!=version || result.size() + 1 > maxWeight){
+                return;
+            }
+            Entry entry = new Entry(result);
+            Entry previous = entries.put(new Key(personId, generations, ancestors), entry);
+            if(previous!=null){
+                weight -= previous.weight();
+            }
+            weight += entry.weight();
+            evict();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the entries that a new parent/child relation could change.
+     */
+    void relationAdded(int parentId, int childId) {
+        lock.lock();
+        try {
+            version++;
+            Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<Key, Entry> cached = iterator.next();
+                int changedPerson = cached.getKey().ancestors ? childId : parentId;
+                if(cached.getKey().personId==changedPerson || cached.getValue().ids.contains(changedPerson)){
+                    weight -= cached.getValue().weight();
+                    iterator.remove();
+                    invalidations++;
+                }
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Drop the entries that the relations of a committed batch could change.
+     * @param relations parent and child id of each new relation
+     */
+    void relationsAdded(List<int[]> relations) {
+        if(relations.size()>MAX_RELATIONS_TO_INVALIDATE){
+            clear();
+            return;
+        }
+        for(int[] relation : relations){
+            relationAdded(relation[0], relation[1]);
+        }
+    }
+
+    public void clear() {
+        lock.lock();
+        try {
+            version++;
+            invalidations += entries.size();
+            entries.clear();
+            weight = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getHits() {
+        lock.lock();
+        try {
+            return hits;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getMisses() {
+        lock.lock();
+        try {
+            return misses;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return share of lookups answered from the cache, 0 before the first lookup
+     */
+    public double getHitRate() {
+        lock.lock();
+        try {
+            return hits + misses==0 ? 0 : (double) hits / (hits + misses);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of entries dropped to stay within the maximum weight
+     */
+    public long getEvictions() {
+        lock.lock();
+        try {
+            return evictions;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return number of entries dropped because a new relation could change them
+     */
+    public long getInvalidations() {
+        lock.lock();
+        try {
+            return invalidations;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getSize() {
+        lock.lock();
+        try {
+            return entries.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getWeight() {
+        lock.lock();
+        try {
+            return weight;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void evict() {
+        Iterator<Entry> iterator = entries.values().iterator();
+        while (weight>maxWeight && iterator.hasNext()) {
+            weight -= iterator.next().weight();
+            iterator.remove();
+            evictions++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.RelativesCache{" +
+                "size=" + getSize() +
+                ", weight=" + getWeight() +
+                ", hitRate=" + String.format("%.3f", getHitRate()) +
+                ", evictions=" + getEvictions() +
+                ", invalidations=" + getInvalidations() +
+                '}';
+    }
+
+    private static class Key {
+        final int personId;
+        final int generations;
+        final boolean ancestors;
+
+        Key(int personId, int generations, boolean ancestors) {
+            this.personId = personId;
+            this.generations = generations;
+            this.ancestors = ancestors;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if(!(o instanceof Key)){
+                return false;
+            }
+            Key other = (Key) o;
+            return personId==other.personId && generations==other.generations && ancestors==other.ancestors;
+        }
+
+        @Override
+        public int hashCode() {
+            return (personId * 31 + generations) * 2 + (ancestors ? 1 : 0);
+        }
+    }
+
+    private static class Entry {
+        final PersonIdentity[] people;
+        final IntHashSet ids;
+
+        Entry(Set<PersonIdentity> result) {
+            people = new PersonIdentity[result.size()];
+            ids = new IntHashSet(result.size());
+            int index = 0;
+            for(PersonIdentity person : result){
+                people[index++] = new PersonIdentity(person.getPersonId(), person.getName());
+                ids.add(person.getPersonId());
+            }
+        }
+
+        long weight() {
+            return people.length + 1;
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package pkg;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Combination of media tags for Genealogy.findMediaByTags, e.g.
+ * TagQuery.and(TagQuery.tag("beach"), TagQuery.not(TagQuery.tag("work"))).
+ * Tags compare case-insensitively, like the database collation.
+ */
+public class TagQuery {
+
+    enum Operator {
+        TAG,
+        AND,
+        OR,
+        NOT
+    }
+
+    private final Operator operator;
+    private final String tag;
+    private final List<TagQuery> operands;
+
+    private TagQuery(Operator operator, String tag, List<TagQuery> operands) {
+        this.operator = operator;
+        this.tag = tag;
+        this.operands = operands;
+    }
+
+    /**
+     * Media tagged with the tag.
+     */
+    public static TagQuery tag(String tag) {
+        if(tag==null){
+            throw new IllegalArgumentException("tag cannot be null");
+        }
+        if(tag.trim().isEmpty()){
+            throw new IllegalArgumentException("tag cannot be an empty string");
+        }
+        return new TagQuery(Operator.TAG, tag, Collections.emptyList());
+    }
+
+    /**
+     * Media matching every one of the queries.
+     */
+    public static TagQuery and(TagQuery... queries) {
+        return new TagQuery(Operator.AND, null, operands(queries));
+    }
+
+    /**
+     * Media matching any of the queries.
+     */
+    public static TagQuery or(TagQuery... queries) {
+        return new TagQuery(Operator.OR, null, operands(queries));
+    }
+
+    /**
+     * Media not matching the query.
+     */
+    public static TagQuery not(TagQuery query) {
+        return new TagQuery(Operator.NOT, null, operands(query));
+    }
+
+    Operator getOperator() {
+        return operator;
+    }
+
+    /**
+     * @return the tag of a TAG query, null for the other operators
+     */
+    String getTag() {
+        return tag;
+    }
+
+    List<TagQuery> getOperands() {
+        return operands;
+    }
+
+    private static List<TagQuery> operands(TagQuery... queries) {
+        if(queries==null || queries.length==0){
+            throw new IllegalArgumentException("at least one tag query is needed");
+        }
+        for(TagQuery query : queries){
+            if(query==null){
+                throw new IllegalArgumentException("tag queries cannot be null");
+            }
+        }
+        return Collections.unmodifiableList(new ArrayList<>(Arrays.asList(queries)));
+    }
+
+    private String expression() {
+        if(operator==Operator.TAG){
+            return "'" + tag + "'";
+        }
+        if(operator==Operator.NOT){
+            return "NOT " + operands.get(0).expression();
+        }
+        StringBuilder expression = new StringBuilder("(");
+        for(int i=0;i<operands.size();i++){
+            if(i>0){
+                expression.append(' ').append(operator).append(' ');
+            }
+            expression.append(operands.get(i).expression());
+        }
+        return expression.append(')').toString();
+    }
+
+    @Override
+    public String toString() {
+        return "pkg.TagQuery{" + expression() + '}';
+    }
+}
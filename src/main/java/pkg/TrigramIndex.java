@@ -0,0 +1,133 @@
+package pkg;
+
+import java.util.Arrays;
+
+/**
+ * Postings lists keyed by every three-character sequence (trigram) of some normalized text, for substring
+ * search without scanning. Each trigram is packed into a long and the lists are kept in an open addressing
+ * table, so indexing a text allocates nothing but postings.
+ */
+class TrigramIndex {
+
+    static final int GRAM = 3;
+
+    private static final int MIN_CAPACITY = 1024;
+    // set on every packed trigram so that 0 can mark an empty slot
+    private static final long PRESENT = 1L << 48;
+
+    private long[] keys = new long[MIN_CAPACITY];
+    private Postings[] lists = new Postings[MIN_CAPACITY];
+    private int size;
+
+    /**
+     * Index every trigram of the text for the id.
+     * @param sorted false while bulk loading in arbitrary id order, followed by sort()
+     */
+    void add(int id, String text, boolean sorted) {
+        for(int i=0;i+GRAM<=text.length();i++){
+            Postings postings = postings(pack(text, i), true);
+            if(sorted){
+                postings.add(id);
+            } else {
+                postings.append(id);
+            }
+        }
+    }
+
+    /**
+     * Sort every postings list after bulk loading.
+     */
+    void sort() {
+        for(Postings postings : lists){
+            if(postings!=null){
+                postings.sort();
+            }
+        }
+    }
+
+    /**
+     * @param query normalized text of at least GRAM characters
+     * @return the ids whose text has every trigram of the query, in increasing order; they contain the query
+     * itself unless the trigrams appear in another order, so callers check the text
+     */
+    int[] candidates(String query) {
+        Postings[] found = new Postings[query.length() - GRAM + 1];
+        for(int i=0;i<found.length;i++){
+            found[i] = postings(pack(query, i), false);
+            if(found[i]==null){
+                return new int[0];
+            }
+        }
+        // intersect the rarest trigrams first so the candidate list shrinks as early as possible
+        Arrays.sort(found, (first, second) -> Integer.compare(first.size(), second.size()));
+        int[] candidates = found[0].toArray();
+        for(int i=1;i<found.length && candidates.length>0;i++){
+            if(found[i]!=found[i-1]){
+                candidates = Postings.intersect(candidates, found[i]);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * @param query normalized text of at least GRAM characters
+     * @return at most how many ids candidates(query) returns: the size of the rarest trigram's postings
+     */
+    int estimate(String query) {
+        int smallest = Integer.MAX_VALUE;
+        for(int i=0;i+GRAM<=query.length();i++){
+            Postings postings = postings(pack(query, i), false);
+            smallest = Math.min(smallest, postings==null ? 0 : postings.size());
+        }
+        return smallest;
+    }
+
+    private Postings postings(long key, boolean create) {
+        int mask = keys.length - 1;
+        int slot = mix(key) & mask;
+        while (keys[slot]!=0) {
+            if(keys[slot]==key){
+                return lists[slot];
+            }
+            slot = (slot + 1) & mask;
+        }
+        if(!create){
+            return null;
+        }
+        Postings postings = new Postings();
+        keys[slot] = key;
+        lists[slot] = postings;
+        size++;
+        if(size * 2 > keys.length){
+            grow();
+        }
+        return postings;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        Postings[] oldLists = lists;
+        keys = new long[oldKeys.length * 2];
+        lists = new Postings[oldKeys.length * 2];
+        int mask = keys.length - 1;
+        for(int i=0;i<oldKeys.length;i++){
+            if(oldKeys[i]!=0){
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot]!=0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = oldKeys[i];
+                lists[slot] = oldLists[i];
+            }
+        }
+    }
+
+    private static long pack(String text, int start) {
+        return PRESENT | ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+    }
+
+    private static int mix(long value) {
+        long hash = value * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,112 @@
+package pkg;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLIntegrityConstraintViolationException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of a lookup table that maps names to generated ids, such as person_attributes_types or media_tags_types,
+ * kept by JdbcGenealogyStore so writes and queries do not read the table every time.
+ *
+ * The whole table is read on first use. Names are matched ignoring case and accents, like the database collation.
+ * A name that is not cached is looked up in the table before it is reported missing, so rows added by other
+ * programs are still found. Ids are only cached once their row is committed, so a rolled back insert is never seen.
+ */
+class TypeDictionary {
+
+    private final String table;
+    private final String idColumn;
+    private final String nameColumn;
+    private volatile Map<String, Integer> ids;
+
+    TypeDictionary(String table, String idColumn, String nameColumn) {
+        this.table = table;
+        this.idColumn = idColumn;
+        this.nameColumn = nameColumn;
+    }
+
+    /**
+     * @return the id of the name, 0 if the table does not have it
+     */
+    int find(Connection conn, String name) throws SQLException {
+        Map<String, Integer> cached = load(conn);
+        Integer id = cached.get(key(name));
+        if(id!=null){
+            return id;
+        }
+        id = select(conn, name);
+        if(id!=0 && conn.getAutoCommit()){
+            cached.putIfAbsent(key(name), id);
+        }
+        return id;
+    }
+
+    /**
+     * Inserts the name, or reads its id if another writer inserted it first. The id is not cached: callers
+     * put it once the insert is committed.
+     * @return the id of the name, 0 if it could not be inserted
+     */
+    int add(Connection conn, String name) throws SQLException {
+        String INSERT_NAME = "INSERT INTO " + table + " (" + nameColumn + ") VALUES(?)";
+        try (PreparedStatement pStmt = conn.prepareStatement(INSERT_NAME, new String[]{idColumn})) {
+            pStmt.setString(1, name);
+            pStmt.executeUpdate();
+            try (ResultSet generatedKeys = pStmt.getGeneratedKeys()) {
+                if(generatedKeys.next()){
+                    return generatedKeys.getInt(1);
+                }
+            }
+        } catch (SQLIntegrityConstraintViolationException e) {
+            return select(conn, name);
+        }
+        return 0;
+    }
+
+    /**
+     * Caches the committed id of a name.
+     */
+    void put(String name, int id) {
+        if(ids!=null && id!=0){
+            ids.putIfAbsent(key(name), id);
+        }
+    }
+
+    private Map<String, Integer> load(Connection conn) throws SQLException {
+        Map<String, Integer> cached = ids;
+        if(cached==null){
+            synchronized (this) {
+                cached = ids;
+                if(cached==null){
+                    cached = new ConcurrentHashMap<>();
+                    String GET_NAMES = "SELECT " + idColumn + ", " + nameColumn + " FROM " + table;
+                    try (PreparedStatement pStmt = conn.prepareStatement(GET_NAMES);
+                         ResultSet resultSet = pStmt.executeQuery()) {
+                        while (resultSet.next()){
+                            cached.put(key(resultSet.getString(nameColumn)), resultSet.getInt(idColumn));
+                        }
+                    }
+                    ids = cached;
+                }
+            }
+        }
+        return cached;
+    }
+
+    private int select(Connection conn, String name) throws SQLException {
+        String GET_ID = "SELECT " + idColumn + " FROM " + table + " WHERE " + nameColumn + "=?";
+        try (PreparedStatement pStmt = conn.prepareStatement(GET_ID)) {
+            pStmt.setString(1, name);
+            try (ResultSet resultSet = pStmt.executeQuery()) {
+                return resultSet.next() ? resultSet.getInt(1) : 0;
+            }
+        }
+    }
+
+    private static String key(String name) {
+        return NameIndex.fold(name);
+    }
+}
@@ -0,0 +1,183 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class AttributeIndexTest {
+
+    private InMemoryGenealogyStore store;
+    private Genealogy genealogy;
+    private PersonIdentity soldier;
+    private PersonIdentity nurse;
+    private PersonIdentity farmer;
+
+    @BeforeEach
+    void createPeople() {
+        store = new InMemoryGenealogyStore();
+        genealogy = new Genealogy(store, true);
+        soldier = person("Attribute Soldier", "occupation", "Soldier", "date of birth", "1915-03", "height", "180");
+        nurse = person("Attribute Nurse", "Occupation", "Nurse", "Date of Birth", "1921-11-02", "height", "165");
+        farmer = person("Attribute Farmer", "occupation", "soldier ", "date of birth", "1899", "height", "tall");
+    }
+
+    private PersonIdentity person(String name, String... attributes) {
+        PersonIdentity person = genealogy.addPerson(name);
+        Map<String, String> values = new LinkedHashMap<>();
+        for(int i=0;i<attributes.length;i+=2){
+            values.put(attributes[i], attributes[i+1]);
+        }
+        assertTrue(genealogy.recordAttributes(person, values));
+        return person;
+    }
+
+    private List<Integer> find(AttributeFilter... filters) {
+        List<Integer> ids = new ArrayList<>();
+        for(PersonIdentity person : genealogy.findPeopleByAttributes(Arrays.asList(filters))){
+            ids.add(person.getPersonId());
+        }
+        return ids;
+    }
+
+    private static List<Integer> ids(PersonIdentity... people) {
+        List<Integer> ids = new ArrayList<>();
+        for(PersonIdentity person : people){
+            ids.add(person.getPersonId());
+        }
+        return ids;
+    }
+
+    @Test
+    void valuesAndTypesCompareIgnoringCase() {
+        assertEquals(ids(soldier, farmer), find(AttributeFilter.equalTo("OCCUPATION", "soldier")));
+        assertEquals(ids(nurse), find(AttributeFilter.equalTo("occupation", "NURSE")));
+        assertTrue(find(AttributeFilter.equalTo("occupation", "Sailor")).isEmpty());
+        assertTrue(find(AttributeFilter.equalTo("religion", "none")).isEmpty());
+    }
+
+    @Test
+    void datesOfAnyPrecisionCompareByTheirFirstDay() {
+        assertEquals(ids(soldier, nurse), find(AttributeFilter.between("date of birth", "1900", "1950")));
+        // "1915-03" starts on 1915-03-01, and an upper bound includes its whole month
+        assertEquals(ids(soldier), find(AttributeFilter.between("date of birth", "1915-03-01", "1915-03")));
+        assertTrue(find(AttributeFilter.between("date of birth", "1915-03-02", "1921-11-01")).isEmpty());
+        assertEquals(ids(soldier, farmer), find(AttributeFilter.between("date of birth", null, "1915")));
+        assertEquals(ids(nurse), find(AttributeFilter.between("date of birth", "1921-11-02", null)));
+        assertThrows(IllegalArgumentException.class, () -> AttributeFilter.between("date of birth", "1915-13", null));
+    }
+
+    @Test
+    void rangesOverOtherTypesCompareWholeNumbers() {
+        assertEquals(ids(soldier, nurse), find(AttributeFilter.between("height", "160", "190")));
+        assertEquals(ids(nurse), find(AttributeFilter.between("height", null, "170")));
+        // values that are not numbers only match equality filters
+        assertEquals(ids(farmer), find(AttributeFilter.equalTo("height", "Tall")));
+        assertThrows(IllegalArgumentException.class, () -> AttributeFilter.between("height", "short", null));
+        assertThrows(IllegalArgumentException.class, () -> AttributeFilter.between("height", null, null));
+    }
+
+    @Test
+    void everyFilterMustMatch() {
+        assertEquals(ids(soldier), find(AttributeFilter.equalTo("occupation", "Soldier"),
+                AttributeFilter.between("date of birth", "1900", "1950")));
+        assertTrue(find(AttributeFilter.equalTo("occupation", "Nurse"),
+                AttributeFilter.between("height", "170", null)).isEmpty());
+        assertTrue(find(AttributeFilter.equalTo("occupation", "Soldier"),
+                AttributeFilter.equalTo("religion", "none")).isEmpty());
+        assertNull(new Genealogy(store, false).findPeopleByAttributes(
+                Collections.singletonList(AttributeFilter.equalTo("occupation", "Soldier"))));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.findPeopleByAttributes(Collections.emptyList()));
+    }
+
+    @Test
+    void recordedValuesReplaceEarlierOnes() {
+        assertTrue(genealogy.recordAttributes(soldier, Collections.singletonMap("Occupation", "Farmer")));
+        assertTrue(genealogy.recordAttributes(nurse, Collections.singletonMap("height", "181")));
+
+        assertEquals(ids(farmer), find(AttributeFilter.equalTo("occupation", "soldier")));
+        assertEquals(ids(soldier), find(AttributeFilter.equalTo("occupation", "farmer")));
+        assertEquals(ids(soldier, nurse), find(AttributeFilter.between("height", "175", null)));
+        // a new Genealogy loads the same values from the store
+        Genealogy reloaded = new Genealogy(store, true);
+        assertEquals(soldier.getPersonId(), reloaded.findPeopleByAttributes(
+                Collections.singletonList(AttributeFilter.equalTo("occupation", "farmer"))).get(0).getPersonId());
+        assertTrue(reloaded.findPeopleByAttributes(
+                Collections.singletonList(AttributeFilter.between("height", null, "170"))).isEmpty());
+    }
+
+    @Test
+    void queriesAgreeWithCheckingEveryPerson() {
+        // enough people that filters are intersected as postings and also checked per candidate
+        Random random = new Random(29);
+        String[] occupations = {"soldier", "nurse", "farmer", "clerk"};
+        Map<Integer, Map<String, String>> recorded = new HashMap<>();
+        try (GenealogyBatch batch = genealogy.openBatch(Integer.MAX_VALUE)) {
+            List<PersonIdentity> added = new ArrayList<>();
+            List<Map<String, String>> values = new ArrayList<>();
+            for(int i=0;i<6000;i++){
+                Map<String, String> attributes = new HashMap<>();
+                attributes.put("occupation", occupations[random.nextInt(i%10==0 ? occupations.length : 2)]);
+                attributes.put("height", Integer.toString(140 + random.nextInt(60)));
+                if(random.nextBoolean()){
+                    attributes.put("date of birth", String.format("%04d-%02d", 1850 + random.nextInt(120),
+                            1 + random.nextInt(12)));
+                }
+                PersonIdentity person = batch.addPerson("attribute person " + i);
+                batch.recordAttributes(person, attributes);
+                added.add(person);
+                values.add(attributes);
+            }
+            assertTrue(batch.commit());
+            for(int i=0;i<added.size();i++){
+                recorded.put(added.get(i).getPersonId(), values.get(i));
+            }
+        }
+
+        List<List<AttributeFilter>> queries = Arrays.asList(
+                Arrays.asList(AttributeFilter.equalTo("occupation", "clerk"), AttributeFilter.between("height", "190", null)),
+                Arrays.asList(AttributeFilter.equalTo("occupation", "soldier"), AttributeFilter.between("height", "150", "160"),
+                        AttributeFilter.between("date of birth", "1900", "1939-06")),
+                Arrays.asList(AttributeFilter.between("height", "141", "198"), AttributeFilter.equalTo("occupation", "Nurse")),
+                Arrays.asList(AttributeFilter.between("date of birth", "1850-02", "1851")));
+        for(List<AttributeFilter> query : queries){
+            List<Integer> expected = new ArrayList<>();
+            for(Map.Entry<Integer, Map<String, String>> person : recorded.entrySet()){
+                if(matches(person.getValue(), query)){
+                    expected.add(person.getKey());
+                }
+            }
+            Collections.sort(expected);
+            List<Integer> found = new ArrayList<>();
+            for(PersonIdentity person : genealogy.findPeopleByAttributes(query)){
+                if(recorded.containsKey(person.getPersonId())){
+                    found.add(person.getPersonId());
+                }
+            }
+            assertEquals(expected, found, query.toString());
+            assertFalse(expected.isEmpty(), query.toString());
+        }
+    }
+
+    private static boolean matches(Map<String, String> attributes, List<AttributeFilter> filters) {
+        for(AttributeFilter filter : filters){
+            String value = attributes.get(filter.getAttributeType().toLowerCase(Locale.ROOT));
+            if(value==null){
+                return false;
+            }
+            if(!filter.isRange()){
+                if(!value.equalsIgnoreCase(filter.getValue())){
+                    return false;
+                }
+                continue;
+            }
+            Long number = AttributeFilter.numericValue(filter.getAttributeType(), value);
+            if(number==null || number<filter.getFrom() || number>filter.getTo()){
+                return false;
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,64 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BkTreeTest {
+
+    @Test
+    void distinctWordsAreAddedOnce() {
+        BkTree tree = new BkTree();
+        assertTrue(tree.add("smith"));
+        assertTrue(tree.add("smyth"));
+        assertFalse(tree.add("smith"));
+        // longer than the initial per-length trees
+        assertTrue(tree.add("wolfeschlegelsteinhausenbergerdorff"));
+        assertEquals(3, tree.size());
+
+        Map<String, Integer> found = new HashMap<>();
+        tree.search("smith", 1, found::put);
+        Map<String, Integer> expected = new HashMap<>();
+        expected.put("smith", 0);
+        expected.put("smyth", 1);
+        assertEquals(expected, found);
+    }
+
+    @Test
+    void searchFindsTheSameWordsAsComparingEveryWord() {
+        Random random = new Random(17);
+        BkTree tree = new BkTree();
+        Set<String> words = new HashSet<>();
+        for(int i=0;i<3000;i++){
+            String word = randomWord(random);
+            assertEquals(words.add(word), tree.add(word));
+        }
+        assertEquals(words.size(), tree.size());
+
+        for(int query=0;query<200;query++){
+            String text = randomWord(random);
+            int maxDistance = query%4;
+            Map<String, Integer> expected = new HashMap<>();
+            for(String word : words){
+                int distance = Phonetics.editDistance(text, word);
+                if(distance<=maxDistance){
+                    expected.put(word, distance);
+                }
+            }
+            Map<String, Integer> found = new HashMap<>();
+            tree.search(text, maxDistance, (word, distance) -> assertNull(found.put(word, distance)));
+            assertEquals(expected, found, text + " within " + maxDistance);
+        }
+    }
+
+    private static String randomWord(Random random) {
+        // few letters, so many words are close to each other
+        char[] word = new char[3 + random.nextInt(6)];
+        for(int i=0;i<word.length;i++){
+            word[i] = "aeilnorst".charAt(random.nextInt(9));
+        }
+        return new String(word);
+    }
+}
@@ -0,0 +1,114 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CompressedBitmapTest {
+
+    /**
+     * @return a set with a sparse chunk, a dense chunk past the array limit and values in chunks far apart
+     */
+    private static BitSet randomValues(Random random) {
+        BitSet values = new BitSet();
+        for(int i=0;i<300;i++){
+            values.set(random.nextInt(65536));
+        }
+        for(int i=0;i<20000;i++){
+            values.set(65536 + random.nextInt(65536));
+        }
+        for(int i=0;i<50;i++){
+            values.set((5 + random.nextInt(3)) * 65536 + random.nextInt(65536));
+        }
+        return values;
+    }
+
+    private static CompressedBitmap bitmap(BitSet values) {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        // out of order, so values are also inserted before existing ones
+        values.stream().filter(value -> value%2==1).forEach(bitmap::add);
+        values.stream().filter(value -> value%2==0).forEach(bitmap::add);
+        return bitmap;
+    }
+
+    private static void assertSame(BitSet expected, CompressedBitmap actual) {
+        assertArrayEquals(expected.stream().toArray(), actual.toArray());
+        assertEquals(expected.cardinality(), actual.cardinality());
+        assertEquals(expected.isEmpty(), actual.isEmpty());
+    }
+
+    @Test
+    void valuesAreKeptInOrderOnce() {
+        CompressedBitmap bitmap = new CompressedBitmap();
+        assertTrue(bitmap.isEmpty());
+        for(int value : new int[]{70000, 3, 65535, 3, 0, Integer.MAX_VALUE, 65536}){
+            bitmap.add(value);
+        }
+        assertArrayEquals(new int[]{0, 3, 65535, 65536, 70000, Integer.MAX_VALUE}, bitmap.toArray());
+        assertEquals(6, bitmap.cardinality());
+        assertTrue(bitmap.contains(65536));
+        assertFalse(bitmap.contains(4));
+        assertFalse(bitmap.contains(131072));
+        assertArrayEquals(new int[]{3, 70000}, bitmap.filter(new int[]{1, 3, 4, 70000, 80000}));
+    }
+
+    @Test
+    void denseChunksBehaveLikeSparseOnes() {
+        Random random = new Random(2);
+        for(int round=0;round<5;round++){
+            BitSet values = randomValues(random);
+            CompressedBitmap bitmap = bitmap(values);
+            assertSame(values, bitmap);
+            for(int i=0;i<1000;i++){
+                int value = random.nextInt(8 * 65536);
+                assertEquals(values.get(value), bitmap.contains(value));
+            }
+        }
+    }
+
+    @Test
+    void setOperationsMatchBitSets() {
+        Random random = new Random(7);
+        for(int round=0;round<5;round++){
+            BitSet first = randomValues(random);
+            BitSet second = randomValues(random);
+            CompressedBitmap firstBitmap = bitmap(first);
+            CompressedBitmap secondBitmap = bitmap(second);
+
+            BitSet and = (BitSet) first.clone();
+            and.and(second);
+            assertSame(and, CompressedBitmap.and(firstBitmap, secondBitmap));
+            BitSet or = (BitSet) first.clone();
+            or.or(second);
+            assertSame(or, CompressedBitmap.or(firstBitmap, secondBitmap));
+            BitSet andNot = (BitSet) first.clone();
+            andNot.andNot(second);
+            assertSame(andNot, CompressedBitmap.andNot(firstBitmap, secondBitmap));
+            // the operands are left as they were
+            assertSame(first, firstBitmap);
+            assertSame(second, secondBitmap);
+        }
+        CompressedBitmap empty = new CompressedBitmap();
+        CompressedBitmap some = bitmap(randomValues(random));
+        assertTrue(CompressedBitmap.and(empty, some).isEmpty());
+        assertTrue(CompressedBitmap.andNot(some, some).isEmpty());
+        assertArrayEquals(some.toArray(), CompressedBitmap.or(empty, some).toArray());
+    }
+
+    @Test
+    void copiesAreIndependent() {
+        BitSet values = randomValues(new Random(11));
+        CompressedBitmap bitmap = bitmap(values);
+        CompressedBitmap copy = bitmap.copy();
+        // fills the sparse first chunk until it turns into a bitmap, and adds a new chunk
+        for(int value=0;value<65536;value++){
+            copy.add(value);
+        }
+        copy.add(10 * 65536);
+        assertSame(values, bitmap);
+        assertEquals(65536 + values.get(65536, Integer.MAX_VALUE).cardinality() + 1, copy.cardinality());
+    }
+}
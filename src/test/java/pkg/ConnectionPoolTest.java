@@ -0,0 +1,284 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConnectionPoolTest {
+
+    /**
+     * A physical connection that only keeps the state the pool touches.
+     */
+    static class StubConnection {
+        boolean autoCommit = true;
+        boolean closed = false;
+        int rollbacks = 0;
+        int prepared = 0;
+        final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAutoCommit":
+                            return autoCommit;
+                        case "setAutoCommit":
+                            autoCommit = (Boolean) args[0];
+                            return null;
+                        case "rollback":
+                            rollbacks++;
+                            return null;
+                        case "close":
+                            closed = true;
+                            return null;
+                        case "isClosed":
+                            return closed;
+                        case "isValid":
+                            return !closed;
+                        case "prepareStatement":
+                            prepared++;
+                            return stubStatement();
+                        case "equals":
+                            return proxy == args[0];
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "toString":
+                            return "stub connection";
+                        default:
+                            return null;
+                    }
+                });
+
+        private static PreparedStatement stubStatement() {
+            boolean[] closed = {false};
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "close":
+                                closed[0] = true;
+                                return null;
+                            case "isClosed":
+                                return closed[0];
+                            case "equals":
+                                return proxy == args[0];
+                            case "hashCode":
+                                return System.identityHashCode(proxy);
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+
+    /**
+     * A pool handing out stub connections instead of connecting to MySQL.
+     */
+    static class StubPool extends ConnectionPool {
+        final List<StubConnection> opened = new CopyOnWriteArrayList<>();
+
+        StubPool(int maxSize, long maxWaitMillis, long leakDetectionThresholdMillis, int statementCacheSize) {
+            super("jdbc:stub", "user", "password", 0, maxSize, maxWaitMillis, 60000,
+                    leakDetectionThresholdMillis, statementCacheSize);
+        }
+
+        @Override
+        Connection openPhysicalConnection() {
+            StubConnection stub = new StubConnection();
+            opened.add(stub);
+            return stub.connection;
+        }
+    }
+
+    @Test
+    void returnedConnectionsAreReused() throws SQLException {
+        StubPool pool = new StubPool(2, 1000, 0, 0);
+        try {
+            Connection first = pool.getConnection();
+            assertEquals(1, pool.getActiveConnections());
+            first.close();
+            assertTrue(first.isClosed());
+            assertThrows(SQLException.class, first::createStatement);
+            // closing a stale reference again does not return the connection twice
+            first.close();
+            assertEquals(1, pool.getIdleConnections());
+
+            Connection second = pool.getConnection();
+            Connection third = pool.getConnection();
+            assertEquals(2, pool.opened.size());
+            assertEquals(2, pool.getTotalConnections());
+            second.close();
+            third.close();
+            assertEquals(3, pool.getBorrowCount());
+            assertEquals(2, pool.getIdleConnections());
+            assertEquals(0, pool.getActiveConnections());
+            assertFalse(pool.opened.get(0).closed);
+        } finally {
+            pool.shutdown();
+        }
+        assertTrue(pool.opened.get(0).closed);
+        assertTrue(pool.opened.get(1).closed);
+        assertThrows(SQLException.class, pool::getConnection);
+    }
+
+    @Test
+    void fullPoolTimesOutAndWakesWaitersOnReturn() throws Exception {
+        StubPool pool = new StubPool(1, 50, 0, 0);
+        ExecutorService waiter = Executors.newSingleThreadExecutor();
+        try {
+            Connection held = pool.getConnection();
+            long start = System.nanoTime();
+            assertThrows(SQLException.class, pool::getConnection);
+            assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)>=50);
+            assertEquals(1, pool.getTimeoutCount());
+
+            StubPool waitingPool = new StubPool(1, 10000, 0, 0);
+            try {
+                Connection waitedFor = waitingPool.getConnection();
+                Future<Connection> waiting = waiter.submit(waitingPool::getConnection);
+                Thread.sleep(50);
+                assertFalse(waiting.isDone());
+                waitedFor.close();
+                waiting.get(5, TimeUnit.SECONDS).close();
+                assertEquals(1, waitingPool.opened.size());
+                assertEquals(0, waitingPool.getTimeoutCount());
+                assertTrue(waitingPool.getMaxWaitMillis()>0);
+            } finally {
+                waitingPool.shutdown();
+            }
+            held.close();
+        } finally {
+            waiter.shutdownNow();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void returnedConnectionsAreRolledBackToAutocommit() throws SQLException {
+        StubPool pool = new StubPool(1, 1000, 0, 0);
+        try {
+            Connection connection = pool.getConnection();
+            connection.setAutoCommit(false);
+            StubConnection physical = pool.opened.get(0);
+            assertFalse(physical.autoCommit);
+            connection.close();
+
+            assertTrue(physical.autoCommit);
+            assertEquals(1, physical.rollbacks);
+            Connection reused = pool.getConnection();
+            assertTrue(reused.getAutoCommit());
+            reused.close();
+            // nothing to roll back on a connection left in autocommit mode
+            assertEquals(1, physical.rollbacks);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void connectionsHeldPastTheThresholdAreLoggedOnce() throws Exception {
+        List<LogRecord> records = new ArrayList<>();
+        Handler handler = new Handler() {
+            @Override
+            public void publish(LogRecord record) {
+                records.add(record);
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+        logger.addHandler(handler);
+        // keep the expected warning out of the build output
+        logger.setUseParentHandlers(false);
+        StubPool unchecked = new StubPool(1, 1000, 0, 0);
+        StubPool pool = new StubPool(1, 1000, 10, 0);
+        try {
+            Connection notReported = unchecked.getConnection();
+            Connection leaked = pool.getConnection();
+            Thread.sleep(50);
+            unchecked.housekeep();
+            pool.housekeep();
+            pool.housekeep();
+
+            assertEquals(0, unchecked.getLeakCount());
+            assertEquals(1, pool.getLeakCount());
+            assertEquals(1, records.size());
+            assertEquals(Level.WARNING, records.get(0).getLevel());
+            assertTrue(records.get(0).getMessage().startsWith("Possible connection leak"));
+            assertEquals("Connection borrowed here", records.get(0).getThrown().getMessage());
+            notReported.close();
+            leaked.close();
+        } finally {
+            logger.removeHandler(handler);
+            logger.setUseParentHandlers(true);
+            unchecked.shutdown();
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void preparedStatementsAreCachedPerConnection() throws SQLException {
+        StubPool pool = new StubPool(1, 1000, 0, 2);
+        try {
+            String select = "select * from people where id=?";
+            try (Connection connection = pool.getConnection()) {
+                PreparedStatement first = connection.prepareStatement(select);
+                // the statement is still in use, so the second one is prepared without the cache
+                PreparedStatement second = connection.prepareStatement(select);
+                assertNotSame(first, second);
+                first.close();
+                assertTrue(first.isClosed());
+                connection.prepareStatement(select).close();
+                second.close();
+            }
+            assertEquals(1, pool.getStatementCacheHits());
+            assertEquals(2, pool.getStatementCacheMisses());
+
+            try (Connection connection = pool.getConnection()) {
+                connection.prepareStatement(select).close();
+                connection.prepareStatement("select 1").close();
+                connection.prepareStatement("select 2").close();
+                // evicted as the least recently used of three texts
+                connection.prepareStatement(select).close();
+            }
+            assertEquals(2, pool.getStatementCacheHits());
+            assertEquals(5, pool.getStatementCacheMisses());
+            assertEquals(5, pool.opened.get(0).prepared);
+
+            StubPool uncached = new StubPool(1, 1000, 0, 0);
+            try (Connection connection = uncached.getConnection()) {
+                connection.prepareStatement(select).close();
+                connection.prepareStatement(select).close();
+                assertEquals(2, uncached.opened.get(0).prepared);
+                assertEquals(0, uncached.getStatementCacheHits() + uncached.getStatementCacheMisses());
+            } finally {
+                uncached.shutdown();
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void leakDetectionIsOffByDefault() {
+        assertEquals(0, DBConnection.DEFAULT_LEAK_DETECTION_THRESHOLD_MILLIS);
+    }
+}
@@ -0,0 +1,111 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class FamilyClustersTest {
+
+    @Test
+    void unionsMergeClustersIdentifiedByTheirSmallestId() {
+        FamilyClusters clusters = new FamilyClusters(4);
+        for(int personId=1; personId<=6; personId++){
+            clusters.addPerson(personId);
+        }
+        assertEquals(6, clusters.getClusterCount());
+        clusters.union(5, 3);
+        clusters.union(3, 4);
+        // people beyond the initial capacity are added by union
+        clusters.union(40, 2);
+
+        assertTrue(clusters.sameCluster(4, 5));
+        assertFalse(clusters.sameCluster(1, 5));
+        assertTrue(clusters.sameCluster(40, 2));
+        assertFalse(clusters.sameCluster(6, 7));
+        assertFalse(clusters.sameCluster(0, 0));
+        assertEquals(3, clusters.clusterId(5));
+        assertEquals(3, clusters.clusterSize(4));
+        assertEquals(2, clusters.clusterId(40));
+        assertEquals(0, clusters.clusterId(7));
+        assertEquals(0, clusters.root(7));
+        assertEquals(clusters.root(3), clusters.root(5));
+        assertNotEquals(clusters.root(3), clusters.root(2));
+        assertEquals(4, clusters.getClusterCount());
+
+        List<int[]> listed = clusters.clusters(2);
+        assertEquals(2, listed.size());
+        assertArrayEquals(new int[]{3, 3}, listed.get(0));
+        assertArrayEquals(new int[]{2, 2}, listed.get(1));
+        assertEquals(4, clusters.clusters(1).size());
+    }
+
+    @Test
+    void lockFreeReadersStayCorrectWhileClustersMerge() throws Exception {
+        int people = 20000;
+        FamilyClusters clusters = new FamilyClusters(16);
+        // two halves that are joined up person by person while readers compare pairs
+        clusters.addPerson(1);
+        clusters.addPerson(2);
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> reads = new ArrayList<>();
+            for(int reader=0; reader<4; reader++){
+                reads.add(readers.submit(() -> {
+                    int wrong = 0;
+                    while (writing.get()) {
+                        // anybody joined to 1 or 2 stays joined to it, and 1 and 2 are never joined
+                        for(int personId=3; personId<people; personId+=97){
+                            int expectedRoot = personId%2==1 ? 1 : 2;
+                            if(clusters.root(personId)!=0 && !clusters.sameCluster(personId, expectedRoot)){
+                                wrong++;
+                            }
+                        }
+                        if(clusters.sameCluster(1, 2)){
+                            wrong++;
+                        }
+                    }
+                    return wrong;
+                }));
+            }
+            for(int personId=3; personId<people; personId++){
+                clusters.union(personId - 2, personId);
+            }
+            writing.set(false);
+            for(Future<Integer> read : reads){
+                assertEquals(0, read.get());
+            }
+        } finally {
+            writing.set(false);
+            readers.shutdownNow();
+        }
+        assertEquals(2, clusters.getClusterCount());
+        assertEquals(people/2, clusters.clusterSize(people - 1));
+    }
+
+    @Test
+    void genealogyAnswersUnrelatedClustersWithoutSearching() {
+        Genealogy genealogy = new Genealogy(new InMemoryGenealogyStore(), true);
+        PersonIdentity parent = genealogy.addPerson("Cluster Parent");
+        PersonIdentity child = genealogy.addPerson("Cluster Child");
+        PersonIdentity loner = genealogy.addPerson("Cluster Loner");
+        genealogy.recordChild(parent, child);
+
+        assertNull(genealogy.findRelation(child, loner));
+        assertEquals(parent.getPersonId(), genealogy.findFamilyCluster(child).getRepresentative().getPersonId());
+        assertEquals(2, genealogy.findFamilyCluster(child).getSize());
+        assertEquals(1, genealogy.findFamilyClusters(2).size());
+        assertEquals(2, genealogy.findFamilyClusters(1).size());
+
+        RelationMatrix matrix = genealogy.findRelations(Arrays.asList(parent, child, loner));
+        assertNotNull(matrix.getRelation(parent, child));
+        assertNull(matrix.getRelation(parent, loner));
+        assertNull(matrix.getRelation(child, loner));
+    }
+}
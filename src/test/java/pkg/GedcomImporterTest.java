@@ -0,0 +1,16 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class GedcomImporterTest {
+
+    @Test
+    void impossibleDaysKeepTheirMonth() {
+        assertEquals("1900-02", GedcomImporter.convertDate("31 FEB 1900"));
+        assertEquals("1900-02", GedcomImporter.convertDate("29 FEB 1900"));
+        assertEquals("1904-02-29", GedcomImporter.convertDate("29 FEB 1904"));
+        assertEquals("1900-03-12", GedcomImporter.convertDate("ABT 12 MAR 1900"));
+    }
+}
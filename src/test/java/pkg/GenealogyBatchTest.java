@@ -0,0 +1,171 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GenealogyBatchTest {
+
+    private InMemoryGenealogyStore store;
+    private Genealogy genealogy;
+
+    @BeforeEach
+    void createGenealogy() {
+        store = new InMemoryGenealogyStore();
+        genealogy = new Genealogy(store, true);
+    }
+
+    @Test
+    void queuedEditsAreCommittedTogether() {
+        try (GenealogyBatch batch = genealogy.openBatch(100)) {
+            PersonIdentity parent = batch.addPerson("Ada Parent");
+            PersonIdentity child = batch.addPerson("Ben Child");
+            assertTrue(batch.recordChild(parent, child));
+            assertTrue(batch.recordNote(child, "born at sea"));
+            assertEquals(0, parent.getPersonId());
+            assertEquals(4, batch.getPendingOperations());
+            assertNull(genealogy.findPerson("Ada Parent"));
+
+            assertTrue(batch.commit());
+            assertTrue(parent.getPersonId()>0);
+            assertTrue(child.getPersonId()>0);
+            assertEquals(0, batch.getPendingOperations());
+            assertEquals(4, batch.getCommittedOperations());
+            assertEquals(1, batch.getCommittedTransactions());
+            assertEquals(parent.getPersonId(), genealogy.findPerson("Ada Parent").getPersonId());
+            assertEquals(GenealogyStoreTest.ids(parent), GenealogyStoreTest.ids(genealogy.ancestors(child, 1)));
+            assertEquals(Collections.singletonList("born at sea"), genealogy.notesAndReferences(child));
+        }
+    }
+
+    @Test
+    void commitsAutomaticallyEveryBatchSizeEdits() {
+        try (GenealogyBatch batch = genealogy.openBatch(2)) {
+            PersonIdentity first = batch.addPerson("First Auto");
+            assertEquals(0, first.getPersonId());
+            PersonIdentity second = batch.addPerson("Second Auto");
+            assertTrue(first.getPersonId()>0);
+            assertTrue(second.getPersonId()>0);
+            assertEquals(1, batch.getCommittedTransactions());
+
+            batch.addPerson("Third Auto");
+            assertEquals(1, batch.getPendingOperations());
+        }
+        // close discards the edit that was not committed
+        assertNull(genealogy.findPerson("Third Auto"));
+    }
+
+    @Test
+    void rollbackDiscardsQueuedEditsAndResetsIds() {
+        try (GenealogyBatch batch = genealogy.openBatch(100)) {
+            PersonIdentity kept = batch.addPerson("Kept Person");
+            assertTrue(batch.commit());
+            PersonIdentity discarded = batch.addPerson("Discarded Person");
+            batch.recordNote(kept, "discarded note");
+            batch.rollback();
+
+            assertEquals(0, batch.getPendingOperations());
+            assertEquals(0, discarded.getPersonId());
+            assertTrue(batch.commit());
+            assertNull(genealogy.findPerson("Discarded Person"));
+            assertTrue(genealogy.notesAndReferences(kept).isEmpty());
+        }
+    }
+
+    @Test
+    void failedTransactionResetsIdsAndKeepsEarlierTransactions() {
+        boolean[] fail = {false};
+        InMemoryGenealogyStore failing = new InMemoryGenealogyStore() {
+            @Override
+            public Boolean applyBatch(List<BatchOperation> operations) {
+                if(!fail[0]){
+                    return super.applyBatch(operations);
+                }
+                // like the database, hand out ids before the transaction fails
+                for(BatchOperation operation : operations){
+                    operation.getPerson().setPersonId(1000);
+                }
+                return false;
+            }
+        };
+        Genealogy failingGenealogy = new Genealogy(failing, true);
+        try (GenealogyBatch batch = failingGenealogy.openBatch(100)) {
+            PersonIdentity committed = batch.addPerson("Committed Person");
+            assertTrue(batch.commit());
+
+            fail[0] = true;
+            PersonIdentity lost = batch.addPerson("Lost Person");
+            assertFalse(batch.commit());
+            assertEquals(0, lost.getPersonId());
+            assertEquals(0, batch.getPendingOperations());
+            assertEquals(1, batch.getCommittedTransactions());
+            assertEquals(committed.getPersonId(), failingGenealogy.findPerson("Committed Person").getPersonId());
+            assertNull(failingGenealogy.findPerson("Lost Person"));
+        }
+    }
+
+    @Test
+    void invalidRelationsAreRejectedWhenQueued() {
+        PersonIdentity mother = genealogy.addPerson("Mother Queued");
+        PersonIdentity father = genealogy.addPerson("Father Queued");
+        PersonIdentity child = genealogy.addPerson("Child Queued");
+        assertTrue(genealogy.recordChild(mother, child));
+
+        try (GenealogyBatch batch = genealogy.openBatch(100)) {
+            PersonIdentity stepfather = batch.addPerson("Stepfather Queued");
+            assertTrue(batch.recordChild(father, child));
+            // the same relation again is skipped like the single-edit operation
+            assertTrue(batch.recordChild(father, child));
+            assertThrows(IllegalArgumentException.class, () -> batch.recordChild(stepfather, child));
+            assertThrows(IllegalArgumentException.class, () -> batch.recordChild(stepfather, stepfather));
+
+            PersonIdentity orphan = batch.addPerson("Orphan Queued");
+            assertTrue(batch.recordChild(mother, orphan));
+            assertTrue(batch.recordChild(stepfather, orphan));
+            assertThrows(IllegalArgumentException.class, () -> batch.recordChild(father, orphan));
+
+            // the rejected relations left the queue as it was
+            assertEquals(6, batch.getPendingOperations());
+            assertTrue(batch.commit());
+        }
+        assertEquals(GenealogyStoreTest.ids(mother, father), GenealogyStoreTest.ids(genealogy.ancestors(child, 1)));
+    }
+
+    @Test
+    void relationRejectedOnCommitFailsTheWholeTransaction() {
+        PersonIdentity mother = genealogy.addPerson("Mother Commit");
+        PersonIdentity father = genealogy.addPerson("Father Commit");
+        PersonIdentity stepfather = genealogy.addPerson("Stepfather Commit");
+        PersonIdentity child = genealogy.addPerson("Child Commit");
+        assertTrue(genealogy.recordChild(mother, child));
+
+        try (GenealogyBatch batch = genealogy.openBatch(100)) {
+            PersonIdentity sibling = batch.addPerson("Sibling Commit");
+            assertTrue(batch.recordNote(child, "queued note"));
+            assertTrue(batch.recordChild(stepfather, child));
+            // a second parent stored after the relation was queued
+            assertTrue(genealogy.recordChild(father, child));
+
+            assertThrows(IllegalArgumentException.class, batch::commit);
+            assertEquals(0, sibling.getPersonId());
+            assertEquals(0, batch.getPendingOperations());
+            assertEquals(0, batch.getCommittedTransactions());
+        }
+        assertNull(genealogy.findPerson("Sibling Commit"));
+        assertTrue(genealogy.notesAndReferences(child).isEmpty());
+        assertEquals(GenealogyStoreTest.ids(mother, father), GenealogyStoreTest.ids(genealogy.ancestors(child, 1)));
+    }
+
+    @Test
+    void closedBatchRejectsEdits() {
+        GenealogyBatch batch = genealogy.openBatch(100);
+        batch.close();
+        assertThrows(IllegalStateException.class, () -> batch.addPerson("Too Late"));
+        assertThrows(IllegalStateException.class, batch::commit);
+        assertThrows(IllegalArgumentException.class, () -> genealogy.openBatch(0));
+    }
+}
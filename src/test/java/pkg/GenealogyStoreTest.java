@@ -0,0 +1,453 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Behaviour every GenealogyStore must share, run through Genealogy with and without the in-memory indexes.
+ * Subclasses provide the store; tests use names, tags and locations unique to the run, so a store may
+ * already hold data from other tests.
+ */
+abstract class GenealogyStoreTest {
+
+    private static final List<Integer> NO_EVENTS = Collections.emptyList();
+
+    protected GenealogyStore store;
+    protected String run;
+
+    /**
+     * @return a store for one test
+     */
+    abstract GenealogyStore newStore();
+
+    /**
+     * @return the partnering event types recorded for the pair, oldest first, like person_events
+     */
+    abstract List<Integer> partnerEvents(PersonIdentity partner1, PersonIdentity partner2);
+
+    /**
+     * @return number of times the concurrent tests repeat their race
+     */
+    int concurrencyRounds() {
+        return 200;
+    }
+
+    @BeforeEach
+    void createStore() {
+        store = newStore();
+        run = Long.toString(System.nanoTime(), 36);
+    }
+
+    @Test
+    void invalidDateBoundsAreRejectedWithAndWithoutIndexes() {
+        for(boolean memoryIndexes : new boolean[]{false, true}){
+            Genealogy genealogy = new Genealogy(store, memoryIndexes);
+            PersonIdentity person = genealogy.addPerson("bounds " + run);
+            Set<PersonIdentity> people = Collections.singleton(person);
+
+            assertThrows(IllegalArgumentException.class, () -> genealogy.findMediaByTag("tag" + run, "2021-02-30", null));
+            assertThrows(IllegalArgumentException.class, () -> genealogy.findMediaByLocation("place" + run, null, "2021-02-30"));
+            assertThrows(IllegalArgumentException.class, () -> genealogy.findIndividualsMedia(people, "2021-02-30", null));
+            assertThrows(IllegalArgumentException.class, () -> genealogy.findIndividualsMedia(people, "2001", "2000"));
+        }
+    }
+
+    @Test
+    void endDateIncludesItsWholePeriodWithAndWithoutIndexes() {
+        Genealogy writer = new Genealogy(store, false);
+        PersonIdentity person = writer.addPerson("dated " + run);
+        String tag = "tag" + run;
+        String place = "place" + run;
+        for(String date : new String[]{"1999-12-31", "2000", "2000-06", "2000-12-31", "2001-01-01"}){
+            FileIdentifier media = writer.addMediaFile("/" + run + "/" + date);
+            writer.tagMedia(media, tag);
+            writer.peopleInMedia(media, Collections.singletonList(person));
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("date", date);
+            attributes.put("location", place);
+            writer.recordMediaAttributes(media, attributes);
+        }
+
+        for(boolean memoryIndexes : new boolean[]{false, true}){
+            Genealogy genealogy = new Genealogy(store, memoryIndexes);
+            assertEquals(Arrays.asList("2000", "2000-06", "2000-12-31"),
+                    dates(genealogy.findMediaByTag(tag, "2000", "2000")), "memoryIndexes=" + memoryIndexes);
+            assertEquals(Arrays.asList("1999-12-31", "2000", "2000-06", "2000-12-31"),
+                    dates(genealogy.findMediaByLocation(place, null, "2000")), "memoryIndexes=" + memoryIndexes);
+            assertEquals(Collections.singletonList("2000-06"),
+                    dates(genealogy.findIndividualsMedia(Collections.singleton(person), "2000-06", "2000-06")),
+                    "memoryIndexes=" + memoryIndexes);
+        }
+        Set<FileIdentifier> found = new Genealogy(store, true).findMedia(
+                MediaQuery.and(MediaQuery.tag(tag), MediaQuery.dated("2000", "2000")));
+        assertEquals(3, found.size());
+    }
+
+    @Test
+    void attributeTypesIgnoreCase() {
+        for(boolean memoryIndexes : new boolean[]{false, true}){
+            Genealogy genealogy = new Genealogy(store, memoryIndexes);
+            String place = "place" + run + memoryIndexes;
+            FileIdentifier media = genealogy.addMediaFile("/" + run + "/case" + memoryIndexes);
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("Date", "2000-06");
+            attributes.put("Location", place);
+            assertTrue(genealogy.recordMediaAttributes(media, attributes));
+
+            assertEquals(Collections.singletonList("case" + memoryIndexes),
+                    dates(genealogy.findMediaByLocation(place.toUpperCase(Locale.ROOT), "2000", "2000")),
+                    "memoryIndexes=" + memoryIndexes);
+
+            PersonIdentity person = genealogy.addPerson("case " + run);
+            Map<String, String> invalid = Collections.singletonMap("Date of Birth", "1900-02-31");
+            assertThrows(IllegalArgumentException.class, () -> genealogy.recordAttributes(person, invalid));
+        }
+    }
+
+    @Test
+    void repeatedPartnerEventsAreRecordedOnce() {
+        Genealogy genealogy = new Genealogy(store, false);
+        PersonIdentity partner1 = genealogy.addPerson("partner one " + run);
+        PersonIdentity partner2 = genealogy.addPerson("partner two " + run);
+        assertEquals(NO_EVENTS, partnerEvents(partner1, partner2));
+
+        assertTrue(genealogy.recordPartnering(partner1, partner2));
+        assertTrue(genealogy.recordPartnering(partner2, partner1));
+        assertTrue(genealogy.recordDissolution(partner1, partner2));
+        assertTrue(genealogy.recordDissolution(partner1, partner2));
+        assertTrue(genealogy.recordPartnering(partner1, partner2));
+        assertEquals(Arrays.asList(InMemoryGenealogyStore.MARRIAGE_EVENT, InMemoryGenealogyStore.DIVORCE_EVENT,
+                InMemoryGenealogyStore.MARRIAGE_EVENT), partnerEvents(partner1, partner2));
+
+        try (GenealogyBatch batch = genealogy.openBatch(100)) {
+            batch.recordPartnering(partner1, partner2);
+            batch.recordDissolution(partner2, partner1);
+            batch.recordDissolution(partner1, partner2);
+            assertTrue(batch.commit());
+        }
+        assertEquals(Arrays.asList(InMemoryGenealogyStore.MARRIAGE_EVENT, InMemoryGenealogyStore.DIVORCE_EVENT,
+                InMemoryGenealogyStore.MARRIAGE_EVENT, InMemoryGenealogyStore.DIVORCE_EVENT),
+                partnerEvents(partner2, partner1));
+    }
+
+    @Test
+    void recordChildRejectsCyclesWithAndWithoutIndexes() {
+        for(boolean memoryIndexes : new boolean[]{false, true}){
+            Genealogy genealogy = new Genealogy(store, memoryIndexes);
+            PersonIdentity grandparent = genealogy.addPerson("grandparent " + run);
+            PersonIdentity parent = genealogy.addPerson("parent " + run);
+            PersonIdentity child = genealogy.addPerson("child " + run);
+            assertTrue(genealogy.recordChild(grandparent, parent));
+            assertTrue(genealogy.recordChild(parent, child));
+
+            assertThrows(IllegalArgumentException.class, () -> genealogy.recordChild(child, grandparent),
+                    "memoryIndexes=" + memoryIndexes);
+            assertThrows(IllegalArgumentException.class, () -> genealogy.recordChild(child, child));
+        }
+    }
+
+    @Test
+    void findRelationPicksTheClosestCommonAncestorWithAndWithoutIndexes() {
+        Genealogy writer = new Genealogy(store, false);
+        // siblings whose parent's parent is a further common ancestor
+        PersonIdentity grandparent = writer.addPerson("sibling grandparent " + run);
+        PersonIdentity parent = writer.addPerson("sibling parent " + run);
+        PersonIdentity sister = writer.addPerson("sister " + run);
+        PersonIdentity brother = writer.addPerson("brother " + run);
+        writer.recordChild(grandparent, parent);
+        writer.recordChild(parent, sister);
+        writer.recordChild(parent, brother);
+        // cousins through a shared grandparent, who are also a parent and a great-grandchild of another ancestor
+        PersonIdentity sharedGrandparent = writer.addPerson("shared grandparent " + run);
+        PersonIdentity otherAncestor = writer.addPerson("other ancestor " + run);
+        PersonIdentity[] line = new PersonIdentity[6];
+        for(int i=0;i<line.length;i++){
+            line[i] = writer.addPerson("line " + i + " " + run);
+        }
+        PersonIdentity cousin1 = line[4];
+        PersonIdentity cousin2 = line[5];
+        writer.recordChild(sharedGrandparent, line[0]);
+        writer.recordChild(sharedGrandparent, line[1]);
+        writer.recordChild(line[0], cousin1);
+        writer.recordChild(line[1], cousin2);
+        writer.recordChild(otherAncestor, cousin1);
+        writer.recordChild(otherAncestor, line[2]);
+        writer.recordChild(line[2], line[3]);
+        writer.recordChild(line[3], cousin2);
+        // a person without parents is their own closest common ancestor with their child
+        PersonIdentity founder = writer.addPerson("founder " + run);
+        PersonIdentity heir = writer.addPerson("heir " + run);
+        writer.recordChild(founder, heir);
+        PersonIdentity stranger = writer.addPerson("stranger " + run);
+
+        for(boolean memoryIndexes : new boolean[]{false, true}){
+            Genealogy genealogy = new Genealogy(store, memoryIndexes);
+            String message = "memoryIndexes=" + memoryIndexes;
+            assertEquals("0/0", relation(genealogy.findRelation(sister, brother)), message);
+            assertEquals("1/0", relation(genealogy.findRelation(cousin1, cousin2)), message);
+            assertEquals("1/0", relation(genealogy.findRelation(cousin2, cousin1)), message);
+            assertEquals("-1/1", relation(genealogy.findRelation(founder, heir)), message);
+            assertEquals("-1/1", relation(genealogy.findRelation(heir, founder)), message);
+            assertEquals("-1/2", relation(genealogy.findRelation(grandparent, brother)), message);
+            assertNull(genealogy.findRelation(founder, stranger), message);
+            assertNull(genealogy.findRelation(sister, cousin1), message);
+        }
+    }
+
+    @Test
+    void concurrentRelationsCannotCloseACycle() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            for(boolean memoryIndexes : new boolean[]{false, true}){
+                for(int round=0; round<concurrencyRounds(); round++){
+                    Genealogy genealogy = new Genealogy(store, memoryIndexes);
+                    PersonIdentity first = genealogy.addPerson("first " + run);
+                    PersonIdentity second = genealogy.addPerson("second " + run);
+                    CountDownLatch start = new CountDownLatch(1);
+                    Future<Boolean> forward = threads.submit(() -> recordChildWhenStarted(genealogy, first, second, start));
+                    Future<Boolean> backward = threads.submit(() -> recordChildWhenStarted(genealogy, second, first, start));
+                    start.countDown();
+                    assertTrue(forward.get() ^ backward.get(), "exactly one direction may be recorded");
+                }
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void batchesRejectCyclesWithAndWithoutIndexes() {
+        for(boolean memoryIndexes : new boolean[]{false, true}){
+            Genealogy genealogy = new Genealogy(store, memoryIndexes);
+            PersonIdentity parent = genealogy.addPerson("batch parent " + run);
+            PersonIdentity child = genealogy.addPerson("batch child " + run);
+            assertTrue(genealogy.recordChild(parent, child));
+
+            try (GenealogyBatch batch = genealogy.openBatch(100)) {
+                assertThrows(IllegalArgumentException.class, () -> batch.recordChild(child, parent));
+                assertThrows(IllegalArgumentException.class, () -> batch.recordChild(child, child));
+
+                // a cycle through a stored relation and a queued one
+                PersonIdentity grandchild = batch.addPerson("batch grandchild " + run);
+                assertTrue(batch.recordChild(child, grandchild));
+                assertThrows(IllegalArgumentException.class, () -> batch.recordChild(grandchild, parent));
+
+                // a cycle among people added in the batch
+                PersonIdentity first = batch.addPerson("batch first " + run);
+                PersonIdentity second = batch.addPerson("batch second " + run);
+                assertTrue(batch.recordChild(first, second));
+                assertThrows(IllegalArgumentException.class, () -> batch.recordChild(second, first));
+                assertEquals(5, batch.getPendingOperations());
+                assertTrue(batch.commit());
+                assertEquals(ids(parent, child), ids(genealogy.ancestors(grandchild, Integer.MAX_VALUE)));
+            }
+            assertTrue(genealogy.ancestors(parent, Integer.MAX_VALUE).isEmpty(), "memoryIndexes=" + memoryIndexes);
+            assertNull(genealogy.findRelation(parent, genealogy.addPerson("stranger " + run)));
+        }
+    }
+
+    @Test
+    void batchCommitRechecksRelationsRecordedSinceTheyWereQueued() {
+        for(boolean memoryIndexes : new boolean[]{false, true}){
+            Genealogy genealogy = new Genealogy(store, memoryIndexes);
+            PersonIdentity first = genealogy.addPerson("queued first " + run);
+            PersonIdentity second = genealogy.addPerson("queued second " + run);
+            try (GenealogyBatch batch = genealogy.openBatch(100)) {
+                PersonIdentity added = batch.addPerson("queued added " + run);
+                assertTrue(batch.recordChild(second, first));
+                assertTrue(genealogy.recordChild(first, second));
+
+                assertThrows(IllegalArgumentException.class, batch::commit, "memoryIndexes=" + memoryIndexes);
+                assertEquals(0, batch.getPendingOperations());
+                assertEquals(0, added.getPersonId());
+            }
+            assertTrue(genealogy.ancestors(first, Integer.MAX_VALUE).isEmpty());
+            assertEquals(ids(first), ids(genealogy.ancestors(second, Integer.MAX_VALUE)));
+        }
+    }
+
+    @Test
+    void concurrentBatchesCannotCloseACycle() throws Exception {
+        ExecutorService threads = Executors.newFixedThreadPool(2);
+        try {
+            for(int round=0; round<concurrencyRounds(); round++){
+                Genealogy genealogy = new Genealogy(store, true);
+                PersonIdentity first = genealogy.addPerson("batch first " + run);
+                PersonIdentity second = genealogy.addPerson("batch second " + run);
+                CountDownLatch start = new CountDownLatch(1);
+                Future<Boolean> direct = threads.submit(() -> recordChildWhenStarted(genealogy, first, second, start));
+                Future<Boolean> batched = threads.submit(() -> {
+                    try (GenealogyBatch batch = genealogy.openBatch(100)) {
+                        batch.recordChild(second, first);
+                        start.await();
+                        return batch.commit();
+                    } catch (IllegalArgumentException e) {
+                        return false;
+                    }
+                });
+                start.countDown();
+                assertTrue(direct.get() ^ batched.get(), "exactly one direction may be recorded");
+            }
+        } finally {
+            threads.shutdownNow();
+        }
+    }
+
+    @Test
+    void gedcomLinksClosingACycleAreIgnored(@TempDir Path directory) throws IOException {
+        Path gedcom = directory.resolve("cycle.ged");
+        Files.write(gedcom, Arrays.asList(
+                "0 HEAD",
+                "0 @I1@ INDI", "1 NAME Ann /" + run + "/",
+                "0 @I2@ INDI", "1 NAME Bob /" + run + "/",
+                "0 @F1@ FAM", "1 HUSB @I1@", "1 CHIL @I2@",
+                "0 @F2@ FAM", "1 HUSB @I2@", "1 CHIL @I1@",
+                "0 TRLR"), StandardCharsets.UTF_8);
+        Genealogy genealogy = new Genealogy(store, true);
+
+        GedcomImportResult result = new GedcomImporter(genealogy, 100, null).importFile(gedcom.toString(), null);
+        assertTrue(result.isCompleted());
+        assertEquals(1, result.getIgnoredLinks());
+        PersonIdentity ann = genealogy.findPerson("Ann " + run);
+        PersonIdentity bob = genealogy.findPerson("Bob " + run);
+        assertEquals(ids(ann), ids(genealogy.ancestors(bob, Integer.MAX_VALUE)));
+        assertTrue(genealogy.ancestors(ann, Integer.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    void cachedRelativesFollowConcurrentRelations() throws Exception {
+        Genealogy genealogy = new Genealogy(store, true);
+        PersonIdentity leaf = genealogy.addPerson("leaf " + run);
+        Set<Integer> expected = new HashSet<>();
+        AtomicBoolean writing = new AtomicBoolean(true);
+        ExecutorService readers = Executors.newFixedThreadPool(3);
+        try {
+            List<Future<?>> reads = new ArrayList<>();
+            for(int i=0;i<3;i++){
+                reads.add(readers.submit(() -> {
+                    while (writing.get()) {
+                        genealogy.ancestors(leaf, Integer.MAX_VALUE);
+                        genealogy.descendents(leaf, Integer.MAX_VALUE);
+                    }
+                }));
+            }
+            PersonIdentity youngest = leaf;
+            for(int generation=0; generation<concurrencyRounds(); generation++){
+                PersonIdentity parent = genealogy.addPerson("ancestor " + run);
+                assertTrue(genealogy.recordChild(parent, youngest));
+                expected.add(parent.getPersonId());
+                youngest = parent;
+            }
+            writing.set(false);
+            for(Future<?> read : reads){
+                read.get();
+            }
+        } finally {
+            writing.set(false);
+            readers.shutdownNow();
+        }
+        assertEquals(expected, ids(genealogy.ancestors(leaf, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    void resumedGedcomImportRecordsFamiliesOnce(@TempDir Path directory) throws IOException {
+        Path gedcom = directory.resolve("family.ged");
+        Files.write(gedcom, Arrays.asList(
+                "0 HEAD",
+                "0 @I1@ INDI", "1 NAME Ann /" + run + "/",
+                "0 @I2@ INDI", "1 NAME Bob /" + run + "/",
+                "0 @I4@ INDI", "1 NAME Cid /" + run + "/",
+                "0 @I5@ INDI", "1 NAME Dee /" + run + "/",
+                // waits for @I3@, so resuming replays the records after it
+                "0 @F1@ FAM", "1 HUSB @I2@", "1 WIFE @I1@", "1 CHIL @I3@",
+                "0 @F2@ FAM", "1 HUSB @I4@", "1 WIFE @I5@", "1 MARR", "1 DIV",
+                "0 @I3@ INDI", "1 NAME Eve /" + run + "/", "1 BIRT", "2 DATE 31 FEB 1900",
+                "0 TRLR"), StandardCharsets.UTF_8);
+        String checkpoint = directory.resolve("checkpoint").toString();
+        Genealogy genealogy = new Genealogy(store, true);
+
+        // fail right after the transaction that imported @F2@ was committed and checkpointed
+        int[] transactions = {0};
+        PrintStream failing = new PrintStream(new ByteArrayOutputStream()) {
+            @Override
+            public void println(String line) {
+                if(++transactions[0]==5){
+                    throw new IllegalStateException("import interrupted");
+                }
+            }
+        };
+        assertThrows(IllegalStateException.class,
+                () -> new GedcomImporter(genealogy, 1, failing).importFile(gedcom.toString(), checkpoint));
+
+        GedcomImportResult result = new GedcomImporter(genealogy, 1, null).importFile(gedcom.toString(), checkpoint);
+        assertTrue(result.isCompleted());
+        assertFalse(Files.exists(directory.resolve("checkpoint.families")));
+
+        PersonIdentity husband = genealogy.findPerson("Cid " + run);
+        PersonIdentity wife = genealogy.findPerson("Dee " + run);
+        assertEquals(Arrays.asList(InMemoryGenealogyStore.MARRIAGE_EVENT, InMemoryGenealogyStore.DIVORCE_EVENT),
+                partnerEvents(husband, wife));
+
+        PersonIdentity eve = genealogy.findPerson("Eve " + run);
+        assertEquals(2, genealogy.ancestors(eve, 1).size());
+        List<PersonIdentity> bornFebruary1900 = genealogy.findPeopleByAttributes(
+                Collections.singletonList(AttributeFilter.equalTo("date of birth", "1900-02")));
+        assertTrue(ids(new HashSet<>(bornFebruary1900)).contains(eve.getPersonId()));
+    }
+
+    /**
+     * @return cousinship and removal of the relation as "cousinship/removal", null for no relation
+     */
+    static String relation(BiologicalRelation relation) {
+        return relation==null ? null : relation.getCousinship() + "/" + relation.getRemoval();
+    }
+
+    private static boolean recordChildWhenStarted(Genealogy genealogy, PersonIdentity parent, PersonIdentity child,
+                                                  CountDownLatch start) throws InterruptedException {
+        start.await();
+        try {
+            return genealogy.recordChild(parent, child);
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * @return the last part of each file location, which the tests set to the media date
+     */
+    private static List<String> dates(Collection<FileIdentifier> media) {
+        assertNotNull(media);
+        List<String> dates = new ArrayList<>();
+        for(FileIdentifier file : media){
+            String location = file.getFileLocation();
+            dates.add(location.substring(location.lastIndexOf('/') + 1));
+        }
+        return dates;
+    }
+
+    static Set<Integer> ids(PersonIdentity... people) {
+        Set<Integer> ids = new HashSet<>();
+        for(PersonIdentity person : people){
+            ids.add(person.getPersonId());
+        }
+        return ids;
+    }
+
+    static Set<Integer> ids(Set<PersonIdentity> people) {
+        assertNotNull(people);
+        return ids(people.toArray(new PersonIdentity[0]));
+    }
+}
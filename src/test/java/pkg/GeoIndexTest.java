@@ -0,0 +1,190 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class GeoIndexTest {
+
+    private static final int MEDIA = 4000;
+
+    private final double[] latitudes = new double[MEDIA + 1];
+    private final double[] longitudes = new double[MEDIA + 1];
+    private final GeoIndex index = new GeoIndex();
+
+    private void place(int mediaId, double latitude, double longitude, boolean bulk) {
+        latitudes[mediaId] = latitude;
+        longitudes[mediaId] = longitude;
+        index.setLatitude(mediaId, latitude, bulk);
+        index.setLongitude(mediaId, longitude, bulk);
+    }
+
+    /**
+     * @return a position, often near the 180th meridian or a pole where boxes and circles wrap
+     */
+    private static double[] randomPosition(Random random) {
+        switch (random.nextInt(4)) {
+            case 0:
+                double longitude = 175 + random.nextDouble() * 10;
+                return new double[]{random.nextDouble() * 20 - 10, longitude>180 ? longitude - 360 : longitude};
+            case 1:
+                return new double[]{85 + random.nextDouble() * 5, random.nextDouble() * 360 - 180};
+            default:
+                return new double[]{random.nextDouble() * 180 - 90, random.nextDouble() * 360 - 180};
+        }
+    }
+
+    private int[] expectedInBox(double south, double west, double north, double east) {
+        List<Integer> found = new ArrayList<>();
+        for(int mediaId=1;mediaId<=MEDIA;mediaId++){
+            double latitude = latitudes[mediaId];
+            double longitude = longitudes[mediaId];
+            if(Double.isNaN(latitude) || Double.isNaN(longitude) || latitude<south || latitude>north){
+                continue;
+            }
+            boolean inLongitude = west<=east ? longitude>=west && longitude<=east : longitude>=west || longitude<=east;
+            if(inLongitude){
+                found.add(mediaId);
+            }
+        }
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private int[] expectedNear(double latitude, double longitude, double radiusKm) {
+        List<Integer> found = new ArrayList<>();
+        for(int mediaId=1;mediaId<=MEDIA;mediaId++){
+            if(!Double.isNaN(latitudes[mediaId]) && !Double.isNaN(longitudes[mediaId])
+                    && GeoIndex.distanceKm(latitude, longitude, latitudes[mediaId], longitudes[mediaId])<=radiusKm){
+                found.add(mediaId);
+            }
+        }
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void assertQueriesMatch(Random random) {
+        for(int query=0;query<40;query++){
+            double[] corner = randomPosition(random);
+            double south = Math.max(-90, corner[0] - random.nextDouble() * 15);
+            double north = Math.min(90, corner[0] + random.nextDouble() * 15);
+            double west = corner[1];
+            double east = west + random.nextDouble() * 30;
+            // past 180 the box wraps around to the west
+            if(east>180){
+                east -= 360;
+            }
+            assertArrayEquals(expectedInBox(south, west, north, east), index.inBox(south, west, north, east),
+                    south + "," + west + " to " + north + "," + east);
+
+            double[] center = randomPosition(random);
+            double radiusKm = query%5==0 ? 0 : random.nextDouble() * (query%2==0 ? 100 : 2500);
+            int[] expected = expectedNear(center[0], center[1], radiusKm);
+            assertArrayEquals(expected, index.near(center[0], center[1], radiusKm),
+                    center[0] + "," + center[1] + " within " + radiusKm);
+            assertTrue(index.estimateNear(center[0], center[1], radiusKm)>=expected.length);
+            for(int mediaId : expected){
+                assertTrue(index.isNear(mediaId, center[0], center[1], radiusKm));
+            }
+        }
+    }
+
+    @Test
+    void searchesMatchCheckingEveryPositionWhileMediaMove() {
+        Random random = new Random(41);
+        Arrays.fill(latitudes, Double.NaN);
+        Arrays.fill(longitudes, Double.NaN);
+        for(int mediaId=1;mediaId<=MEDIA;mediaId++){
+            if(random.nextInt(5)!=0){
+                double[] position = randomPosition(random);
+                place(mediaId, position[0], position[1], true);
+            }
+        }
+        index.build();
+        assertQueriesMatch(random);
+
+        // enough moves and removals to merge the pending positions several times
+        for(int round=0;round<3;round++){
+            for(int move=0;move<1500;move++){
+                int mediaId = 1 + random.nextInt(MEDIA);
+                if(random.nextInt(10)==0){
+                    place(mediaId, Double.NaN, Double.NaN, false);
+                } else {
+                    double[] position = randomPosition(random);
+                    place(mediaId, position[0], position[1], false);
+                }
+            }
+            assertQueriesMatch(random);
+        }
+    }
+
+    @Test
+    void mediaNeedBothCoordinates() {
+        index.setLatitude(1, 44.65, false);
+        assertEquals(0, index.inBox(-90, -180, 90, 180).length);
+        index.setLongitude(1, -63.57, false);
+        assertArrayEquals(new int[]{1}, index.inBox(44, -64, 45, -63));
+        index.setLatitude(1, Double.NaN, false);
+        assertEquals(0, index.inBox(-90, -180, 90, 180).length);
+        assertFalse(index.isNear(1, 44.65, -63.57, 1));
+        assertFalse(index.isNear(MEDIA * 2, 0, 0, 1));
+    }
+
+    @Test
+    void coordinatesAndDistances() {
+        assertEquals(44.65, GeoIndex.parseCoordinate(" 44.65 ", 90), 0);
+        assertNull(GeoIndex.parseCoordinate("91", 90));
+        assertNull(GeoIndex.parseCoordinate("44 39' N", 90));
+        assertEquals(-180, GeoIndex.parseCoordinate("-180", 180), 0);
+        // a degree of latitude, and half way around the equator
+        assertEquals(2 * Math.PI * GeoIndex.EARTH_RADIUS_KM / 360, GeoIndex.distanceKm(10, 20, 11, 20), 1e-6);
+        assertEquals(Math.PI * GeoIndex.EARTH_RADIUS_KM, GeoIndex.distanceKm(0, 0, 0, 180), 1e-6);
+        assertEquals(GeoIndex.distanceKm(0, 179.5, 0, -179.5), GeoIndex.distanceKm(0, 0, 0, 1), 1e-9);
+    }
+
+    @Test
+    void genealogyReturnsNearbyMediaNearestFirst() {
+        Genealogy genealogy = new Genealogy(new InMemoryGenealogyStore(), true);
+        FileIdentifier halifax = positioned(genealogy, "halifax.jpg", "44.6488", "-63.5752", "1990");
+        FileIdentifier dartmouth = positioned(genealogy, "dartmouth.jpg", "44.6713", "-63.5772", null);
+        FileIdentifier truro = positioned(genealogy, "truro.jpg", "45.3650", "-63.2800", "1985");
+        FileIdentifier fiji = positioned(genealogy, "fiji.jpg", "-17.7134", "178.0650", "1990");
+
+        assertEquals(Arrays.asList(dartmouth.getMediaId(), halifax.getMediaId(), truro.getMediaId()),
+                mediaIds(genealogy.findMediaNear(44.68, -63.58, 100, null, null)));
+        assertEquals(Collections.singletonList(halifax.getMediaId()),
+                mediaIds(genealogy.findMediaNear(44.68, -63.58, 100, "1990", null)));
+        // Dartmouth is just under a kilometre away
+        assertEquals(Collections.singletonList(dartmouth.getMediaId()),
+                mediaIds(genealogy.findMediaNear(44.68, -63.58, 1, null, null)));
+        assertTrue(genealogy.findMediaNear(44.68, -63.58, 0.5, null, null).isEmpty());
+        assertEquals(Collections.singletonList(fiji.getMediaId()),
+                mediaIds(genealogy.findMediaInBox(-20, 170, -10, -170, null, null)));
+        assertEquals(Arrays.asList(halifax.getMediaId(), dartmouth.getMediaId(), truro.getMediaId()),
+                mediaIds(genealogy.findMediaInBox(44, -64, 46, -63, null, null)));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.findMediaNear(91, 0, 10, null, null));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.findMediaNear(0, 0, -1, null, null));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.findMediaInBox(46, -64, 44, -63, null, null));
+    }
+
+    private static FileIdentifier positioned(Genealogy genealogy, String location, String latitude, String longitude,
+                                             String date) {
+        FileIdentifier file = genealogy.addMediaFile(location);
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("Latitude", latitude);
+        attributes.put("longitude", longitude);
+        if(date!=null){
+            attributes.put("date", date);
+        }
+        assertTrue(genealogy.recordMediaAttributes(file, attributes));
+        return file;
+    }
+
+    private static List<Integer> mediaIds(Collection<FileIdentifier> files) {
+        List<Integer> ids = new ArrayList<>();
+        for(FileIdentifier file : files){
+            ids.add(file.getMediaId());
+        }
+        return ids;
+    }
+}
@@ -0,0 +1,16 @@
+package pkg;
+
+import java.util.List;
+
+class InMemoryGenealogyStoreTest extends GenealogyStoreTest {
+
+    @Override
+    GenealogyStore newStore() {
+        return new InMemoryGenealogyStore();
+    }
+
+    @Override
+    List<Integer> partnerEvents(PersonIdentity partner1, PersonIdentity partner2) {
+        return ((InMemoryGenealogyStore) store).partnerEvents(partner1, partner2);
+    }
+}
@@ -0,0 +1,99 @@
+package pkg;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+/**
+ * Runs the store tests against the database in a scratch schema with the tables of DBConnection.DATABASE,
+ * so the family tree itself is left untouched. Skipped when no MySQL server is reachable.
+ */
+class JdbcGenealogyStoreTest extends GenealogyStoreTest {
+
+    private static final String TEST_DATABASE = DBConnection.DATABASE + "_test";
+
+    @BeforeAll
+    static void createTestDatabase() throws SQLException {
+        try (Connection conn = DBConnection.getConnection()) {
+            // the store upserts with row aliases, which need MySQL 8.0.19 or later
+            String product = conn.getMetaData().getDatabaseProductVersion();
+            assumeTrue(!product.contains("MariaDB"), "needs MySQL, found MariaDB " + product);
+        } catch (SQLException e) {
+            DBConnection.shutdown();
+            assumeTrue(false, "no database server: " + e.getMessage());
+        }
+        DBConnection.createDatabaseLike(TEST_DATABASE);
+        DBConnection.useDatabase(TEST_DATABASE);
+    }
+
+    @AfterAll
+    static void dropTestDatabase() throws SQLException {
+        if(DBConnection.getDatabase().equals(TEST_DATABASE)){
+            DBConnection.useDatabase(DBConnection.DATABASE);
+            DBConnection.dropDatabase(TEST_DATABASE);
+        }
+        DBConnection.shutdown();
+    }
+
+    @Override
+    GenealogyStore newStore() {
+        return new JdbcGenealogyStore();
+    }
+
+    @Override
+    List<Integer> partnerEvents(PersonIdentity partner1, PersonIdentity partner2) {
+        String FIND_EVENTS = "SELECT event_type_id FROM person_events " +
+                "WHERE (person_id_1=? AND person_id_2=?) OR (person_id_1=? AND person_id_2=?) ORDER BY event_id";
+        List<Integer> events = new ArrayList<>();
+        try (Connection conn = DBConnection.getConnection();
+             PreparedStatement pStmt = conn.prepareStatement(FIND_EVENTS)) {
+            pStmt.setInt(1, partner1.getPersonId());
+            pStmt.setInt(2, partner2.getPersonId());
+            pStmt.setInt(3, partner2.getPersonId());
+            pStmt.setInt(4, partner1.getPersonId());
+            try (ResultSet resultSet = pStmt.executeQuery()) {
+                while(resultSet.next()){
+                    events.add(resultSet.getInt(1));
+                }
+            }
+        } catch (SQLException e) {
+            fail(e);
+        }
+        return events;
+    }
+
+    @Override
+    int concurrencyRounds() {
+        return 20;
+    }
+
+    @Test
+    void ancestorClosureKeepsTheShortestDistance() {
+        JdbcGenealogyStore closureStore = new JdbcGenealogyStore(true);
+        Genealogy genealogy = new Genealogy(closureStore, false);
+        PersonIdentity grandparent = genealogy.addPerson("closure grandparent " + run);
+        PersonIdentity parent = genealogy.addPerson("closure parent " + run);
+        PersonIdentity child = genealogy.addPerson("closure child " + run);
+        assertTrue(genealogy.recordChild(grandparent, parent));
+        assertTrue(genealogy.recordChild(parent, child));
+        assertEquals(ids(parent), ids(genealogy.ancestors(child, 1)));
+        assertEquals(ids(parent, grandparent), ids(genealogy.ancestors(child, 2)));
+
+        // a second, shorter path to the grandparent
+        assertTrue(genealogy.recordChild(grandparent, child));
+        assertEquals(ids(parent, grandparent), ids(genealogy.ancestors(child, 1)));
+        assertTrue(closureStore.rebuildAncestorClosure()>=0);
+        assertEquals(ids(parent, grandparent), ids(genealogy.ancestors(child, 1)));
+        assertEquals(ids(parent, child), ids(genealogy.descendents(grandparent, 1)));
+    }
+}
@@ -0,0 +1,108 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaDatesTest {
+
+    private static final int MEDIA = 5000;
+
+    // few locations and days, so media often share both and are ordered by location, then id
+    private final String[] locations = new String[MEDIA + 1];
+    private final long[] days = new long[MEDIA + 1];
+    private final MediaDates dates = new MediaDates(mediaId -> locations[mediaId]);
+
+    /**
+     * @return the media among the candidates dated within the range, sorted by checking every one
+     */
+    private int[] expected(CompressedBitmap candidates, long from, long to) {
+        List<Integer> found = new ArrayList<>();
+        for(int mediaId=1;mediaId<=MEDIA;mediaId++){
+            if(days[mediaId]!=MediaDates.NO_DATE && days[mediaId]>=from && days[mediaId]<=to
+                    && (candidates==null || candidates.contains(mediaId))){
+                found.add(mediaId);
+            }
+        }
+        found.sort(Comparator.comparingLong((Integer mediaId) -> days[mediaId])
+                .thenComparing(mediaId -> locations[mediaId]).thenComparingInt(mediaId -> mediaId));
+        return found.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private void set(int mediaId, long day, boolean bulk) {
+        days[mediaId] = day;
+        dates.set(mediaId, day, bulk);
+    }
+
+    private void assertQueriesMatch(Random random) {
+        CompressedBitmap few = new CompressedBitmap();
+        CompressedBitmap many = new CompressedBitmap();
+        for(int mediaId=1;mediaId<=MEDIA;mediaId++){
+            if(random.nextInt(200)==0){
+                few.add(mediaId);
+            }
+            if(random.nextInt(2)==0){
+                many.add(mediaId);
+            }
+        }
+        for(int query=0;query<30;query++){
+            long from = random.nextInt(400) - 20;
+            long to = from + random.nextInt(query%3==0 ? 20 : 400);
+            for(CompressedBitmap candidates : new CompressedBitmap[]{null, few, many}){
+                assertArrayEquals(expected(candidates, from, to), dates.inRange(candidates, from, to),
+                        from + " to " + to);
+            }
+            assertTrue(dates.estimate(from, to)>=expected(null, from, to).length);
+        }
+        assertArrayEquals(expected(null, Long.MIN_VALUE + 1, Long.MAX_VALUE),
+                dates.inRange(null, Long.MIN_VALUE + 1, Long.MAX_VALUE));
+        for(int mediaId=1;mediaId<=MEDIA;mediaId+=7){
+            assertEquals(days[mediaId], dates.day(mediaId));
+        }
+    }
+
+    @Test
+    void rangesMatchSortingEveryMediaWhileDatesChange() {
+        Random random = new Random(23);
+        Arrays.fill(days, MediaDates.NO_DATE);
+        for(int mediaId=1;mediaId<=MEDIA;mediaId++){
+            locations[mediaId] = "photo" + random.nextInt(50) + ".jpg";
+            if(random.nextInt(4)!=0){
+                set(mediaId, random.nextInt(365), true);
+            }
+        }
+        dates.build();
+        assertQueriesMatch(random);
+
+        // enough changes to merge the pending dates several times, with stale entries in both runs
+        for(int round=0;round<4;round++){
+            for(int change=0;change<1500;change++){
+                int mediaId = 1 + random.nextInt(MEDIA);
+                set(mediaId, random.nextInt(10)==0 ? MediaDates.NO_DATE : random.nextInt(365), false);
+            }
+            assertQueriesMatch(random);
+        }
+    }
+
+    @Test
+    void undatedMediaAreOrderedByLocation() {
+        locations[1] = "b.jpg";
+        locations[2] = "a.jpg";
+        locations[3] = "a.jpg";
+        locations[4] = "c.jpg";
+        dates.set(4, 10, false);
+        dates.set(1, 10, false);
+        CompressedBitmap all = new CompressedBitmap();
+        for(int mediaId=1;mediaId<=4;mediaId++){
+            all.add(mediaId);
+        }
+        assertArrayEquals(new int[]{2, 3}, dates.undated(all));
+        assertArrayEquals(new int[]{1, 4}, dates.inRange(all, 10, 10));
+        dates.set(1, MediaDates.NO_DATE, false);
+        assertArrayEquals(new int[]{2, 3, 1}, dates.undated(all));
+        assertArrayEquals(new int[]{4}, dates.inRange(null, 0, 100));
+        assertEquals(MediaDates.NO_DATE, dates.day(MEDIA * 2));
+    }
+}
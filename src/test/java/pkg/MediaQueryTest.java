@@ -0,0 +1,316 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MediaQueryTest {
+
+    private InMemoryGenealogyStore store;
+    private Genealogy genealogy;
+    private PersonIdentity grandmother;
+    private PersonIdentity grandfather;
+    private PersonIdentity mother;
+    private FileIdentifier wedding;
+    private FileIdentifier laterWedding;
+    private FileIdentifier beach;
+    private FileIdentifier undated;
+
+    @BeforeEach
+    void createMedia() {
+        store = new InMemoryGenealogyStore();
+        genealogy = new Genealogy(store, true);
+        grandmother = genealogy.addPerson("Query Grandmother");
+        grandfather = genealogy.addPerson("Query Grandfather");
+        mother = genealogy.addPerson("Query Mother");
+        wedding = genealogy.addMediaFile("wedding.jpg");
+        recordMedia(wedding, "St. Mary's Church, Halifax", "1952-06", "Brownie", "44.6430", "-63.5730");
+        tag(wedding, "Wedding", "family");
+        assertTrue(genealogy.peopleInMedia(wedding, Arrays.asList(grandmother, grandfather)));
+        laterWedding = genealogy.addMediaFile("later-wedding.jpg");
+        recordMedia(laterWedding, "Truro", "1975", "Nikon", null, null);
+        tag(laterWedding, "wedding");
+        assertTrue(genealogy.peopleInMedia(laterWedding, Collections.singletonList(mother)));
+        beach = genealogy.addMediaFile("beach.jpg");
+        recordMedia(beach, "Halifax waterfront", "1958-08-02", null, "44.6470", "-63.5690");
+        tag(beach, "beach", "Family");
+        assertTrue(genealogy.peopleInMedia(beach, Collections.singletonList(grandmother)));
+        undated = genealogy.addMediaFile("undated.jpg");
+        tag(undated, "family");
+    }
+
+    private void recordMedia(FileIdentifier file, String location, String date, String camera, String latitude,
+                             String longitude) {
+        Map<String, String> attributes = new HashMap<>();
+        attributes.put("location", location);
+        attributes.put("date", date);
+        if(camera!=null){
+            attributes.put("camera", camera);
+        }
+        if(latitude!=null){
+            attributes.put("latitude", latitude);
+            attributes.put("longitude", longitude);
+        }
+        assertTrue(genealogy.recordMediaAttributes(file, attributes));
+    }
+
+    private void tag(FileIdentifier file, String... tags) {
+        for(String tag : tags){
+            assertTrue(genealogy.tagMedia(file, tag));
+        }
+    }
+
+    private static List<Integer> ids(Collection<FileIdentifier> files) {
+        List<Integer> ids = new ArrayList<>();
+        for(FileIdentifier file : files){
+            ids.add(file.getMediaId());
+        }
+        return ids;
+    }
+
+    private static List<Integer> ids(FileIdentifier... files) {
+        return ids(Arrays.asList(files));
+    }
+
+    @Test
+    void criteriaCombineWithAndOrAndNot() {
+        assertEquals(ids(wedding), ids(genealogy.findMedia(
+                MediaQuery.and(MediaQuery.tag("wedding"), MediaQuery.person(grandmother)))));
+        assertEquals(ids(wedding, beach), ids(genealogy.findMedia(
+                MediaQuery.and(MediaQuery.tag("FAMILY"), MediaQuery.dated("1950", "1959")))));
+        assertEquals(ids(wedding, laterWedding, beach), ids(genealogy.findMedia(
+                MediaQuery.or(MediaQuery.person(mother), MediaQuery.location("halifax")))));
+        assertEquals(ids(beach, undated), ids(genealogy.findMedia(
+                MediaQuery.and(MediaQuery.tag("family"), MediaQuery.not(MediaQuery.tag("wedding"))))));
+        // NOT includes media without a date
+        assertEquals(ids(undated), ids(genealogy.findMedia(MediaQuery.not(MediaQuery.dated("1950", null)))));
+        assertEquals(ids(wedding), ids(genealogy.findMedia(
+                MediaQuery.attribute(AttributeFilter.equalTo("Camera", "brownie")))));
+        assertEquals(ids(beach), ids(genealogy.findMedia(MediaQuery.and(MediaQuery.near(44.65, -63.57, 1),
+                MediaQuery.not(MediaQuery.person(grandfather))))));
+        assertTrue(genealogy.findMedia(MediaQuery.or(MediaQuery.tag("holiday"),
+                MediaQuery.person(new PersonIdentity(9999, "Query Unknown")))).isEmpty());
+    }
+
+    @Test
+    void invalidQueriesAreRejected() {
+        assertNull(new Genealogy(store, false).findMedia(MediaQuery.tag("wedding")));
+        assertNull(new Genealogy(store, false).explainMedia(MediaQuery.tag("wedding")));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.findMedia(null));
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.and());
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.or(MediaQuery.tag("wedding"), null));
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.tag(" "));
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.location(null));
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.person(new PersonIdentity(0, "Query Unsaved")));
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.dated(null, null));
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.dated("1960", "1950"));
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.near(0, 181, 1));
+        assertThrows(IllegalArgumentException.class, () -> MediaQuery.near(0, 0, Double.NaN));
+    }
+
+    @Test
+    void planReadsTheMostSelectiveIndexAndChecksTheRest() {
+        FileIdentifier[] common = new FileIdentifier[200];
+        for(int i=0;i<common.length;i++){
+            common[i] = genealogy.addMediaFile("common" + i + ".jpg");
+            tag(common[i], "common");
+        }
+        for(int i : new int[]{10, 70, 130}){
+            assertTrue(genealogy.peopleInMedia(common[i], Collections.singletonList(mother)));
+        }
+        tag(common[70], "rare");
+
+        MediaQueryPlan plan = genealogy.explainMedia(MediaQuery.and(MediaQuery.not(MediaQuery.tag("rare")),
+                MediaQuery.tag("common"), MediaQuery.person(mother)));
+        assertEquals(ids(common[10], common[130]), ids(plan.getMedia()));
+        assertEquals(ids(plan.getMedia()), ids(genealogy.findMedia(MediaQuery.and(MediaQuery.tag("common"),
+                MediaQuery.person(mother), MediaQuery.not(MediaQuery.tag("rare"))))));
+        // the person matches 4 media, so the 200 tagged media are not read but checked against those 4
+        assertEquals("AND [intersect, fewest first]: estimated 4, actual 2\n"
+                        + "  person " + mother.getPersonId() + " [read index]: estimated 4, actual 4\n"
+                        + "  tag 'common' [check 4 media]: estimated 200, actual 3\n"
+                        + "  NOT [subtract from 3 media]: estimated 203, actual 2\n"
+                        + "    tag 'rare' [read index]: estimated 1, actual 1\n",
+                plan.explain());
+
+        // nothing is left to check once a criterion matches no media
+        assertEquals("AND [intersect, fewest first]: estimated 0, actual 0\n"
+                        + "  tag 'holiday' [read index]: estimated 0, actual 0\n",
+                genealogy.explainMedia(MediaQuery.and(MediaQuery.tag("common"), MediaQuery.tag("holiday"))).explain());
+        assertEquals("NOT [subtract from all media]: estimated 4, actual 4\n"
+                        + "  tag 'common' [read index]: estimated 200, actual 200\n",
+                genealogy.explainMedia(MediaQuery.not(MediaQuery.tag("common"))).explain());
+    }
+
+    /**
+     * What was recorded for a media, to check queries against.
+     */
+    private static final class Recorded {
+        final Set<String> tags = new HashSet<>();
+        final Set<Integer> people = new HashSet<>();
+        String location;
+        Integer year;
+        String camera;
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+    }
+
+    @Test
+    void queriesAgreeWithCheckingEveryMedia() {
+        Random random = new Random(41);
+        String[] tags = {"family", "wedding", "beach", "school", "war"};
+        String[] towns = {"Halifax", "Truro", "Sydney", "Antigonish", "New Glasgow"};
+        String[] cameras = {"Brownie", "Nikon", "Leica"};
+        List<PersonIdentity> people = new ArrayList<>();
+        for(int i=0;i<30;i++){
+            people.add(genealogy.addPerson("query person " + i));
+        }
+        Map<Integer, Recorded> recorded = new HashMap<>();
+        for(int i=0;i<3000;i++){
+            FileIdentifier file = genealogy.addMediaFile("random" + i + ".jpg");
+            Recorded media = new Recorded();
+            Map<String, String> attributes = new HashMap<>();
+            if(random.nextInt(5)>0){
+                media.location = towns[random.nextInt(towns.length)];
+                attributes.put("location", media.location);
+            }
+            if(random.nextInt(3)>0){
+                media.year = 1900 + random.nextInt(100);
+                attributes.put("date", String.format("%04d-%02d", media.year, 1 + random.nextInt(12)));
+            }
+            if(random.nextBoolean()){
+                media.camera = cameras[random.nextInt(cameras.length)];
+                attributes.put("camera", media.camera);
+            }
+            if(random.nextBoolean()){
+                media.latitude = 44 + random.nextDouble() * 2;
+                media.longitude = -64 + random.nextDouble() * 2;
+                attributes.put("latitude", Double.toString(media.latitude));
+                attributes.put("longitude", Double.toString(media.longitude));
+            }
+            if(!attributes.isEmpty()){
+                assertTrue(genealogy.recordMediaAttributes(file, attributes));
+            }
+            // the first tags are far more common than the last ones
+            for(int t=0;t<tags.length;t++){
+                if(random.nextInt(2 << t)==0){
+                    media.tags.add(tags[t]);
+                    tag(file, tags[t]);
+                }
+            }
+            List<PersonIdentity> appearing = new ArrayList<>();
+            for(int p=random.nextInt(3);p>0;p--){
+                PersonIdentity person = people.get(random.nextInt(people.size()));
+                appearing.add(person);
+                media.people.add(person.getPersonId());
+            }
+            if(!appearing.isEmpty()){
+                assertTrue(genealogy.peopleInMedia(file, appearing));
+            }
+            recorded.put(file.getMediaId(), media);
+        }
+
+        int nonEmpty = 0;
+        int checked = 0;
+        for(int i=0;i<300;i++){
+            MediaQuery query = randomQuery(random, 2, tags, towns, cameras, people);
+            List<Integer> expected = new ArrayList<>();
+            for(Map.Entry<Integer, Recorded> media : recorded.entrySet()){
+                if(matches(query, media.getValue())){
+                    expected.add(media.getKey());
+                }
+            }
+            Collections.sort(expected);
+            MediaQueryPlan plan = genealogy.explainMedia(query);
+            List<Integer> found = new ArrayList<>();
+            for(int mediaId : ids(plan.getMedia())){
+                if(recorded.containsKey(mediaId)){
+                    found.add(mediaId);
+                }
+            }
+            assertEquals(expected, found, plan.explain());
+            if(!expected.isEmpty()){
+                nonEmpty++;
+            }
+            if(plan.explain().contains("[check ")){
+                checked++;
+            }
+        }
+        assertTrue(nonEmpty>100, "queries matching media: " + nonEmpty);
+        // both reading indexes and checking the remaining media are compared
+        assertTrue(checked>30, "queries checking media: " + checked);
+    }
+
+    private static MediaQuery randomQuery(Random random, int depth, String[] tags, String[] towns, String[] cameras,
+                                          List<PersonIdentity> people) {
+        int kind = random.nextInt(depth>0 ? 9 : 6);
+        switch (kind) {
+            case 0:
+                return MediaQuery.tag(tags[random.nextInt(tags.length)].toUpperCase(Locale.ROOT));
+            case 1:
+                String town = towns[random.nextInt(towns.length)];
+                int start = random.nextInt(town.length() - 1);
+                return MediaQuery.location(town.substring(start, start + 2 + random.nextInt(town.length() - start - 1)));
+            case 2:
+                return MediaQuery.person(people.get(random.nextInt(people.size())));
+            case 3:
+                int from = 1890 + random.nextInt(110);
+                int to = from + random.nextInt(30);
+                String startDate = random.nextInt(4)==0 ? null : Integer.toString(from);
+                return MediaQuery.dated(startDate, startDate!=null && random.nextInt(3)==0 ? null : Integer.toString(to));
+            case 4:
+                return MediaQuery.near(44 + random.nextDouble() * 2, -64 + random.nextDouble() * 2,
+                        5 + random.nextDouble() * 45);
+            case 5:
+                return MediaQuery.attribute(AttributeFilter.equalTo("camera", cameras[random.nextInt(cameras.length)]));
+            case 6:
+                return MediaQuery.not(randomQuery(random, depth - 1, tags, towns, cameras, people));
+            default:
+                MediaQuery[] operands = new MediaQuery[2 + random.nextInt(2)];
+                for(int i=0;i<operands.length;i++){
+                    operands[i] = randomQuery(random, depth - 1, tags, towns, cameras, people);
+                }
+                return kind==7 ? MediaQuery.and(operands) : MediaQuery.or(operands);
+        }
+    }
+
+    private static boolean matches(MediaQuery query, Recorded media) {
+        switch (query.getOperator()) {
+            case TAG:
+                return media.tags.contains(query.getText().toLowerCase(Locale.ROOT));
+            case LOCATION:
+                return media.location!=null
+                        && media.location.toLowerCase(Locale.ROOT).contains(query.getText().toLowerCase(Locale.ROOT));
+            case PERSON:
+                return media.people.contains(query.getPerson().getPersonId());
+            case DATED:
+                return media.year!=null
+                        && (query.getStartDate()==null || media.year>=Integer.parseInt(query.getStartDate()))
+                        && (query.getEndDate()==null || media.year<=Integer.parseInt(query.getEndDate()));
+            case NEAR:
+                return !Double.isNaN(media.latitude) && GeoIndex.distanceKm(query.getLatitude(), query.getLongitude(),
+                        media.latitude, media.longitude)<=query.getRadiusKm();
+            case ATTRIBUTE:
+                return query.getFilter().getValue().equalsIgnoreCase(media.camera);
+            case NOT:
+                return !matches(query.getOperands().get(0), media);
+            case AND:
+                for(MediaQuery operand : query.getOperands()){
+                    if(!matches(operand, media)){
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                for(MediaQuery operand : query.getOperands()){
+                    if(matches(operand, media)){
+                        return true;
+                    }
+                }
+                return false;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class NameIndexTest {
+
+    private InMemoryGenealogyStore store;
+    private Genealogy genealogy;
+
+    @BeforeEach
+    void createGenealogy() {
+        store = new InMemoryGenealogyStore();
+        genealogy = new Genealogy(store, true);
+        for(String name : new String[]{"John Smith", "Johnny Smithers", "Mary-Jane Johnson", "Ren\u00e9e O'Brien",
+                "Smith John", "Ann Smithson", "John Smith"}){
+            genealogy.addPerson(name);
+        }
+    }
+
+    private static List<String> names(List<PersonIdentity> people) {
+        List<String> names = new ArrayList<>();
+        for(PersonIdentity person : people){
+            names.add(person.getName());
+        }
+        return names;
+    }
+
+    @Test
+    void namesAreNormalizedToPlainLowerCaseWords() {
+        assertEquals("renee o brien", NameIndex.normalize("Ren\u00e9e O'Brien"));
+        assertEquals("mary jane johnson", NameIndex.normalize("  Mary-Jane   JOHNSON. "));
+        assertEquals("", NameIndex.normalize("-- ,"));
+        assertTrue(NameIndex.sameName("RENEE o'brien", "Ren\u00e9e O'Brien"));
+        assertFalse(NameIndex.sameName("Renee OBrien", "Ren\u00e9e O'Brien"));
+    }
+
+    @Test
+    void exactMatchesIgnoreCaseAccentsAndPunctuation() {
+        assertEquals(Collections.singletonList("Ren\u00e9e O'Brien"),
+                names(genealogy.searchPeople("renee o brien", NameMatch.EXACT, 10)));
+        assertEquals(Arrays.asList("John Smith", "John Smith"),
+                names(genealogy.searchPeople("JOHN smith", NameMatch.EXACT, 10)));
+        assertTrue(genealogy.searchPeople("John", NameMatch.EXACT, 10).isEmpty());
+        assertTrue(genealogy.searchPeople(" ", NameMatch.EXACT, 10).isEmpty());
+
+        assertEquals("Ren\u00e9e O'Brien", genealogy.findPerson("RENEE O'BRIEN").getName());
+        // punctuation still has to match for findPerson, like the database comparison
+        assertNull(genealogy.findPerson("Renee OBrien"));
+        assertThrows(IllegalStateException.class, () -> genealogy.findPerson("john smith"));
+    }
+
+    @Test
+    void prefixMatchesRankWholeNamesAndWordsFirst() {
+        assertEquals(Arrays.asList("John Smith", "John Smith", "Smith John", "Johnny Smithers"),
+                names(genealogy.searchPeople("john smith", NameMatch.PREFIX, 10)));
+        // equally good matches are ordered by name length, then by id
+        assertEquals(Arrays.asList("John Smith", "Smith John", "John Smith", "Johnny Smithers"),
+                names(genealogy.searchPeople("jo sm", NameMatch.PREFIX, 10)));
+        assertEquals(Arrays.asList("Mary-Jane Johnson"), names(genealogy.searchPeople("jane", NameMatch.PREFIX, 10)));
+        assertEquals(Arrays.asList("John Smith", "John Smith"),
+                names(genealogy.searchPeople("john smith", NameMatch.PREFIX, 2)));
+        assertTrue(genealogy.searchPeople("ohn", NameMatch.PREFIX, 10).isEmpty());
+    }
+
+    @Test
+    void substringMatchesFindTextInsideWords() {
+        assertEquals(Arrays.asList("John Smith", "Smith John", "John Smith", "Johnny Smithers", "Mary-Jane Johnson"),
+                names(genealogy.searchPeople("ohn", NameMatch.SUBSTRING, 10)));
+        assertEquals(Arrays.asList("Smith John", "John Smith", "John Smith", "Ann Smithson"),
+                names(genealogy.searchPeople("smith", NameMatch.SUBSTRING, 4)));
+        assertEquals(Arrays.asList("Ann Smithson"), names(genealogy.searchPeople("hso", NameMatch.SUBSTRING, 10)));
+        // shorter than a trigram
+        assertEquals(Arrays.asList("Ren\u00e9e O'Brien"), names(genealogy.searchPeople("o b", NameMatch.SUBSTRING, 10)));
+        assertEquals(2, genealogy.searchPeople("nn", NameMatch.SUBSTRING, 10).size());
+    }
+
+    @Test
+    void peopleAddedAfterLoadingAreFound() {
+        assertTrue(genealogy.searchPeople("zelda", NameMatch.PREFIX, 10).isEmpty());
+        PersonIdentity zelda = genealogy.addPerson("Zelda Fitzgerald");
+        List<PersonIdentity> found = genealogy.searchPeople("fitz", NameMatch.SUBSTRING, 10);
+        assertEquals(1, found.size());
+        assertEquals(zelda.getPersonId(), found.get(0).getPersonId());
+        assertNull(new Genealogy(store, false).searchPeople("fitz", NameMatch.SUBSTRING, 10));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.searchPeople("fitz", NameMatch.PREFIX, 0));
+    }
+
+    @Test
+    void fuzzySearchFindsNamesSpelledOrSoundingAlike() {
+        PersonIdentity macdonald = genealogy.addPerson("Catherine MacDonald");
+        PersonIdentity mcdonell = genealogy.addPerson("Kathryn Mcdonell");
+        genealogy.addPerson("Catherine Miller");
+
+        List<PersonIdentity> found = genealogy.findPersonsLike("Katherine McDonald", 1);
+        assertEquals(Arrays.asList("Catherine MacDonald", "Kathryn Mcdonell"), names(found));
+        assertEquals(macdonald.getPersonId(), found.get(0).getPersonId());
+        assertEquals(mcdonell.getPersonId(), found.get(1).getPersonId());
+        // with no edits allowed only the phonetic keys match the other spellings
+        assertEquals(Arrays.asList("Catherine MacDonald", "Kathryn Mcdonell"),
+                names(genealogy.findPersonsLike("Catherine McDonald", 0)));
+        assertEquals(Arrays.asList("John Smith", "Smith John", "John Smith"),
+                names(genealogy.findPersonsLike("jon smyth", 1)));
+        assertTrue(genealogy.findPersonsLike("Zbigniew", 2).isEmpty());
+        assertNull(new Genealogy(store, false).findPersonsLike("jon smyth", 1));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.findPersonsLike("jon smyth", -1));
+    }
+
+    @Test
+    void searchesAgreeWithScanningEveryName() {
+        InMemoryGenealogyStore randomStore = new InMemoryGenealogyStore();
+        Genealogy random = new Genealogy(randomStore, true);
+        Random names = new Random(3);
+        String[] syllables = {"an", "bel", "co", "dra", "el", "fin", "ga", "hol", "is", "jo"};
+        List<String> keys = new ArrayList<>();
+        for(int i=0;i<1500;i++){
+            StringBuilder name = new StringBuilder();
+            for(int word=0;word<2;word++){
+                for(int syllable=0;syllable<2 + names.nextInt(2);syllable++){
+                    name.append(syllables[names.nextInt(syllables.length)]);
+                }
+                name.append(' ');
+            }
+            random.addPerson(name.toString().trim());
+            keys.add(NameIndex.normalize(name.toString()));
+        }
+        for(String query : new String[]{"anco", "elga", "jo", "belfin", "s", "dra is", "oho"}){
+            int expected = 0;
+            for(String key : keys){
+                if(key.contains(query)){
+                    expected++;
+                }
+            }
+            List<PersonIdentity> found = random.searchPeople(query, NameMatch.SUBSTRING, Integer.MAX_VALUE);
+            assertEquals(expected, found.size(), query);
+            for(PersonIdentity person : found){
+                assertTrue(NameIndex.normalize(person.getName()).contains(query), person.getName());
+            }
+        }
+    }
+}
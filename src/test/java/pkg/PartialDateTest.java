@@ -0,0 +1,73 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalDate;
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PartialDateTest {
+
+    private static long day(String date) {
+        return LocalDate.parse(date).toEpochDay();
+    }
+
+    @Test
+    void datesCoverTheDaysOfTheirPrecision() {
+        PartialDate year = PartialDate.parse("1920");
+        assertEquals(PartialDate.Precision.YEAR, year.getPrecision());
+        assertEquals(day("1920-01-01"), year.getFirstDay());
+        assertEquals(day("1920-12-31"), year.getLastDay());
+        assertEquals("1920", year.toString());
+
+        PartialDate month = PartialDate.parse("1920-02");
+        assertEquals(PartialDate.Precision.MONTH, month.getPrecision());
+        assertEquals(day("1920-02-01"), month.getFirstDay());
+        // a leap year
+        assertEquals(day("1920-02-29"), month.getLastDay());
+        assertEquals("1920-02", month.toString());
+
+        PartialDate date = PartialDate.parse("0999-05-10");
+        assertEquals(PartialDate.Precision.DAY, date.getPrecision());
+        assertEquals(date.getFirstDay(), date.getLastDay());
+        assertEquals(LocalDate.of(999, 5, 10), date.getFirstDate());
+        assertEquals("0999-05-10", date.toString());
+    }
+
+    @Test
+    void onlyWholeDatesInTheThreeFormatsParse() {
+        for(String invalid : new String[]{null, "", "192", "19200", "1920-1", "1920-13", "1920-00", "1920/05",
+                "1920-02-30", "1921-02-29", "1920-05-1", "1920-05-10T12", "192a", "1920-0a", " 1920"}){
+            assertNull(PartialDate.parse(invalid), invalid);
+        }
+        assertNotNull(PartialDate.parse("1920-02-29"));
+    }
+
+    @Test
+    void boundsTakeTheFirstAndLastDay() {
+        assertEquals(day("1920-05-01"), PartialDate.startBound("1920-05"));
+        assertEquals(day("1920-05-31"), PartialDate.endBound("1920-05"));
+        assertEquals(day("1920-12-31"), PartialDate.endBound("1920"));
+        assertThrows(IllegalArgumentException.class, () -> PartialDate.startBound("May 1920"));
+        assertThrows(IllegalArgumentException.class, () -> PartialDate.endBound("1920-13"));
+    }
+
+    @Test
+    void datesAreValidatedWhereTheyAreRecordedAndQueried() {
+        Genealogy genealogy = new Genealogy(new InMemoryGenealogyStore(), true);
+        PersonIdentity person = genealogy.addPerson("Dated Person");
+        assertThrows(IllegalArgumentException.class,
+                () -> genealogy.recordAttributes(person, Collections.singletonMap("Date of Death", "1920-02-30")));
+        assertTrue(genealogy.recordAttributes(person, Collections.singletonMap("Date of Death", "1920-02")));
+        // only attribute types containing "date" hold dates
+        assertTrue(genealogy.recordAttributes(person, Collections.singletonMap("death place", "1920-02-30")));
+
+        assertThrows(IllegalArgumentException.class, () -> Genealogy.validateDateRange("1920-13", null));
+        assertThrows(IllegalArgumentException.class, () -> Genealogy.validateDateRange(null, "1920-02-30"));
+        assertThrows(IllegalArgumentException.class, () -> Genealogy.validateDateRange("1921", "1920-12"));
+        // bounds of different precision compare by their first day
+        Genealogy.validateDateRange("1920", "1920-01-01");
+        assertThrows(IllegalArgumentException.class, () -> Genealogy.validateDateRange("1920-06", "1920"));
+    }
+}
@@ -0,0 +1,45 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PhoneticsTest {
+
+    @Test
+    void soundexKeepsTheFirstLetterAndThreeConsonantCodes() {
+        assertEquals("R163", Phonetics.soundex("robert"));
+        assertEquals("R163", Phonetics.soundex("rupert"));
+        assertEquals("R150", Phonetics.soundex("rubin"));
+        // h and w do not separate letters with the same code, vowels do
+        assertEquals("A261", Phonetics.soundex("ashcraft"));
+        assertEquals("T522", Phonetics.soundex("tymczak"));
+        // the first letter's code is not repeated
+        assertEquals("P236", Phonetics.soundex("pfister"));
+        assertEquals("L000", Phonetics.soundex("lee"));
+        assertEquals("", Phonetics.soundex("1901"));
+    }
+
+    @Test
+    void metaphoneGivesNamesThatSoundAlikeTheSameKey() {
+        assertEquals(Phonetics.metaphone("macdonald"), Phonetics.metaphone("mcdonald"));
+        assertEquals(Phonetics.metaphone("knight"), Phonetics.metaphone("night"));
+        assertEquals(Phonetics.metaphone("smith"), Phonetics.metaphone("smyth"));
+        assertEquals(Phonetics.metaphone("philip"), Phonetics.metaphone("filip"));
+        assertEquals(Phonetics.metaphone("catherine"), Phonetics.metaphone("kathryn"));
+        assertNotEquals(Phonetics.metaphone("robert"), Phonetics.metaphone("rupert"));
+        assertEquals("SAFR", Phonetics.metaphone("xavier"));
+        assertEquals("RT", Phonetics.metaphone("wright"));
+        assertEquals("", Phonetics.metaphone("1901"));
+    }
+
+    @Test
+    void editDistanceCountsInsertionsDeletionsAndSubstitutions() {
+        assertEquals(0, Phonetics.editDistance("smith", "smith"));
+        assertEquals(1, Phonetics.editDistance("smith", "smyth"));
+        assertEquals(1, Phonetics.editDistance("macdonald", "mcdonald"));
+        assertEquals(3, Phonetics.editDistance("kitten", "sitting"));
+        assertEquals(5, Phonetics.editDistance("", "smith"));
+        assertEquals(Phonetics.editDistance("sitting", "kitten"), Phonetics.editDistance("kitten", "sitting"));
+    }
+}
@@ -0,0 +1,157 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelationPathTest {
+
+    private InMemoryGenealogyStore store;
+    private Genealogy genealogy;
+    private PersonIdentity grandfather;
+    private PersonIdentity grandmother;
+    private PersonIdentity father;
+    private PersonIdentity aunt;
+    private PersonIdentity child;
+    private PersonIdentity cousin;
+    private PersonIdentity stranger;
+
+    @BeforeEach
+    void createFamily() {
+        store = new InMemoryGenealogyStore();
+        genealogy = new Genealogy(store, true);
+        grandfather = genealogy.addPerson("Path Grandfather");
+        grandmother = genealogy.addPerson("Path Grandmother");
+        father = genealogy.addPerson("Path Father");
+        aunt = genealogy.addPerson("Path Aunt");
+        child = genealogy.addPerson("Path Child");
+        cousin = genealogy.addPerson("Path Cousin");
+        stranger = genealogy.addPerson("Path Stranger");
+        genealogy.recordChild(grandfather, father);
+        genealogy.recordChild(grandmother, father);
+        genealogy.recordChild(grandfather, aunt);
+        genealogy.recordChild(grandmother, aunt);
+        genealogy.recordChild(father, child);
+        genealogy.recordChild(aunt, cousin);
+    }
+
+    private static List<Integer> idList(PersonIdentity... people) {
+        return idList(Arrays.asList(people));
+    }
+
+    private static List<Integer> idList(List<PersonIdentity> people) {
+        List<Integer> ids = new ArrayList<>();
+        for(PersonIdentity person : people){
+            ids.add(person.getPersonId());
+        }
+        return ids;
+    }
+
+    @Test
+    void cousinsAreConnectedThroughTheGrandparentWithTheSmallerId() {
+        RelationPath path = genealogy.findRelationPath(child, cousin);
+
+        assertEquals(idList(child, father, grandfather, aunt, cousin), idList(path.getPath()));
+        assertEquals(grandfather.getPersonId(), path.getCommonAncestor().getPersonId());
+        assertEquals(idList(grandfather, grandmother), idList(path.getCommonAncestors()));
+        assertEquals(2, path.getGenerationsFromPerson1());
+        assertEquals(2, path.getGenerationsFromPerson2());
+        assertEquals("1/0", GenealogyStoreTest.relation(path.getRelation()));
+        assertEquals(child.getPersonId(), path.getPerson1().getPersonId());
+        assertEquals(cousin.getPersonId(), path.getPerson2().getPersonId());
+    }
+
+    @Test
+    void directDescendantsAreTheirOwnCommonAncestor() {
+        RelationPath down = genealogy.findRelationPath(grandmother, child);
+        assertEquals(idList(grandmother, father, child), idList(down.getPath()));
+        assertEquals(idList(grandmother), idList(down.getCommonAncestors()));
+        assertEquals(0, down.getGenerationsFromPerson1());
+        assertEquals(2, down.getGenerationsFromPerson2());
+
+        RelationPath up = genealogy.findRelationPath(cousin, aunt);
+        assertEquals(idList(cousin, aunt), idList(up.getPath()));
+        assertEquals(aunt.getPersonId(), up.getCommonAncestor().getPersonId());
+        assertEquals(1, up.getGenerationsFromPerson1());
+        assertEquals(0, up.getGenerationsFromPerson2());
+
+        RelationPath self = genealogy.findRelationPath(child, child);
+        assertEquals(idList(child), idList(self.getPath()));
+    }
+
+    @Test
+    void unrelatedOrUnknownPeopleHaveNoPath() {
+        assertNull(genealogy.findRelationPath(child, stranger));
+        assertNull(genealogy.findRelationPath(child, new PersonIdentity(9999, "Path Unknown")));
+        assertNull(new Genealogy(store, false).findRelationPath(child, cousin));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.findRelationPath(child, null));
+        assertThrows(IllegalArgumentException.class,
+                () -> genealogy.findRelationPath(child, new PersonIdentity(0, "Path Unsaved")));
+    }
+
+    @Test
+    void pathsOfManyPairsKeepTheirPositions() {
+        PersonIdentity unknown = new PersonIdentity(9999, "Path Unknown");
+        List<RelationPath> paths = genealogy.findRelationPaths(
+                Arrays.asList(child, stranger, unknown, grandmother),
+                Arrays.asList(cousin, child, child, child));
+
+        assertEquals(4, paths.size());
+        assertEquals(idList(genealogy.findRelationPath(child, cousin).getPath()), idList(paths.get(0).getPath()));
+        assertNull(paths.get(1));
+        assertNull(paths.get(2));
+        assertEquals(idList(grandmother, father, child), idList(paths.get(3).getPath()));
+        assertTrue(genealogy.findRelationPaths(Collections.emptyList(), Collections.emptyList()).isEmpty());
+        assertNull(new Genealogy(store, false).findRelationPaths(Collections.singletonList(child),
+                Collections.singletonList(cousin)));
+        assertThrows(IllegalArgumentException.class, () -> genealogy.findRelationPaths(
+                Collections.singletonList(child), Collections.emptyList()));
+    }
+
+    @Test
+    void pathsFollowParentChildLinksAndAgreeWithFindRelation() {
+        InMemoryGenealogyStore pedigreeStore = new InMemoryGenealogyStore();
+        List<PersonIdentity> people = RelationshipEngineTest.randomPedigree(pedigreeStore, 400, 5);
+        Genealogy pedigree = new Genealogy(pedigreeStore, true);
+        Random random = new Random(55);
+        List<PersonIdentity> people1 = new ArrayList<>();
+        List<PersonIdentity> people2 = new ArrayList<>();
+        for(int i=0;i<500;i++){
+            people1.add(people.get(random.nextInt(people.size())));
+            people2.add(people.get(random.nextInt(people.size())));
+        }
+        List<RelationPath> paths = pedigree.findRelationPaths(people1, people2);
+        int related = 0;
+        for(int i=0;i<paths.size();i++){
+            RelationPath path = paths.get(i);
+            BiologicalRelation relation = pedigree.findRelation(people1.get(i), people2.get(i));
+            if(path==null){
+                assertNull(relation);
+                continue;
+            }
+            related++;
+            assertEquals(GenealogyStoreTest.relation(relation), GenealogyStoreTest.relation(path.getRelation()));
+            List<PersonIdentity> steps = path.getPath();
+            assertEquals(path.getGenerationsFromPerson1() + path.getGenerationsFromPerson2() + 1, steps.size());
+            assertEquals(people1.get(i).getPersonId(), steps.get(0).getPersonId());
+            assertEquals(people2.get(i).getPersonId(), steps.get(steps.size()-1).getPersonId());
+            assertEquals(path.getCommonAncestor().getPersonId(),
+                    steps.get(path.getGenerationsFromPerson1()).getPersonId());
+            // up to the common ancestor through parents, then down through children
+            for(int step=1;step<steps.size();step++){
+                PersonIdentity parent = step<=path.getGenerationsFromPerson1() ? steps.get(step) : steps.get(step-1);
+                PersonIdentity descendant = step<=path.getGenerationsFromPerson1() ? steps.get(step-1) : steps.get(step);
+                assertTrue(GenealogyStoreTest.ids(pedigree.ancestors(descendant, 1)).contains(parent.getPersonId()),
+                        path.toString());
+            }
+        }
+        assertTrue(related>100, "related pairs: " + related);
+    }
+}
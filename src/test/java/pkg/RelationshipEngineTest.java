@@ -0,0 +1,125 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RelationshipEngineTest {
+
+    /**
+     * Store a random pedigree in which every person has up to two parents among the people added before them.
+     * @return the people in the order they were added
+     */
+    static List<PersonIdentity> randomPedigree(GenealogyStore store, int people, long seed) {
+        Random random = new Random(seed);
+        List<PersonIdentity> added = new ArrayList<>();
+        try (GenealogyBatch batch = new GenealogyBatch(store, Integer.MAX_VALUE)) {
+            for(int i=0;i<people;i++){
+                PersonIdentity person = batch.addPerson("person " + i);
+                // the first people of every few hundred are founders without parents
+                int parents = i%200<10 ? 0 : 1 + random.nextInt(2);
+                for(int p=0;p<parents;p++){
+                    // parents are mostly recent, so generations are deep and paths meet at different depths
+                    int window = Math.min(i, 60);
+                    batch.recordChild(added.get(i - 1 - random.nextInt(window)), person);
+                }
+                added.add(person);
+            }
+            assertTrue(batch.commit());
+        }
+        return added;
+    }
+
+    @Test
+    void findRelationMatchesTheInMemoryStore() {
+        InMemoryGenealogyStore store = new InMemoryGenealogyStore();
+        List<PersonIdentity> people = randomPedigree(store, 600, 8);
+        Genealogy indexed = new Genealogy(store, true);
+        Genealogy unindexed = new Genealogy(store, false);
+        Random random = new Random(13);
+        int related = 0;
+        for(int i=0;i<3000;i++){
+            PersonIdentity person1 = people.get(random.nextInt(people.size()));
+            PersonIdentity person2 = people.get(random.nextInt(people.size()));
+            String expected = GenealogyStoreTest.relation(unindexed.findRelation(person1, person2));
+            assertEquals(expected, GenealogyStoreTest.relation(indexed.findRelation(person1, person2)),
+                    person1 + " and " + person2);
+            if(expected!=null){
+                related++;
+            }
+        }
+        // the pedigree must exercise the search, not only the unrelated shortcut
+        assertTrue(related>1000, "related pairs: " + related);
+    }
+
+    @Test
+    void findRelationBreaksTiesByTheCloserSide() {
+        InMemoryGenealogyStore store = new InMemoryGenealogyStore();
+        Genealogy genealogy = new Genealogy(store, true);
+        PersonIdentity[] people = new PersonIdentity[8];
+        for(int i=0;i<people.length;i++){
+            people[i] = genealogy.addPerson("tie " + i);
+        }
+        // people[6] and people[7] share people[0] two generations up on both sides, and people[1] is a parent
+        // of people[6] and a great-grandparent of people[7]: the same total distance, but less removed
+        genealogy.recordChild(people[0], people[2]);
+        genealogy.recordChild(people[0], people[3]);
+        genealogy.recordChild(people[2], people[6]);
+        genealogy.recordChild(people[3], people[7]);
+        genealogy.recordChild(people[1], people[6]);
+        genealogy.recordChild(people[1], people[4]);
+        genealogy.recordChild(people[4], people[5]);
+        genealogy.recordChild(people[5], people[7]);
+
+        assertEquals("1/0", GenealogyStoreTest.relation(genealogy.findRelation(people[6], people[7])));
+        assertEquals("1/0", GenealogyStoreTest.relation(genealogy.findRelation(people[7], people[6])));
+        assertEquals("1/0", GenealogyStoreTest.relation(new Genealogy(store, false).findRelation(people[6], people[7])));
+        assertTrue(InMemoryGenealogyStore.isCloser(2, 2, 9, 1, 3, 1));
+        assertTrue(InMemoryGenealogyStore.isCloser(1, 3, 1, 1, 3, 2));
+        assertFalse(InMemoryGenealogyStore.isCloser(2, 3, 1, 2, 2, 9));
+    }
+
+    @Test
+    void findRelationsMatchesFindRelationForEveryPair() {
+        InMemoryGenealogyStore store = new InMemoryGenealogyStore();
+        List<PersonIdentity> people = randomPedigree(store, 2000, 21);
+        Genealogy indexed = new Genealogy(store, true);
+        Genealogy unindexed = new Genealogy(store, false);
+        PersonIdentity loner = indexed.addPerson("matrix loner");
+        // enough people for the rows and the ancestor lookups to be split across the fork/join pool
+        Random random = new Random(34);
+        List<PersonIdentity> selected = new ArrayList<>();
+        for(int i=0;i<250;i++){
+            selected.add(people.get(random.nextInt(people.size())));
+        }
+        selected.add(loner);
+        selected.add(selected.get(0));
+
+        RelationMatrix matrix = indexed.findRelations(selected);
+        RelationMatrix sequential = unindexed.findRelations(selected);
+        assertEquals(matrix.size(), sequential.size());
+        int related = 0;
+        for(int row=0;row<matrix.size();row++){
+            for(int column=row+1;column<matrix.size();column++){
+                PersonIdentity person1 = matrix.getPeople().get(row);
+                PersonIdentity person2 = matrix.getPeople().get(column);
+                String expected = GenealogyStoreTest.relation(unindexed.findRelation(person1, person2));
+                assertEquals(expected, GenealogyStoreTest.relation(matrix.getRelation(row, column)),
+                        person1 + " and " + person2);
+                assertEquals(expected, GenealogyStoreTest.relation(sequential.getRelation(row, column)),
+                        person1 + " and " + person2);
+                assertEquals(expected, GenealogyStoreTest.relation(matrix.getRelation(column, row)));
+                if(expected!=null){
+                    related++;
+                }
+            }
+        }
+        assertEquals(related, matrix.getRelatedPairCount());
+        assertTrue(related>1000, "related pairs: " + related);
+        assertNull(matrix.getRelation(loner, selected.get(0)));
+    }
+}
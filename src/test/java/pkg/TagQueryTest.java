@@ -0,0 +1,97 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TagQueryTest {
+
+    private InMemoryGenealogyStore store;
+    private Genealogy genealogy;
+    private FileIdentifier beach;
+    private FileIdentifier office;
+    private FileIdentifier picnic;
+    private FileIdentifier untagged;
+
+    @BeforeEach
+    void createMedia() {
+        store = new InMemoryGenealogyStore();
+        genealogy = new Genealogy(store, true);
+        beach = media("beach.jpg", "1995-07", "Beach", "1990s");
+        office = media("office.jpg", "1992", "work", "1990S");
+        picnic = media("picnic.jpg", null, "beach", "work");
+        untagged = media("untagged.jpg", "1993");
+    }
+
+    private FileIdentifier media(String location, String date, String... tags) {
+        FileIdentifier file = genealogy.addMediaFile(location);
+        if(date!=null){
+            assertTrue(genealogy.recordMediaAttributes(file, Collections.singletonMap("date", date)));
+        }
+        for(String tag : tags){
+            assertTrue(genealogy.tagMedia(file, tag));
+        }
+        return file;
+    }
+
+    private static List<Integer> ids(Collection<FileIdentifier> files) {
+        List<Integer> ids = new ArrayList<>();
+        for(FileIdentifier file : files){
+            ids.add(file.getMediaId());
+        }
+        return ids;
+    }
+
+    private static List<Integer> ids(FileIdentifier... files) {
+        return ids(Arrays.asList(files));
+    }
+
+    @Test
+    void tagsCombineWithAndOrAndNot() {
+        assertEquals(ids(beach, picnic), ids(genealogy.findMediaByTags(TagQuery.tag("BEACH"), null, null)));
+        assertEquals(ids(beach), ids(genealogy.findMediaByTags(
+                TagQuery.and(TagQuery.tag("beach"), TagQuery.not(TagQuery.tag("work"))), null, null)));
+        assertEquals(ids(beach, office, picnic), ids(genealogy.findMediaByTags(
+                TagQuery.or(TagQuery.tag("beach"), TagQuery.tag("work")), null, null)));
+        // NOT includes media without any tag
+        assertEquals(ids(office, untagged), ids(genealogy.findMediaByTags(TagQuery.not(TagQuery.tag("beach")), null, null)));
+        assertEquals(ids(office), ids(genealogy.findMediaByTags(TagQuery.and(TagQuery.tag("1990s"),
+                TagQuery.or(TagQuery.tag("work"), TagQuery.tag("holiday"))), null, null)));
+        assertTrue(genealogy.findMediaByTags(TagQuery.tag("holiday"), null, null).isEmpty());
+    }
+
+    @Test
+    void dateRangesKeepOnlyDatedMediaInOrderOfDate() {
+        assertEquals(ids(office, beach), ids(genealogy.findMediaByTags(
+                TagQuery.or(TagQuery.tag("beach"), TagQuery.tag("work")), "1990", "1999")));
+        assertEquals(ids(beach), ids(genealogy.findMediaByTags(TagQuery.tag("1990s"), "1995-07-01", null)));
+        assertEquals(ids(office), ids(genealogy.findMediaByTags(TagQuery.tag("1990s"), null, "1992")));
+        assertThrows(IllegalArgumentException.class,
+                () -> genealogy.findMediaByTags(TagQuery.tag("1990s"), "1999", "1990"));
+    }
+
+    @Test
+    void singleTagsAgreeWithTheStore() {
+        Genealogy unindexed = new Genealogy(store, false);
+        for(String tag : new String[]{"beach", "WORK", "1990s", "holiday"}){
+            for(String[] range : new String[][]{{null, null}, {"1990", null}, {null, "1994"}, {"1992", "1995-07"}}){
+                assertEquals(ids(unindexed.findMediaByTag(tag, range[0], range[1])),
+                        ids(genealogy.findMediaByTag(tag, range[0], range[1])), tag + " " + Arrays.toString(range));
+            }
+        }
+        assertNull(unindexed.findMediaByTags(TagQuery.tag("beach"), null, null));
+    }
+
+    @Test
+    void queriesNeedOperands() {
+        assertThrows(IllegalArgumentException.class, () -> TagQuery.tag(" "));
+        assertThrows(IllegalArgumentException.class, TagQuery::and);
+        assertThrows(IllegalArgumentException.class, () -> TagQuery.or(TagQuery.tag("beach"), null));
+        assertThrows(IllegalArgumentException.class, () -> TagQuery.not(null));
+        assertEquals("pkg.TagQuery{('beach' AND NOT ('work' OR 'office'))}", TagQuery.and(TagQuery.tag("beach"),
+                TagQuery.not(TagQuery.or(TagQuery.tag("work"), TagQuery.tag("office")))).toString());
+    }
+}
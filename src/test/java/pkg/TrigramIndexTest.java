@@ -0,0 +1,122 @@
+package pkg;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TrigramIndexTest {
+
+    private static final String[] WORDS = {"halifax", "dartmouth", "truro", "sydney", "wolfville", "lunenburg",
+            "nova scotia", "canada", "main street", "harbour", "park"};
+
+    private static String randomText(Random random) {
+        StringBuilder text = new StringBuilder(WORDS[random.nextInt(WORDS.length)]);
+        for(int i=random.nextInt(3);i>0;i--){
+            text.append(' ').append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return text.toString();
+    }
+
+    @Test
+    void candidatesHaveEveryTrigramOfTheQuery() {
+        TrigramIndex index = new TrigramIndex();
+        index.add(1, "abcd", true);
+        index.add(2, "abc bcd", true);
+        index.add(3, "xyz", true);
+        assertArrayEquals(new int[]{1, 2}, index.candidates("bcd"));
+        // the second has "abc" and "bcd" but not "abcd", which callers check in the text
+        assertArrayEquals(new int[]{1, 2}, index.candidates("abcd"));
+        assertArrayEquals(new int[]{2}, index.candidates("c bc"));
+        assertArrayEquals(new int[0], index.candidates("abx"));
+        assertEquals(2, index.estimate("bcd"));
+        assertEquals(0, index.estimate("abcx"));
+    }
+
+    @Test
+    void bulkLoadedCandidatesAreSortedAndCoverEverySubstring() {
+        Random random = new Random(19);
+        TrigramIndex index = new TrigramIndex();
+        Map<Integer, String> texts = new HashMap<>();
+        // ids in random order, with unicode text so the table grows past its first capacity
+        List<Integer> ids = new ArrayList<>();
+        for(int id=1;id<=3000;id++){
+            ids.add(id);
+        }
+        Collections.shuffle(ids, random);
+        for(int id : ids){
+            String text = randomText(random) + " " + (char) ('\u0400' + random.nextInt(200)) + (char) ('a' + random.nextInt(26));
+            texts.put(id, text);
+            index.add(id, text, false);
+        }
+        index.sort();
+
+        for(int query=0;query<300;query++){
+            String text = texts.get(1 + random.nextInt(texts.size()));
+            int start = random.nextInt(text.length() - TrigramIndex.GRAM + 1);
+            String substring = text.substring(start, Math.min(text.length(), start + TrigramIndex.GRAM + random.nextInt(6)));
+            int[] candidates = index.candidates(substring);
+            for(int i=1;i<candidates.length;i++){
+                assertTrue(candidates[i-1]<candidates[i], substring);
+            }
+            Set<Integer> found = new HashSet<>();
+            for(int id : candidates){
+                found.add(id);
+            }
+            for(Map.Entry<Integer, String> entry : texts.entrySet()){
+                if(entry.getValue().contains(substring)){
+                    assertTrue(found.contains(entry.getKey()), substring + " in " + entry.getValue());
+                }
+            }
+            assertTrue(index.estimate(substring)>=candidates.length);
+        }
+    }
+
+    @Test
+    void locationSearchAgreesWithTheStore() {
+        InMemoryGenealogyStore store = new InMemoryGenealogyStore();
+        Genealogy genealogy = new Genealogy(store, true);
+        Random random = new Random(31);
+        List<FileIdentifier> files = new ArrayList<>();
+        for(int i=0;i<800;i++){
+            FileIdentifier file = genealogy.addMediaFile("location" + i + ".jpg");
+            Map<String, String> attributes = new HashMap<>();
+            attributes.put("location", randomText(random).toUpperCase(Locale.ROOT));
+            if(i%3!=0){
+                attributes.put("date", Integer.toString(1950 + random.nextInt(50)));
+            }
+            assertTrue(genealogy.recordMediaAttributes(file, attributes));
+            files.add(file);
+        }
+        // moved after the index loaded: the old location's trigrams must not find it
+        genealogy.findMediaByLocation("halifax", null, null);
+        assertTrue(genealogy.recordMediaAttributes(files.get(0), Collections.singletonMap("Location", "Antigonish")));
+
+        Genealogy unindexed = new Genealogy(store, false);
+        for(String query : new String[]{"halifax", "Street Halifax", "x", "ax", "nova sc", "antigonish", "montreal",
+                "a main"}){
+            for(String[] range : new String[][]{{null, null}, {"1960", "1975-06"}}){
+                List<Integer> expected = new ArrayList<>();
+                for(FileIdentifier file : unindexed.findMediaByLocation(query, range[0], range[1])){
+                    expected.add(file.getMediaId());
+                }
+                List<Integer> found = new ArrayList<>();
+                for(FileIdentifier file : genealogy.findMediaByLocation(query, range[0], range[1])){
+                    found.add(file.getMediaId());
+                }
+                assertEquals(expected, found, query + " " + Arrays.toString(range));
+            }
+        }
+    }
+
+    @Test
+    void locationsMatchIgnoringAccents() {
+        Genealogy genealogy = new Genealogy(new InMemoryGenealogyStore(), true);
+        FileIdentifier file = genealogy.addMediaFile("montreal.jpg");
+        assertTrue(genealogy.recordMediaAttributes(file, Collections.singletonMap("location", "Montr\u00e9al, Qu\u00e9bec")));
+        assertEquals(1, genealogy.findMediaByLocation("MONTREAL", null, null).size());
+        assertEquals(1, genealogy.findMediaByLocation("qu\u00e9bec", null, null).size());
+        assertTrue(genealogy.findMediaByLocation("montreal quebec", null, null).isEmpty());
+    }
+}
@@ -0,0 +1,155 @@
+package pkg;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.lang.reflect.Proxy;
+import java.sql.*;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class TypeDictionaryTest {
+
+    /**
+     * A one-table database behind a stub Connection, answering the statements TypeDictionary runs.
+     */
+    private static class StubTable {
+        final Map<String, Integer> rows = new LinkedHashMap<>();
+        final List<String> executed = new ArrayList<>();
+        boolean autoCommit = true;
+        final Connection connection = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[]{Connection.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getAutoCommit":
+                            return autoCommit;
+                        case "prepareStatement":
+                            return statement((String) args[0]);
+                        default:
+                            return null;
+                    }
+                });
+
+        int insert(String name) {
+            int id = rows.size() + 1;
+            rows.put(name, id);
+            return id;
+        }
+
+        private PreparedStatement statement(String sql) {
+            String[] parameter = new String[1];
+            int[] generated = {0};
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class<?>[]{PreparedStatement.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "setString":
+                                parameter[0] = (String) args[1];
+                                return null;
+                            case "executeQuery":
+                                executed.add(sql);
+                                List<Object[]> result = new ArrayList<>();
+                                for(Map.Entry<String, Integer> row : rows.entrySet()){
+                                    // like the database collation, ignoring case and accents
+                                    if(parameter[0]==null || NameIndex.fold(row.getKey()).equals(NameIndex.fold(parameter[0]))){
+                                        result.add(new Object[]{row.getValue(), row.getKey()});
+                                    }
+                                }
+                                return resultSet(result);
+                            case "executeUpdate":
+                                executed.add(sql);
+                                for(String name : rows.keySet()){
+                                    if(NameIndex.fold(name).equals(NameIndex.fold(parameter[0]))){
+                                        throw new SQLIntegrityConstraintViolationException("duplicate " + name);
+                                    }
+                                }
+                                generated[0] = insert(parameter[0]);
+                                return 1;
+                            case "getGeneratedKeys":
+                                return resultSet(Collections.singletonList(new Object[]{generated[0]}));
+                            default:
+                                return null;
+                        }
+                    });
+        }
+
+        private static ResultSet resultSet(List<Object[]> rows) {
+            int[] position = {-1};
+            return (ResultSet) Proxy.newProxyInstance(ResultSet.class.getClassLoader(),
+                    new Class<?>[]{ResultSet.class}, (proxy, method, args) -> {
+                        switch (method.getName()) {
+                            case "next":
+                                return ++position[0]<rows.size();
+                            case "getInt":
+                                return (Integer) rows.get(position[0])[0];
+                            case "getString":
+                                return (String) rows.get(position[0])[1];
+                            default:
+                                return null;
+                        }
+                    });
+        }
+    }
+
+    private StubTable table;
+    private TypeDictionary dictionary;
+
+    @BeforeEach
+    void createTable() {
+        table = new StubTable();
+        table.insert("occupation");
+        table.insert("Religi\u00f3n");
+        dictionary = new TypeDictionary("person_attributes_types", "attribute_id", "attribute_type");
+    }
+
+    @Test
+    void theTableIsReadOnceAndMatchedIgnoringCaseAndAccents() throws SQLException {
+        assertEquals(1, dictionary.find(table.connection, "Occupation"));
+        assertEquals(2, dictionary.find(table.connection, "RELIGION"));
+        assertEquals(1, dictionary.find(table.connection, "occupation"));
+        assertEquals(Collections.singletonList("SELECT attribute_id, attribute_type FROM person_attributes_types"),
+                table.executed);
+    }
+
+    @Test
+    void namesAddedByOtherProgramsAreLookedUpAndCached() throws SQLException {
+        assertEquals(0, dictionary.find(table.connection, "height"));
+        // a missing name is looked up every time
+        assertEquals(0, dictionary.find(table.connection, "height"));
+        assertEquals(3, table.executed.size());
+
+        table.insert("height");
+        assertEquals(3, dictionary.find(table.connection, "Height"));
+        assertEquals(3, dictionary.find(table.connection, "height"));
+        assertEquals(4, table.executed.size());
+    }
+
+    @Test
+    void idsReadInsideATransactionAreNotCached() throws SQLException {
+        dictionary.find(table.connection, "occupation");
+        table.autoCommit = false;
+        table.insert("height");
+        assertEquals(3, dictionary.find(table.connection, "height"));
+        assertEquals(3, dictionary.find(table.connection, "height"));
+        assertEquals(3, table.executed.size());
+    }
+
+    @Test
+    void addedNamesAreCachedOnlyOncePut() throws SQLException {
+        dictionary.find(table.connection, "occupation");
+        assertEquals(3, dictionary.add(table.connection, "height"));
+        assertEquals(3, dictionary.find(table.connection, "height"));
+        int executed = table.executed.size();
+        dictionary.put("height", 3);
+        assertEquals(3, dictionary.find(table.connection, "HEIGHT"));
+        assertEquals(executed, table.executed.size());
+    }
+
+    @Test
+    void addingAnExistingNameReturnsItsId() throws SQLException {
+        assertEquals(2, dictionary.add(table.connection, "religion"));
+        assertEquals(2, table.rows.size());
+        // put before the table was read is dropped, the table is read on first use
+        dictionary.put("religion", 2);
+        assertEquals(2, dictionary.find(table.connection, "Religion"));
+    }
+}